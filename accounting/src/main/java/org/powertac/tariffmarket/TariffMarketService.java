@@ -60,6 +60,8 @@ import org.powertac.common.msg.TariffUpdate;
 import org.powertac.common.msg.VariableRateUpdate;
 import org.powertac.common.repo.BrokerRepo;
 import org.powertac.common.repo.RandomSeedRepo;
+import org.powertac.common.repo.TariffCostCache;
+import org.powertac.common.repo.TariffPriceTableRepo;
 import org.powertac.common.repo.TariffRepo;
 import org.powertac.common.repo.TariffSubscriptionRepo;
 import org.powertac.common.repo.TimeslotRepo;
@@ -105,6 +107,12 @@ public class TariffMarketService
   
   @Autowired
   private TariffSubscriptionRepo tariffSubscriptionRepo;
+
+  @Autowired
+  private TariffPriceTableRepo tariffPriceTableRepo;
+
+  @Autowired
+  private TariffCostCache tariffCostCache;
   
   @Autowired
   private ServerConfiguration serverProps;
@@ -636,6 +644,8 @@ public class TariffMarketService
     revokedTariffs = pending;
     for (Tariff tariff : pending) {
       tariff.setState(Tariff.State.KILLED);
+      tariffPriceTableRepo.remove(tariff);
+      tariffCostCache.remove(tariff);
       log.info("Revoke tariff " + tariff.getId());
       // Notify all brokers - issue #719
       TariffRevoke msg = new TariffRevoke(tariff.getBroker(),
@@ -701,6 +711,8 @@ public class TariffMarketService
       // time to publish or never published
       revokeTariffsForDisabledBrokers();
       updateRevokedTariffs();
+      // customers evaluate the new tariffs against fresh forecasts
+      tariffCostCache.clear();
       publishTariffs();
       //removeRevokedTariffs();
       processPendingSubscriptions();
@@ -717,6 +729,8 @@ public class TariffMarketService
     log.info("publishing " + publishedTariffs.size() + " new tariffs");
     for (Tariff tariff : publishedTariffs) {
       tariff.setState(Tariff.State.OFFERED);
+      // rates are fixed from now on, unless variable
+      tariffPriceTableRepo.compile(tariff, timeService.getCurrentTime());
     }
 
     List<TariffSpecification> publishedTariffSpecs = new ArrayList<>();
@@ -751,6 +765,10 @@ public class TariffMarketService
   public boolean setDefaultTariff (TariffSpecification newSpec)
   {
     tariffRepo.setDefaultTariff(newSpec);
+    Tariff tariff = tariffRepo.findTariffById(newSpec.getId());
+    if (null != tariff) {
+      tariffPriceTableRepo.compile(tariff, timeService.getCurrentTime());
+    }
     return true;
   }
   
@@ -826,6 +844,10 @@ public class TariffMarketService
     for (VariableRateUpdate vru: getVruList()) {
       Tariff tariff = tariffRepo.findTariffById(vru.getTariffId());
       if (tariff.addHourlyCharge(vru.getHourlyCharge(), vru.getRateId())) {
+        // the new hourly charge changes the prices of the hours it holds for
+        tariffPriceTableRepo.addHourlyCharge(tariff, vru.getRateId(),
+                                             vru.getHourlyCharge());
+        tariffCostCache.remove(tariff);
         success(vru);
       }
       else {
@@ -27,6 +27,7 @@ import org.joda.time.Instant;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.AdditionalMatchers;
 
 import org.powertac.common.Broker;
 import org.powertac.common.Competition;
@@ -40,6 +41,7 @@ import org.powertac.common.TimeService;
 import org.powertac.common.enumerations.PowerType;
 import org.powertac.common.interfaces.Accounting;
 import org.powertac.common.msg.TariffRevoke;
+import org.powertac.common.repo.TariffPriceTableRepo;
 import org.powertac.common.repo.TariffSubscriptionRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
@@ -67,6 +69,9 @@ public class TariffSubscriptionTests
   @Autowired
   private TariffSubscriptionRepo tariffSubscriptionRepo;
 
+  @Autowired
+  private TariffPriceTableRepo tariffPriceTableRepo;
+
   @Autowired
   private Accounting mockAccounting;
   
@@ -279,6 +284,49 @@ public class TariffSubscriptionTests
     //assertEquals("correct amount", 32.8, ttx.quantity)
     //assertEquals("correct charge", 0.121 * 32.8, ttx.charge, 1e-6)
   }
+
+  // Consumption charged from the compiled prices of a time-of-use tariff
+  @Test
+  public void testConsumptionFromPriceTable ()
+  {
+    Instant exp = now.plus(TimeService.WEEK * 10);
+    TariffSpecification tariffSpec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .withExpiration(exp)
+            .addRate(new Rate().withValue(-0.09).withDailyBegin(0).withDailyEnd(2))
+            .addRate(new Rate().withValue(-0.15).withDailyBegin(3).withDailyEnd(23));
+    tariff = new Tariff(tariffSpec);
+    tariff.init();
+    assertNotNull("compiled", tariffPriceTableRepo.compile(tariff, now));
+    // the subscription must not resolve the rates of the tariff it charges
+    Tariff charged = spy(tariff);
+
+    tariffMarketService.subscribeToTariff(charged, customer, 4);
+    tariffMarketService.activate(now, 4);
+    TariffSubscription tsub =
+            tariffSubscriptionRepo.findSubscriptionForTariffAndCustomer(charged, customer);
+    double usage = 0.0;
+    double cost = 0.0;
+    for (int hour = 0; hour < 6; hour++) {
+      Instant time = now.plus(TimeService.HOUR * hour);
+      timeService.setCurrentTime(time);
+      double kwh = 20.0 + hour;
+      double charge = tariff.getUsageCharge(time, kwh / 4, 0.0);
+      tsub.usePower(kwh);
+      verify(mockAccounting).addTariffTransaction(eq(TariffTransaction.Type.CONSUME),
+                                                  eq(charged), eq(customer),
+                                                  eq(4),
+                                                  AdditionalMatchers.eq(-kwh, 1e-9),
+                                                  AdditionalMatchers.eq(-charge * 4, 1e-9));
+      usage += kwh / 4;
+      cost += charge;
+    }
+    verify(charged, never()).getUsageCharge(anyDouble(), anyDouble(), anyBoolean());
+    verify(charged, never()).getUsageCharge(any(Instant.class), anyDouble(), anyDouble());
+    // usage is still recorded on the tariff
+    assertEquals("correct realized price", cost / usage,
+                 charged.getRealizedPrice(), 1e-6);
+  }
   
   // Check two-part tariff
   @Test
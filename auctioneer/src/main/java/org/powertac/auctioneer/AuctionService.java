@@ -186,6 +186,25 @@ public class AuctionService
     }
   }
 
+  /**
+   * Receives, validates, and queues a batch of Orders, as handleMessage()
+   * does for each of them, taking the queue lock once. Used when a
+   * broker-like entity routes all of its orders for a timeslot at once.
+   */
+  public void handleMessages (List<Order> msgs)
+  {
+    List<Order> valid = new ArrayList<Order>(msgs.size());
+    for (Order msg : msgs) {
+      if (validateOrder(msg)) {
+        valid.add(msg);
+        log.info("Received " + msg.toString());
+      }
+    }
+    synchronized(incoming) {
+      incoming.addAll(valid);
+    }
+  }
+
   public boolean validateOrder (Order order)
   {
     if (order.getMWh().equals(Double.NaN) ||
@@ -234,6 +234,21 @@ public class AuctionServiceTests
     assertEquals("one order received", 1, svc.getIncoming().size());
   }
 
+  // a batch is validated order by order, and queued in its order
+  @Test
+  public void testReceiveMessages ()
+  {
+    competition.withMinimumOrderQuantity(0.1);
+    List<Order> batch = new ArrayList<Order>();
+    batch.add(new Order(s1, ts1.getSerialNumber(), -1.0, 20.0));
+    batch.add(new Order(s1, ts2.getSerialNumber(), -0.05, 21.0));
+    batch.add(new Order(s1, ts2.getSerialNumber(), -2.0, 22.0));
+    svc.handleMessages(batch);
+    assertEquals("two orders received", 2, svc.getIncoming().size());
+    assertEquals(batch.get(0), svc.getIncoming().get(0));
+    assertEquals(batch.get(2), svc.getIncoming().get(1));
+  }
+
   @Test
   public void testValidateOrder ()
   {
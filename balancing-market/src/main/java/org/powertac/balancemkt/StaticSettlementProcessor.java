@@ -16,10 +16,14 @@
 package org.powertac.balancemkt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -118,11 +122,11 @@ public class StaticSettlementProcessor extends SettlementProcessor
     SortedSet<BOWrapper> nonExercised = determineNonExercisedSet(candidates);
 
     // compute VCG charges (p_2) by broker.
-    HashSet<ChargeInfo> nonParticipants = new HashSet<ChargeInfo>(); 
+    SupplyCurve curve =
+        new SupplyCurve(totalImbalance, candidates, nonExercised,
+                        Collections.<ChargeInfo>emptySet());
     for (ChargeInfo info: brokerData) {
-      info.setBalanceChargeP2(computeVcgCharges(info, totalImbalance,
-                                                candidates, nonExercised,
-                                                nonParticipants));
+      info.setBalanceChargeP2(curve.computeVcgCharge(info));
     }
 
     // Determine imbalance payments (p_1) for each broker.
@@ -310,57 +314,6 @@ public class StaticSettlementProcessor extends SettlementProcessor
     return candidates.tailSet(lastExercised);
   }
 
-  // Computes VCG charge (p_2) for a broker represented by target,
-  // by integrating the area under the non-exercised offers up to the
-  // exercised quantity of balancing orders from target.
-  // Offers from the nonParticipants set are excluded
-  private double computeVcgCharges (ChargeInfo target,
-                                    double totalImbalance,
-                                    SortedSet<BOWrapper> candidates,
-                                    SortedSet<BOWrapper> nonExercised,
-                                    Set<ChargeInfo> nonParticipants)
-  {
-    // compute capacity (remainingQty) offered by nonParticipants
-    double targetRemainingQty = 0;
-    double sgn = Math.signum(totalImbalance);
-    for (BOWrapper bow : candidates) {
-      if (bow.availableCapacity != 0.0 && 0.0 == bow.exercisedCapacity)
-        break;
-      if (target == bow.info)
-        targetRemainingQty += bow.exercisedCapacity;
-      if (Math.abs(bow.availableCapacity - bow.exercisedCapacity) > 0.0)
-        // stop on the last one
-        break;
-    }
-    // compute price if this capacity is retrieved from other brokers
-    double price = 0;
-    nonParticipants.add(target);
-    //double rmQty = 0.0;
-    //double rmMarginalPrice = 0.0;
-
-    for (BOWrapper nextNonExercised: nonExercised) {
-      if (Math.abs(targetRemainingQty) < epsilon)
-        break;
-      else if (!(nonParticipants.contains(nextNonExercised.info))) {
-        double avail =
-          (nextNonExercised.availableCapacity
-              - nextNonExercised.exercisedCapacity);
-        double used = sgn * Math.max(sgn * avail, sgn * targetRemainingQty);
-        price += sgn * nextNonExercised.getTotalNECost(used);
-        targetRemainingQty -= used;
-        log.debug("  VCG cost part of "
-                  + nextNonExercised.getTotalNECost(used) + " for " + used
-                  + " kWh at " + nextNonExercised.price);
-      }
-    }
-    //price -= rmQty * rmMarginalPrice;
-    nonParticipants.remove(target);
-    if(Math.abs(targetRemainingQty) > epsilon)
-      log.error("Not enough orders to compute VCG price.");
-    log.debug("VCG price" + " is " + price );
-    return -price; // result is positive for credit to the broker
-  }
-
   // Computes imbalance costs for each broker. This is
   //    VCG(C,X)/X * x
   // where
@@ -425,12 +378,13 @@ public class StaticSettlementProcessor extends SettlementProcessor
       // vcg payments for each of the other brokers. For contributors, we
       // do not include offers from non-contributors
       double imbalanceCost = rpCost;
+      SupplyCurve curve =
+          new SupplyCurve(totalImbalance, remains, nonExercised,
+                          nonContributors);
       // include only the contributors
       for (ChargeInfo target : contributors) {
         if (target != broker) {
-          imbalanceCost -= computeVcgCharges(target, totalImbalance,
-                                             remains, nonExercised,
-                                             nonContributors);
+          imbalanceCost -= curve.computeVcgCharge(target);
         }
       }
       nonContributors.remove(broker);
@@ -450,13 +404,11 @@ public class StaticSettlementProcessor extends SettlementProcessor
       double imbalanceCost = findRpCost(remains);
 
       // include all other brokers
+      SupplyCurve curve =
+          new SupplyCurve(totalImbalance, remains, nonExercised, excludes);
       for (ChargeInfo target : brokerData) {
         if (target != info) {
-          excludes.add(target);
-          imbalanceCost -= computeVcgCharges(target, totalImbalance,
-                                             remains, nonExercised,
-                                             excludes);
-          excludes.remove(target);
+          imbalanceCost -= curve.computeVcgCharge(target);
         }
       }
       excludes.remove(info);
@@ -522,6 +474,164 @@ public class StaticSettlementProcessor extends SettlementProcessor
     }
   }
 
+  // Non-exercised part of the merit order, with prefix sums of its
+  // capacity and cost. The VCG charge for a broker is the cost of replacing
+  // its exercised capacity with the cheapest non-exercised offers of the
+  // other brokers. Rather than walking the offers once per broker, prefix
+  // sums are kept for the whole curve and for each broker's own offers;
+  // the curve without a broker is their difference, and the point at which
+  // it covers the broker's exercised capacity is found by binary search.
+  // Offers from nonParticipants are left out of the curve entirely.
+  class SupplyCurve
+  {
+    private double sgn;
+    private Map<ChargeInfo, Double> exercised =
+        new HashMap<ChargeInfo, Double>();
+    private Map<ChargeInfo, OwnOffers> ownOffers =
+        new HashMap<ChargeInfo, OwnOffers>();
+
+    // offers[k] has residual capacity qty[k], as a magnitude; cumQty[k]
+    // and cumCost[k] are the totals over offers 0..k-1
+    private BOWrapper[] offers;
+    private double[] qty;
+    private double[] cumQty;
+    private double[] cumCost;
+    private int count = 0;
+
+    SupplyCurve (double totalImbalance,
+                 SortedSet<BOWrapper> candidates,
+                 SortedSet<BOWrapper> nonExercised,
+                 Set<ChargeInfo> nonParticipants)
+    {
+      sgn = Math.signum(totalImbalance);
+
+      // exercised capacity by broker
+      for (BOWrapper bow : candidates) {
+        if (bow.availableCapacity != 0.0 && 0.0 == bow.exercisedCapacity)
+          break;
+        Double sum = exercised.get(bow.info);
+        exercised.put(bow.info, (null == sum ? 0.0 : sum)
+                                + bow.exercisedCapacity);
+        if (Math.abs(bow.availableCapacity - bow.exercisedCapacity) > 0.0)
+          // stop on the last one
+          break;
+      }
+
+      // prefix sums over the non-exercised offers
+      int size = nonExercised.size();
+      offers = new BOWrapper[size];
+      qty = new double[size];
+      cumQty = new double[size + 1];
+      cumCost = new double[size + 1];
+      for (BOWrapper bow : nonExercised) {
+        if (nonParticipants.contains(bow.info))
+          continue;
+        double avail = bow.availableCapacity - bow.exercisedCapacity;
+        double cost = sgn * bow.getTotalNECost(avail);
+        offers[count] = bow;
+        qty[count] = -sgn * avail;
+        cumQty[count + 1] = cumQty[count] + qty[count];
+        cumCost[count + 1] = cumCost[count] + cost;
+        if (null != bow.info) {
+          OwnOffers own = ownOffers.get(bow.info);
+          if (null == own) {
+            own = new OwnOffers();
+            ownOffers.put(bow.info, own);
+          }
+          own.add(count, qty[count], cost);
+        }
+        count += 1;
+      }
+    }
+
+    // Computes VCG charge (p_2) for the broker represented by target, by
+    // integrating the area under the non-exercised offers of other brokers
+    // up to the exercised quantity of balancing orders from target.
+    double computeVcgCharge (ChargeInfo target)
+    {
+      Double exercisedQty = exercised.get(target);
+      double targetQty = (null == exercisedQty) ? 0.0 : -sgn * exercisedQty;
+      double remainingQty = targetQty;
+      double price = 0.0;
+      if (Math.abs(targetQty) >= epsilon) {
+        OwnOffers own = ownOffers.get(target);
+        // find the first offer at which the others' capacity covers
+        // targetQty; count + 1 means it is never covered
+        int lo = 1;
+        int hi = count + 1;
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (othersQty(own, mid) > targetQty - epsilon)
+            hi = mid;
+          else
+            lo = mid + 1;
+        }
+        if (lo > count) {
+          price = othersCost(own, count);
+          remainingQty = targetQty - othersQty(own, count);
+        }
+        else {
+          // all offers before the last one are used completely
+          int last = lo - 1;
+          double before = othersQty(own, last);
+          double used = Math.min(qty[last], targetQty - before);
+          price = othersCost(own, last)
+              + sgn * offers[last].getTotalNECost(-sgn * used);
+          remainingQty = targetQty - before - used;
+        }
+      }
+      if (Math.abs(remainingQty) > epsilon)
+        log.error("Not enough orders to compute VCG price.");
+      log.debug("VCG price" + " is " + price );
+      return -price; // result is positive for credit to the broker
+    }
+
+    // capacity of the first k offers, excluding those from own
+    private double othersQty (OwnOffers own, int k)
+    {
+      if (null == own)
+        return cumQty[k];
+      return cumQty[k] - own.cumQty[own.countBefore(k)];
+    }
+
+    // cost of the first k offers, excluding those from own
+    private double othersCost (OwnOffers own, int k)
+    {
+      if (null == own)
+        return cumCost[k];
+      return cumCost[k] - own.cumCost[own.countBefore(k)];
+    }
+  }
+
+  // Positions and prefix sums of a single broker's offers in a SupplyCurve
+  private static class OwnOffers
+  {
+    int count = 0;
+    int[] index = new int[4];
+    double[] cumQty = new double[5];
+    double[] cumCost = new double[5];
+
+    void add (int position, double qty, double cost)
+    {
+      if (count == index.length) {
+        index = Arrays.copyOf(index, 2 * count);
+        cumQty = Arrays.copyOf(cumQty, 2 * count + 1);
+        cumCost = Arrays.copyOf(cumCost, 2 * count + 1);
+      }
+      index[count] = position;
+      cumQty[count + 1] = cumQty[count] + qty;
+      cumCost[count + 1] = cumCost[count] + cost;
+      count += 1;
+    }
+
+    // number of offers at positions before position
+    int countBefore (int position)
+    {
+      int result = Arrays.binarySearch(index, 0, count, position);
+      return (result >= 0) ? result : -result - 1;
+    }
+  }
+
   // wrapper class for tracking order status
   class BOWrapper implements Cloneable
   {
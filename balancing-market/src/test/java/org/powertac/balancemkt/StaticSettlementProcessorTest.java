@@ -20,12 +20,19 @@ import static org.mockito.Mockito.*;
 import static org.mockito.AdditionalMatchers.*;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.powertac.balancemkt.ChargeInfo;
 import org.powertac.balancemkt.SettlementContext;
 import org.powertac.balancemkt.StaticSettlementProcessor;
+import org.powertac.balancemkt.StaticSettlementProcessor.BOWrapper;
+import org.powertac.balancemkt.StaticSettlementProcessor.SupplyCurve;
 import org.powertac.common.Broker;
 import org.powertac.common.Rate;
 import org.powertac.common.RegulationAccumulator;
@@ -876,6 +883,106 @@ public class StaticSettlementProcessorTest
     assertEquals("b2.p1", -0.603, ci2.getBalanceChargeP1(), 1e-6);
   }
 
+  // Randomized parity of the prefix-sum VCG computation against a walk
+  // over the non-exercised offers, as settle() did before SupplyCurve.
+  @Test
+  public void testSupplyCurveParity ()
+  {
+    Random rnd = new Random(20140512L);
+    Broker[] brokers = {b1, b2, b3, b4};
+    TariffSpecification[] specs = {spec1, spec2, spec3, spec4};
+    for (int trial = 0; trial < 500; trial++) {
+      double totalImbalance = (rnd.nextBoolean() ? 1.0 : -1.0)
+          * (1.0 + 100.0 * rnd.nextDouble());
+      double sgn = Math.signum(totalImbalance);
+      ChargeInfo[] infos = new ChargeInfo[brokers.length];
+      TreeSet<BOWrapper> candidates =
+          new TreeSet<BOWrapper>(uut.new BOComparator());
+      for (int i = 0; i < brokers.length; i++) {
+        infos[i] = new ChargeInfo(brokers[i], 0.0);
+        int orders = rnd.nextInt(6);
+        for (int j = 0; j < orders; j++) {
+          double price = 0.01 + 0.1 * rnd.nextDouble();
+          BalancingOrder bo =
+              new BalancingOrder(brokers[i], specs[i], -sgn * 0.5, price);
+          BOWrapper bow = uut.new BOWrapper(infos[i], bo);
+          bow.availableCapacity = -sgn * 30.0 * rnd.nextDouble();
+          candidates.add(bow);
+        }
+      }
+      // regulating market, split in two segments when it has a slope
+      double slope = rnd.nextBoolean() ? 0.0 : 0.001 * rnd.nextDouble();
+      double split = -sgn * Math.abs(totalImbalance) * rnd.nextDouble();
+      double price = 0.05 + 0.1 * rnd.nextDouble();
+      candidates.add(uut.new BOWrapper(split, price, slope, 0.0));
+      candidates.add(uut.new BOWrapper(-2.0 * totalImbalance - split,
+                                       price + 0.05, slope, split));
+
+      // exercise the cheapest offers
+      double remaining = totalImbalance;
+      for (BOWrapper bow : candidates) {
+        if (sgn * remaining <= 0.0)
+          break;
+        double exercise = Math.min(sgn * remaining,
+                                   -sgn * bow.availableCapacity);
+        bow.exercisedCapacity = -sgn * exercise;
+        remaining -= sgn * exercise;
+      }
+      SortedSet<BOWrapper> nonExercised =
+          uut.determineNonExercisedSet(candidates);
+
+      for (int excluded = -1; excluded < infos.length; excluded++) {
+        Set<ChargeInfo> nonParticipants = new HashSet<ChargeInfo>();
+        if (excluded >= 0)
+          nonParticipants.add(infos[excluded]);
+        SupplyCurve curve =
+            uut.new SupplyCurve(totalImbalance, candidates, nonExercised,
+                                nonParticipants);
+        for (ChargeInfo target : infos) {
+          if (nonParticipants.contains(target))
+            continue;
+          double expected =
+              scanVcgCharge(target, totalImbalance, candidates,
+                            nonExercised, nonParticipants);
+          assertEquals("trial " + trial + ", " + target.getBrokerName(),
+                       expected, curve.computeVcgCharge(target),
+                       1e-9 * (1.0 + Math.abs(expected)));
+        }
+      }
+    }
+  }
+
+  // Reference VCG computation, walking the offers for each broker
+  private double scanVcgCharge (ChargeInfo target, double totalImbalance,
+                                SortedSet<BOWrapper> candidates,
+                                SortedSet<BOWrapper> nonExercised,
+                                Set<ChargeInfo> nonParticipants)
+  {
+    double epsilon = 1e-6;
+    double targetRemainingQty = 0;
+    double sgn = Math.signum(totalImbalance);
+    for (BOWrapper bow : candidates) {
+      if (bow.availableCapacity != 0.0 && 0.0 == bow.exercisedCapacity)
+        break;
+      if (target == bow.info)
+        targetRemainingQty += bow.exercisedCapacity;
+      if (Math.abs(bow.availableCapacity - bow.exercisedCapacity) > 0.0)
+        break;
+    }
+    double price = 0;
+    for (BOWrapper next : nonExercised) {
+      if (Math.abs(targetRemainingQty) < epsilon)
+        break;
+      else if (next.info != target && !nonParticipants.contains(next.info)) {
+        double avail = next.availableCapacity - next.exercisedCapacity;
+        double used = sgn * Math.max(sgn * avail, sgn * targetRemainingQty);
+        price += sgn * next.getTotalNECost(used);
+        targetRemainingQty -= used;
+      }
+    }
+    return -price;
+  }
+
   // --------------------------------------------------------
 
   class MockSettlementContext implements SettlementContext
@@ -46,10 +46,6 @@ import org.powertac.common.state.Domain;
 import org.powertac.common.state.StateChange;
 import org.powertac.customer.AbstractCustomer;
 
-import com.joptimizer.optimizers.LPOptimizationRequest;
-import com.joptimizer.optimizers.LPPrimalDualMethod;
-import com.joptimizer.optimizers.OptimizationResponse;
-
 /**
  * Models the complement of lift trucks in a warehouse. There may be
  * multiple trucks, some number of battery packs, and a daily/weekly work
@@ -148,6 +144,10 @@ implements CustomerModelAccessor
   // context references
   private TariffEvaluator tariffEvaluator;
 
+  // charging plans, cached by normalized prices and energy needs
+  private static final int PLAN_CACHE_SIZE = 32;
+  private StaircasePlanner planner = null;
+
   /**
    * Default constructor, requires manual setting of name
    */
@@ -553,6 +553,14 @@ implements CustomerModelAccessor
     return result;
   }
 
+  StaircasePlanner getPlanner ()
+  {
+    if (null == planner) {
+      planner = new StaircasePlanner(PLAN_CACHE_SIZE);
+    }
+    return planner;
+  }
+
   CapacityPlan getCapacityPlan(Tariff tariff, Instant start, int size)
   {
     CapacityPlan result = new CapacityPlan(tariff, start, size);
@@ -1343,7 +1351,7 @@ implements CustomerModelAccessor
     }
   }
 
-  // Creates a plan using the JOptimizer LP solver, gives access to
+  // Creates a plan using the staircase LP solver, gives access to
   // solution and slack values
   class LpPlan
   {
@@ -1373,7 +1381,8 @@ implements CustomerModelAccessor
       // x is energy use per block for size hours, b is slack var per block.
       // Block is a shift, or portion of shift with constant price.
       // For multi-hour blocks, energy use is evenly distributed across hours
-      // after solution.
+      // after solution. Row i of a is the cumulative usage through shift i,
+      // so the problem is solved as a min-cost flow by StaircasePlanner.
       Date start = new Date();
       int shifts = needs.length;
       
@@ -1383,83 +1392,52 @@ implements CustomerModelAccessor
       int columns = blocks.length;
       int blockIndex = -1;
       
-      double[] obj = new double[columns + shifts];
-      double[][] a = new double[shifts][columns + shifts];
-      double[] b = new double[shifts];
-      double[] lb = new double[columns + shifts];
-      double[] ub = new double[columns + shifts];
+      double[] obj = new double[columns];
+      double[] ub = new double[columns];
+      int[] shiftEnd = new int[shifts];
+      double[] cumulativeMin = new double[shifts];
+      double[] slackMax = new double[shifts];
       int column = 0;
-      double cumulativeMin = 0.0; // this is the primary constraint
+      double cumulative = 0.0; // this is the primary constraint
       // construct the problem
       for (int i = 0; i < shifts; i++) {
         // one iteration per shift
-        //double kwh =
-        //    needs[i].getEnergyNeeded() + needs[i].getMaxSurplus();
-        //for (int j = 0; j < needs[i].getDuration(); j++) {
         while ((blockIndex < blocks.length - 1) &&
                 (blocks[blockIndex + 1].getShiftEnergy() == needs[i])) {
           blockIndex += 1;
           // one iteration per block within a shift
           // fill in objective function
           obj[column] = blocks[blockIndex].getCost();
-          lb[column] = 0.0;
           ub[column] =
                   (needs[i].getEnergyNeeded() + needs[i].getMaxSurplus())
                   * (double)blocks[blockIndex].getDuration() / needs[i].getDuration();
           column += 1;
-          // construct cumulative usage constraints
-          //a[i][column] = -1.0;
-          //time = time.plus(TimeService.HOUR);
-        }
-        // fill a row up to column
-        for (int j = 0; j < column; j++) {
-          a[i][j] = -1.0;
         }
-        // b vector - one entry per constraint
+        shiftEnd[i] = column;
+        // cumulative minimum through the end of this shift
         double need = needs[i].getEnergyNeeded();
         if (needs[i].getMaxSurplus() < 0.0)
           need += needs[i].getMaxSurplus();
-        cumulativeMin += need;
-        b[i] = -cumulativeMin;
-        // fill in slack values, one per constraint
-        obj[columns + i] = 0.0;
-        a[i][columns + i] = 1.0;
-        lb[columns + i] = 0.0;
-        // upper bound is max possible energy for shift
-        ub[columns + i] =
+        cumulative += need;
+        cumulativeMin[i] = cumulative;
+        // slack upper bound is max possible energy for shift
+        slackMax[i] =
             (needs[i].getEnergyNeeded() + needs[i].getMaxSurplus());
       }
-      // run the optimization
-      LPOptimizationRequest or = new LPOptimizationRequest();
       log.debug("Obj: " + Arrays.toString(obj));
-      or.setC(obj);
-      log.debug("a:");
-      for (int i = 0; i < a.length; i++)
-        log.debug(Arrays.toString(a[i]));
-      or.setA(a);
-      log.debug("b: " + Arrays.toString(b));
-      or.setB(b);
-      or.setLb(lb);
       log.debug("ub: " + Arrays.toString(ub));
-      or.setUb(ub);
-      or.setTolerance(1.0e-2);
-      LPPrimalDualMethod opt = new LPPrimalDualMethod();
-      opt.setLPOptimizationRequest(or);
-      try {
-        int returnCode = opt.optimize();
-        if (returnCode != OptimizationResponse.SUCCESS) {
-          log.error(getName() + "bad optimization return code " + returnCode);
-        }
-        double[] sol = opt.getOptimizationResponse().getSolution();
-        Date end = new Date();
-        log.info("Solution time: " + (end.getTime() - start.getTime()));
-        log.debug("Solution = " + Arrays.toString(sol));
-        recordSolution(sol, blocks);
-      }
-      catch (Exception e) {
-        log.error(e.toString());
+      log.debug("min: " + Arrays.toString(cumulativeMin));
+      double[] sol =
+          getPlanner().solve(obj, ub, shiftEnd, cumulativeMin, slackMax);
+      if (null == sol) {
+        // cannot meet the needs; charge as fast as possible
+        log.error(getName() + " infeasible charging plan, using max charge");
+        sol = Arrays.copyOf(ub, columns + shifts);
       }
-      // we call it solved whether or not the solution was successful
+      Date end = new Date();
+      log.info("Solution time: " + (end.getTime() - start.getTime()));
+      log.debug("Solution = " + Arrays.toString(sol));
+      recordSolution(sol, blocks);
       solved = true;
     }
 
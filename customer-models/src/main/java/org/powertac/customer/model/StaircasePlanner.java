@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.customer.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solves the cumulative-energy charging problem formulated by
+ * LiftTruck.LpPlan. There is one column per constant-price block, grouped
+ * into consecutive shifts, and one slack variable per shift:
+ * <pre>
+ *   min sum(cost[k] * x[k])
+ *   s.t. 0 &lt;= x[k] &lt;= ub[k]
+ *        sum(x[k], k in shifts 0..i) = cumulativeMin[i] + slack[i]
+ *        0 &lt;= slack[i] &lt;= slackMax[i]
+ * </pre>
+ * The constraint matrix is a staircase, so the problem is a min-cost flow
+ * along a path: blocks feed their shift node, and the flow from shift i to
+ * shift i+1 is the cumulative usage, bounded by the constraint on shift i.
+ * It is solved exactly by successive shortest paths, which takes a few
+ * microseconds for a week-long plan. Among solutions of equal cost, energy
+ * is used as early as possible.
+ *
+ * Solutions are cached by the normalized price vector together with the
+ * constraint data, so tariffs whose prices differ only by a positive scale
+ * factor share a plan.
+ */
+final class StaircasePlanner
+{
+  // flows below this are treated as zero
+  private static final double EPSILON = 1e-9;
+
+  // per-column cost increment that prefers early usage among ties
+  private static final double TIE_BREAK = 1e-9;
+
+  private final int cacheSize;
+  private final Map<Key, double[]> cache;
+  private int hits = 0;
+  private int misses = 0;
+
+  StaircasePlanner (final int cacheSize)
+  {
+    super();
+    this.cacheSize = cacheSize;
+    cache = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<Key, double[]> eldest)
+      {
+        return size() > StaircasePlanner.this.cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the block usage followed by the slack for each shift, in the
+   * same layout as the LP solution vector, or null if the constraints
+   * cannot be satisfied. shiftEnd[i] is the index of the first column
+   * after shift i.
+   */
+  double[] solve (double[] cost, double[] ub, int[] shiftEnd,
+                  double[] cumulativeMin, double[] slackMax)
+  {
+    Key key = new Key(normalize(cost), ub, shiftEnd, cumulativeMin, slackMax);
+    double[] result = cache.get(key);
+    if (null == result) {
+      misses += 1;
+      result = solveFlow(key.cost, ub, shiftEnd, cumulativeMin, slackMax);
+      if (null == result) {
+        return null;
+      }
+      cache.put(key, result);
+    }
+    else {
+      hits += 1;
+    }
+    return Arrays.copyOf(result, result.length);
+  }
+
+  int getCacheHits ()
+  {
+    return hits;
+  }
+
+  int getCacheMisses ()
+  {
+    return misses;
+  }
+
+  // Scales costs so the largest magnitude is one. Positive scaling does
+  // not change the optimal plan.
+  static double[] normalize (double[] cost)
+  {
+    double scale = 0.0;
+    for (double c : cost) {
+      scale = Math.max(scale, Math.abs(c));
+    }
+    double[] result = Arrays.copyOf(cost, cost.length);
+    if (scale > 0.0) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] /= scale;
+      }
+    }
+    return result;
+  }
+
+  // Uncached solution
+  static double[] solveFlow (double[] cost, double[] ub, int[] shiftEnd,
+                             double[] cumulativeMin, double[] slackMax)
+  {
+    int columns = cost.length;
+    int shifts = shiftEnd.length;
+    // nodes: source, one per shift, sink, super-source, super-sink
+    int source = 0;
+    int sink = shifts + 1;
+    int superSource = shifts + 2;
+    int superSink = shifts + 3;
+    FlowGraph graph = new FlowGraph(shifts + 4, columns + 2 * shifts + 2);
+    double[] excess = new double[shifts + 4];
+
+    double totalUb = 0.0;
+    int[] blockArc = new int[columns];
+    double[] blockFloor = new double[columns];
+    int column = 0;
+    for (int i = 0; i < shifts; i++) {
+      for (; column < shiftEnd[i]; column++) {
+        double c = cost[column] + TIE_BREAK * column;
+        double cap = Math.max(0.0, ub[column]);
+        totalUb += cap;
+        if (c < 0.0) {
+          // saturate negative-cost arcs so the residual graph has no
+          // negative cycles
+          blockFloor[column] = cap;
+          excess[i + 1] += cap;
+          excess[source] -= cap;
+          blockArc[column] = graph.addArc(i + 1, source, cap, -c);
+        }
+        else {
+          blockArc[column] = graph.addArc(source, i + 1, cap, c);
+        }
+      }
+    }
+
+    // cumulative usage arcs, with lower bounds moved into the excess
+    int[] usageArc = new int[shifts];
+    double[] usageFloor = new double[shifts];
+    for (int i = 0; i < shifts; i++) {
+      double lo = Math.max(0.0, cumulativeMin[i]);
+      double hi = cumulativeMin[i] + slackMax[i];
+      if (hi < lo - EPSILON) {
+        return null;
+      }
+      int to = (i == shifts - 1) ? sink : i + 2;
+      usageFloor[i] = lo;
+      excess[to] += lo;
+      excess[i + 1] -= lo;
+      usageArc[i] = graph.addArc(i + 1, to, Math.max(0.0, hi - lo), 0.0);
+    }
+    graph.addArc(sink, source, totalUb + 1.0, 0.0);
+
+    double required = 0.0;
+    for (int v = 0; v <= sink; v++) {
+      if (excess[v] > EPSILON) {
+        graph.addArc(superSource, v, excess[v], 0.0);
+        required += excess[v];
+      }
+      else if (excess[v] < -EPSILON) {
+        graph.addArc(v, superSink, -excess[v], 0.0);
+      }
+    }
+    double delivered = graph.minCostFlow(superSource, superSink);
+    if (delivered < required - 1e-6 * Math.max(1.0, required)) {
+      return null;
+    }
+
+    double[] result = new double[columns + shifts];
+    for (int k = 0; k < columns; k++) {
+      double flow = graph.getFlow(blockArc[k]);
+      if (blockFloor[k] > 0.0) {
+        // arc was reversed; its flow backs out the saturated amount
+        result[k] = blockFloor[k] - flow;
+      }
+      else {
+        result[k] = flow;
+      }
+    }
+    for (int i = 0; i < shifts; i++) {
+      double cumulative = usageFloor[i] + graph.getFlow(usageArc[i]);
+      result[columns + i] = Math.max(0.0, cumulative - cumulativeMin[i]);
+    }
+    return result;
+  }
+
+  // Residual graph in flat arrays; arc e and its reverse are e and e ^ 1.
+  private static final class FlowGraph
+  {
+    private final int[] first;
+    private int[] next;
+    private int[] to;
+    private double[] cap;
+    private double[] cost;
+    private double[] initial;
+    private int arcs = 0;
+
+    FlowGraph (int nodes, int expectedArcs)
+    {
+      first = new int[nodes];
+      Arrays.fill(first, -1);
+      int size = 2 * (expectedArcs + nodes);
+      next = new int[size];
+      to = new int[size];
+      cap = new double[size];
+      cost = new double[size];
+      initial = new double[size];
+    }
+
+    int addArc (int from, int target, double capacity, double unitCost)
+    {
+      if (arcs + 2 > to.length) {
+        int size = 2 * to.length;
+        next = Arrays.copyOf(next, size);
+        to = Arrays.copyOf(to, size);
+        cap = Arrays.copyOf(cap, size);
+        cost = Arrays.copyOf(cost, size);
+        initial = Arrays.copyOf(initial, size);
+      }
+      int result = arcs;
+      link(from, target, capacity, unitCost);
+      link(target, from, 0.0, -unitCost);
+      return result;
+    }
+
+    private void link (int from, int target, double capacity, double unitCost)
+    {
+      to[arcs] = target;
+      cap[arcs] = capacity;
+      initial[arcs] = capacity;
+      cost[arcs] = unitCost;
+      next[arcs] = first[from];
+      first[from] = arcs;
+      arcs += 1;
+    }
+
+    double getFlow (int arc)
+    {
+      return initial[arc] - cap[arc];
+    }
+
+    // Successive shortest paths with Bellman-Ford labels; returns the
+    // amount of flow delivered.
+    double minCostFlow (int s, int t)
+    {
+      int nodes = first.length;
+      double[] dist = new double[nodes];
+      int[] via = new int[nodes];
+      boolean[] queued = new boolean[nodes];
+      int[] queue = new int[nodes + 1];
+      double total = 0.0;
+      while (true) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(via, -1);
+        dist[s] = 0.0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = s;
+        queued[s] = true;
+        while (head != tail) {
+          int u = queue[head++];
+          if (head == queue.length)
+            head = 0;
+          queued[u] = false;
+          for (int e = first[u]; e >= 0; e = next[e]) {
+            if (cap[e] <= EPSILON)
+              continue;
+            double d = dist[u] + cost[e];
+            int v = to[e];
+            if (d < dist[v] - 1e-15) {
+              dist[v] = d;
+              via[v] = e;
+              if (!queued[v]) {
+                queue[tail++] = v;
+                if (tail == queue.length)
+                  tail = 0;
+                queued[v] = true;
+              }
+            }
+          }
+        }
+        if (via[t] < 0) {
+          return total;
+        }
+        double push = Double.POSITIVE_INFINITY;
+        for (int v = t; v != s; v = to[via[v] ^ 1]) {
+          push = Math.min(push, cap[via[v]]);
+        }
+        for (int v = t; v != s; v = to[via[v] ^ 1]) {
+          cap[via[v]] -= push;
+          cap[via[v] ^ 1] += push;
+        }
+        total += push;
+      }
+    }
+  }
+
+  // Cache key: normalized costs plus all constraint data
+  private static final class Key
+  {
+    final double[] cost;
+    final double[] ub;
+    final int[] shiftEnd;
+    final double[] cumulativeMin;
+    final double[] slackMax;
+    final int hash;
+
+    Key (double[] cost, double[] ub, int[] shiftEnd,
+         double[] cumulativeMin, double[] slackMax)
+    {
+      this.cost = cost;
+      this.ub = Arrays.copyOf(ub, ub.length);
+      this.shiftEnd = Arrays.copyOf(shiftEnd, shiftEnd.length);
+      this.cumulativeMin = Arrays.copyOf(cumulativeMin, cumulativeMin.length);
+      this.slackMax = Arrays.copyOf(slackMax, slackMax.length);
+      int h = Arrays.hashCode(cost);
+      h = 31 * h + Arrays.hashCode(ub);
+      h = 31 * h + Arrays.hashCode(shiftEnd);
+      h = 31 * h + Arrays.hashCode(cumulativeMin);
+      hash = 31 * h + Arrays.hashCode(slackMax);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals (Object other)
+    {
+      if (!(other instanceof Key))
+        return false;
+      Key key = (Key) other;
+      return hash == key.hash
+          && Arrays.equals(cost, key.cost)
+          && Arrays.equals(ub, key.ub)
+          && Arrays.equals(shiftEnd, key.shiftEnd)
+          && Arrays.equals(cumulativeMin, key.cumulativeMin)
+          && Arrays.equals(slackMax, key.slackMax);
+    }
+  }
+}
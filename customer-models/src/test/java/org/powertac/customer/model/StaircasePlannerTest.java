@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.customer.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.joptimizer.optimizers.LPOptimizationRequest;
+import com.joptimizer.optimizers.LPPrimalDualMethod;
+import com.joptimizer.optimizers.OptimizationResponse;
+
+/**
+ * Checks StaircasePlanner against the JOptimizer formulation previously
+ * used by LiftTruck.LpPlan.
+ */
+public class StaircasePlannerTest
+{
+  private StaircasePlanner planner;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    planner = new StaircasePlanner(8);
+  }
+
+  /**
+   * TOU example from LpTest: cheap nights, expensive days. The cheapest
+   * plan buys nothing during the day. Both nights cost the same, so the
+   * first night is filled to its limit and the second buys the rest.
+   */
+  @Test
+  public void testTOU ()
+  {
+    double eff = 0.9;
+    double[] cost = {.09, .15, .09};
+    double[] ub = {240.0 / eff, 240.0 / eff, 240.0 / eff};
+    int[] shiftEnd = {1, 2, 3};
+    double[] cumulativeMin = {236.0 / eff, 236.0 / eff, 428.0 / eff};
+    double[] slackMax = {4.0 / eff, 240.0 / eff, 32.0 / eff};
+    double[] sol =
+        planner.solve(cost, ub, shiftEnd, cumulativeMin, slackMax);
+    assertNotNull("feasible", sol);
+    assertEquals("night 1", 240.0 / eff, sol[0], 1e-6);
+    assertEquals("day", 0.0, sol[1], 1e-6);
+    assertEquals("night 2", 188.0 / eff, sol[2], 1e-6);
+    assertEquals("slack 0", 4.0 / eff, sol[3], 1e-6);
+    assertEquals("slack 2", 0.0, sol[5], 1e-6);
+  }
+
+  // Early usage is preferred among equal-cost plans
+  @Test
+  public void testFlatPrefersEarly ()
+  {
+    double[] cost = {0.1, 0.1, 0.1};
+    double[] ub = {10.0, 10.0, 10.0};
+    int[] shiftEnd = {1, 2, 3};
+    double[] cumulativeMin = {0.0, 0.0, 15.0};
+    double[] slackMax = {30.0, 30.0, 30.0};
+    double[] sol =
+        planner.solve(cost, ub, shiftEnd, cumulativeMin, slackMax);
+    assertEquals("first full", 10.0, sol[0], 1e-6);
+    assertEquals("second partial", 5.0, sol[1], 1e-6);
+    assertEquals("third empty", 0.0, sol[2], 1e-6);
+    assertEquals("slack 0", 10.0, sol[3], 1e-6);
+  }
+
+  // Negative prices fill up to the cumulative maximum
+  @Test
+  public void testNegativePrices ()
+  {
+    double[] cost = {-0.11, -0.11};
+    double[] ub = {10.0, 10.0};
+    int[] shiftEnd = {1, 2};
+    double[] cumulativeMin = {2.0, 4.0};
+    double[] slackMax = {5.0, 10.0};
+    double[] sol =
+        planner.solve(cost, ub, shiftEnd, cumulativeMin, slackMax);
+    assertEquals("first limited by max", 7.0, sol[0], 1e-6);
+    assertEquals("second fills remainder", 7.0, sol[1], 1e-6);
+  }
+
+  @Test
+  public void testInfeasible ()
+  {
+    double[] cost = {0.1};
+    double[] ub = {5.0};
+    int[] shiftEnd = {1};
+    double[] cumulativeMin = {10.0};
+    double[] slackMax = {2.0};
+    assertNull("cannot meet need",
+               planner.solve(cost, ub, shiftEnd, cumulativeMin, slackMax));
+  }
+
+  // Proportional price vectors share one solution
+  @Test
+  public void testCache ()
+  {
+    double[] ub = {10.0, 10.0};
+    int[] shiftEnd = {1, 2};
+    double[] cumulativeMin = {5.0, 10.0};
+    double[] slackMax = {10.0, 10.0};
+    double[] first = planner.solve(new double[]{0.10, 0.05}, ub, shiftEnd,
+                                   cumulativeMin, slackMax);
+    double[] second = planner.solve(new double[]{0.20, 0.10}, ub, shiftEnd,
+                                    cumulativeMin, slackMax);
+    assertEquals("one miss", 1, planner.getCacheMisses());
+    assertEquals("one hit", 1, planner.getCacheHits());
+    assertArrayEquals("same plan", first, second, 1e-9);
+    second[0] = 99.0;
+    double[] third = planner.solve(new double[]{0.10, 0.05}, ub, shiftEnd,
+                                   cumulativeMin, slackMax);
+    assertEquals("cached copy not modified", first[0], third[0], 1e-9);
+    planner.solve(new double[]{0.05, 0.10}, ub, shiftEnd,
+                  cumulativeMin, slackMax);
+    assertEquals("different prices solved", 2, planner.getCacheMisses());
+  }
+
+  /**
+   * Randomized parity with the dense JOptimizer formulation. Problems are
+   * generated around a strictly interior point so both solvers see a
+   * feasible problem.
+   */
+  @Test
+  public void testParityWithJOptimizer ()
+  {
+    Random rnd = new Random(20180621L);
+    for (int trial = 0; trial < 40; trial++) {
+      int shifts = 2 + rnd.nextInt(6);
+      int[] shiftEnd = new int[shifts];
+      int columns = 0;
+      for (int i = 0; i < shifts; i++) {
+        columns += 1 + rnd.nextInt(3);
+        shiftEnd[i] = columns;
+      }
+      double[] cost = new double[columns];
+      double[] ub = new double[columns];
+      double[] interior = new double[columns];
+      boolean negative = (trial % 4 == 3);
+      for (int k = 0; k < columns; k++) {
+        cost[k] = (negative ? -1.0 : 1.0) * (0.05 + 0.15 * rnd.nextDouble());
+        ub[k] = 10.0 + 50.0 * rnd.nextDouble();
+        interior[k] = ub[k] * (0.2 + 0.6 * rnd.nextDouble());
+      }
+      double[] cumulativeMin = new double[shifts];
+      double[] slackMax = new double[shifts];
+      double total = 0.0;
+      int column = 0;
+      for (int i = 0; i < shifts; i++) {
+        for (; column < shiftEnd[i]; column++) {
+          total += interior[column];
+        }
+        double below = 1.0 + 20.0 * rnd.nextDouble();
+        double above = 1.0 + 20.0 * rnd.nextDouble();
+        cumulativeMin[i] = total - below;
+        slackMax[i] = below + above;
+      }
+
+      double[] fast =
+          planner.solve(cost, ub, shiftEnd, cumulativeMin, slackMax);
+      assertNotNull("trial " + trial + " feasible", fast);
+      checkFeasible(trial, fast, ub, shiftEnd, cumulativeMin, slackMax);
+      double[] lp = solveLp(cost, ub, shiftEnd, cumulativeMin, slackMax);
+      double fastObj = objective(cost, fast);
+      double lpObj = objective(cost, lp);
+      double tolerance = 1e-2 * (1.0 + Math.abs(lpObj));
+      assertTrue("trial " + trial + " no worse than LP",
+                 fastObj <= lpObj + tolerance);
+      assertEquals("trial " + trial + " same objective",
+                   lpObj, fastObj, tolerance);
+    }
+  }
+
+  private void checkFeasible (int trial, double[] sol, double[] ub,
+                              int[] shiftEnd, double[] cumulativeMin,
+                              double[] slackMax)
+  {
+    int columns = ub.length;
+    double cumulative = 0.0;
+    int column = 0;
+    for (int i = 0; i < shiftEnd.length; i++) {
+      for (; column < shiftEnd[i]; column++) {
+        assertTrue("trial " + trial + " lb", sol[column] >= -1e-6);
+        assertTrue("trial " + trial + " ub", sol[column] <= ub[column] + 1e-6);
+        cumulative += sol[column];
+      }
+      assertEquals("trial " + trial + " slack " + i,
+                   cumulative - cumulativeMin[i], sol[columns + i], 1e-6);
+      assertTrue("trial " + trial + " slack max " + i,
+                 sol[columns + i] <= slackMax[i] + 1e-6);
+    }
+  }
+
+  private double objective (double[] cost, double[] sol)
+  {
+    double result = 0.0;
+    for (int k = 0; k < cost.length; k++) {
+      result += cost[k] * sol[k];
+    }
+    return result;
+  }
+
+  // Dense formulation, as built by LiftTruck.LpPlan before the
+  // staircase solver was introduced
+  private double[] solveLp (double[] cost, double[] blockUb, int[] shiftEnd,
+                            double[] cumulativeMin, double[] slackMax)
+  {
+    int columns = cost.length;
+    int shifts = shiftEnd.length;
+    double[] obj = new double[columns + shifts];
+    double[][] a = new double[shifts][columns + shifts];
+    double[] b = new double[shifts];
+    double[] lb = new double[columns + shifts];
+    double[] ub = new double[columns + shifts];
+    for (int k = 0; k < columns; k++) {
+      obj[k] = cost[k];
+      ub[k] = blockUb[k];
+    }
+    for (int i = 0; i < shifts; i++) {
+      for (int j = 0; j < shiftEnd[i]; j++) {
+        a[i][j] = -1.0;
+      }
+      b[i] = -cumulativeMin[i];
+      a[i][columns + i] = 1.0;
+      ub[columns + i] = slackMax[i];
+    }
+    LPOptimizationRequest or = new LPOptimizationRequest();
+    or.setC(obj);
+    or.setA(a);
+    or.setB(b);
+    or.setLb(lb);
+    or.setUb(ub);
+    or.setTolerance(1.0e-2);
+    LPPrimalDualMethod opt = new LPPrimalDualMethod();
+    opt.setLPOptimizationRequest(or);
+    try {
+      int returnCode = opt.optimize();
+      assertEquals("success", OptimizationResponse.SUCCESS, returnCode);
+      return opt.getOptimizationResponse().getSolution();
+    }
+    catch (Exception e) {
+      fail(e.toString());
+    }
+    return null;
+  }
+}
@@ -33,6 +33,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -106,6 +107,10 @@ public class DefaultBrokerService
 
   private HashMap<TariffSpecification,
                   HashMap<CustomerInfo, CustomerRecord>> customerSubscriptions;
+  // total usage over customerSubscriptions, indexed like CustomerRecord.usage,
+  // and whether each total is still the sum of the records
+  private double[] totalUsage;
+  private boolean[] totalUsageValid;
   private HashMap<CustomerInfo, CustomerRecord> bootProfiles;
   private RandomSeed randomSeed;
   private HashMap<Timeslot, Order> lastOrder;
@@ -147,6 +152,8 @@ public class DefaultBrokerService
     bootstrapMode = competitionControlService.isBootstrapMode();
     log.info("init, bootstrapMode=" + bootstrapMode);
     customerSubscriptions = new LinkedHashMap<>();
+    totalUsage = new double[usageRecordLength];
+    totalUsageValid = new boolean[usageRecordLength];
     bootProfiles = new LinkedHashMap<>();
     lastOrder = new HashMap<>();
     randomSeed = randomSeedRepo.getRandomSeed(this.getClass().getName(),
@@ -278,19 +285,44 @@ public class DefaultBrokerService
     }
   }
 
+  // Returns the usage of all subscribed customers at index. A total is
+  // summed over the customer records the first time it is needed after one
+  // of them changes, and kept until the next change.
   // default visibility for testing
   double collectUsage (int index)
   {
-    double result = 0.0;
-    for (HashMap<CustomerInfo, CustomerRecord> customerMap : customerSubscriptions.values()) {
-      for (CustomerRecord record : customerMap.values()) {
-        result += record.getUsage(index);
+    if (index < 0) {
+      log.warn("usage requested for negative index " + index);
+      index = 0;
+    }
+    index = index % totalUsage.length;
+    if (!totalUsageValid[index]) {
+      double result = 0.0;
+      for (HashMap<CustomerInfo, CustomerRecord> customerMap : customerSubscriptions.values()) {
+        for (CustomerRecord record : customerMap.values()) {
+          result += record.getUsage(index);
+        }
       }
+      totalUsage[index] = result;
+      totalUsageValid[index] = true;
     }
+    double result = totalUsage[index];
     log.debug("Usage(" + index + ")=" + result);
     return -result; // convert to needed energy account balance
   }
 
+  // Adds a subscribed customer, whose usage will be included in the totals
+  private CustomerRecord
+  addSubscription (HashMap<CustomerInfo, CustomerRecord> customerMap,
+                   CustomerInfo customer, int population)
+  {
+    CustomerRecord record = new CustomerRecord(customer, population);
+    record.subscribed = true;
+    customerMap.put(customer, record);
+    Arrays.fill(totalUsageValid, false);
+    return record;
+  }
+
   private void submitOrder (double neededKWh, Timeslot timeslot)
   {
     double neededMWh = neededKWh / 1000.0;
@@ -395,8 +427,8 @@ public class DefaultBrokerService
     if (TariffTransaction.Type.SIGNUP == txType) {
       // keep track of customer counts
       if (record == null) {
-        record = new CustomerRecord(customer, ttx.getCustomerCount());
-        customerMap.put(customer, record);
+        record = addSubscription(customerMap, customer,
+                                 ttx.getCustomerCount());
       }
       else {
         record.signup(ttx.getCustomerCount());
@@ -505,8 +537,8 @@ public class DefaultBrokerService
           customerSubscriptions.get(tariff);
       CustomerRecord record = customerMap.get(customer); // subscription exists
       if (record == null) {
-        record = new CustomerRecord(customer, customer.getPopulation());
-        customerMap.put(customer, record);
+        record = addSubscription(customerMap, customer,
+                                 customer.getPopulation());
       }
       if (cbd.getNetUsage().length <
           Competition.currentCompetition().getBootstrapTimeslotCount()) {
@@ -782,6 +814,7 @@ public class DefaultBrokerService
     ArrayList<Double> bootstrapUsage = new ArrayList<Double>();
     Instant base = null;
     double alpha = 0.3;
+    boolean subscribed = false; // contributes to totalUsage
     
     CustomerRecord (CustomerInfo customer, int population)
     {
@@ -800,14 +833,23 @@ public class DefaultBrokerService
     // Adds new individuals to the count
     void signup (int population)
     {
-      subscribedPopulation = Math.min(customer.getPopulation(),
-                                      subscribedPopulation + population);
+      setSubscribedPopulation(Math.min(customer.getPopulation(),
+                                       subscribedPopulation + population));
     }
     
     // Removes individuals from the count
     void withdraw (int population)
     {
-      subscribedPopulation -= population;
+      setSubscribedPopulation(subscribedPopulation - population);
+    }
+
+    // Updates the count, which changes this record's usage at every index
+    private void setSubscribedPopulation (int population)
+    {
+      subscribedPopulation = population;
+      if (subscribed) {
+        Arrays.fill(totalUsageValid, false);
+      }
     }
     
     // Customer produces or consumes power. We assume the kwh value is negative
@@ -833,6 +875,9 @@ public class DefaultBrokerService
         // exponential smoothing
         usage[index] = alpha * kwhPerCustomer + (1.0 - alpha) * oldUsage;
       }
+      if (subscribed) {
+        totalUsageValid[index] = false;
+      }
       log.debug("consume " + kwh + " at " + index +
                 ", customer " + customer.getName());
     }
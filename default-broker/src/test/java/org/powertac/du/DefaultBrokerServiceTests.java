@@ -21,8 +21,10 @@ import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.apache.commons.configuration2.MapConfiguration;
@@ -134,22 +136,11 @@ public class DefaultBrokerServiceTests
     customer2 = new CustomerInfo("village", 200);
     customerRepo.add(customer2);
 
-    service = new DefaultBrokerService();
     mockMarket = mock(TariffMarket.class);
     mockRandom = mock(RandomSeedRepo.class);
     when(mockRandom.getRandomSeed(anyString(), anyLong(), anyString()))
         .thenReturn(new MockRandomSeed("broker", 0, ""));
-    ReflectionTestUtils.setField(service,
-                                 "competitionControlService", 
-                                 mockCompetitionControl);
-    ReflectionTestUtils.setField(service, "tariffMarketService", mockMarket);
-    ReflectionTestUtils.setField(service, "brokerProxyService", mockProxy);
-    ReflectionTestUtils.setField(service, "timeslotRepo", timeslotRepo);
-    ReflectionTestUtils.setField(service, "brokerRepo", brokerRepo);
-    ReflectionTestUtils.setField(service, "customerRepo", customerRepo);
-    ReflectionTestUtils.setField(service, "serverPropertiesService",
-                                 serverPropertiesService);
-    ReflectionTestUtils.setField(service, "randomSeedRepo", mockRandom);
+    service = makeService();
 
     // Set up serverProperties mock
     config = new Configurator();
@@ -169,6 +160,23 @@ public class DefaultBrokerServiceTests
       .thenReturn(true);
   }
 
+  private DefaultBrokerService makeService ()
+  {
+    DefaultBrokerService result = new DefaultBrokerService();
+    ReflectionTestUtils.setField(result,
+                                 "competitionControlService", 
+                                 mockCompetitionControl);
+    ReflectionTestUtils.setField(result, "tariffMarketService", mockMarket);
+    ReflectionTestUtils.setField(result, "brokerProxyService", mockProxy);
+    ReflectionTestUtils.setField(result, "timeslotRepo", timeslotRepo);
+    ReflectionTestUtils.setField(result, "brokerRepo", brokerRepo);
+    ReflectionTestUtils.setField(result, "customerRepo", customerRepo);
+    ReflectionTestUtils.setField(result, "serverPropertiesService",
+                                 serverPropertiesService);
+    ReflectionTestUtils.setField(result, "randomSeedRepo", mockRandom);
+    return result;
+  }
+
   private Broker init ()
   {
     List<String> completedInits = new ArrayList<String>();
@@ -783,6 +791,141 @@ public class DefaultBrokerServiceTests
     assertEquals("Three usage records 2", 3, second.getNetUsage().length);
   }
   
+  // Replays a week and more of random subscription and usage activity on
+  // two services. One keeps its usage totals from one timeslot to the next;
+  // the other has them summed over its customer records afresh in every
+  // timeslot, as the service did before it kept them. Their orders must be
+  // identical.
+  @SuppressWarnings("rawtypes")
+  @Test
+  public void testUsageTotalsReplay ()
+  {
+    final HashMap<Broker, HashMap<PowerType, TariffSpecification>> specs =
+        new HashMap<Broker, HashMap<PowerType, TariffSpecification>>();
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        TariffSpecification spec =(TariffSpecification)args[0];
+        if (!specs.containsKey(spec.getBroker()))
+          specs.put(spec.getBroker(),
+                    new HashMap<PowerType, TariffSpecification>());
+        specs.get(spec.getBroker()).put(spec.getPowerType(), spec);
+        return null;
+      }
+    }).when(mockMarket).setDefaultTariff(isA(TariffSpecification.class));
+    final HashMap<Broker, List<Order>> orders =
+        new HashMap<Broker, List<Order>>();
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        Order order = (Order)args[0];
+        if (!orders.containsKey(order.getBroker()))
+          orders.put(order.getBroker(), new ArrayList<Order>());
+        orders.get(order.getBroker()).add(order);
+        return null;
+      }
+    }).when(mockProxy).routeMessage(isA(Order.class));
+
+    DefaultBrokerService reference = makeService();
+    Broker[] faces = {init(service), init(reference)};
+    boolean[] referenceValid =
+        (boolean[])ReflectionTestUtils.getField(reference, "totalUsageValid");
+    CustomerInfo[] customers = {customer1, customer2, customer2};
+    PowerType[] types = {PowerType.CONSUMPTION, PowerType.CONSUMPTION,
+                         PowerType.PRODUCTION};
+    int[] subscribed = new int[3];
+    Random rnd = new Random(31);
+
+    int orderCount = 0;
+    for (int ts = 0; ts < 200; ts++) {
+      int sn = timeslotRepo.currentSerialNumber();
+      for (int i = 0; i < 3; i++) {
+        int population = customers[i].getPopulation();
+        double choice = rnd.nextDouble();
+        TariffTransaction.Type type = null;
+        int count = 0;
+        if (0 == ts || (choice < 0.2 && subscribed[i] < population)) {
+          type = TariffTransaction.Type.SIGNUP;
+          count = 1 + rnd.nextInt(population - subscribed[i]);
+          subscribed[i] += count;
+        }
+        else if (choice > 0.85 && subscribed[i] > 0) {
+          type = TariffTransaction.Type.WITHDRAW;
+          count = 1 + rnd.nextInt(subscribed[i]);
+          subscribed[i] -= count;
+        }
+        double kwh = subscribed[i] * (0.5 + rnd.nextDouble());
+        for (Broker face : faces) {
+          TariffSpecification spec = specs.get(face).get(types[i]);
+          if (null != type) {
+            face.receiveMessage(transaction(face, type, spec, customers[i],
+                                            count, 0.0));
+          }
+          if (subscribed[i] > 0) {
+            if (PowerType.PRODUCTION == types[i]) {
+              face.receiveMessage(transaction(face,
+                                              TariffTransaction.Type.PRODUCE,
+                                              spec, customers[i],
+                                              subscribed[i], kwh));
+            }
+            else {
+              face.receiveMessage(transaction(face,
+                                              TariffTransaction.Type.CONSUME,
+                                              spec, customers[i],
+                                              subscribed[i], -kwh));
+            }
+          }
+        }
+      }
+
+      Arrays.fill(referenceValid, false);
+      for (Broker face : faces) {
+        face.receiveMessage(endTimeslot());
+      }
+      List<Order> kept = orders.get(faces[0]);
+      List<Order> summed = orders.get(faces[1]);
+      int size = (null == kept) ? 0 : kept.size();
+      assertEquals("ts " + sn + " order count",
+                   (null == summed) ? 0 : summed.size(), size);
+      for (int i = orderCount; i < size; i++) {
+        Order order = kept.get(i);
+        Order expected = summed.get(i);
+        assertEquals("ts " + sn + " timeslot",
+                     expected.getTimeslotIndex(), order.getTimeslotIndex());
+        assertEquals("ts " + sn + " mwh", expected.getMWh(), order.getMWh());
+        assertEquals("ts " + sn + " limit price",
+                     expected.getLimitPrice(), order.getLimitPrice());
+      }
+      orderCount = size;
+      nextTimeslot();
+    }
+    assertTrue("orders placed", orderCount > 0);
+  }
+
+  private Broker init (DefaultBrokerService svc)
+  {
+    List<String> completedInits = new ArrayList<String>();
+    completedInits.add("TariffMarket");
+    assertEquals("DefaultBroker",
+                 svc.initialize(competition, completedInits));
+    Broker face = svc.getFace();
+    face.setEnabled(true);
+    return face;
+  }
+
+  private TariffTransaction transaction (Broker face,
+                                         TariffTransaction.Type type,
+                                         TariffSpecification spec,
+                                         CustomerInfo customer,
+                                         int count, double kwh)
+  {
+    return new TariffTransaction(face, timeslotRepo.currentSerialNumber(),
+                                 type, spec, customer, count,
+                                 kwh, 0.0, false);
+  }
+
   // set up some timeslots - ts0 is disabled, then 23 enabled slots
   private void createTimeslots()
   {
@@ -63,6 +63,11 @@ public class EvCustomer
   private String name;
   private long id;
 
+  // Number of identical individuals represented by this instance. Loads and
+  // battery state are per-member; subscription usage is scaled by the
+  // number of members committed to each subscription.
+  private int population = 1;
+
   public enum RiskAttitude
   {
     averse (0.4, 0.8),
@@ -125,6 +130,11 @@ public class EvCustomer
     return id;
   }
 
+  public int getPopulation ()
+  {
+    return population;
+  }
+
   // ========== initialization =============
   public CustomerInfo initialize (SocialGroup socialGroup,
                                   String gender,
@@ -134,6 +144,24 @@ public class EvCustomer
                                   CustomerServiceAccessor service,
                                   Config config)
   {
+    return initialize(socialGroup, gender, activities, groupActivities, car,
+                      service, config, 1);
+  }
+
+  /**
+   * Initializes an instance that represents a cohort of population
+   * individuals sharing the same social group, gender and car type.
+   */
+  public CustomerInfo initialize (SocialGroup socialGroup,
+                                  String gender,
+                                  Map<Integer, Activity> activities,
+                                  Map<Integer, GroupActivity> groupActivities,
+                                  CarType car,
+                                  CustomerServiceAccessor service,
+                                  Config config,
+                                  int population)
+  {
+    this.population = population;
     this.socialGroup = socialGroup;
     this.activities = activities;
     this.groupActivities = groupActivities;
@@ -151,7 +179,7 @@ public class EvCustomer
     // The up-regulation and down-regulation values are equal magnitude, which
     // means this is NOT a vehicle-to-grid setup. It just means charging can
     // be curtailed.
-    customerInfo = new CustomerInfo(name, 1).
+    customerInfo = new CustomerInfo(name, population).
         withPowerType(PowerType.ELECTRIC_VEHICLE).
         withControllableKW(-car.getHomeChargeKW()).
         withUpRegulationKW(-car.getHomeChargeKW()).
@@ -205,8 +233,8 @@ public class EvCustomer
     int day = timeslot.getStartTime().getDayOfWeek();
     int hour = timeslot.getStartTime().getHourOfDay();
 
-    // find the current active subscription
-    TariffSubscription sub = null;
+    // find the current active subscriptions; an individual has exactly one,
+    // a cohort may be spread across several
     List<TariffSubscription> subs =
         service.getTariffSubscriptionRepo().
         findActiveSubscriptionsForCustomer(customerInfo);
@@ -214,32 +242,35 @@ public class EvCustomer
       log.error("No subscriptions found for " + name);
       return;
     }
-    else {
-      sub = subs.get(0);
-    }
 
     driving = false;
 
     // Always do handleRegulations first, setRegulation last
-    handleRegulation(day, hour, sub);
+    handleRegulation(day, hour, subs);
     makeDayPlanning(hour, day);
     doActivities(day, hour);
     double[] loads = getLoads(day, hour);
-    consumePower(loads, sub);
-    setRegulation(loads[2], loads[3], sub);
+    consumePower(loads, subs);
+    for (TariffSubscription sub : subs) {
+      setRegulation(loads[2], loads[3], sub);
+    }
   }
 
   /*
    * When getting the load for consumePower, the batteries are charged according
    * to the desired capacity. But in reality the capacity might be regulated.
    */
-  private void handleRegulation (int day, int hour, TariffSubscription sub)
+  private void handleRegulation (int day, int hour,
+                                 List<TariffSubscription> subs)
   {
-    if (null == sub)
-      return;
+    // Regulation is requested per member of each subscription. The battery
+    // state is per member, so a cohort applies the population-weighted mean.
+    double actualRegulation = 0.0;
+    for (TariffSubscription sub : subs) {
+      actualRegulation += sub.getRegulation() * sub.getCustomersCommitted();
+    }
+    actualRegulation /= population;
     // check for non-zero regulation request
-    double actualRegulation =
-        sub.getRegulation() * customerInfo.getPopulation();
     if (Math.abs(actualRegulation) < epsilon) {
       return;
     }
@@ -392,10 +423,12 @@ public class EvCustomer
     }
   }
 
-  // consumes power
-  private void consumePower (double[] loads, TariffSubscription sub)
+  // consumes power; loads are per member, usage is per subscription
+  private void consumePower (double[] loads, List<TariffSubscription> subs)
   {
-    sub.usePower(loads[0] + loads[1]);
+    for (TariffSubscription sub : subs) {
+      sub.usePower((loads[0] + loads[1]) * sub.getCustomersCommitted());
+    }
 
     try {
       charge(loads[0] + loads[1]);
@@ -68,6 +68,13 @@ import java.util.Random;
  * record at the start of a sim session. In other words, the dynamic
  * configuration happens only at the start of a boot session.
  * 
+ * In cohort mode, individuals that share social group, gender and car type
+ * are represented by a single EvCustomer whose CustomerInfo population is the
+ * size of the cohort. The representative plans and steps once, and its
+ * per-member loads are scaled by the number of members committed to each
+ * subscription. The customer attribute list still records every individual,
+ * so boot records are the same in both modes.
+ * 
  * @author Konstantina Valogianni, Govert Buijs, John Collins
  */
 //@Domain
@@ -86,6 +93,10 @@ public class EvSocialClass extends AbstractCustomer
   @ConfigurableValue(valueType = "Integer", description = "maximum population")
   private int maxCount;
 
+  @ConfigurableValue(valueType = "Boolean",
+      description = "If true, identical individuals are simulated as one weighted cohort")
+  private boolean cohortMode = false;
+
   private ArrayList<EvCustomer> evCustomers;
 
   // indexed bean lists
@@ -188,36 +199,71 @@ public class EvSocialClass extends AbstractCustomer
       String attributes = thisGroup.getId() + "." + gender
                           + "." + car.getName() + ".x";
       customerAttributeList.add(attributes);
-      instantiateCustomer(beans, thisGroup, gender, car, customerName);
+      if (!cohortMode) {
+        instantiateCustomer(beans, thisGroup, gender, car, customerName, 1);
+      }
+    }
+    if (cohortMode) {
+      instantiateCohorts(beans);
     }
   }
 
   private void configureForSim (Map<String, Collection<?>> beans)
   {
     population = customerAttributeList.size();
-    int index = 0;
+    if (cohortMode) {
+      instantiateCohorts(beans);
+    }
+    else {
+      int index = 0;
+      for (String description : customerAttributeList) {
+        String[] attributes = description.split("\\.");
+        SocialGroup thisGroup = groups.get(Integer.parseInt(attributes[0]));
+        String gender = attributes[1];
+        CarType car = carTypes.get(attributes[2]);
+        instantiateCustomer(beans, thisGroup, gender, car,
+            this.name + "_" + index++, 1);
+      }
+    }
+    service.getServerConfiguration().configureNamedInstances(evCustomers);
+  }
+
+  // Creates one weighted EvCustomer for each distinct combination of
+  // group, gender and car in the customer attribute list.
+  private void instantiateCohorts (Map<String, Collection<?>> beans)
+  {
+    Map<String, Integer> cohorts = new LinkedHashMap<String, Integer>();
     for (String description : customerAttributeList) {
       String[] attributes = description.split("\\.");
+      String key = attributes[0] + "." + attributes[1] + "." + attributes[2];
+      Integer count = cohorts.get(key);
+      cohorts.put(key, (null == count) ? 1 : count + 1);
+    }
+    int index = 0;
+    for (Map.Entry<String, Integer> cohort : cohorts.entrySet()) {
+      String[] attributes = cohort.getKey().split("\\.");
       SocialGroup thisGroup = groups.get(Integer.parseInt(attributes[0]));
       String gender = attributes[1];
       CarType car = carTypes.get(attributes[2]);
       instantiateCustomer(beans, thisGroup, gender, car,
-          this.name + "_" + index++);
+          this.name + "_cohort" + index++, cohort.getValue());
     }
-    service.getServerConfiguration().configureNamedInstances(evCustomers);
+    log.info("Class " + name + ": " + population + " customers in "
+             + cohorts.size() + " cohorts");
   }
 
   private EvCustomer instantiateCustomer (Map<String, Collection<?>> beans,
                                           SocialGroup thisGroup, String gender,
-                                          CarType car, String customerName)
+                                          CarType car, String customerName,
+                                          int count)
   {
     EvCustomer customer = new EvCustomer(customerName);
-    log.info("Adding EvCustomer " + customerName);
+    log.info("Adding EvCustomer " + customerName + ", population " + count);
     evCustomers.add(customer);
     CustomerInfo info =
         customer.initialize(thisGroup, gender, activities,
                             getGroupActivities(beans, thisGroup),
-                            car, service, config);
+                            car, service, config, count);
     addCustomerInfo(info);
     service.getCustomerRepo().add(info);
     return customer;
@@ -400,6 +446,16 @@ public class EvSocialClass extends AbstractCustomer
     maxCount = count;
   }
 
+  void setCohortMode (boolean value)
+  {
+    cohortMode = value;
+  }
+
+  boolean isCohortMode ()
+  {
+    return cohortMode;
+  }
+
   int getMaxCount ()
   {
     return maxCount;
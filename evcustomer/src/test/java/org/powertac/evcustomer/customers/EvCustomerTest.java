@@ -16,10 +16,17 @@
 
 package org.powertac.evcustomer.customers;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powertac.common.CustomerInfo;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.TariffSubscription;
 import org.powertac.common.TimeService;
+import org.powertac.common.Timeslot;
 import org.powertac.common.interfaces.CustomerServiceAccessor;
 import org.powertac.common.interfaces.ServerConfiguration;
 import org.powertac.common.repo.CustomerRepo;
@@ -35,12 +42,19 @@ import org.powertac.evcustomer.beans.GroupActivity;
 import org.powertac.evcustomer.beans.CarType;
 import org.powertac.evcustomer.beans.SocialGroup;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -399,6 +413,146 @@ public class EvCustomerTest
     assertEquals(46, evCustomer.getCurrentCapacity(), 1E-06);
   }
 
+  @Test
+  public void testCohortInitialization ()
+  {
+    activities = new HashMap<>();
+    activities.put(activity.getId(), activity);
+    details = new HashMap<>();
+    details.put(detail.getActivityId(), detail);
+    CustomerInfo info =
+        evCustomer.initialize(socialGroup, "male", activities, details,
+                              carType, service, Config.getInstance(), 7);
+    assertEquals("cohort population", 7, evCustomer.getPopulation());
+    assertEquals("info population", 7, info.getPopulation());
+  }
+
+  // A cohort follows one random trajectory scaled by its size, where the
+  // individuals it replaces follow independent ones, so the two are only
+  // equal in expectation. Over many seeds, the hour-of-day mean load of a
+  // cohort and of its individuals should agree in mean, peak and total
+  // energy within the tolerances below.
+  @Test
+  public void testCohortLoadParity ()
+  {
+    int cohortSize = 5;
+    int seeds = 50;
+    int steps = 24 * 28;
+    double energyTolerance = 0.10;
+    double peakTolerance = 0.20;
+
+    // three activities with less than certain probabilities, so that
+    // trips vary from day to day and from seed to seed
+    activities = new HashMap<>();
+    details = new HashMap<>();
+    double[] probabilities = {0.9, 0.5, 0.3};
+    for (int id = 0; id < probabilities.length; id++) {
+      Activity act = new Activity(id, "Activity" + id, 1, 1);
+      activities.put(id, act);
+      GroupActivity ga = new GroupActivity("ga-" + id);
+      ga.initialize(id, 30.0, 30.0, probabilities[id], probabilities[id]);
+      details.put(id, ga);
+    }
+    mockSubscriptionRepo = mock(TariffSubscriptionRepo.class);
+
+    double[] individualDaily = new double[24];
+    double[] cohortDaily = new double[24];
+    DateTime start = new DateTime(2014, 1, 6, 0, 0, DateTimeZone.UTC);
+    for (int seed = 0; seed < seeds; seed++) {
+      final long base = 7919L * (seed + 1);
+      when(mockSeedRepo.getRandomSeed(anyString(), anyLong(), anyString()))
+          .thenAnswer(invocation -> new SeededRandomSeed(
+              base + invocation.getArguments()[0].hashCode()));
+
+      double[] individualLoads = new double[steps];
+      List<EvCustomer> individuals = new ArrayList<>();
+      for (int i = 0; i < cohortSize; i++) {
+        EvCustomer individual = new EvCustomer(cName + i);
+        CustomerInfo info =
+            individual.initialize(socialGroup, "male", activities, details,
+                                  carType, service, Config.getInstance());
+        mockSubscription(info, 1, individualLoads);
+        individuals.add(individual);
+      }
+
+      double[] cohortLoads = new double[steps];
+      EvCustomer cohort = new EvCustomer(cName + "_cohort");
+      CustomerInfo cohortInfo =
+          cohort.initialize(socialGroup, "male", activities, details,
+                            carType, service, Config.getInstance(),
+                            cohortSize);
+      // split the cohort across two subscriptions
+      mockSubscription(cohortInfo, 2, cohortLoads, 3, cohortLoads);
+
+      for (int i = 0; i < steps; i++) {
+        currentStep = i;
+        Timeslot ts = new Timeslot(i, start.plusHours(i).toInstant());
+        for (EvCustomer individual : individuals) {
+          individual.step(ts);
+        }
+        cohort.step(ts);
+      }
+      for (int i = 0; i < steps; i++) {
+        individualDaily[i % 24] += individualLoads[i] / (seeds * steps / 24);
+        cohortDaily[i % 24] += cohortLoads[i] / (seeds * steps / 24);
+      }
+    }
+
+    double individualTotal = sum(individualDaily);
+    double cohortTotal = sum(cohortDaily);
+    assertTrue("some charging happened", individualTotal > 0.0);
+    assertEquals("daily energy", individualTotal, cohortTotal,
+                 energyTolerance * individualTotal);
+    assertEquals("mean hourly load", individualTotal / 24.0,
+                 cohortTotal / 24.0, energyTolerance * individualTotal / 24.0);
+    assertEquals("peak hourly load", max(individualDaily), max(cohortDaily),
+                 peakTolerance * max(individualDaily));
+  }
+
+  private int currentStep = 0;
+
+  // Sets up active subscriptions for info as pairs of
+  // (customersCommitted, usage record)
+  private void mockSubscription (CustomerInfo info, Object... commitments)
+  {
+    List<TariffSubscription> subs = new ArrayList<>();
+    for (int i = 0; i < commitments.length; i += 2) {
+      final double[] record = (double[]) commitments[i + 1];
+      TariffSubscription sub = mock(TariffSubscription.class);
+      when(sub.getCustomersCommitted()).thenReturn((Integer) commitments[i]);
+      when(sub.getRegulation()).thenReturn(0.0);
+      doAnswer(new Answer<Object>() {
+        @Override
+        public Object answer (InvocationOnMock invocation)
+        {
+          record[currentStep] += (Double) invocation.getArguments()[0];
+          return null;
+        }
+      }).when(sub).usePower(anyDouble());
+      subs.add(sub);
+    }
+    when(mockSubscriptionRepo.findActiveSubscriptionsForCustomer(info))
+        .thenReturn(Collections.unmodifiableList(subs));
+  }
+
+  private double sum (double[] values)
+  {
+    double result = 0.0;
+    for (double value : values) {
+      result += value;
+    }
+    return result;
+  }
+
+  private double max (double[] values)
+  {
+    double result = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      result = Math.max(result, value);
+    }
+    return result;
+  }
+
   // =============== helper classes =================
   @SuppressWarnings("serial")
   class MockRandomSeed extends RandomSeed
@@ -446,6 +600,37 @@ public class EvCustomerTest
     }
   }
 
+  // a RandomSeed that draws from a real random sequence
+  @SuppressWarnings("serial")
+  class SeededRandomSeed extends RandomSeed
+  {
+    private Random delegate;
+
+    public SeededRandomSeed (long seed)
+    {
+      super("Test", seed, "model");
+      delegate = new Random(seed);
+    }
+
+    @Override
+    public double nextDouble ()
+    {
+      return delegate.nextDouble();
+    }
+
+    @Override
+    public int nextInt ()
+    {
+      return delegate.nextInt();
+    }
+
+    @Override
+    public int nextInt (int n)
+    {
+      return delegate.nextInt(n);
+    }
+  }
+
   class ServiceAccessor implements CustomerServiceAccessor
   {
     @Override
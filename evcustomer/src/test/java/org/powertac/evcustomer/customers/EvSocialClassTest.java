@@ -180,6 +180,48 @@ public class EvSocialClassTest
                  evSocialClass.getCustomerAttributeList().get(1));
   }
 
+  @Test
+  public void testCohortCustomers ()
+  {
+    evSocialClass.setCohortMode(true);
+    initializeClass();
+    assertEquals("correct population", 2, evSocialClass.getPopulation());
+    assertEquals("both individuals recorded", 2,
+                 evSocialClass.getCustomerAttributeList().size());
+    ArrayList<EvCustomer> customers = evSocialClass.getEvCustomers();
+    assertEquals("one cohort", 1, customers.size());
+    assertEquals("one info", 1, evSocialClass.getCustomerInfos().size());
+    assertEquals("cohort name", "HighIncome_2_cohort0",
+                 customers.get(0).getName());
+    assertEquals("cohort weight", 2, customers.get(0).getPopulation());
+    assertEquals("info population", 2,
+                 evSocialClass.getCustomerInfos().get(0).getPopulation());
+  }
+
+  // Cohorts restored from a boot record group identical individuals
+  @Test
+  public void testCohortBootRestore ()
+  {
+    ArrayList<String> gcList = new ArrayList<String>();
+    gcList.add("0.male.Tesla_40_kWh.0");
+    gcList.add("2.female.Nissan_Leaf_24_kWh.1");
+    gcList.add("0.male.Tesla_40_kWh.2");
+    ReflectionTestUtils.setField(evSocialClass, "customerAttributeList",
+                                 gcList);
+    evSocialClass.setCohortMode(true);
+    initializeClass();
+    assertEquals("3 instances", 3, evSocialClass.getPopulation());
+    List<EvCustomer> customers = evSocialClass.getEvCustomers();
+    assertEquals("2 cohorts", 2, customers.size());
+    EvCustomer cust = customers.get(0);
+    assertEquals("correct group", 0, cust.getSocialGroup().getId());
+    assertEquals("correct car", "Tesla_40_kWh", cust.getCar().getName());
+    assertEquals("two members", 2, cust.getPopulation());
+    cust = customers.get(1);
+    assertEquals("correct gender", "female", cust.getGender());
+    assertEquals("one member", 1, cust.getPopulation());
+  }
+
   @Test
   public void testBootConfig ()
   {
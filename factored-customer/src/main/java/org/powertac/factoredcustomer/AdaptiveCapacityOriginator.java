@@ -53,7 +53,7 @@ final class AdaptiveCapacityOriginator extends DefaultCapacityOriginator
 
   private final ProfileOptimizerStructure optimizerStructure;
   private final Random recommendationHandler;
-  private Map<TariffSubscription, Map<Integer, Double>> forecastCapacitiesPerSub;
+  private Map<TariffSubscription, TimeslotRingBuffer> forecastCapacitiesPerSub;
   private Map<Tariff, Double> tariff2inconv;
   private TimeslotRepo timeslotRepo;
 
@@ -230,9 +230,11 @@ final class AdaptiveCapacityOriginator extends DefaultCapacityOriginator
                                                    int futureTimeslot,
                                                    double futureCapacity)
   {
-    Map<Integer, Double> ts2capacity = forecastCapacitiesPerSub.get(sub);
+    TimeslotRingBuffer ts2capacity = forecastCapacitiesPerSub.get(sub);
     if (null == ts2capacity) {
-      ts2capacity = new HashMap<>();
+      String bufferName =
+          logIdentifier + ".forecast." + sub.getTariff().getId();
+      ts2capacity = new TimeslotRingBuffer(bufferName, HISTORY_LENGTH);
       forecastCapacitiesPerSub.put(sub, ts2capacity);
     }
     ts2capacity.put(futureTimeslot, futureCapacity);
@@ -298,12 +300,12 @@ final class AdaptiveCapacityOriginator extends DefaultCapacityOriginator
     return new CapacityProfile(values);
   }
 
-  private Double getForecastCapacityPerSub (int timeslot,
+  private double getForecastCapacityPerSub (int timeslot,
                                             TariffSubscription subscription)
   {
-    Map<Integer, Double> ts2capacity = forecastCapacitiesPerSub.get(subscription);
+    TimeslotRingBuffer ts2capacity = forecastCapacitiesPerSub.get(subscription);
 
-    if (null == ts2capacity || null == ts2capacity.get(timeslot)) {
+    if (null == ts2capacity || !ts2capacity.contains(timeslot)) {
       return getForecastCapacity(timeslot);
     }
     else {
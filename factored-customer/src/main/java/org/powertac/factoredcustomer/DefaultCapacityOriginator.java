@@ -38,7 +38,6 @@ import org.powertac.factoredcustomer.interfaces.CapacityOriginator;
 import org.powertac.factoredcustomer.interfaces.StructureInstance;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -61,17 +60,21 @@ class DefaultCapacityOriginator implements CapacityOriginator
 
   private final double SMOOTHING_WEIGHT = 0.4; // 0.0 => ignore previous value
 
+  // Histories cover one day back from the current timeslot, plus forecasts
+  // reaching up to two days ahead.
+  static final int HISTORY_LENGTH = 3 * CapacityProfile.NUM_TIMESLOTS;
+
   private final TimeseriesGenerator tsGenerator;
 
   private final CapacityStructure capacityStructure;
   private final CapacityBundle parentBundle;
 
   protected final String logIdentifier;
-  protected final Map<Integer, Double> baseCapacities = new HashMap<>();
-  protected final Map<Integer, Double> forecastCapacities = new HashMap<>();
-  protected final Map<Integer, Double> actualCapacities = new HashMap<>();
-  protected final Map<Integer, Double> curtailedCapacities = new HashMap<>();
-  protected final Map<Integer, Double> shiftedCurtailments = new HashMap<>();
+  protected final TimeslotRingBuffer baseCapacities;
+  protected final TimeslotRingBuffer forecastCapacities;
+  protected final TimeslotRingBuffer actualCapacities;
+  protected final TimeslotRingBuffer curtailedCapacities;
+  protected final TimeslotRingBuffer shiftedCurtailments;
   protected RegulationCapacity currentRegCapacity = null;
 
   public DefaultCapacityOriginator (FactoredCustomerService service,
@@ -89,6 +92,17 @@ class DefaultCapacityOriginator implements CapacityOriginator
         ? bundle.getName()
         : bundle.getName() + "#" + this.capacityStructure.getName();
 
+    baseCapacities =
+        new TimeslotRingBuffer(logIdentifier + ".base", HISTORY_LENGTH);
+    forecastCapacities =
+        new TimeslotRingBuffer(logIdentifier + ".forecast", HISTORY_LENGTH);
+    actualCapacities =
+        new TimeslotRingBuffer(logIdentifier + ".actual", HISTORY_LENGTH);
+    curtailedCapacities =
+        new TimeslotRingBuffer(logIdentifier + ".curtailed", HISTORY_LENGTH);
+    shiftedCurtailments =
+        new TimeslotRingBuffer(logIdentifier + ".shifted", HISTORY_LENGTH);
+
     if (capacityStructure.getBaseCapacityType() == BaseCapacityType.TIMESERIES) {
       Map<String, StructureInstance> map =
           Config.getInstance().getStructures().get("TimeseriesGenerator");
@@ -121,13 +135,7 @@ class DefaultCapacityOriginator implements CapacityOriginator
   {
     List<Double> values = new ArrayList<>();
     for (int i = 0; i < CapacityProfile.NUM_TIMESLOTS; ++i) {
-      Double forecastCapacity = forecastCapacities.get(timeslot);
-      if (forecastCapacity != null) {
-        values.add(forecastCapacity);
-      }
-      else {
-        values.add(getForecastCapacity(timeslot));
-      }
+      values.add(getForecastCapacity(timeslot));
       timeslot += 1;
     }
     return new CapacityProfile(values);
@@ -149,11 +157,10 @@ class DefaultCapacityOriginator implements CapacityOriginator
 
   protected double getForecastCapacity (int timeslot)
   {
-    Double ret = forecastCapacities.get(timeslot);
-    if (ret == null) {
-      ret = computeForecastCapacity(timeslot);
+    if (forecastCapacities.contains(timeslot)) {
+      return forecastCapacities.get(timeslot);
     }
-    return ret;
+    return computeForecastCapacity(timeslot);
   }
 
   private double computeForecastCapacity (int future)
@@ -205,11 +212,10 @@ class DefaultCapacityOriginator implements CapacityOriginator
 
   private double getBaseCapacity (int future)
   {
-    Double ret = baseCapacities.get(future);
-    if (ret == null) {
-      ret = drawBaseCapacitySample(future);
+    if (baseCapacities.contains(future)) {
+      return baseCapacities.get(future);
     }
-    return ret;
+    return drawBaseCapacitySample(future);
   }
 
   private double drawBaseCapacitySample (int timeslot)
@@ -234,10 +240,10 @@ class DefaultCapacityOriginator implements CapacityOriginator
             + capacityStructure.getBaseCapacityType());
     }
 
-    Double prevCapacity = baseCapacities.get(timeslot - 1);
-    if (prevCapacity != null) {
+    if (baseCapacities.contains(timeslot - 1)) {
       baseCapacity =
-          SMOOTHING_WEIGHT * prevCapacity + (1 - SMOOTHING_WEIGHT) * baseCapacity;
+          SMOOTHING_WEIGHT * baseCapacities.get(timeslot - 1)
+          + (1 - SMOOTHING_WEIGHT) * baseCapacity;
     }
     baseCapacity = truncateTo2Decimals(baseCapacity);
     baseCapacities.put(timeslot, baseCapacity);
@@ -329,14 +335,10 @@ class DefaultCapacityOriginator implements CapacityOriginator
       List<String> shifts = capacityStructure.getCurtailmentShifts();
       for (int i = 0; i < shifts.size(); ++i) {
         double shiftingFactor = Double.parseDouble(shifts.get(i));
-        double shiftedCapacity = lastCurtailment * shiftingFactor;
-        Double previousShifts = shiftedCurtailments.get(timeslot + i);
-        shiftedCapacity += (previousShifts != null) ? previousShifts : 0;
-        shiftedCurtailments.put(timeslot + i, shiftedCapacity);
+        shiftedCurtailments.add(timeslot + i, lastCurtailment * shiftingFactor);
       }
     }
-    Double currentShift = shiftedCurtailments.get(timeslot);
-    return (currentShift == null) ? capacity : capacity + currentShift;
+    return capacity + shiftedCurtailments.getOrDefault(timeslot, 0.0);
   }
 
   private double adjustCapacityForPeriodicSkew (double capacity, DateTime when,
@@ -24,9 +24,7 @@ import org.powertac.common.repo.TimeslotRepo;
 import org.powertac.factoredcustomer.interfaces.StructureInstance;
 import org.powertac.factoredcustomer.utils.SeedIdGenerator;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 
@@ -43,6 +41,7 @@ public final class TimeseriesGenerator implements StructureInstance
   private TimeslotRepo timeslotRepo;
 
   private final int FORECAST_HORIZON = 2 * 24; // two days
+  private final int ARIMA_LOOKBACK = 26; // oldest term is Zf[t-26]
 
   private String name;
 
@@ -70,7 +69,8 @@ public final class TimeseriesGenerator implements StructureInstance
   @ConfigurableValue(valueType = "List")
   private List<String> refSeries;
 
-  private final Map<Integer, Double> genSeries = new HashMap<>();
+  // Sized on first use, once refSeries has been configured
+  private TimeslotRingBuffer genSeries;
 
   private Random arimaNoise;
 
@@ -96,14 +96,16 @@ public final class TimeseriesGenerator implements StructureInstance
 
   public double generateNext (int timeslot)
   {
-    if (genSeries.isEmpty()) {
+    if (genSeries == null) {
+      genSeries = new TimeslotRingBuffer(name + ".genSeries",
+          refSeries.size() + ARIMA_LOOKBACK + FORECAST_HORIZON);
       initArima101x101GenSeries(timeslot);
     }
-    Double next = genSeries.get(timeslot);
-    if (next == null) {
-      next = generateNextArima101x101(timeslot);
-      genSeries.put(timeslot, next);
+    if (genSeries.contains(timeslot)) {
+      return genSeries.get(timeslot);
     }
+    double next = generateNextArima101x101(timeslot);
+    genSeries.put(timeslot, next);
     return next;
   }
 
@@ -154,11 +156,10 @@ public final class TimeseriesGenerator implements StructureInstance
 
   private double getLog (int timeslot)
   {
-    Double val = genSeries.get(timeslot);
-    if (null == val) {
+    if (!genSeries.contains(timeslot)) {
       log.error("Null value in genSeries for ts " + timeslot);
       return 1.0;
     }
-    return Math.log(val);
+    return Math.log(genSeries.get(timeslot));
   }
 }
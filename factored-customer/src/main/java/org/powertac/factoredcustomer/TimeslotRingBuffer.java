@@ -0,0 +1,143 @@
+/*
+* Copyright 2018 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an
+* "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+* either express or implied. See the License for the specific language
+* governing permissions and limitations under the License.
+*/
+
+package org.powertac.factoredcustomer;
+
+import java.util.Arrays;
+
+
+/**
+ * Fixed-size, timeslot-indexed store of primitive doubles. It replaces the
+ * unbounded @code{Map<Integer, Double>} histories in the capacity originators
+ * and the time series generator. The buffer covers a sliding window of
+ * @code{capacity} timeslots ending at the newest timeslot written so far;
+ * older entries are overwritten as the window moves forward. Reading or
+ * writing a timeslot that has already slid out of the window is an error,
+ * because the value it would return has been discarded.
+ */
+final class TimeslotRingBuffer
+{
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  private final String name;
+  private final int capacity;
+  private final int[] timeslots;
+  private final double[] values;
+  private int newest = EMPTY;
+
+  TimeslotRingBuffer (String name, int capacity)
+  {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Ring buffer " + name
+          + ": capacity must be positive, was " + capacity);
+    }
+    this.name = name;
+    this.capacity = capacity;
+    timeslots = new int[capacity];
+    values = new double[capacity];
+    Arrays.fill(timeslots, EMPTY);
+  }
+
+  /**
+   * Returns true just in case a value has been stored for the given
+   * timeslot. Timeslots beyond the newest one are simply absent.
+   */
+  boolean contains (int timeslot)
+  {
+    checkWindow(timeslot);
+    return timeslots[indexOf(timeslot)] == timeslot;
+  }
+
+  /**
+   * Returns the value stored for timeslot. Callers are expected to test
+   * with contains() first.
+   */
+  double get (int timeslot)
+  {
+    if (!contains(timeslot)) {
+      throw new ArrayIndexOutOfBoundsException("Ring buffer " + name
+          + ": no value stored for timeslot " + timeslot);
+    }
+    return values[indexOf(timeslot)];
+  }
+
+  /**
+   * Returns the value stored for timeslot, or defaultValue if none.
+   */
+  double getOrDefault (int timeslot, double defaultValue)
+  {
+    if (!contains(timeslot)) {
+      return defaultValue;
+    }
+    return values[indexOf(timeslot)];
+  }
+
+  /**
+   * Stores value for timeslot, sliding the window forward if timeslot is
+   * newer than anything stored so far.
+   */
+  void put (int timeslot, double value)
+  {
+    checkWindow(timeslot);
+    if (newest == EMPTY || timeslot > newest) {
+      newest = timeslot;
+    }
+    int index = indexOf(timeslot);
+    timeslots[index] = timeslot;
+    values[index] = value;
+  }
+
+  /**
+   * Adds delta to the value stored for timeslot, treating a missing value
+   * as zero.
+   */
+  void add (int timeslot, double delta)
+  {
+    put(timeslot, getOrDefault(timeslot, 0.0) + delta);
+  }
+
+  boolean isEmpty ()
+  {
+    return newest == EMPTY;
+  }
+
+  int getCapacity ()
+  {
+    return capacity;
+  }
+
+  /**
+   * Oldest timeslot still covered by the window.
+   */
+  int getOldestTimeslot ()
+  {
+    return (newest == EMPTY) ? EMPTY : newest - capacity + 1;
+  }
+
+  private void checkWindow (int timeslot)
+  {
+    if (newest != EMPTY && timeslot <= newest - capacity) {
+      throw new ArrayIndexOutOfBoundsException("Ring buffer " + name
+          + ": timeslot " + timeslot + " is outside the window ["
+          + getOldestTimeslot() + ", " + newest + "]");
+    }
+  }
+
+  private int indexOf (int timeslot)
+  {
+    return Math.floorMod(timeslot, capacity);
+  }
+}
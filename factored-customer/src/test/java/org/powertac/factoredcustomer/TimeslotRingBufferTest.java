@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package org.powertac.factoredcustomer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TimeslotRingBufferTest
+{
+  private TimeslotRingBuffer buffer;
+
+  @Before
+  public void setUp ()
+  {
+    buffer = new TimeslotRingBuffer("test", 4);
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    assertTrue("new buffer is empty", buffer.isEmpty());
+    assertFalse("nothing stored", buffer.contains(360));
+    assertEquals("default returned", 1.5, buffer.getOrDefault(360, 1.5), 1e-9);
+  }
+
+  @Test
+  public void testPutGet ()
+  {
+    buffer.put(360, 1.0);
+    buffer.put(362, 3.0);
+    assertTrue("360 stored", buffer.contains(360));
+    assertFalse("361 missing", buffer.contains(361));
+    assertEquals("value at 360", 1.0, buffer.get(360), 1e-9);
+    assertEquals("value at 362", 3.0, buffer.get(362), 1e-9);
+    assertFalse("future missing", buffer.contains(400));
+  }
+
+  @Test
+  public void testAdd ()
+  {
+    buffer.add(360, 1.0);
+    buffer.add(360, 2.5);
+    assertEquals("accumulated", 3.5, buffer.get(360), 1e-9);
+  }
+
+  @Test
+  public void testSlidingWindow ()
+  {
+    for (int ts = 360; ts < 366; ts++) {
+      buffer.put(ts, ts * 10.0);
+    }
+    assertEquals("oldest", 362, buffer.getOldestTimeslot());
+    assertEquals("value at 362", 3620.0, buffer.get(362), 1e-9);
+    assertEquals("value at 365", 3650.0, buffer.get(365), 1e-9);
+  }
+
+  @Test
+  public void testStaleSlotNotReused ()
+  {
+    buffer.put(360, 1.0);
+    // same ring index as 360, slides the window past it
+    buffer.put(364, 2.0);
+    assertFalse("gap is empty", buffer.contains(363));
+    assertEquals("value at 364", 2.0, buffer.get(364), 1e-9);
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void testReadBeforeWindow ()
+  {
+    for (int ts = 360; ts < 366; ts++) {
+      buffer.put(ts, 1.0);
+    }
+    buffer.contains(361);
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void testWriteBeforeWindow ()
+  {
+    buffer.put(370, 1.0);
+    buffer.put(366, 1.0);
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void testGetMissing ()
+  {
+    buffer.put(360, 1.0);
+    buffer.get(361);
+  }
+}
@@ -75,6 +75,7 @@ public class CpGenco extends Broker
   private List<String> coefficients = Arrays.asList(".007", ".1", "16.0");
   private double[] coefficientArray = null;
   private double[][] timeslotCoefficients; // ring buffer
+  private double[][] timeslotCurves; // supply curves, parallel ring buffer
   private int ringOffset = -1; // uninitialized
   private int lastTsGenerated = -1;
 
@@ -119,16 +120,19 @@ public class CpGenco extends Broker
       log.error("wrong number of coefficients for quadratic");
     int to = Competition.currentCompetition().getTimeslotsOpen();
     timeslotCoefficients = new double[to][getCoefficients().size()];
+    timeslotCurves = new double[to][];
   }
 
   /**
    * Generates Orders in the market to sell remaining available capacity.
+   * The orders for all open timeslots are routed as a single batch.
    */
   public void generateOrders (Instant now, List<Timeslot> openSlots)
   {
     log.info("Generate orders for " + getUsername());
+    ArrayList<Order> offers = new ArrayList<Order>();
     for (Timeslot slot: openSlots) {
-      function.setCoefficients(getTsCoefficients(slot));
+      function.setCurve(getTsCurve(slot));
       MarketPosition posn =
         findMarketPositionByTimeslot(slot.getSerialNumber());
       double start = 0.0;
@@ -148,10 +152,25 @@ public class CpGenco extends Broker
         Order offer = new Order(this, slot.getSerialNumber(), -dx, price);
         log.debug("new order (ts, qty, price): (" + slot.getSerialNumber()
                   + ", " + (-dx) + ", " + price + ")");
-        brokerProxyService.routeMessage(offer);
+        offers.add(offer);
         start += dx;
       }
     }
+    if (!offers.isEmpty())
+      brokerProxyService.routeMessages(this, offers);
+  }
+
+  // Returns the supply curve for a timeslot, built once from its
+  // coefficients and reused each time the timeslot is offered.
+  private double[] getTsCurve (Timeslot slot)
+  {
+    double[] coefficients = getTsCoefficients(slot);
+    int index = (slot.getSerialNumber() - ringOffset)
+        % timeslotCoefficients.length;
+    if (null == timeslotCurves[index]) {
+      timeslotCurves[index] = function.makeCurve(coefficients);
+    }
+    return timeslotCurves[index];
   }
 
   // Converts a timeslot to its index in the coefficient ring buffer,
@@ -164,12 +183,14 @@ public class CpGenco extends Broker
       ringOffset = slot.getSerialNumber();
       lastTsGenerated = slot.getSerialNumber();
       walkCoefficients(getCoefficientArray(), timeslotCoefficients[0]);
+      timeslotCurves[0] = null;
       logCoefficients(slot.getSerialNumber(), timeslotCoefficients[0]);
     }
     int index = (slot.getSerialNumber() - ringOffset) % horizon;
     if (slot.getSerialNumber() > lastTsGenerated) {
       int prev = (slot.getSerialNumber() - ringOffset - 1) % horizon;
       walkCoefficients(timeslotCoefficients[prev], timeslotCoefficients[index]);
+      timeslotCurves[index] = null;
       logCoefficients(slot.getSerialNumber(), timeslotCoefficients[index]);
       lastTsGenerated = slot.getSerialNumber();
     }
@@ -412,6 +433,7 @@ public class CpGenco extends Broker
   public CpGenco withPriceInterval (double interval)
   {
     this.priceInterval = interval;
+    clearCurves();
     return this;
   }
 
@@ -453,6 +475,7 @@ public class CpGenco extends Broker
   public CpGenco withKneeDemand (double demand)
   {
     this.kneeDemand = demand;
+    clearCurves();
     return this;
   }
 
@@ -473,20 +496,43 @@ public class CpGenco extends Broker
   public CpGenco withKneeSlope (double mult)
   {
     this.kneeSlope = mult;
+    clearCurves();
     return this;
   }
 
+  // Drops the cached supply curves after a change to the curve shape
+  private void clearCurves ()
+  {
+    if (null != timeslotCurves)
+      Arrays.fill(timeslotCurves, null);
+  }
+
   /**
    * Function of the form price = a*qty^2 + b*qty + c
    * Probably this should be done with Newton-Rapson, but it's a pain
    * to re-define the polynomial for each bid.
+   *
+   * The function for a timeslot is precomputed by makeCurve() into a
+   * primitive array holding one segment below the knee and one at or above
+   * it, so evaluating it does not disturb the coefficients.
    */
   class QuadraticFunction
   {
-    // coefficients
-    double a = 1.0;
-    double b = 1.0;
-    double c = 1.0;
+    // curve layout: the knee, followed by two segments
+    static final int KNEE = 0;
+    static final int LOWER = 1;
+    static final int UPPER = 7;
+    static final int CURVE_SIZE = 13;
+
+    // segment layout, relative to the start of the segment
+    static final int A = 0;
+    static final int B = 1;
+    static final int C = 2;
+    static final int INTERVAL = 3;
+    static final int VERTEX = 4; // -b / 2a
+    static final int B_SQUARED = 5;
+
+    private double[] curve;
 
     //final double kneeDemand = 25; //20; // 10; // 30; // 0;// 35; //50;
 
@@ -498,11 +544,37 @@ public class CpGenco extends Broker
       return true;
     }
 
-    void setCoefficients (double[] coef)
+    // builds the curve for the given coefficients, using the current
+    // kneeDemand, kneeSlope, and priceInterval
+    double[] makeCurve (double[] coef)
+    {
+      double[] result = new double[CURVE_SIZE];
+      result[KNEE] = kneeDemand;
+      setSegment(result, LOWER, coef[0], coef[1], coef[2], priceInterval);
+      // above the knee the slope rises, and the curve stays continuous
+      double y0 = coef[0] * kneeDemand * kneeDemand
+          + coef[1] * kneeDemand + coef[2];
+      double a = coef[0] * kneeSlope;
+      double b = coef[1] * kneeSlope;
+      double c = y0 - a * kneeDemand * kneeDemand - b * kneeDemand;
+      setSegment(result, UPPER, a, b, c, priceInterval * 2);
+      return result;
+    }
+
+    private void setSegment (double[] result, int offset, double a,
+                             double b, double c, double interval)
+    {
+      result[offset + A] = a;
+      result[offset + B] = b;
+      result[offset + C] = c;
+      result[offset + INTERVAL] = interval;
+      result[offset + VERTEX] = -b / (2.0 * a);
+      result[offset + B_SQUARED] = b * b;
+    }
+
+    void setCurve (double[] curve)
     {
-      a = coef[0];
-      b = coef[1];
-      c = coef[2];
+      this.curve = curve;
     }
 
     // returns the delta-x for a given x value and the nominal y-interval
@@ -510,62 +582,28 @@ public class CpGenco extends Broker
     // c = as^2 + bs + p where s is startX and p is priceInterval 
     double getDeltaX (double startX)
     {
-      // store
-      double aOrig = a;
-      double bOrig = b;
-      double cOrig = c;
-      double priceIntervalOrig = priceInterval;
-
-      if (startX >= kneeDemand) {
-        scaleCoefficients(); 
-      }
-
-
+      int s = segment(startX);
+      double a = curve[s + A];
+      double b = curve[s + B];
       double endX =
-        -b / (2.0 * a)
-            + Math.sqrt(b * b
+        curve[s + VERTEX]
+            + Math.sqrt(curve[s + B_SQUARED]
                         + 4.0 * a * (a * startX * startX
                                      + b * startX
-                                     + priceInterval)) / (2.0 * a);
-
-      
-      // restore
-      a = aOrig;
-      b = bOrig;
-      c = cOrig;
-      priceInterval = priceIntervalOrig;
-
+                                     + curve[s + INTERVAL])) / (2.0 * a);
       return (endX - startX);
     }
 
     // returns a price given a qty
     double getY (double x)
     {
-      // store
-      double aOrig = a;
-      double bOrig = b;
-      double cOrig = c;
-      double priceIntervalOrig = priceInterval;
-      if (x >= kneeDemand) {
-        scaleCoefficients(); 
-      }
-    
-      double result = (a * x * x + b * x + c);
-    
-      // restore
-      a = aOrig;
-      b = bOrig;
-      c = cOrig;
-      priceInterval = priceIntervalOrig;
-      return result;
+      int s = segment(x);
+      return (curve[s + A] * x * x + curve[s + B] * x + curve[s + C]);
     }
 
-    private void scaleCoefficients() {
-      double y0 = a * kneeDemand * kneeDemand + b * kneeDemand + c;
-      a *= kneeSlope; // 4; // 3; // 4; // 3; // 2;
-      b *= kneeSlope; // 4; // 3; // 4; // 3; // 2;
-      c = y0 - a * kneeDemand * kneeDemand - b * kneeDemand;
-      priceInterval *= 2;
+    private int segment (double x)
+    {
+      return (x >= curve[KNEE]) ? UPPER : LOWER;
     }
   }
 
@@ -16,12 +16,13 @@
 package org.powertac.genco;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -253,12 +254,13 @@ public class CpGencoTest
     // capture orders
     final ArrayList<Order> orderList = new ArrayList<Order>(); 
     doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
       public Object answer(InvocationOnMock invocation) {
         Object[] args = invocation.getArguments();
-        orderList.add((Order)args[0]);
+        orderList.addAll((List<Order>)args[1]);
         return null;
       }
-    }).when(mockProxy).routeMessage(isA(Order.class));
+    }).when(mockProxy).routeMessages(eq(genco), anyList());
     // set up some timeslots
     Timeslot ts1 = timeslotRepo.makeTimeslot(start);
     Timeslot ts2 = timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR));
@@ -282,12 +284,13 @@ public class CpGencoTest
     // capture orders
     final ArrayList<Order> orderList = new ArrayList<Order>(); 
     doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
       public Object answer(InvocationOnMock invocation) {
         Object[] args = invocation.getArguments();
-        orderList.add((Order)args[0]);
+        orderList.addAll((List<Order>)args[1]);
         return null;
       }
-    }).when(mockProxy).routeMessage(isA(Order.class));
+    }).when(mockProxy).routeMessages(eq(genco), anyList());
     // set up some timeslots
     Timeslot ts1 = timeslotRepo.makeTimeslot(start);
     Timeslot ts2 = timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR));
@@ -300,4 +303,127 @@ public class CpGencoTest
     genco.generateOrders(start, timeslotRepo.enabledTimeslots());
     assertEquals("73 orders", 73, orderList.size());
   }
+
+  // Orders must match those produced by evaluating the quadratic directly
+  // for each offer, as generateOrders() did before the curves were cached.
+  @Test
+  public void generateOrdersEquivalence ()
+  {
+    init();
+    genco.withMinQuantity(100.0);
+    genco.withPriceInterval(5.0);
+    final ArrayList<Order> orderList = new ArrayList<Order>();
+    doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        orderList.addAll((List<Order>)args[1]);
+        return null;
+      }
+    }).when(mockProxy).routeMessages(eq(genco), anyList());
+    ArrayList<Timeslot> slots = new ArrayList<Timeslot>();
+    for (int i = 0; i < 40; i++) {
+      slots.add(timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR * i)));
+    }
+
+    // reference generator, seeded the same way as the genco
+    NormalDistribution normal = new NormalDistribution(0.0, 1.0);
+    normal.reseedRandomGenerator(1l);
+    double[][] ring = new double[4][];
+    double[] base = genco.getCoefficientArray();
+    int lastGenerated = -1;
+    int calls = 0;
+    for (int round = 0; round < 36; round++) {
+      List<Timeslot> open = slots.subList(round, round + 4);
+      // sell some power in a few timeslots
+      if (round % 3 == 1) {
+        Timeslot last = open.get(3);
+        MarketPosition posn =
+            new MarketPosition(genco, last, -20.0 * round / 3);
+        genco.addMarketPosition(posn, last.getSerialNumber());
+      }
+      orderList.clear();
+      genco.generateOrders(start, open);
+      calls += 1;
+
+      ArrayList<double[]> expected = new ArrayList<double[]>();
+      for (Timeslot slot : open) {
+        int sn = slot.getSerialNumber();
+        int offset = sn - slots.get(0).getSerialNumber();
+        if (offset > lastGenerated) {
+          double[] prev = (0 == offset) ? base : ring[(offset - 1) % 4];
+          ring[offset % 4] = walk(normal, base, prev);
+          lastGenerated = offset;
+        }
+        double[] coef = ring[offset % 4];
+        MarketPosition posn = genco.findMarketPositionByTimeslot(sn);
+        double qty = (null == posn) ? 0.0 : -posn.getOverallBalance();
+        while (qty < 100.0) {
+          double[] ran = normal.sample(2);
+          double price = referenceY(coef, qty, 5.0) + ran[0] * 0.1;
+          double dx = referenceDeltaX(coef, qty, 5.0);
+          dx = Math.max(0.0, ran[1] * dx * 0.1 + dx);
+          expected.add(new double[] {sn, -dx, price});
+          qty += dx;
+        }
+      }
+
+      assertEquals("round " + round + " order count",
+                   expected.size(), orderList.size());
+      for (int i = 0; i < expected.size(); i++) {
+        Order order = orderList.get(i);
+        assertEquals("timeslot", (int) expected.get(i)[0],
+                     order.getTimeslotIndex());
+        assertEquals("qty", expected.get(i)[1], order.getMWh(), 1e-12);
+        assertEquals("price", expected.get(i)[2], order.getLimitPrice(),
+                     1e-12);
+      }
+    }
+    verify(mockProxy, times(calls)).routeMessages(eq(genco), anyList());
+  }
+
+  // one step of the coefficient random walk, with default parameters
+  private double[] walk (NormalDistribution normal, double[] coef, double[] s0)
+  {
+    double[] ran = normal.sample(2);
+    double[] s1 = new double[3];
+    s1[0] = s0[0] + ran[0] * 0.004 * coef[0] + (coef[0] - s0[0]) * 0.0025;
+    s1[1] = s0[1];
+    s1[2] = s0[2] + ran[1] * 0.005 * coef[2] + (coef[2] - s0[2]) * 0.002;
+    return s1;
+  }
+
+  // quadratic with the default knee at 25 MWh and slope multiplier 5
+  private double[] scaled (double[] coef, double x)
+  {
+    double a = coef[0];
+    double b = coef[1];
+    double c = coef[2];
+    if (x >= 25.0) {
+      double y0 = a * 25.0 * 25.0 + b * 25.0 + c;
+      a *= 5.0;
+      b *= 5.0;
+      c = y0 - a * 25.0 * 25.0 - b * 25.0;
+    }
+    return new double[] {a, b, c};
+  }
+
+  private double referenceY (double[] coef, double x, double interval)
+  {
+    double[] abc = scaled(coef, x);
+    return abc[0] * x * x + abc[1] * x + abc[2];
+  }
+
+  private double referenceDeltaX (double[] coef, double x, double interval)
+  {
+    double[] abc = scaled(coef, x);
+    double a = abc[0];
+    double b = abc[1];
+    if (x >= 25.0)
+      interval *= 2;
+    double endX = -b / (2.0 * a)
+        + Math.sqrt(b * b + 4.0 * a * (a * x * x + b * x + interval))
+        / (2.0 * a);
+    return endX - x;
+  }
 }
@@ -0,0 +1,773 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.logtool.common.DomainObjectReader;
+import org.powertac.logtool.ifc.Analyzer;
+import org.powertac.logtool.ifc.BatchAnalyzer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Runs one Analyzer class over many state logs in parallel, one new
+ * analyzer instance per log. Sources may be state-log files or game
+ * archives, directories that contain them, or an archive of game logs
+ * such as a tournament download.
+ *
+ * Each worker thread has a class loader of its own, with its own copy of
+ * every class except those of the JDK and the logging framework, and
+ * reads one game at a time in it. Games read at the same time therefore
+ * share no static state, such as the SpringApplicationContext that domain
+ * objects look up their services in, or the current Competition. A worker
+ * keeps its class loader and its Spring context for its next game, so
+ * classes are loaded and compiled once per worker rather than once per
+ * game: before each game the repositories are recycled, the
+ * DomainObjectReader forgets the objects of the last game, and the
+ * listeners of the last game's analyzer are dropped. Analyzers that
+ * implement BatchAnalyzer write their results to outputDir/game.suffix;
+ * when all runs are done, a line per game is written to
+ * outputDir/summary.csv.
+ */
+public class BatchLogtool
+{
+  static private Logger log = LogManager.getLogger(BatchLogtool.class.getName());
+
+  static final String SUMMARY = "summary.csv";
+
+  // packages loaded once for all workers
+  static private final String[] SHARED = {
+    "java.", "javax.", "jdk.", "sun.", "com.sun.", "org.w3c.", "org.xml.",
+    "org.apache.logging.", "org.slf4j."
+  };
+
+  static private final String[] EXTENSIONS = {
+    ".tar.gz", ".tar.bz2", ".tar.xz", ".tgz", ".tar", ".zip",
+    ".state.gz", ".state.bz2", ".state.xz", ".state"
+  };
+
+  static private CompressorStreamFactory compressFactory = new CompressorStreamFactory();
+  static private ArchiveStreamFactory archiveFactory = new ArchiveStreamFactory();
+
+  private final String analyzerName;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int parseThreads = 0;
+  private File outputDirectory = new File(".");
+  private String suffix = ".data";
+  private URL[] classpath = null;
+
+  // workers not reading a game, and all of them
+  private final ConcurrentLinkedQueue<Worker> idle =
+      new ConcurrentLinkedQueue<>();
+  private final List<Worker> workers = new CopyOnWriteArrayList<>();
+
+  public BatchLogtool (String analyzerName)
+  {
+    super();
+    this.analyzerName = analyzerName;
+  }
+
+  /**
+   * Usage: BatchLogtool [-threads n] [-output dir] [-suffix ext]
+   *                     analyzer source ...
+   */
+  public static void main (String[] args)
+  {
+    int exitCode = 0;
+    String error = processCmdLine(args);
+    if (null != error) {
+      System.out.println(error);
+      exitCode = -1;
+    }
+    System.exit(exitCode);
+  }
+
+  static String processCmdLine (String[] args)
+  {
+    String usage = "Usage: BatchLogtool [-threads n] [-output dir] "
+        + "[-suffix ext] analyzer source ...";
+    int i = 0;
+    int threads = 0;
+    File output = null;
+    String suffix = null;
+    try {
+      while (i < args.length && args[i].startsWith("-")) {
+        if (i + 1 == args.length) {
+          return usage;
+        }
+        switch (args[i]) {
+        case "-threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "-output":
+          output = new File(args[i + 1]);
+          break;
+        case "-suffix":
+          suffix = args[i + 1];
+          break;
+        default:
+          return usage;
+        }
+        i += 2;
+      }
+    }
+    catch (NumberFormatException nfe) {
+      return usage;
+    }
+    if (args.length - i < 2) {
+      return usage;
+    }
+    BatchLogtool batch = new BatchLogtool(args[i]);
+    if (threads > 0) {
+      batch.setThreads(threads);
+    }
+    if (null != output) {
+      batch.setOutputDirectory(output);
+    }
+    if (null != suffix) {
+      batch.setSuffix(suffix);
+    }
+    List<Result> results =
+        batch.run(Arrays.asList(args).subList(i + 1, args.length));
+    int failed = 0;
+    for (Result result : results) {
+      if (!result.isOk()) {
+        failed += 1;
+      }
+    }
+    if (failed > 0) {
+      return failed + " of " + results.size() + " games failed, see "
+          + new File(batch.getOutputDirectory(), SUMMARY).getPath();
+    }
+    return null;
+  }
+
+  /**
+   * Runs the analyzer over every game found in the given sources and
+   * writes the summary. Returns the results in the order the games were
+   * found.
+   */
+  public List<Result> run (List<String> sources)
+  {
+    List<Result> results = new ArrayList<>();
+    Path tempDir = null;
+    try {
+      if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+        log.error("Cannot create output directory {}", outputDirectory);
+        return results;
+      }
+      tempDir = Files.createTempDirectory("logtool-batch");
+      List<Game> games = findGames(sources, tempDir.toFile());
+      log.info("Running {} on {} games with {} threads",
+               analyzerName, games.size(), threads);
+      ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "logtool-batch");
+        thread.setDaemon(true);
+        return thread;
+      });
+      try {
+        List<Future<Result>> pending = new ArrayList<>();
+        for (Game game : games) {
+          pending.add(pool.submit(() -> runGame(game)));
+        }
+        for (Future<Result> future : pending) {
+          results.add(future.get());
+        }
+      }
+      finally {
+        pool.shutdownNow();
+        closeWorkers();
+      }
+      writeSummary(results);
+    }
+    catch (IOException ioe) {
+      log.error("Batch failed: {}", ioe.toString());
+    }
+    catch (InterruptedException | ExecutionException e) {
+      log.error("Batch interrupted: {}", e.toString());
+    }
+    finally {
+      if (null != tempDir) {
+        deleteTree(tempDir.toFile());
+      }
+    }
+    return results;
+  }
+
+  // Expands the sources into a list of games. Files found in directories
+  // are taken to be one game each; an archive given as a source is
+  // searched for state logs and game archives, and is one game itself if
+  // there are none.
+  List<Game> findGames (List<String> sources, File tempDir) throws IOException
+  {
+    List<Game> games = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    for (String source : sources) {
+      File file = new File(source);
+      if (file.isDirectory()) {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(file.toPath())) {
+          paths = walk.filter(path -> Files.isRegularFile(path)
+                              && isStateLog(path.getFileName().toString()))
+              .sorted().collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+          games.add(new Game(uniqueName(path.toFile(), names), path.toFile()));
+        }
+      }
+      else if (!file.canRead()) {
+        log.error("Cannot read {}", source);
+        games.add(new Game(uniqueName(file, names), file));
+      }
+      else {
+        List<File> entries = extractGames(file, tempDir);
+        if (entries.isEmpty()) {
+          games.add(new Game(uniqueName(file, names), file));
+        }
+        for (File entry : entries) {
+          games.add(new Game(uniqueName(entry, names), entry));
+        }
+      }
+    }
+    return games;
+  }
+
+  // Copies the state logs and game archives in an archive of games into
+  // tempDir. A game archive has its state log under log/, so entries
+  // there are left alone and an empty list is returned for it.
+  private List<File> extractGames (File file, File tempDir) throws IOException
+  {
+    List<File> result = new ArrayList<>();
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      try {
+        in = new BufferedInputStream(
+            compressFactory.createCompressorInputStream(in));
+      }
+      catch (CompressorException x) {
+        // not compressed
+      }
+      ArchiveInputStream archive;
+      try {
+        archive = archiveFactory.createArchiveInputStream(in);
+      }
+      catch (ArchiveException x) {
+        // a plain state log
+        return result;
+      }
+      ArchiveEntry entry;
+      while (null != (entry = archive.getNextEntry())) {
+        String name = entry.getName();
+        String base = new File(name).getName();
+        if (entry.isDirectory() || name.startsWith("log/")
+            || !isStateLog(base)) {
+          continue;
+        }
+        File dir = new File(tempDir, Integer.toString(result.size()));
+        dir.mkdirs();
+        File copy = new File(dir, base);
+        Files.copy(archive, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        result.add(copy);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return result;
+  }
+
+  private boolean isStateLog (String name)
+  {
+    if (name.endsWith("init.state")) {
+      return false;
+    }
+    for (String extension : EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Game name from the file name, made unique within the batch
+  private String uniqueName (File file, Set<String> names)
+  {
+    String name = file.getName();
+    for (String extension : EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        name = name.substring(0, name.length() - extension.length());
+        break;
+      }
+    }
+    String result = name;
+    for (int i = 2; !names.add(result); i++) {
+      result = name + "-" + i;
+    }
+    return result;
+  }
+
+  // Reads one game with an idle worker, or a new one if all are busy
+  Result runGame (Game game)
+  {
+    File output = new File(outputDirectory, game.name + suffix);
+    long start = System.currentTimeMillis();
+    String error = null;
+    String summary = null;
+    log.info("Starting {}", game.name);
+    Thread current = Thread.currentThread();
+    ClassLoader saved = current.getContextClassLoader();
+    Worker worker = idle.poll();
+    try {
+      if (null == worker) {
+        worker = createWorker();
+      }
+      current.setContextClassLoader(worker.loader);
+      String[] outcome = worker.read(analyzerName, game.input.getPath(),
+                                     output.getPath(), parseThreads);
+      error = outcome[0];
+      summary = outcome[1];
+    }
+    catch (InvocationTargetException ite) {
+      error = ite.getCause().toString();
+    }
+    catch (Exception e) {
+      error = e.toString();
+    }
+    finally {
+      current.setContextClassLoader(saved);
+      if (null != worker) {
+        idle.add(worker);
+      }
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    if (null == error) {
+      log.info("Finished {} in {} ms", game.name, elapsed);
+    }
+    else {
+      log.error("Game {} failed: {}", game.name, error);
+    }
+    return new Result(game.name, game.input, output, error, summary, elapsed);
+  }
+
+  private Worker createWorker () throws Exception
+  {
+    GameClassLoader loader =
+        new GameClassLoader(getClasspath(), getClass().getClassLoader());
+    try {
+      Class<?> reader =
+          Class.forName(GameReader.class.getName(), true, loader);
+      Worker worker = new Worker(loader, reader);
+      workers.add(worker);
+      return worker;
+    }
+    catch (Exception e) {
+      loader.close();
+      throw e;
+    }
+  }
+
+  private void closeWorkers ()
+  {
+    for (Worker worker : workers) {
+      try {
+        worker.close();
+      }
+      catch (Exception e) {
+        log.warn("Cannot close worker: {}", e.toString());
+      }
+    }
+    workers.clear();
+    idle.clear();
+  }
+
+  private void writeSummary (List<Result> results) throws IOException
+  {
+    File file = new File(outputDirectory, SUMMARY);
+    try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+      out.println("game,status,ms,input,output,summary");
+      for (Result result : results) {
+        out.println(csv(result.getGame()) + ","
+                    + (result.isOk() ? "ok" : csv(result.getError())) + ","
+                    + result.getMillis() + ","
+                    + csv(result.getInput().getPath()) + ","
+                    + csv(result.getOutput().getPath()) + ","
+                    + csv(result.getSummary()));
+      }
+    }
+    log.info("Summary written to {}", file.getPath());
+  }
+
+  private String csv (String value)
+  {
+    if (null == value) {
+      return "";
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+        && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  private void deleteTree (File file)
+  {
+    File[] children = file.listFiles();
+    if (null != children) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    if (!file.delete()) {
+      log.warn("Cannot delete {}", file.getPath());
+    }
+  }
+
+  // The classpath each worker's loader reads from: that of this class's
+  // loader if it can tell us, otherwise java.class.path
+  private URL[] getClasspath () throws MalformedURLException
+  {
+    if (null != classpath) {
+      return classpath;
+    }
+    ClassLoader loader = getClass().getClassLoader();
+    if (loader instanceof URLClassLoader) {
+      classpath = ((URLClassLoader) loader).getURLs();
+    }
+    else {
+      String[] entries =
+          System.getProperty("java.class.path").split(File.pathSeparator);
+      URL[] urls = new URL[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        urls[i] = new File(entries[i]).toURI().toURL();
+      }
+      classpath = urls;
+    }
+    return classpath;
+  }
+
+  public void setClasspath (URL[] classpath)
+  {
+    this.classpath = classpath;
+  }
+
+  public int getThreads ()
+  {
+    return threads;
+  }
+
+  /** Number of games read at the same time */
+  public void setThreads (int threads)
+  {
+    this.threads = Math.max(1, threads);
+  }
+
+  public int getParseThreads ()
+  {
+    return parseThreads;
+  }
+
+  /**
+   * Parse threads for each game, as in LogtoolCore. The default is zero,
+   * since the games themselves keep the processors busy.
+   */
+  public void setParseThreads (int parseThreads)
+  {
+    this.parseThreads = Math.max(0, parseThreads);
+  }
+
+  public File getOutputDirectory ()
+  {
+    return outputDirectory;
+  }
+
+  public void setOutputDirectory (File outputDirectory)
+  {
+    this.outputDirectory = outputDirectory;
+  }
+
+  public String getSuffix ()
+  {
+    return suffix;
+  }
+
+  /** Extension of the per-game output files */
+  public void setSuffix (String suffix)
+  {
+    this.suffix = suffix;
+  }
+
+  // A state log to be read, and the name its results go under
+  static class Game
+  {
+    final String name;
+    final File input;
+
+    Game (String name, File input)
+    {
+      super();
+      this.name = name;
+      this.input = input;
+    }
+  }
+
+  /**
+   * Outcome of one game in a batch.
+   */
+  public static class Result
+  {
+    private final String game;
+    private final File input;
+    private final File output;
+    private final String error;
+    private final String summary;
+    private final long millis;
+
+    Result (String game, File input, File output, String error,
+            String summary, long millis)
+    {
+      super();
+      this.game = game;
+      this.input = input;
+      this.output = output;
+      this.error = error;
+      this.summary = summary;
+      this.millis = millis;
+    }
+
+    public String getGame ()
+    {
+      return game;
+    }
+
+    public File getInput ()
+    {
+      return input;
+    }
+
+    /** Where a BatchAnalyzer was told to write its results */
+    public File getOutput ()
+    {
+      return output;
+    }
+
+    public boolean isOk ()
+    {
+      return null == error;
+    }
+
+    /** Error message, or null if the game was read to the end */
+    public String getError ()
+    {
+      return error;
+    }
+
+    /** The analyzer's summary, if it is a BatchAnalyzer */
+    public String getSummary ()
+    {
+      return summary;
+    }
+
+    public long getMillis ()
+    {
+      return millis;
+    }
+  }
+
+  // A worker's class loader and the GameReader loaded in it
+  static class Worker
+  {
+    final GameClassLoader loader;
+    private final Object reader;
+    private final Method read;
+    private final Method close;
+
+    Worker (GameClassLoader loader, Class<?> readerClass) throws Exception
+    {
+      super();
+      this.loader = loader;
+      reader = readerClass.getConstructor().newInstance();
+      read = readerClass.getMethod("read", String.class, String.class,
+                                   String.class, int.class);
+      close = readerClass.getMethod("close");
+    }
+
+    String[] read (String analyzerName, String input, String output,
+                   int parseThreads)
+      throws Exception
+    {
+      return (String[]) read.invoke(reader, analyzerName, input, output,
+                                    parseThreads);
+    }
+
+    void close () throws Exception
+    {
+      try {
+        close.invoke(reader);
+      }
+      finally {
+        loader.close();
+      }
+    }
+  }
+
+  /**
+   * Reads games one at a time in a Spring context of its own. BatchLogtool
+   * loads this class in each worker's class loader and calls it through
+   * reflection, so it is public.
+   */
+  public static class GameReader
+  {
+    private ClassPathXmlApplicationContext context;
+
+    public GameReader ()
+    {
+      super();
+    }
+
+    /**
+     * Reads one state log with a new instance of the named analyzer.
+     * Returns the error, if any, and the analyzer's summary.
+     */
+    public String[] read (String analyzerName, String input, String output,
+                          int parseThreads)
+      throws Exception
+    {
+      if (null == context) {
+        context = new ClassPathXmlApplicationContext("logtool.xml");
+      }
+      ApplicationContext toolContext = context;
+      try {
+        DomainObjectReader reader =
+            (DomainObjectReader) context.getBean("domainObjectReader");
+        reader.restoreListeners();
+        // the last game's analyzer may have pointed it at its own context
+        Object holder = context.getBean("springApplicationContext");
+        if (holder instanceof ApplicationContextAware) {
+          ((ApplicationContextAware) holder).setApplicationContext(context);
+        }
+        Analyzer tool =
+            (Analyzer) Class.forName(analyzerName).newInstance();
+        LogtoolCore core = (LogtoolCore) context.getBean("logtoolCore");
+        if (tool instanceof LogtoolContext) {
+          LogtoolContext lt = (LogtoolContext) tool;
+          if (null == lt.getContext()) {
+            lt.setContext(context);
+          }
+          toolContext = lt.getContext();
+          core = lt.getCore();
+        }
+        if (tool instanceof BatchAnalyzer) {
+          ((BatchAnalyzer) tool).setOutputFile(new File(output));
+        }
+        core.setParseThreads(parseThreads);
+        String error = core.readStateLog(input, tool);
+        String summary = null;
+        if (null == error && tool instanceof BatchAnalyzer) {
+          summary = ((BatchAnalyzer) tool).getSummary();
+        }
+        return new String[] {error, summary};
+      }
+      finally {
+        // an analyzer's own context is closed, the worker's is kept
+        if (toolContext != context
+            && toolContext instanceof ConfigurableApplicationContext) {
+          ((ConfigurableApplicationContext) toolContext).close();
+        }
+      }
+    }
+
+    public void close ()
+    {
+      if (null != context) {
+        context.close();
+        context = null;
+      }
+    }
+  }
+
+  // Loads its own copy of every class on the classpath, except for the
+  // shared packages, which come from the parent
+  static class GameClassLoader extends URLClassLoader
+  {
+    GameClassLoader (URL[] urls, ClassLoader parent)
+    {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass (String name, boolean resolve)
+      throws ClassNotFoundException
+    {
+      for (String prefix : SHARED) {
+        if (name.startsWith(prefix)) {
+          return super.loadClass(name, resolve);
+        }
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> result = findLoadedClass(name);
+        if (null == result) {
+          try {
+            result = findClass(name);
+          }
+          catch (ClassNotFoundException cnf) {
+            return super.loadClass(name, resolve);
+          }
+        }
+        if (resolve) {
+          resolveClass(result);
+        }
+        return result;
+      }
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.powertac.logtool;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -128,6 +129,22 @@ public abstract class LogtoolContext
     core.readStateLog(inputFile, analyzer);
   }
 
+  /**
+   * Command-line processor for analyzers that only need timeslots
+   * firstTimeslot through lastTimeslot of an uncompressed or compressed
+   * state-log file.
+   */
+  protected void cli (String inputFile, int firstTimeslot, int lastTimeslot,
+                      Analyzer analyzer)
+  {
+    LogtoolCore core = getCore();
+    String error = core.readStateLog(new File(inputFile), firstTimeslot,
+                                     lastTimeslot, analyzer);
+    if (null != error) {
+      log.error(error);
+    }
+  }
+
   /**
    * Passthrough for event registration
    */
@@ -23,10 +23,21 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.List;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.PostConstruct;
 
@@ -41,13 +52,17 @@ import org.apache.logging.log4j.LogManager;
 import org.powertac.common.msg.SimEnd;
 import org.powertac.common.msg.SimStart;
 import org.powertac.common.repo.DomainRepo;
-import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.logtool.common.DomainObjectReader;
+import org.powertac.logtool.common.DomainObjectReader.ParsedLine;
 import org.powertac.logtool.common.MissingDomainObject;
 import org.powertac.logtool.common.DomainBuilder;
 import org.powertac.logtool.common.NewObjectListener;
+import org.powertac.logtool.common.StateLogIndex;
+import org.powertac.logtool.common.StateLogIndex.SeekPlan;
+import org.powertac.logtool.common.StateLogLineReader;
 import org.powertac.logtool.ifc.Analyzer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
 
 /**
@@ -66,9 +81,24 @@ public class LogtoolCore
   @Autowired
   private DomainBuilder builder;
 
+  @Autowired
+  private ApplicationContext context;
+
   private boolean simEnd = false;
   private boolean isInterrupted = false;
 
+  // index of the most recently indexed file
+  private String indexKey = null;
+  private StateLogIndex index = null;
+
+  // pipeline settings; lines are handed to the parser pool in batches
+  static final int BATCH_SIZE = 512;
+  static final int BATCHES_PER_THREAD = 4;
+  static private final Future<ParsedLine[]> END_OF_LOG =
+      CompletableFuture.completedFuture(new ParsedLine[0]);
+  private int parseThreads =
+      Math.max(0, Runtime.getRuntime().availableProcessors() - 2);
+
   static private CompressorStreamFactory compressFactory = new CompressorStreamFactory();
   static private ArchiveStreamFactory archiveFactory = new ArchiveStreamFactory();
 
@@ -85,6 +115,7 @@ public class LogtoolCore
     reader.registerNewObjectListener(new SimStartHandler(), SimStart.class);
     reader.registerNewObjectListener(new SimEndHandler(), SimEnd.class);
     builder.setup();
+    reader.retainListeners();
   }
 
   /**
@@ -170,64 +201,277 @@ public class LogtoolCore
    */
   public String readStateLog (InputStream inputStream, Analyzer... tools)
   {
-    Reader inputReader;
-    String line = null;
-
     log.info("Reading state log from stream for {}",
              tools[0].getClass().getName());
     simEnd = false;
     isInterrupted = false;
 
     try {
-      // Stack compression logic if appropriate
-      try {
-        if (!inputStream.markSupported()) {
-          inputStream = new BufferedInputStream(inputStream);
+      inputStream = openStateLog(inputStream);
+      if (inputStream == null) {
+        return "Cannot read archive, no valid state log entry";
+      }
+
+      // Now go read the state-log
+      setupTools(tools);
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(inputStream));
+      String error = readLines(in, Integer.MAX_VALUE);
+      if (null != error) {
+        return error;
+      }
+      reportTools(tools);
+    }
+    catch (IOException e) {
+      return "Error reading from stream";
+    }
+    return null;
+  }
+
+  /**
+   * Reads the part of a state-log file that covers timeslots
+   * firstTimeslot through lastTimeslot. Objects created earlier that are
+   * still referenced from that point on are rebuilt first, from the lines
+   * listed in the file's StateLogIndex, and the analyzers see their
+   * creation as they would in a full replay. Uncompressed files are read
+   * from the seek point; compressed ones are decompressed from the start,
+   * but only the lines in the plan are parsed.
+   */
+  public String readStateLog (File inputFile, int firstTimeslot,
+                              int lastTimeslot, Analyzer... tools)
+  {
+    log.info("Reading timeslots {}-{} of {} for {}",
+             firstTimeslot, lastTimeslot, inputFile.getPath(),
+             tools[0].getClass().getName());
+    simEnd = false;
+    isInterrupted = false;
+
+    try {
+      StateLogIndex index = indexStateLog(inputFile);
+      if (null == index) {
+        return "Cannot read archive, no valid state log entry";
+      }
+      SeekPlan plan = index.planSeek(firstTimeslot);
+      if (null == plan) {
+        return "No timeslot " + firstTimeslot + " in " + inputFile.getPath();
+      }
+      int lineCount = index.getEndLineNumber(lastTimeslot) - plan.getStartLine();
+      setupTools(tools);
+      String error;
+      if (index.isSeekable()) {
+        error = readSeekable(inputFile, plan, lineCount);
+      }
+      else {
+        error = readSkipping(inputFile, plan, lineCount);
+      }
+      if (null != error) {
+        return error;
+      }
+      reportTools(tools);
+    }
+    catch (IOException e) {
+      return "Error reading " + inputFile.getPath();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the timeslot index of a state-log file, building it on the
+   * first call. The most recent index is kept until the file changes.
+   * Returns null for an archive with no state log in it.
+   */
+  public synchronized StateLogIndex indexStateLog (File inputFile)
+    throws IOException
+  {
+    String key = inputFile.getCanonicalPath() + ":" + inputFile.length()
+        + ":" + inputFile.lastModified();
+    if (key.equals(indexKey)) {
+      return index;
+    }
+    InputStream raw = new BufferedInputStream(new FileInputStream(inputFile));
+    try {
+      InputStream stream = openStateLog(raw);
+      if (null == stream) {
+        return null;
+      }
+      index = new StateLogIndex(new StateLogLineReader(stream), stream == raw);
+      indexKey = key;
+      return index;
+    }
+    finally {
+      raw.close();
+    }
+  }
+
+  // Stacks decompression and archive extraction on the input stream as
+  // needed. Returns null for an archive with no state log in it.
+  private InputStream openStateLog (InputStream inputStream)
+    throws IOException
+  {
+    // Stack compression logic if appropriate
+    try {
+      if (!inputStream.markSupported()) {
+        inputStream = new BufferedInputStream(inputStream);
+      }
+      inputStream = compressFactory.createCompressorInputStream(inputStream);
+    } catch (CompressorException x) {
+      // Stream not compressed (or unknown compression scheme)
+    }
+
+    // Stack archive logic if appropriate
+    try {
+      if (!inputStream.markSupported()) {
+        inputStream = new BufferedInputStream(inputStream);
+      }
+      ArchiveInputStream archiveStream = archiveFactory.createArchiveInputStream(inputStream);
+      ArchiveEntry entry;
+      inputStream = null;
+      while ((entry = archiveStream.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.startsWith("log/")
+                || !name.endsWith(".state") || name.endsWith("init.state")) {
+          continue;
         }
-        inputStream = compressFactory.createCompressorInputStream(inputStream);
-      } catch (CompressorException x) {
-        // Stream not compressed (or unknown compression scheme)
+        inputStream = archiveStream;
+        break;
+      }
+    } catch (ArchiveException x) {
+      // Stream not archived (or unknown archiving scheme)
+    }
+    return inputStream;
+  }
+
+  private void setupTools (Analyzer... tools) throws IOException
+  {
+    // Recycle repos from previous session. These are the repos of this
+    // core's own context, which need not be the static one when several
+    // contexts replay logs side by side.
+    for (DomainRepo repo : context.getBeansOfType(DomainRepo.class).values()) {
+      repo.recycle();
+    }
+    reader.reset();
+    builder.reset();
+
+    for (Analyzer tool: tools) {
+      log.info("Setting up {}", tool.getClass().getName());
+      tool.setup();
+    }
+    setTypeFilter(tools);
+  }
+
+  // Limits the reader to the classes the analyzers consume, if all of
+  // them say which ones they need. The DomainBuilder always runs, and
+  // SimEnd ends the replay.
+  void setTypeFilter (Analyzer... tools)
+  {
+    HashSet<Class<?>> consumed = new HashSet<>();
+    for (Analyzer tool: tools) {
+      Collection<Class<?>> classes = tool.getConsumedClasses();
+      if (null == classes) {
+        reader.setTypeFilter(null);
+        return;
       }
+      consumed.addAll(classes);
+    }
+    if (null != builder) {
+      consumed.addAll(builder.getConsumedClasses());
+    }
+    consumed.add(SimStart.class);
+    consumed.add(SimEnd.class);
+    reader.setTypeFilter(consumed);
+  }
+
+  private void reportTools (Analyzer... tools)
+  {
+    if (reader.getUnresolvedCount() > 0) {
+      log.warn("{} lines with unresolved references, by class: {}",
+               reader.getUnresolvedCount(), reader.getUnresolvedReferences());
+    }
+    if (reader.getEvictionTimeslots() > 0) {
+      log.info("{} timeslot-scoped objects evicted, {} left in the id map",
+               reader.getEvictedCount(), reader.getObjectCount());
+    }
+    builder.report();
+    for (Analyzer tool: tools) {
+      tool.report();
+    }
+  }
 
-      // Stack archive logic if appropriate
+  // Replays the planned lines by seeking to each one, then reads on from
+  // the start of the first timeslot.
+  String readSeekable (File inputFile, SeekPlan plan, int lineCount)
+    throws IOException
+  {
+    try (FileChannel channel =
+        FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+      StateLogLineReader lines = new StateLogLineReader(channel);
+      int[] numbers = plan.getLineNumbers();
+      long[] offsets = plan.getOffsets();
+      String line = null;
       try {
-        if (!inputStream.markSupported()) {
-          inputStream = new BufferedInputStream(inputStream);
+        for (int i = 0; i < numbers.length; i++) {
+          lines.seek(offsets[i], numbers[i]);
+          line = lines.readLine();
+          reader.readObject(line);
         }
-        ArchiveInputStream archiveStream = archiveFactory.createArchiveInputStream(inputStream);
-        ArchiveEntry entry;
-        inputStream = null;
-        while ((entry = archiveStream.getNextEntry()) != null) {
-          String name = entry.getName();
-          if (entry.isDirectory() || !name.startsWith("log/")
-                  || !name.endsWith(".state") || name.endsWith("init.state")) {
-            continue;
+      }
+      catch (MissingDomainObject e) {
+        return "MDO on " + line + ": " + e.getMessage();
+      }
+      channel.position(plan.getStartOffset());
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(Channels.newInputStream(channel)));
+      return readLines(in, lineCount);
+    }
+  }
+
+  // Reads from the start, replaying the planned lines and skipping the
+  // rest, then reads on from the start of the first timeslot.
+  String readSkipping (File inputFile, SeekPlan plan, int lineCount)
+    throws IOException
+  {
+    try (InputStream raw = new FileInputStream(inputFile)) {
+      InputStream stream = openStateLog(raw);
+      if (null == stream) {
+        return "Cannot read archive, no valid state log entry";
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+      int[] numbers = plan.getLineNumbers();
+      int next = 0;
+      String line = null;
+      try {
+        for (int number = 0; number < plan.getStartLine(); number++) {
+          line = in.readLine();
+          if (null == line) {
+            return "Unexpected end of " + inputFile.getPath();
+          }
+          if (next < numbers.length && numbers[next] == number) {
+            next += 1;
+            reader.readObject(line);
           }
-          inputStream = archiveStream;
-          break;
-        }
-        if (inputStream == null) {
-          return "Cannot read archive, no valid state log entry";
         }
-      } catch (ArchiveException x) {
-        // Stream not archived (or unknown archiving scheme)
       }
+      catch (MissingDomainObject e) {
+        return "MDO on " + line + ": " + e.getMessage();
+      }
+      return readLines(in, lineCount);
+    }
+  }
 
-      // Recycle repos from previous session
-      List<DomainRepo> repos =
-          SpringApplicationContext.listBeansOfType(DomainRepo.class);
-        for (DomainRepo repo : repos) {
-          repo.recycle();
-        }
+  // Reads at most maxLines lines, sequentially or through the pipeline
+  String readLines (BufferedReader in, int maxLines) throws IOException
+  {
+    return (parseThreads > 0) ? readPipelined(in, maxLines)
+                              : readSequential(in, maxLines);
+  }
 
-      // Now go read the state-log
-      inputReader = new InputStreamReader(inputStream);
-      for (Analyzer tool: tools) {
-        log.info("Setting up {}", tool.getClass().getName());
-        tool.setup();
-      }
-      BufferedReader in = new BufferedReader(inputReader);
-      int lineNumber = 0;
+  // Reads and applies one line at a time on the calling thread, stopping
+  // after maxLines lines.
+  String readSequential (BufferedReader in, int maxLines) throws IOException
+  {
+    String line = null;
+    int lineNumber = 0;
+    try {
       while (!simEnd) {
         synchronized(this) {
           if (isInterrupted) {
@@ -235,6 +479,9 @@ public class LogtoolCore
             break;
           }
         }
+        if (lineNumber >= maxLines) {
+          break;
+        }
         line = in.readLine();
         if (null == line) {
           log.info("Last line " + lineNumber);
@@ -243,20 +490,137 @@ public class LogtoolCore
         lineNumber += 1;
         reader.readObject(line);
       }
-      builder.report();
-      for (Analyzer tool: tools) {
-        tool.report();
-      }
     }
-    catch (IOException e) {
-      return "Error reading from stream";
+    catch (MissingDomainObject e) {
+      return "MDO on " + line + ": " + e.getMessage();
+    }
+    return null;
+  }
+
+  // Reads lines on a separate thread, parses batches of them on a pool of
+  // parseThreads threads, and applies the results on the calling thread
+  // in log order, so the id map and the analyzers see exactly what
+  // readSequential() would give them. Stops after maxLines lines.
+  String readPipelined (BufferedReader in, int maxLines) throws IOException
+  {
+    ExecutorService parsers =
+        Executors.newFixedThreadPool(parseThreads, daemonThreads("parser"));
+    BlockingQueue<Future<ParsedLine[]>> batches =
+        new ArrayBlockingQueue<>(parseThreads * BATCHES_PER_THREAD);
+    Thread splitter = daemonThreads("reader").newThread(() -> {
+      try {
+        Future<ParsedLine[]> last = END_OF_LOG;
+        try {
+          String[] batch = new String[BATCH_SIZE];
+          int count = 0;
+          int total = 0;
+          String next;
+          while (total < maxLines && null != (next = in.readLine())) {
+            total += 1;
+            batch[count++] = next;
+            if (BATCH_SIZE == count) {
+              batches.put(parseBatch(parsers, batch, count));
+              batch = new String[BATCH_SIZE];
+              count = 0;
+            }
+          }
+          if (count > 0) {
+            batches.put(parseBatch(parsers, batch, count));
+          }
+        }
+        catch (IOException ioe) {
+          CompletableFuture<ParsedLine[]> failed = new CompletableFuture<>();
+          failed.completeExceptionally(ioe);
+          last = failed;
+        }
+        batches.put(last);
+      }
+      catch (InterruptedException ie) {
+        // reading was abandoned
+      }
+    });
+    splitter.start();
+
+    String line = null;
+    int lineNumber = 0;
+    try {
+      while (!simEnd) {
+        Future<ParsedLine[]> batch = batches.take();
+        if (END_OF_LOG == batch) {
+          log.info("Last line " + lineNumber);
+          break;
+        }
+        for (ParsedLine parsed : batch.get()) {
+          synchronized(this) {
+            if (isInterrupted) {
+              in.close();
+              return null;
+            }
+          }
+          if (simEnd) {
+            break;
+          }
+          line = parsed.getLine();
+          lineNumber += 1;
+          reader.applyLine(parsed);
+        }
+      }
     }
     catch (MissingDomainObject e) {
-      return "MDO on " + line;
+      return "MDO on " + line + ": " + e.getMessage();
+    }
+    catch (InterruptedException e) {
+      return "Interrupted reading stream";
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    finally {
+      splitter.interrupt();
+      parsers.shutdownNow();
     }
     return null;
   }
 
+  private Future<ParsedLine[]> parseBatch (ExecutorService parsers,
+                                           String[] lines, int count)
+  {
+    return parsers.submit(() -> {
+      ParsedLine[] result = new ParsedLine[count];
+      for (int i = 0; i < count; i++) {
+        result[i] = reader.parseLine(lines[i]);
+      }
+      return result;
+    });
+  }
+
+  private ThreadFactory daemonThreads (String role)
+  {
+    return runnable -> {
+      Thread thread = new Thread(runnable, "logtool-" + role);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Number of threads used to parse state-log lines ahead of the thread
+   * that applies them. Zero reads the log sequentially on the calling
+   * thread.
+   */
+  public int getParseThreads ()
+  {
+    return parseThreads;
+  }
+
+  public void setParseThreads (int threads)
+  {
+    parseThreads = Math.max(0, threads);
+  }
+
   public synchronized void interrupt() {
     isInterrupted = true;
   }
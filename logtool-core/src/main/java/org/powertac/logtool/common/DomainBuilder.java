@@ -16,6 +16,8 @@
 package org.powertac.logtool.common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.apache.logging.log4j.Logger;
@@ -81,6 +83,22 @@ public class DomainBuilder implements Analyzer
   {
     // nothing to report
   }
+
+  /**
+   * Drops the rates held for specifications of the log read last.
+   */
+  public void reset ()
+  {
+    pendingRates.clear();
+  }
+
+  @Override
+  public Collection<Class<?>> getConsumedClasses ()
+  {
+    return Arrays.asList(Broker.class, CustomerInfo.class,
+                         TariffSpecification.class, Rate.class,
+                         Timeslot.class);
+  }
   
   // -------------------------------
   // add new brokers to repo
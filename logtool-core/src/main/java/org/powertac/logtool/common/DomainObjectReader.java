@@ -18,17 +18,24 @@ package org.powertac.logtool.common;
 import static org.powertac.util.MessageDispatcher.dispatch;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -62,25 +69,77 @@ public class DomainObjectReader
   @Autowired
   private TimeService timeService;
   
-  HashMap<Long, Object> idMap;
+  IdMap<Object> idMap;
   HashMap<Class<?>, Class<?>> ifImplementors;
   HashMap<String, Class<?>> substitutes;
   HashSet<String> ignores;
   HashSet<Class<?>> noIdTypes;
   PowerTypeConverter ptConverter = new PowerTypeConverter();
 
+  // reflection lookups, shared by the threads calling parseLine()
+  ConcurrentHashMap<String, Class<?>> classCache = new ConcurrentHashMap<>();
+  ConcurrentHashMap<Class<?>, Constructor<?>[]> constructorCache =
+      new ConcurrentHashMap<>();
+  ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Method[]>> methodCache =
+      new ConcurrentHashMap<>();
+  ConcurrentHashMap<Executable, Signature> signatures =
+      new ConcurrentHashMap<>();
+
+  // classes whose lines are read, or null to read everything, and the
+  // verdict for each class name seen so far
+  Set<Class<?>> neededClasses = null;
+  ConcurrentHashMap<String, Boolean> wantedNames = new ConcurrentHashMap<>();
+
   // listeners can be the old-style NewObjectListeners, or they can be
   // LogtoolContext instances with handleMessage() methods
   HashMap<Class<?>, ArrayList<NewObjectListener>> newObjectListeners;
   HashMap<Class<?>, ArrayList<LogtoolContext>> messageListeners;
 
+  // listeners kept by restoreListeners(), those of the reader's own tools
+  HashMap<Class<?>, ArrayList<NewObjectListener>> retainedListeners =
+      new HashMap<Class<?>, ArrayList<NewObjectListener>>();
+
+  // Eviction of timeslot-scoped objects, off unless evictionTimeslots > 0.
+  // Ids are queued by the timeslot they were created in. Evicted ids
+  // remember their class for another evictionTimeslots timeslots, so that
+  // late references can say what happened, and are then forgotten.
+  int evictionTimeslots = 0;
+  Set<String> timeslotScoped = new HashSet<>(Arrays.asList(
+      "org.powertac.common.Order",
+      "org.powertac.common.Orderbook",
+      "org.powertac.common.OrderbookOrder",
+      "org.powertac.common.ClearedTrade",
+      "org.powertac.common.MarketTransaction",
+      "org.powertac.common.DistributionTransaction",
+      "org.powertac.common.BalancingTransaction",
+      "org.powertac.common.CapacityTransaction",
+      "org.powertac.common.TariffTransaction",
+      "org.powertac.common.BankTransaction",
+      "org.powertac.common.CashPosition",
+      "org.powertac.common.WeatherReport",
+      "org.powertac.common.WeatherForecast",
+      "org.powertac.common.WeatherForecastPrediction",
+      "org.powertac.common.msg.DistributionReport",
+      "org.powertac.common.msg.TimeslotUpdate"));
+  int timeslotCount = 0;
+  Instant lastTime = null;
+  ArrayDeque<IdBucket> scopedIds = new ArrayDeque<>();
+  IdMap<Class<?>> evicted = new IdMap<>();
+  ArrayDeque<IdBucket> evictedIds = new ArrayDeque<>();
+  int evictedCount = 0;
+
+  // references that could not be resolved, by the class of the line
+  MissingDomainObject lastMissing = null;
+  TreeMap<String, Integer> unresolved = new TreeMap<>();
+  int unresolvedCount = 0;
+
   /**
    * Default constructor
    */
   public DomainObjectReader ()
   {
     super();
-    idMap = new HashMap<Long, Object>();
+    idMap = new IdMap<>();
 
     // Set up the interface defaults
     ifImplementors = new HashMap<>();
@@ -149,6 +208,245 @@ public class DomainObjectReader
     list.add(listener);
   }
 
+  /**
+   * Marks the listeners registered so far as the ones to keep when
+   * listeners are restored.
+   */
+  public void retainListeners ()
+  {
+    retainedListeners = copyListeners(newObjectListeners);
+  }
+
+  /**
+   * Drops the listeners registered since retainListeners() was called,
+   * such as those of the analyzers of an earlier game.
+   */
+  public void restoreListeners ()
+  {
+    newObjectListeners = copyListeners(retainedListeners);
+    messageListeners = new HashMap<Class<?>, ArrayList<LogtoolContext>>();
+  }
+
+  private HashMap<Class<?>, ArrayList<NewObjectListener>>
+  copyListeners (HashMap<Class<?>, ArrayList<NewObjectListener>> listeners)
+  {
+    HashMap<Class<?>, ArrayList<NewObjectListener>> result = new HashMap<>();
+    for (Map.Entry<Class<?>, ArrayList<NewObjectListener>> entry:
+         listeners.entrySet()) {
+      result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Forgets the objects of the log read last, so that the next log starts
+   * from an empty id map.
+   */
+  public void reset ()
+  {
+    idMap.clear();
+    scopedIds.clear();
+    evicted.clear();
+    evictedIds.clear();
+    evictedCount = 0;
+    timeslotCount = 0;
+    lastTime = null;
+    lastMissing = null;
+    unresolved.clear();
+    unresolvedCount = 0;
+  }
+
+  /**
+   * Limits reading to lines for the given classes and the classes they
+   * need to resolve their references, or removes the limit if consumed
+   * is null. Lines for other classes are skipped after looking at the
+   * class name, before they are split or parsed.
+   */
+  public void setTypeFilter (Collection<Class<?>> consumed)
+  {
+    wantedNames.clear();
+    if (null == consumed) {
+      neededClasses = null;
+      return;
+    }
+    neededClasses = findNeededClasses(consumed);
+    log.info("Reading {} classes for {} consumed", neededClasses.size(),
+             consumed.size());
+  }
+
+  /**
+   * Classes read under the current type filter, or null if there is none.
+   */
+  public Set<Class<?>> getNeededClasses ()
+  {
+    return (null == neededClasses) ? null
+        : Collections.unmodifiableSet(neededClasses);
+  }
+
+  /**
+   * Drops objects of the timeslot-scoped classes from the id map once the
+   * log has moved the given number of timeslots past the one they were
+   * created in, so that a long game can be replayed in a small heap.
+   * Zero, the default, keeps everything. Timeslots are counted by the
+   * time updates in the log. Objects that are evicted cannot be passed to
+   * later lines; if one is, the reference is reported as unresolved.
+   */
+  public void setEvictionTimeslots (int timeslots)
+  {
+    evictionTimeslots = Math.max(0, timeslots);
+  }
+
+  public int getEvictionTimeslots ()
+  {
+    return evictionTimeslots;
+  }
+
+  /**
+   * Names of the classes whose instances may be evicted. By default these
+   * are orders, order books, cleared trades, transactions, weather and
+   * other records that are not referenced after the timeslot they
+   * belong to.
+   */
+  public Set<String> getTimeslotScopedClasses ()
+  {
+    return timeslotScoped;
+  }
+
+  public void setTimeslotScopedClasses (Set<String> classes)
+  {
+    timeslotScoped = new HashSet<>(classes);
+  }
+
+  /** Number of objects evicted so far */
+  public int getEvictedCount ()
+  {
+    return evictedCount;
+  }
+
+  /** Number of objects currently in the id map */
+  public int getObjectCount ()
+  {
+    return idMap.size();
+  }
+
+  /**
+   * Number of lines so far that could not be applied because they refer
+   * to an object that does not exist.
+   */
+  public int getUnresolvedCount ()
+  {
+    return unresolvedCount;
+  }
+
+  /**
+   * Counts of unresolved lines by the class named in the line.
+   */
+  public Map<String, Integer> getUnresolvedReferences ()
+  {
+    return Collections.unmodifiableMap(unresolved);
+  }
+
+  // The consumed classes, plus every domain class that can be passed to
+  // their constructors and methods or stored in their readResolve fields,
+  // transitively. Time updates are always needed.
+  private Set<Class<?>> findNeededClasses (Collection<Class<?>> consumed)
+  {
+    HashSet<Class<?>> result = new HashSet<>();
+    ArrayDeque<Class<?>> queue = new ArrayDeque<>();
+    result.add(TimeService.class);
+    for (Class<?> clazz : consumed) {
+      if (result.add(clazz)) {
+        queue.add(clazz);
+      }
+    }
+    while (!queue.isEmpty()) {
+      Class<?> clazz = queue.poll();
+      ArrayList<Type> types = new ArrayList<>();
+      for (Constructor<?> cons : getConstructors(clazz)) {
+        types.addAll(Arrays.asList(getSignature(cons).types));
+      }
+      for (Method method : clazz.getMethods()) {
+        types.addAll(Arrays.asList(getSignature(method).types));
+      }
+      Domain domain = clazz.getAnnotation(Domain.class);
+      if (null != domain) {
+        for (String name : domain.fields()) {
+          Field field =
+              ReflectionUtils.findField(clazz, resolveDoubleCaps(name));
+          if (null != field) {
+            types.add(field.getGenericType());
+          }
+        }
+      }
+      for (Type type : types) {
+        for (Class<?> ref : referencedClasses(type)) {
+          if (result.add(ref)) {
+            queue.add(ref);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // Domain classes that an arg of the given type is looked up as
+  private List<Class<?>> referencedClasses (Type type)
+  {
+    ArrayList<Class<?>> result = new ArrayList<>();
+    if (type instanceof ParameterizedType) {
+      for (Type arg : ((ParameterizedType) type).getActualTypeArguments()) {
+        result.addAll(referencedClasses(arg));
+      }
+    }
+    else if (type instanceof Class && !isIdFree(type)) {
+      Class<?> clazz = (Class<?>) type;
+      try {
+        if (clazz.getMethod("getId").getReturnType() == long.class) {
+          result.add(clazz);
+        }
+      }
+      catch (NoSuchMethodException nsme) {
+        // not a domain type
+      }
+    }
+    return result;
+  }
+
+  // Checks the class name at the front of a line against the filter
+  private boolean isWanted (String line)
+  {
+    int start = line.indexOf(':') + 1;
+    int end = line.indexOf("::", start);
+    if (end < 0) {
+      // leave malformed lines to the parser
+      return true;
+    }
+    String name = line.substring(start, end);
+    Boolean result = wantedNames.get(name);
+    if (null == result) {
+      result = isNeeded(name);
+      wantedNames.put(name, result);
+    }
+    return result;
+  }
+
+  private boolean isNeeded (String name)
+  {
+    if (ignores.contains(name)) {
+      return false;
+    }
+    Class<?> clazz = findClass(name);
+    if (null == clazz) {
+      return false;
+    }
+    for (Class<?> needed : neededClasses) {
+      if (needed.isAssignableFrom(clazz)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Converts a line from the log to an object.
    * Each line is of the form<br>
@@ -165,27 +463,48 @@ public class DomainObjectReader
   throws MissingDomainObject
   {
     log.debug("readObject(" + line + ")");
+    return applyLine(parseLine(line));
+  }
+
+  /**
+   * First half of readObject(): splits the line, resolves its class, id
+   * and candidate constructor or methods, and converts any arguments that
+   * do not refer to other domain objects. None of this depends on the
+   * objects already read, so it is safe to call from any thread, in any
+   * order. The result must be passed to applyLine() in log order.
+   */
+  public ParsedLine parseLine (String line)
+  {
+    ParsedLine result = new ParsedLine(line);
+    if (null != neededClasses && !isWanted(line)) {
+      return result;
+    }
+    try {
+      parseTokens(result);
+    }
+    catch (RuntimeException re) {
+      // rethrown by applyLine(), where readObject() would have thrown it
+      result.kind = ParsedLine.FAILED;
+      result.failure = re;
+    }
+    return result;
+  }
+
+  private void parseTokens (ParsedLine result)
+  {
+    String line = result.line;
     String body = line.substring(line.indexOf(':') + 1);
     String[] tokens = body.split("::");
-    Class<?> clazz;
+    result.tokens = tokens;
     if (ignores.contains(tokens[0])) {
       //log.info("ignoring " + tokens[0]);
-      return null;
+      return;
     }
-    try {
-      clazz = Class.forName(tokens[0]);
-    }
-    catch (ClassNotFoundException e) {
-      Class<?> subst = substitutes.get(tokens[0]);
-      if (null == subst) {
-        log.warn("class " + tokens[0] + " not found");
-        return null;
-      }
-      else {
-        clazz = subst;
-        //log.info("substituting " + clazz.getName() + " for " + tokens[0]);
-      }
+    Class<?> clazz = findClass(tokens[0]);
+    if (null == clazz) {
+      return;
     }
+    result.clazz = clazz;
 
     long id = -1;
     try {
@@ -194,94 +513,328 @@ public class DomainObjectReader
     catch (NumberFormatException nfe) {
       if (clazz == TimeService.class) {
         // normal case - timeService does not have an id
-        updateTime(tokens[3]);
-        return null;
+        result.kind = ParsedLine.TIME;
+        return;
       }
       else if (noIdTypes.contains(clazz)) {
         id = 0;
       }
       else {
         log.debug("Number format exception reading id");
-        return null;
+        return;
       }
     }
+    result.id = id;
     String methodName = tokens[2];
-    log.debug("methodName=" + methodName);
+    result.args = Arrays.copyOfRange(tokens, 3, tokens.length);
     if (methodName.equals("new")) {
-      // constructor
-      Object newInst =
-              constructInstance(clazz, Arrays.copyOfRange(tokens, 3,
-                                                          tokens.length));
-      if (null != newInst) {
-        if (!noIdTypes.contains(clazz)) {
-          setId(newInst, id);
-          idMap.put(id, newInst);
+      result.kind = ParsedLine.NEW;
+      // The first constructor of the right length is the one
+      // constructInstance() will pick, unless it needs domain objects
+      for (Constructor<?> cons : getConstructors(clazz)) {
+        Signature sig = getSignature(cons);
+        if (sig.types.length != result.args.length) {
+          continue;
         }
-        log.debug("Created new instance " + id + " of class " + tokens[0]);
-        fireNewObjectEvent(newInst);
+        if (sig.idFree) {
+          Object[] params = preResolveArgs(sig.types, result.args);
+          if (null != params) {
+            result.constructor = cons;
+            result.params = params;
+          }
+        }
+        break;
       }
-      return newInst;
     }
     else if (methodName.equals("-rr")) {
-      // readResolve
-      Object newInst =
-              restoreInstance(clazz, Arrays.copyOfRange(tokens, 3,
-                                                        tokens.length));
-      if (null != newInst) {
-        setId(newInst, id);
-        idMap.put(id, newInst);
-        log.debug("Restored instance " + id + " of class " + tokens[0]);
-        fireNewObjectEvent(newInst);
-      }
-      return newInst;      
+      result.kind = ParsedLine.RESTORE;
     }
     else {
-      // other method calls -- object should already exist
-      Object inst = idMap.get(id);
-      if (null == inst) {
-        log.warn("Cannot find instance for id " + id
-                 + " of type " + clazz.getCanonicalName());
-        return null;
-      }
-      Method[] methods = clazz.getMethods();
-      ArrayList<Method> candidates = new ArrayList<>();
-      for (Method method : methods) {
-        if (method.getName().equals(methodName)) {
-          candidates.add(method);
+      result.kind = ParsedLine.CALL;
+      result.methodName = methodName;
+      Method[] candidates = getMethods(clazz, methodName);
+      result.methods = candidates;
+      result.methodParams = new Object[candidates.length][];
+      for (int i = 0; i < candidates.length; i++) {
+        Signature sig = getSignature(candidates[i]);
+        if (sig.idFree && sig.types.length == result.args.length
+            && sig.types.length > 0) {
+          result.methodParams[i] = preResolveArgs(sig.types, result.args);
         }
       }
-      // We now have a list of candidate methods.
-      if (0 == candidates.size()) {
-        log.error("Cannot find method " + methodName
-                  + " for class " + clazz.getName());
-        return null;
+    }
+  }
+
+  /**
+   * Second half of readObject(): creates, restores or updates the object
+   * described by a line from parseLine(), resolving references through
+   * the id map and firing listeners. Lines must be applied one at a time,
+   * in the order they appear in the log.
+   */
+  public Object applyLine (ParsedLine parsed)
+  throws MissingDomainObject
+  {
+    switch (parsed.kind) {
+    case ParsedLine.FAILED:
+      throw parsed.failure;
+    case ParsedLine.TIME:
+      updateTime(parsed.tokens[3]);
+      return null;
+    case ParsedLine.NEW:
+      return applyNew(parsed);
+    case ParsedLine.RESTORE:
+      return applyRestore(parsed);
+    case ParsedLine.CALL:
+      applyCall(parsed);
+      return null;
+    default:
+      return null;
+    }
+  }
+
+  private Object applyNew (ParsedLine parsed)
+  throws MissingDomainObject
+  {
+    Class<?> clazz = parsed.clazz;
+    long id = parsed.id;
+    log.debug("methodName=new");
+    // constructor
+    lastMissing = null;
+    Object newInst = constructInstance(clazz, parsed.args,
+                                       parsed.constructor, parsed.params);
+    if (null != newInst) {
+      if (!noIdTypes.contains(clazz)) {
+        setId(newInst, id);
+        store(id, newInst);
       }
-      if (1 == candidates.size()) {
-        // there's one candidate, probably it is the correct one
-        if (!tryMethodCall(inst, candidates.get(0),
-                           Arrays.copyOfRange(tokens, 3, tokens.length))) {
+      log.debug("Created new instance " + id + " of class " + parsed.tokens[0]);
+      fireNewObjectEvent(newInst);
+    }
+    else if (null != lastMissing) {
+      reportUnresolved(parsed, lastMissing.getMessage());
+    }
+    return newInst;
+  }
+
+  private Object applyRestore (ParsedLine parsed)
+  throws MissingDomainObject
+  {
+    long id = parsed.id;
+    log.debug("methodName=-rr");
+    // readResolve
+    Object newInst = restoreInstance(parsed.clazz, parsed.args);
+    if (null != newInst) {
+      setId(newInst, id);
+      store(id, newInst);
+      log.debug("Restored instance " + id + " of class " + parsed.tokens[0]);
+      fireNewObjectEvent(newInst);
+    }
+    return newInst;
+  }
+
+  private void applyCall (ParsedLine parsed)
+  {
+    Class<?> clazz = parsed.clazz;
+    long id = parsed.id;
+    String methodName = parsed.methodName;
+    log.debug("methodName=" + methodName);
+    // other method calls -- object should already exist
+    Object inst = idMap.get(id);
+    if (null == inst) {
+      reportUnresolved(parsed,
+                       describeMissing(clazz, id, "cannot call " + methodName));
+      return;
+    }
+    lastMissing = null;
+    Method[] candidates = parsed.methods;
+    // We now have a list of candidate methods.
+    if (0 == candidates.length) {
+      log.error("Cannot find method " + methodName
+                + " for class " + clazz.getName());
+      return;
+    }
+    if (1 == candidates.length) {
+      // there's one candidate, probably it is the correct one
+      if (!tryMethodCall(inst, candidates[0], parsed.args,
+                         parsed.methodParams[0])) {
+        if (null != lastMissing) {
+          reportUnresolved(parsed, lastMissing.getMessage());
+        }
+        else {
           log.error("Failed to invoke method " + methodName
                     + " on instance of " + clazz.getName());
         }
       }
-      else {
-        // multiple candidates -- try them until we get success
-        boolean success = false;
-        for (Method candidate : candidates) {
-          success = tryMethodCall(inst, candidate,
-                                  Arrays.copyOfRange(tokens, 3, tokens.length));
-          if (success)
-            break;
+    }
+    else {
+      // multiple candidates -- try them until we get success
+      boolean success = false;
+      for (int i = 0; i < candidates.length; i++) {
+        success = tryMethodCall(inst, candidates[i], parsed.args,
+                                parsed.methodParams[i]);
+        if (success)
+          break;
+      }
+      if (!success) {
+        if (null != lastMissing) {
+          reportUnresolved(parsed, lastMissing.getMessage());
         }
-        if (!success) {
+        else {
           log.error("Failed to find viable candidate for " + methodName
                     + " on instance of " + clazz.getName());
         }
       }
     }
-    return null;
   }
-  
+
+  // Adds an object to the id map, and queues it for eviction if its
+  // class is timeslot-scoped
+  private void store (long id, Object thing)
+  {
+    idMap.put(id, thing);
+    if (evictionTimeslots > 0
+        && timeslotScoped.contains(thing.getClass().getName())) {
+      IdBucket bucket = scopedIds.peekLast();
+      if (null == bucket || bucket.timeslot != timeslotCount) {
+        bucket = new IdBucket(timeslotCount);
+        scopedIds.add(bucket);
+      }
+      bucket.add(id);
+    }
+  }
+
+  // Drops the timeslot-scoped objects created evictionTimeslots or more
+  // timeslots ago
+  private void evict ()
+  {
+    while (!scopedIds.isEmpty()
+           && scopedIds.peek().timeslot <= timeslotCount - evictionTimeslots) {
+      IdBucket bucket = scopedIds.poll();
+      for (int i = 0; i < bucket.count; i++) {
+        Object thing = idMap.remove(bucket.ids[i]);
+        if (null != thing) {
+          evicted.put(bucket.ids[i], thing.getClass());
+          evictedCount += 1;
+        }
+      }
+      evictedIds.add(bucket);
+    }
+    while (!evictedIds.isEmpty()
+           && evictedIds.peek().timeslot
+              <= timeslotCount - 2 * evictionTimeslots) {
+      IdBucket bucket = evictedIds.poll();
+      for (int i = 0; i < bucket.count; i++) {
+        evicted.remove(bucket.ids[i]);
+      }
+    }
+  }
+
+  // Says why there is no object of the given class with the given id
+  private String describeMissing (Class<?> clazz, long id, String context)
+  {
+    StringBuilder sb = new StringBuilder(context).append(": no ")
+        .append(clazz.getSimpleName()).append(" id=").append(id);
+    Object other = idMap.get(id);
+    Class<?> gone = evicted.get(id);
+    if (null != other) {
+      sb.append(", id belongs to a ").append(other.getClass().getSimpleName());
+    }
+    else if (null != gone) {
+      sb.append(", ").append(gone.getSimpleName())
+          .append(" was evicted as timeslot-scoped");
+    }
+    return sb.toString();
+  }
+
+  private void reportUnresolved (ParsedLine parsed, String message)
+  {
+    unresolvedCount += 1;
+    unresolved.merge(parsed.tokens[0], 1, Integer::sum);
+    log.warn("Unresolved reference in " + parsed.line + " -- " + message);
+  }
+
+  // Resolves a class name from the log, using the substitutes list for
+  // classes that cannot be loaded. Returns null for unknown classes.
+  private Class<?> findClass (String name)
+  {
+    Class<?> result = classCache.get(name);
+    if (null != result) {
+      return result;
+    }
+    try {
+      result = Class.forName(name);
+    }
+    catch (ClassNotFoundException e) {
+      result = substitutes.get(name);
+      if (null == result) {
+        log.warn("class " + name + " not found");
+        return null;
+      }
+      //log.info("substituting " + result.getName() + " for " + name);
+    }
+    classCache.put(name, result);
+    return result;
+  }
+
+  private Constructor<?>[] getConstructors (Class<?> clazz)
+  {
+    return constructorCache.computeIfAbsent(clazz,
+                                            c -> c.getDeclaredConstructors());
+  }
+
+  // Public methods of clazz with the given name, in getMethods() order
+  private Method[] getMethods (Class<?> clazz, String methodName)
+  {
+    ConcurrentHashMap<String, Method[]> byName =
+        methodCache.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>());
+    return byName.computeIfAbsent(methodName, name -> {
+      ArrayList<Method> candidates = new ArrayList<>();
+      for (Method method : clazz.getMethods()) {
+        if (method.getName().equals(name)) {
+          candidates.add(method);
+        }
+      }
+      return candidates.toArray(new Method[candidates.size()]);
+    });
+  }
+
+  private Signature getSignature (Executable target)
+  {
+    return signatures.computeIfAbsent(target, Signature::new);
+  }
+
+  // Enums and classes outside org.powertac, and collections of them,
+  // are converted from their strings alone. Anything else may be an id.
+  private boolean isIdFree (Type type)
+  {
+    if (type instanceof Class) {
+      Class<?> clazz = (Class<?>) type;
+      return clazz.isEnum() || !clazz.getName().startsWith("org.powertac");
+    }
+    if (type instanceof ParameterizedType) {
+      ParameterizedType ptype = (ParameterizedType) type;
+      for (Type arg : ptype.getActualTypeArguments()) {
+        if (!(arg instanceof Class) || !isIdFree(arg)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  // Converts args ahead of time; returns null if anything goes wrong, so
+  // that applyLine() repeats the conversion and reports the problem
+  private Object[] preResolveArgs (Type[] types, String[] args)
+  {
+    try {
+      return resolveArgs(types, args);
+    }
+    catch (MissingDomainObject | RuntimeException e) {
+      return null;
+    }
+  }
+
   public Object getById (long id)
   {
     return idMap.get(id);
@@ -292,6 +845,13 @@ public class DomainObjectReader
     Instant value = Instant.parse(time);
     timeService.setCurrentTime(value);
     log.debug("time set to " + time);
+    if (null == lastTime || value.isAfter(lastTime)) {
+      lastTime = value;
+      timeslotCount += 1;
+      if (evictionTimeslots > 0) {
+        evict();
+      }
+    }
   }
   
   private void fireNewObjectEvent (Object thing)
@@ -332,18 +892,21 @@ public class DomainObjectReader
     }
   }
 
-  private Object constructInstance (Class<?> clazz, String[] args)
+  private Object constructInstance (Class<?> clazz, String[] args,
+                                    Constructor<?> target, Object[] params)
           throws MissingDomainObject
   {
     //if (clazz.getName().equals("org.powertac.common.Order"))
     //  System.out.println("Order");
     //else if (clazz.getName().equals("org.powertac.common.TariffSpecification"))
     //  System.out.println("TariffSpecification");
-    Constructor<?>[] potentials = clazz.getDeclaredConstructors();
-    Constructor<?> target = null;
-    Object[] params = null;
+    Constructor<?>[] potentials = getConstructors(clazz);
+    if (null != target) {
+      // resolved by parseLine()
+      potentials = new Constructor<?>[0];
+    }
     for (Constructor<?> cons : potentials) {
-      Type[] types = cons.getGenericParameterTypes();
+      Type[] types = getSignature(cons).types;
       if (types.length != args.length)
         // not this one
         continue;
@@ -355,7 +918,8 @@ public class DomainObjectReader
         params = resolveArgs(types, args);
       }
       catch (MissingDomainObject mdo) {
-        // ignore
+        // try the next one, but remember why this one failed
+        lastMissing = mdo;
       }
       if (null == params)
         // no match
@@ -463,9 +1027,10 @@ public class DomainObjectReader
   }
 
   // attempts to call a method by reconstructing its args and invoking it
-  private boolean tryMethodCall (Object thing, Method method, String[] args)
+  private boolean tryMethodCall (Object thing, Method method, String[] args,
+                                 Object[] resolved)
   {
-    Type[] argTypes = method.getGenericParameterTypes();
+    Type[] argTypes = getSignature(method).types;
     if (argTypes.length != args.length)
       // bail if arglist lengths do not match
       return false;
@@ -474,6 +1039,10 @@ public class DomainObjectReader
       // no args
       realArgs = null;
     }
+    else if (null != resolved) {
+      // converted by parseLine()
+      realArgs = resolved;
+    }
     else {
       try {
         realArgs = resolveArgs(argTypes, args);
@@ -485,6 +1054,7 @@ public class DomainObjectReader
         }
       }
       catch (MissingDomainObject mdo) {
+        lastMissing = mdo;
         return false;
       }
     }
@@ -612,7 +1182,7 @@ public class DomainObjectReader
         getId = clazz.getMethod("getId");
         if (getId.getReturnType() == long.class) {
           // this is a domain type; it may or may not be in the map
-          Long key = Long.parseLong(arg);
+          long key = Long.parseLong(arg);
           Object value = idMap.get(key);
           if (null != value && clazz.isAssignableFrom(value.getClass())) {
             return value;
@@ -621,7 +1191,8 @@ public class DomainObjectReader
             // it's a domain object, but we cannot resolve it
             // -- this can be an error, or a symptom of using the wrong
             //    constructor or method.
-            throw new MissingDomainObject("missing object id=" + key);
+            throw new MissingDomainObject(
+                describeMissing(clazz, key, "missing object"));
           }
         }
       }
@@ -751,6 +1322,90 @@ public class DomainObjectReader
     }
   }
 
+  // ids of timeslot-scoped objects created in one timeslot
+  private static class IdBucket
+  {
+    final int timeslot;
+    long[] ids = new long[64];
+    int count = 0;
+
+    IdBucket (int timeslot)
+    {
+      super();
+      this.timeslot = timeslot;
+    }
+
+    void add (long id)
+    {
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * count);
+      }
+      ids[count++] = id;
+    }
+  }
+
+  /**
+   * A state-log line as prepared by parseLine(), ready to be applied.
+   */
+  public static class ParsedLine
+  {
+    static final int SKIP = 0;
+    static final int FAILED = 1;
+    static final int TIME = 2;
+    static final int NEW = 3;
+    static final int RESTORE = 4;
+    static final int CALL = 5;
+
+    final String line;
+    int kind = SKIP;
+    RuntimeException failure;
+    String[] tokens;
+    Class<?> clazz;
+    long id;
+    String[] args;
+    // NEW: constructor and converted args, if known in advance
+    Constructor<?> constructor;
+    Object[] params;
+    // CALL: candidate methods and any args converted in advance
+    String methodName;
+    Method[] methods;
+    Object[][] methodParams;
+
+    ParsedLine (String line)
+    {
+      super();
+      this.line = line;
+    }
+
+    /** The original log line */
+    public String getLine ()
+    {
+      return line;
+    }
+  }
+
+  // Generic parameter types of a constructor or method, and whether
+  // args of those types resolve without looking at the id map
+  class Signature
+  {
+    final Type[] types;
+    final boolean idFree;
+
+    Signature (Executable target)
+    {
+      super();
+      types = target.getGenericParameterTypes();
+      boolean free = true;
+      for (Type type : types) {
+        if (!isIdFree(type)) {
+          free = false;
+          break;
+        }
+      }
+      idFree = free;
+    }
+  }
+
   class WrongArgType extends Exception {
 
     private static final long serialVersionUID = 7044658729956229376L;
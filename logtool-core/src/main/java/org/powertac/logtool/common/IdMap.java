@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+/**
+ * Map from long ids to objects, using open addressing with linear probing
+ * over parallel arrays, so that entries cost no boxed keys or entry
+ * objects. Null values are not stored; putting null removes the key.
+ * Not thread-safe.
+ */
+class IdMap<V>
+{
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private Object[] values;
+  private int size = 0;
+  private int mask;
+  private int shift;
+
+  IdMap ()
+  {
+    super();
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate (int capacity)
+  {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  // Fibonacci hashing spreads the sequential ids the server hands out
+  private int slot (long key)
+  {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  @SuppressWarnings("unchecked")
+  V get (long key)
+  {
+    for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return (V) values[i];
+      }
+    }
+    return null;
+  }
+
+  boolean containsKey (long key)
+  {
+    return null != get(key);
+  }
+
+  /**
+   * Stores value under key, returning the previous value or null.
+   */
+  @SuppressWarnings("unchecked")
+  V put (long key, V value)
+  {
+    if (null == value) {
+      return remove(key);
+    }
+    int i = slot(key);
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V old = (V) values[i];
+        values[i] = value;
+        return old;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    size += 1;
+    // keep the load factor at or below 1/2
+    if (2 * size > keys.length) {
+      grow();
+    }
+    return null;
+  }
+
+  /**
+   * Removes key, returning its value or null.
+   */
+  @SuppressWarnings("unchecked")
+  V remove (long key)
+  {
+    int i = slot(key);
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        break;
+      }
+    }
+    if (null == values[i]) {
+      return null;
+    }
+    V old = (V) values[i];
+    // shift later members of the probe run back into the gap, so that
+    // lookups never need tombstones
+    int gap = i;
+    for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+      int home = slot(keys[j]);
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        keys[gap] = keys[j];
+        values[gap] = values[j];
+        gap = j;
+      }
+    }
+    values[gap] = null;
+    size -= 1;
+    return old;
+  }
+
+  int size ()
+  {
+    return size;
+  }
+
+  void clear ()
+  {
+    allocate(MIN_CAPACITY);
+    size = 0;
+  }
+
+  private void grow ()
+  {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(2 * oldKeys.length);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (null != oldValues[i]) {
+        int j = slot(oldKeys[i]);
+        while (values[j] != null) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+}
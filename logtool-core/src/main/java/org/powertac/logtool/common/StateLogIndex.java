@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Timeslot index over a state log, built in one pass that splits lines but
+ * creates no objects. For every timeslot it records where the
+ * TimeslotUpdate that opens it starts, and for every domain object id the
+ * lines that created or modified it and the ids those lines mention.
+ *
+ * From that, planSeek() works out which earlier lines must be replayed to
+ * resume reading at a given timeslot: the objects created earlier that are
+ * still mentioned at or after that point, everything their own lines refer
+ * to, and the latest time update. Objects that are never mentioned again
+ * are not rebuilt. Any token that looks like a long is treated as a
+ * possible reference, so the plan can include a few extra objects, but it
+ * does not miss any.
+ *
+ * Timeslots are numbered as the one that was current when the
+ * TimeslotUpdate was sent, one before its first enabled timeslot.
+ */
+public class StateLogIndex
+{
+  static private Logger log = LogManager.getLogger(StateLogIndex.class.getName());
+
+  static final String TIMESLOT_UPDATE = "org.powertac.common.msg.TimeslotUpdate";
+  static final String TIME_SERVICE = "org.powertac.common.TimeService";
+
+  private static final long[] NO_REFS = new long[0];
+
+  // classes whose instances are always rebuilt, whether or not they are
+  // mentioned again, because analyzers and repos collect them on creation
+  private Set<String> persistentClasses = new HashSet<>(Arrays.asList(
+      "org.powertac.common.Competition",
+      "org.powertac.common.Broker",
+      "org.powertac.du.DefaultBrokerService$LocalBroker",
+      "org.powertac.common.CustomerInfo",
+      "org.powertac.common.TariffSpecification",
+      "org.powertac.common.Rate"));
+
+  private final boolean seekable;
+  private final TreeMap<Integer, Position> timeslots = new TreeMap<>();
+  private final HashMap<Long, ObjectLines> objects = new HashMap<>();
+  private final HashMap<Long, Integer> lastMention = new HashMap<>();
+  private int lineCount = 0;
+
+  /**
+   * Builds an index by reading lines to the end. Set seekable if the
+   * lines come straight from an uncompressed file, so that byte offsets
+   * can be used to seek.
+   */
+  public StateLogIndex (StateLogLineReader reader, boolean seekable)
+    throws IOException
+  {
+    super();
+    this.seekable = seekable;
+    Position lastTime = null;
+    String line;
+    while (null != (line = reader.readLine())) {
+      int number = reader.getLineNumber();
+      long offset = reader.getLineOffset();
+      lineCount = number + 1;
+      String[] tokens = line.substring(line.indexOf(':') + 1).split("::");
+      if (tokens.length < 3) {
+        continue;
+      }
+      if (TIMESLOT_UPDATE.equals(tokens[0]) && "new".equals(tokens[2])
+          && tokens.length > 4) {
+        try {
+          int timeslot = Integer.parseInt(tokens[4]) - 1;
+          if (!timeslots.containsKey(timeslot)) {
+            timeslots.put(timeslot, new Position(number, offset, lastTime));
+          }
+        }
+        catch (NumberFormatException nfe) {
+          log.warn("Cannot read timeslot from line " + number);
+        }
+      }
+      long id;
+      try {
+        id = Long.parseLong(tokens[1]);
+      }
+      catch (NumberFormatException nfe) {
+        if (TIME_SERVICE.equals(tokens[0])) {
+          lastTime = new Position(number, offset, null);
+        }
+        continue;
+      }
+      long[] refs = findRefs(tokens, id);
+      ObjectLines entry = objects.get(id);
+      if (null == entry) {
+        entry = new ObjectLines(tokens[0]);
+        objects.put(id, entry);
+      }
+      entry.add(number, offset, refs);
+      lastMention.put(id, number);
+      for (long ref : refs) {
+        lastMention.put(ref, number);
+      }
+    }
+    log.info("Indexed " + lineCount + " lines, " + timeslots.size()
+             + " timeslots, " + objects.size() + " ids");
+  }
+
+  // Numeric tokens among the args, including collection members
+  private long[] findRefs (String[] tokens, long self)
+  {
+    long[] result = null;
+    int count = 0;
+    for (int i = 3; i < tokens.length; i++) {
+      String arg = tokens[i];
+      String[] items;
+      if (arg.length() > 1 && arg.charAt(0) == '('
+          && arg.charAt(arg.length() - 1) == ')') {
+        items = arg.substring(1, arg.length() - 1).split(",");
+      }
+      else {
+        items = new String[] {arg};
+      }
+      for (String item : items) {
+        if (!looksLikeLong(item)) {
+          continue;
+        }
+        long ref;
+        try {
+          ref = Long.parseLong(item);
+        }
+        catch (NumberFormatException nfe) {
+          continue;
+        }
+        if (ref == self) {
+          continue;
+        }
+        if (null == result) {
+          result = new long[tokens.length - 3];
+        }
+        else if (count == result.length) {
+          result = Arrays.copyOf(result, 2 * count);
+        }
+        result[count++] = ref;
+      }
+    }
+    return (0 == count) ? NO_REFS : Arrays.copyOf(result, count);
+  }
+
+  private boolean looksLikeLong (String item)
+  {
+    int length = item.length();
+    if (0 == length || length > 19) {
+      return false;
+    }
+    for (int i = (item.charAt(0) == '-') ? 1 : 0; i < length; i++) {
+      char c = item.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * True if the index was built from an uncompressed file, so that byte
+   * offsets can be used to seek.
+   */
+  public boolean isSeekable ()
+  {
+    return seekable;
+  }
+
+  public int getLineCount ()
+  {
+    return lineCount;
+  }
+
+  /** Timeslots that have a TimeslotUpdate in the log, in order */
+  public SortedSet<Integer> getTimeslots ()
+  {
+    return Collections.unmodifiableSortedSet(timeslots.navigableKeySet());
+  }
+
+  public boolean hasTimeslot (int timeslot)
+  {
+    return timeslots.containsKey(timeslot);
+  }
+
+  /**
+   * Line number of the TimeslotUpdate that opens the given timeslot,
+   * or -1 if there is none.
+   */
+  public int getLineNumber (int timeslot)
+  {
+    Position pos = timeslots.get(timeslot);
+    return (null == pos) ? -1 : pos.line;
+  }
+
+  /**
+   * Byte offset of the TimeslotUpdate that opens the given timeslot,
+   * or -1 if there is none.
+   */
+  public long getOffset (int timeslot)
+  {
+    Position pos = timeslots.get(timeslot);
+    return (null == pos) ? -1L : pos.offset;
+  }
+
+  /**
+   * Line number at which reading should stop to cover timeslots up to
+   * and including the given one: the TimeslotUpdate of the next indexed
+   * timeslot, or the end of the log.
+   */
+  public int getEndLineNumber (int lastTimeslot)
+  {
+    Map.Entry<Integer, Position> next = timeslots.higherEntry(lastTimeslot);
+    return (null == next) ? lineCount : next.getValue().line;
+  }
+
+  /**
+   * Classes whose instances are always rebuilt before a seek.
+   */
+  public Set<String> getPersistentClasses ()
+  {
+    return persistentClasses;
+  }
+
+  public void setPersistentClasses (Set<String> classes)
+  {
+    persistentClasses = new HashSet<>(classes);
+  }
+
+  /**
+   * Returns the lines to replay, in log order, before reading from the
+   * start of the given timeslot, or null if it is not in the index.
+   */
+  public SeekPlan planSeek (int timeslot)
+  {
+    Position start = timeslots.get(timeslot);
+    if (null == start) {
+      return null;
+    }
+    int limit = start.line;
+
+    // objects created before the seek point that are still needed
+    HashSet<Long> needed = new HashSet<>();
+    ArrayDeque<Long> queue = new ArrayDeque<>();
+    for (Map.Entry<Long, ObjectLines> entry : objects.entrySet()) {
+      ObjectLines lines = entry.getValue();
+      if (lines.lines[0] >= limit) {
+        continue;
+      }
+      if (lastMention.get(entry.getKey()) >= limit
+          || persistentClasses.contains(lines.className)) {
+        needed.add(entry.getKey());
+        queue.add(entry.getKey());
+      }
+    }
+    // and everything their earlier lines refer to
+    while (!queue.isEmpty()) {
+      ObjectLines lines = objects.get(queue.poll());
+      for (int i = 0; i < lines.count && lines.lines[i] < limit; i++) {
+        for (long ref : lines.refs[i]) {
+          ObjectLines target = objects.get(ref);
+          if (null != target && target.lines[0] < limit && needed.add(ref)) {
+            queue.add(ref);
+          }
+        }
+      }
+    }
+
+    TreeMap<Integer, Long> replay = new TreeMap<>();
+    for (Long id : needed) {
+      ObjectLines lines = objects.get(id);
+      for (int i = 0; i < lines.count && lines.lines[i] < limit; i++) {
+        replay.put(lines.lines[i], lines.offsets[i]);
+      }
+    }
+    if (null != start.lastTime) {
+      replay.put(start.lastTime.line, start.lastTime.offset);
+    }
+    int[] lineNumbers = new int[replay.size()];
+    long[] offsets = new long[replay.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Long> entry : replay.entrySet()) {
+      lineNumbers[i] = entry.getKey();
+      offsets[i] = entry.getValue();
+      i += 1;
+    }
+    log.info("Seek to timeslot " + timeslot + ": replay " + lineNumbers.length
+             + " of " + limit + " lines for " + needed.size() + " objects");
+    return new SeekPlan(timeslot, start.line, start.offset,
+                        lineNumbers, offsets);
+  }
+
+  /**
+   * Lines to replay before reading on from a TimeslotUpdate.
+   */
+  public static class SeekPlan
+  {
+    private final int timeslot;
+    private final int startLine;
+    private final long startOffset;
+    private final int[] lineNumbers;
+    private final long[] offsets;
+
+    SeekPlan (int timeslot, int startLine, long startOffset,
+              int[] lineNumbers, long[] offsets)
+    {
+      super();
+      this.timeslot = timeslot;
+      this.startLine = startLine;
+      this.startOffset = startOffset;
+      this.lineNumbers = lineNumbers;
+      this.offsets = offsets;
+    }
+
+    public int getTimeslot ()
+    {
+      return timeslot;
+    }
+
+    /** Line number of the TimeslotUpdate to resume from */
+    public int getStartLine ()
+    {
+      return startLine;
+    }
+
+    /** Byte offset of the TimeslotUpdate to resume from */
+    public long getStartOffset ()
+    {
+      return startOffset;
+    }
+
+    /** Line numbers to replay, in ascending order */
+    public int[] getLineNumbers ()
+    {
+      return lineNumbers;
+    }
+
+    /** Byte offsets of the lines to replay */
+    public long[] getOffsets ()
+    {
+      return offsets;
+    }
+  }
+
+  // where a line starts, plus the latest time update before it
+  private static class Position
+  {
+    final int line;
+    final long offset;
+    final Position lastTime;
+
+    Position (int line, long offset, Position lastTime)
+    {
+      super();
+      this.line = line;
+      this.offset = offset;
+      this.lastTime = lastTime;
+    }
+  }
+
+  // lines that created or modified one object, in log order
+  private static class ObjectLines
+  {
+    final String className;
+    int count = 0;
+    int[] lines = new int[2];
+    long[] offsets = new long[2];
+    long[][] refs = new long[2][];
+
+    ObjectLines (String className)
+    {
+      super();
+      this.className = className;
+    }
+
+    void add (int line, long offset, long[] lineRefs)
+    {
+      if (count == lines.length) {
+        lines = Arrays.copyOf(lines, 2 * count);
+        offsets = Arrays.copyOf(offsets, 2 * count);
+        refs = Arrays.copyOf(refs, 2 * count);
+      }
+      lines[count] = line;
+      offsets[count] = offset;
+      refs[count] = lineRefs;
+      count += 1;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads state-log lines while keeping track of the byte offset and line
+ * number of each one, so they can be found again later. Lines end at
+ * "\n", "\r" or "\r\n", as for BufferedReader.readLine(), and are decoded
+ * with the default charset, as in LogtoolCore. A reader built on a
+ * FileChannel can also seek to a known line.
+ */
+public class StateLogLineReader implements Closeable
+{
+  private final InputStream in;
+  private final FileChannel channel;
+  private final Charset charset = Charset.defaultCharset();
+
+  private byte[] buffer = new byte[1 << 16];
+  private int position = 0;
+  private int limit = 0;
+  private long bufferOffset = 0L;
+  private byte[] line = new byte[256];
+  private boolean skipLinefeed = false;
+
+  private long lineOffset = 0L;
+  private int lineNumber = -1;
+  private int nextLineNumber = 0;
+
+  public StateLogLineReader (InputStream in)
+  {
+    super();
+    this.in = in;
+    this.channel = null;
+  }
+
+  public StateLogLineReader (FileChannel channel)
+  {
+    super();
+    this.in = null;
+    this.channel = channel;
+  }
+
+  /**
+   * Returns the next line without its terminator, or null at the end of
+   * the stream. After the call, getLineOffset() and getLineNumber()
+   * describe the line just returned.
+   */
+  public String readLine () throws IOException
+  {
+    int length = 0;
+    long start = -1L;
+    while (true) {
+      if (position == limit && !fill()) {
+        if (start < 0L) {
+          return null;
+        }
+        break;
+      }
+      byte b = buffer[position];
+      if (skipLinefeed) {
+        skipLinefeed = false;
+        if ('\n' == b) {
+          position += 1;
+          continue;
+        }
+      }
+      if (start < 0L) {
+        start = bufferOffset + position;
+      }
+      position += 1;
+      if ('\n' == b) {
+        break;
+      }
+      if ('\r' == b) {
+        skipLinefeed = true;
+        break;
+      }
+      if (length == line.length) {
+        line = Arrays.copyOf(line, 2 * length);
+      }
+      line[length++] = b;
+    }
+    lineOffset = start;
+    lineNumber = nextLineNumber;
+    nextLineNumber += 1;
+    return new String(line, 0, length, charset);
+  }
+
+  /** Byte offset of the last line returned by readLine() */
+  public long getLineOffset ()
+  {
+    return lineOffset;
+  }
+
+  /** Zero-based number of the last line returned by readLine() */
+  public int getLineNumber ()
+  {
+    return lineNumber;
+  }
+
+  /**
+   * Positions the reader at the start of a line whose byte offset and
+   * line number came from an earlier pass. Only supported on a FileChannel.
+   */
+  public void seek (long offset, int number) throws IOException
+  {
+    if (null == channel) {
+      throw new IOException("Cannot seek in a stream");
+    }
+    skipLinefeed = false;
+    nextLineNumber = number;
+    if (offset >= bufferOffset && offset <= bufferOffset + limit) {
+      // already buffered
+      position = (int) (offset - bufferOffset);
+      return;
+    }
+    channel.position(offset);
+    bufferOffset = offset;
+    position = 0;
+    limit = 0;
+  }
+
+  private boolean fill () throws IOException
+  {
+    bufferOffset += limit;
+    position = 0;
+    limit = 0;
+    int count;
+    if (null != channel) {
+      count = channel.read(ByteBuffer.wrap(buffer));
+    }
+    else {
+      count = in.read(buffer);
+    }
+    if (count <= 0) {
+      return false;
+    }
+    limit = count;
+    return true;
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (null != channel) {
+      channel.close();
+    }
+    else {
+      in.close();
+    }
+  }
+}
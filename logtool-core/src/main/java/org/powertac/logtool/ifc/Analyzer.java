@@ -16,6 +16,7 @@
 package org.powertac.logtool.ifc;
 
 import java.io.FileNotFoundException;
+import java.util.Collection;
 
 /**
  * Interface for analyzers
@@ -34,4 +35,15 @@ public interface Analyzer
    * Called after reading the logfile
    */
   public void report();
+
+  /**
+   * Returns the domain classes this analyzer looks at, or null if it needs
+   * all of them. When every analyzer declares its classes, the reader
+   * skips state-log lines for classes that are neither declared nor
+   * needed to resolve references from declared ones.
+   */
+  public default Collection<Class<?>> getConsumedClasses ()
+  {
+    return null;
+  }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.ifc;
+
+import java.io.File;
+
+/**
+ * An Analyzer that can be run by BatchLogtool over many state logs. A new
+ * instance is created for each log, and told where to write its results
+ * before setup() is called.
+ */
+public interface BatchAnalyzer extends Analyzer
+{
+  /**
+   * Sets the file this instance writes its results to.
+   */
+  public void setOutputFile (File output);
+
+  /**
+   * Returns a one-line result for the batch summary, or null. Called
+   * after report().
+   */
+  public default String getSummary ()
+  {
+    return null;
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.common.DistributionTransaction;
+import org.powertac.common.Tariff;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.msg.TimeslotUpdate;
+import org.powertac.common.repo.TariffRepo;
+import org.powertac.logtool.BatchLogtool.Result;
+import org.powertac.logtool.ifc.BatchAnalyzer;
+
+/**
+ * Runs an analyzer over several games at once and compares each game's
+ * results with those of a separate run.
+ */
+public class BatchLogtoolTest
+{
+  private File logDir;
+  private File outputDir;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    logDir = Files.createTempDirectory("batch-logs").toFile();
+    outputDir = Files.createTempDirectory("batch-output").toFile();
+    for (int game = 1; game <= 3; game++) {
+      writeLog(new File(logDir, "game-" + game + "-sim.state"
+                        + (game == 2 ? ".gz" : "")),
+               makeGame(new Random(game), game, 40 + 10 * game));
+    }
+  }
+
+  @After
+  public void tearDown ()
+  {
+    delete(logDir);
+    delete(outputDir);
+  }
+
+  @Test
+  public void batchMatchesSeparateRuns () throws IOException
+  {
+    BatchLogtool batch = new BatchLogtool(CountingAnalyzer.class.getName());
+    batch.setThreads(3);
+    batch.setOutputDirectory(outputDir);
+    List<Result> results =
+        batch.run(Arrays.asList(logDir.getPath()));
+    assertEquals("three games", 3, results.size());
+    for (int game = 1; game <= 3; game++) {
+      Result result = results.get(game - 1);
+      assertEquals("name", "game-" + game + "-sim", result.getGame());
+      assertTrue(result.getGame() + " ok", result.isOk());
+      assertNotNull("summary", result.getSummary());
+      assertEquals("separate run of " + result.getGame(),
+                   separateRun(result.getInput()), read(result.getOutput()));
+    }
+    List<String> summary =
+        Files.readAllLines(new File(outputDir, BatchLogtool.SUMMARY).toPath());
+    assertEquals("header and three games", 4, summary.size());
+    assertTrue("game 3", summary.get(3).startsWith("game-3-sim,ok,"));
+  }
+
+  // One worker reads all three games in the same context, one after
+  // the other
+  @Test
+  public void contextReusedAcrossGames () throws IOException
+  {
+    BatchLogtool batch = new BatchLogtool(CountingAnalyzer.class.getName());
+    batch.setThreads(1);
+    batch.setOutputDirectory(outputDir);
+    List<Result> results = batch.run(Arrays.asList(logDir.getPath()));
+    assertEquals("three games", 3, results.size());
+    for (Result result : results) {
+      assertTrue(result.getGame() + " ok", result.isOk());
+      assertEquals("separate run of " + result.getGame(),
+                   separateRun(result.getInput()), read(result.getOutput()));
+    }
+  }
+
+  // Three workers read six games at once, each of them two in a row, with
+  // the games' competitions and tariffs in the workers' static state
+  @Test
+  public void concurrentWorkersKeepTheirGames () throws IOException
+  {
+    for (int game = 6; game <= 8; game++) {
+      writeLog(new File(logDir, "game-" + game + "-sim.state"),
+               makeGame(new Random(game), game, 60));
+    }
+    BatchLogtool batch = new BatchLogtool(CountingAnalyzer.class.getName());
+    batch.setThreads(3);
+    batch.setOutputDirectory(outputDir);
+    List<Result> results = batch.run(Arrays.asList(logDir.getPath()));
+    assertEquals("six games", 6, results.size());
+    for (Result result : results) {
+      assertTrue(result.getGame() + " ok", result.isOk());
+      String output = read(result.getOutput());
+      assertFalse(result.getGame() + " tariffs in its repo",
+                  output.contains("missing"));
+      assertEquals("separate run of " + result.getGame(),
+                   separateRun(result.getInput()), output);
+    }
+  }
+
+  @Test
+  public void archiveOfGames () throws IOException
+  {
+    File archive = new File(logDir, "tournament.zip");
+    try (ZipOutputStream zip =
+        new ZipOutputStream(new FileOutputStream(archive))) {
+      for (int game = 4; game <= 5; game++) {
+        zip.putNextEntry(new ZipEntry("games/game-" + game + "-sim.state"));
+        zip.write(makeGame(new Random(game), game, 30).getBytes());
+        zip.closeEntry();
+      }
+    }
+    BatchLogtool batch = new BatchLogtool(CountingAnalyzer.class.getName());
+    batch.setThreads(2);
+    batch.setOutputDirectory(outputDir);
+    List<Result> results = batch.run(Arrays.asList(archive.getPath()));
+    assertEquals("two games", 2, results.size());
+    for (int game = 4; game <= 5; game++) {
+      Result result = results.get(game - 4);
+      assertEquals("name", "game-" + game + "-sim", result.getGame());
+      assertTrue("ok", result.isOk());
+      File log = new File(logDir, "game-" + game + ".state");
+      writeLog(log, makeGame(new Random(game), game, 30));
+      assertEquals("separate run of " + result.getGame(),
+                   separateRun(log), read(result.getOutput()));
+    }
+  }
+
+  @Test
+  public void missingAnalyzer () throws IOException
+  {
+    BatchLogtool batch = new BatchLogtool("org.powertac.logtool.NoSuchAnalyzer");
+    batch.setOutputDirectory(outputDir);
+    List<Result> results = batch.run(Arrays.asList(logDir.getPath()));
+    assertEquals("three games", 3, results.size());
+    for (Result result : results) {
+      assertFalse("failed", result.isOk());
+      assertTrue("reason", result.getError().contains("NoSuchAnalyzer"));
+    }
+  }
+
+  // Results of the analyzer run on its own, as from the command line
+  private String separateRun (File input) throws IOException
+  {
+    File output = File.createTempFile("separate", ".data", outputDir);
+    CountingAnalyzer tool = new CountingAnalyzer();
+    tool.setOutputFile(output);
+    tool.cli(input.getPath(), tool);
+    return read(output);
+  }
+
+  private String read (File file) throws IOException
+  {
+    return new String(Files.readAllBytes(file.toPath()));
+  }
+
+  /**
+   * Counts the objects of each class in a game, and the distribution
+   * charges of each broker by name. It also makes the current Competition
+   * the game's, builds a Tariff from each specification, which finds its
+   * services through the static SpringApplicationContext, and charges
+   * usage on the tariffs in every timeslot. The same broker and tariff ids
+   * are used in every game with different names and rates, so a run that
+   * saw another game's objects, competition or repositories would give
+   * different results.
+   */
+  public static class CountingAnalyzer extends LogtoolContext
+    implements BatchAnalyzer
+  {
+    private File output;
+    private TreeMap<String, Integer> counts;
+    private TreeMap<String, Double> charges;
+    private TreeMap<String, Double> usageCharges;
+    private TreeMap<String, Integer> competitions;
+    private List<TariffSpecification> specs;
+    private List<Tariff> tariffs;
+    private int total;
+
+    @Override
+    public void setOutputFile (File output)
+    {
+      this.output = output;
+    }
+
+    @Override
+    public void setup ()
+    {
+      counts = new TreeMap<>();
+      charges = new TreeMap<>();
+      usageCharges = new TreeMap<>();
+      competitions = new TreeMap<>();
+      specs = new ArrayList<>();
+      tariffs = new ArrayList<>();
+      total = 0;
+      registerNewObjectListener(thing -> {
+        counts.merge(thing.getClass().getName(), 1, Integer::sum);
+        total += 1;
+      }, null);
+      registerNewObjectListener(thing -> {
+        DistributionTransaction tx = (DistributionTransaction) thing;
+        charges.merge(tx.getBroker().getUsername(), tx.getCharge(),
+                      Double::sum);
+      }, DistributionTransaction.class);
+      registerNewObjectListener(thing -> {
+        Competition.setCurrent((Competition) thing);
+      }, Competition.class);
+      registerNewObjectListener(thing -> {
+        specs.add((TariffSpecification) thing);
+      }, TariffSpecification.class);
+      registerNewObjectListener(thing -> {
+        nextTimeslot();
+      }, TimeslotUpdate.class);
+    }
+
+    // Builds tariffs from the specifications of the last timeslot, and
+    // charges usage on all of them
+    private void nextTimeslot ()
+    {
+      TariffRepo tariffRepo = (TariffRepo) getBean("tariffRepo");
+      for (TariffSpecification spec : specs) {
+        Tariff tariff = new Tariff(spec);
+        tariff.init();
+        tariffs.add(tariff);
+      }
+      specs.clear();
+      Competition competition = Competition.currentCompetition();
+      competitions.merge(competition.getName() + " "
+                         + competition.getMinimumTimeslotCount(),
+                         1, Integer::sum);
+      for (Tariff tariff : tariffs) {
+        String key = tariff.getBroker().getUsername() + " tariff";
+        if (tariffRepo.findTariffById(tariff.getId()) != tariff) {
+          key += " missing";
+        }
+        usageCharges.merge(key, tariff.getUsageCharge(10.0, 0.0, false),
+                           Double::sum);
+      }
+    }
+
+    @Override
+    public void report ()
+    {
+      try (PrintWriter out = new PrintWriter(output)) {
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+          out.println(entry.getKey() + " " + entry.getValue());
+        }
+        for (Map.Entry<String, Double> entry : charges.entrySet()) {
+          out.println(entry.getKey() + " " + entry.getValue());
+        }
+        for (Map.Entry<String, Double> entry : usageCharges.entrySet()) {
+          out.println(entry.getKey() + " " + entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : competitions.entrySet()) {
+          out.println(entry.getKey() + " " + entry.getValue());
+        }
+      }
+      catch (FileNotFoundException e) {
+        fail(e.toString());
+      }
+    }
+
+    @Override
+    public String getSummary ()
+    {
+      return total + " objects";
+    }
+  }
+
+  private String makeGame (Random rnd, int game, int timeslots)
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("140:org.powertac.common.Competition::0::new::game-")
+        .append(game).append('\n');
+    sb.append("222:org.powertac.common.Competition::0::withMinimumTimeslotCount::")
+        .append(1000 + game).append('\n');
+    long[] brokers = {601, 603};
+    for (long broker : brokers) {
+      sb.append("141:org.powertac.common.Broker::").append(broker)
+          .append("::new::Agent").append(game).append('-').append(broker)
+          .append('\n');
+    }
+    Instant time = new Instant(1230940800000L);
+    long id = 400000000L;
+    for (int ts = 360; ts < 360 + timeslots; ts++) {
+      time = time.plus(3600000L);
+      sb.append(ts).append(":org.powertac.common.TimeService::null::setCurrentTime::")
+          .append(time.toString()).append('\n');
+      sb.append(ts).append(":org.powertac.common.msg.TimeslotUpdate::")
+          .append(id++).append("::new::").append(time.toString())
+          .append("::").append(ts + 1).append("::").append(ts + 24)
+          .append('\n');
+      if (ts == 360) {
+        // a tariff per broker, with the same ids in every game
+        for (long broker : brokers) {
+          long spec = 200000000L + broker;
+          sb.append(ts).append(":org.powertac.common.TariffSpecification::")
+              .append(spec).append("::new::").append(broker)
+              .append("::CONSUMPTION::0::0.0::0.0::0.0\n");
+          sb.append(ts).append(":org.powertac.common.Rate::")
+              .append(spec + 1).append("::new::").append(spec)
+              .append("::-1::-1::-1::-1::0.0::true::")
+              .append(-0.01 * (game + rnd.nextInt(10)))
+              .append("::0.0::0::0.0::0.0\n");
+        }
+      }
+      for (int i = 0; i < 10; i++) {
+        long broker = brokers[rnd.nextInt(brokers.length)];
+        if (rnd.nextBoolean()) {
+          sb.append(ts).append(":org.powertac.common.Order::")
+              .append(id++).append("::new::").append(broker).append("::")
+              .append(ts + 1 + rnd.nextInt(23)).append("::")
+              .append(rnd.nextDouble() * 10.0).append("::")
+              .append(rnd.nextDouble() * -50.0).append('\n');
+        }
+        else {
+          sb.append(ts).append(":org.powertac.common.DistributionTransaction::")
+              .append(id++).append("::new::").append(broker).append("::")
+              .append(ts).append("::").append(rnd.nextDouble() * -100.0)
+              .append("::").append(rnd.nextDouble()).append('\n');
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private void writeLog (File file, String content) throws IOException
+  {
+    OutputStream out = new FileOutputStream(file);
+    if (file.getName().endsWith(".gz")) {
+      out = new GZIPOutputStream(out);
+    }
+    try {
+      out.write(content.getBytes());
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private void delete (File file)
+  {
+    File[] children = file.listFiles();
+    if (null != children) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.DistributionTransaction;
+import org.powertac.common.Order;
+import org.powertac.common.TimeService;
+import org.powertac.common.msg.SimEnd;
+import org.powertac.common.msg.TimeslotUpdate;
+import org.powertac.logtool.common.DomainObjectReader;
+import org.powertac.logtool.common.StateLogIndex;
+import org.powertac.logtool.common.StateLogIndex.SeekPlan;
+import org.powertac.logtool.ifc.Analyzer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Compares the pipelined state-log reader and timeslot seeks with a
+ * sequential replay of the whole log.
+ */
+public class LogtoolCoreTest
+{
+  static private Logger log = LogManager.getLogger(LogtoolCoreTest.class);
+
+  private static final String[] BASE = {
+    "140:org.powertac.common.Competition::0::new::game-9",
+    "221:org.powertac.common.Competition::0::withSimulationBaseTime::1229644800000",
+    "222:org.powertac.common.Competition::0::withMinimumTimeslotCount::1380",
+    "222:org.powertac.common.Competition::0::withExpectedTimeslotCount::1440",
+    "225:org.powertac.du.DefaultBrokerService$LocalBroker::1::new::default broker",
+    "125552:org.powertac.common.Broker::601::new::CrocodileAgent",
+    "144669:org.powertac.common.Broker::603::new::AstonTAC",
+    "169937:org.powertac.common.Broker::605::new::SotonPower",
+    "170000:org.powertac.common.RandomSeed::7::new::x::0::y::42",
+    "170001:org.powertac.common.NoSuchThing::8::new::x",
+    "170002:org.powertac.common.Competition::99::withMinimumTimeslotCount::1",
+    "177116:org.powertac.common.HourlyCharge::600000390::new::600000389::-0.0010::2009-01-03T02:00:00.000Z",
+    "177116:org.powertac.common.HourlyCharge::600000392::new::600000389::-0.0010::2009-01-03T03:00:00.000Z",
+    "177118:org.powertac.common.Rate::600000389::new::600000388::-1::-1::-1::-1::0.0::false::0.0::0.0::1::0.0::0.0",
+    "177120:org.powertac.common.TariffSpecification::600000388::new::605::CONSUMPTION::0::0.0::0.0::0.0",
+    "177360:org.powertac.common.Rate::200076920::new::200076919::-1::-1::-1::-1::0.0::true::-0.045598969348039364::0.0::0::0.0::0.1",
+    "177360:org.powertac.common.TariffSpecification::200076919::new::601::INTERRUPTIBLE_CONSUMPTION::0::0.0::0.0::-0.6",
+    "177361:org.powertac.common.TariffSpecification::200076919::addRate::200076920",
+    "237911:org.powertac.common.msg.BalancingOrder::200077175::new::0.5::-0.04103907241323543::200076919::601",
+  };
+
+  private List<Object> created;
+  private DomainObjectReader dor;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    created = new ArrayList<>();
+  }
+
+  @Test
+  public void pipelineMatchesSequential () throws IOException
+  {
+    String stateLog = makeLog(new Random(42), 3000);
+    List<String> expected = fingerprints(read(0, stateLog));
+    for (int threads = 1; threads <= 4; threads++) {
+      assertEquals("same objects with " + threads + " parse threads",
+                   expected, fingerprints(read(threads, stateLog)));
+    }
+  }
+
+  @Test
+  public void pipelineStopsAtSimEnd () throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for (String line : BASE) {
+      sb.append(line).append('\n');
+    }
+    sb.append("300000:org.powertac.common.msg.SimEnd::null::new\n");
+    sb.append("300001:org.powertac.common.Broker::607::new::TooLate\n");
+    List<Object> sequential = read(0, sb.toString());
+    List<Object> pipelined = read(2, sb.toString());
+    assertEquals("same objects", fingerprints(sequential),
+                 fingerprints(pipelined));
+    assertTrue("ends with SimEnd",
+               pipelined.get(pipelined.size() - 1) instanceof SimEnd);
+  }
+
+  @Test
+  public void seekMatchesFullReplay () throws IOException
+  {
+    File file = writeLog(makeGame(new Random(11), 30), false);
+    LogtoolCore core = core(0);
+    StateLogIndex index = core.indexStateLog(file);
+    // brokers are only rebuilt if they are used after the seek point
+    index.setPersistentClasses(Collections.singleton(
+        "org.powertac.common.Competition"));
+    assertTrue("seekable", index.isSeekable());
+    assertEquals("all timeslots indexed", 30, index.getTimeslots().size());
+
+    List<Object> full = read(0, new String(Files.readAllBytes(file.toPath())));
+    DomainObjectReader fullReader = dor;
+
+    for (int timeslot : new int[] {360, 361, 375, 389}) {
+      SeekPlan plan = index.planSeek(timeslot);
+      created = new ArrayList<>();
+      core = core(2);
+      assertNull("no error",
+                 core.readSeekable(file, plan, Integer.MAX_VALUE));
+      checkSeek(timeslot, full, fullReader, created, dor);
+    }
+  }
+
+  @Test
+  public void seekCompressed () throws IOException
+  {
+    String game = makeGame(new Random(12), 20);
+    File plain = writeLog(game, false);
+    File gz = writeLog(game, true);
+    LogtoolCore core = core(0);
+    StateLogIndex gzIndex = core.indexStateLog(gz);
+    assertFalse("not seekable", gzIndex.isSeekable());
+    SeekPlan gzPlan = gzIndex.planSeek(370);
+    core = core(0);
+    List<Object> fromGz = new ArrayList<>();
+    created = fromGz;
+    assertNull("no error", core.readSkipping(gz, gzPlan, Integer.MAX_VALUE));
+
+    core = core(0);
+    StateLogIndex index = core.indexStateLog(plain);
+    assertEquals("same lines", index.getLineCount(), gzIndex.getLineCount());
+    created = new ArrayList<>();
+    core = core(0);
+    assertNull("no error",
+               core.readSeekable(plain, index.planSeek(370), Integer.MAX_VALUE));
+    assertEquals("same objects", fingerprints(created), fingerprints(fromGz));
+  }
+
+  @Test
+  public void seekRange () throws IOException
+  {
+    File file = writeLog(makeGame(new Random(13), 20), false);
+    LogtoolCore core = core(0);
+    StateLogIndex index = core.indexStateLog(file);
+    SeekPlan plan = index.planSeek(365);
+    int lines = index.getEndLineNumber(367) - plan.getStartLine();
+    created = new ArrayList<>();
+    core = core(0);
+    assertNull("no error", core.readSeekable(file, plan, lines));
+    List<Long> slots = new ArrayList<>();
+    for (Object thing : created) {
+      if (thing instanceof TimeslotUpdate) {
+        slots.add((long) ((TimeslotUpdate) thing).getFirstEnabled() - 1);
+      }
+    }
+    assertEquals("timeslots read", Arrays.asList(365L, 366L, 367L), slots);
+    assertEquals("end of log", index.getLineCount(),
+                 index.getEndLineNumber(379));
+    assertNull("unknown timeslot", index.planSeek(400));
+  }
+
+  // Objects rebuilt by a seek match the same objects at the end of a full
+  // replay, and everything created from the seek point on is present.
+  private void checkSeek (int timeslot, List<Object> full,
+                          DomainObjectReader fullReader,
+                          List<Object> seek, DomainObjectReader seekReader)
+  {
+    int start = -1;
+    for (int i = 0; i < full.size(); i++) {
+      Object thing = full.get(i);
+      if (thing instanceof TimeslotUpdate
+          && ((TimeslotUpdate) thing).getFirstEnabled() == timeslot + 1) {
+        start = i;
+        break;
+      }
+    }
+    assertTrue("timeslot " + timeslot + " found", start >= 0);
+    List<Object> after = full.subList(start, full.size());
+    assertEquals("timeslot " + timeslot + " tail",
+                 fingerprints(after),
+                 fingerprints(seek.subList(seek.size() - after.size(),
+                                           seek.size())));
+    for (Object thing : seek) {
+      long id = getId(thing);
+      if (id < 0) {
+        continue;
+      }
+      Object original = fullReader.getById(id);
+      assertNotNull("timeslot " + timeslot + " id " + id, original);
+      assertEquals("timeslot " + timeslot + " id " + id,
+                   fingerprint(original), fingerprint(seekReader.getById(id)));
+    }
+    Object idle = seekReader.getById(609);
+    assertNull("timeslot " + timeslot + " idle broker", idle);
+  }
+
+  private long getId (Object thing)
+  {
+    try {
+      return (Long) thing.getClass().getMethod("getId").invoke(thing);
+    }
+    catch (Exception e) {
+      return -1L;
+    }
+  }
+
+  // A game of the given number of timeslots, starting at 360. Broker 609
+  // appears at the start and is never mentioned again.
+  private String makeGame (Random rnd, int timeslots)
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("140:org.powertac.common.Competition::0::new::game-9\n");
+    sb.append("141:org.powertac.common.Broker::601::new::CrocodileAgent\n");
+    sb.append("142:org.powertac.common.Broker::603::new::AstonTAC\n");
+    sb.append("143:org.powertac.common.Broker::609::new::Idle\n");
+    Instant time = new Instant(1230940800000L);
+    long id = 400000000L;
+    long[] brokers = {601, 603};
+    for (int ts = 360; ts < 360 + timeslots; ts++) {
+      time = time.plus(3600000L);
+      sb.append(ts).append(":org.powertac.common.TimeService::null::setCurrentTime::")
+          .append(time.toString()).append('\n');
+      sb.append(ts).append(":org.powertac.common.msg.TimeslotUpdate::")
+          .append(id++).append("::new::").append(time.toString())
+          .append("::").append(ts + 1).append("::").append(ts + 24)
+          .append('\n');
+      if (ts == 370) {
+        // a broker that joins late
+        sb.append(ts).append(":org.powertac.common.Broker::605::new::Late\n");
+        brokers = new long[] {601, 603, 605};
+      }
+      sb.append(ts).append(":org.powertac.common.Competition::0::withMinimumTimeslotCount::")
+          .append(ts).append('\n');
+      for (int i = 0; i < 20; i++) {
+        long broker = brokers[rnd.nextInt(brokers.length)];
+        if (rnd.nextBoolean()) {
+          sb.append(ts).append(":org.powertac.common.Order::")
+              .append(id++).append("::new::").append(broker).append("::")
+              .append(ts + 1 + rnd.nextInt(23)).append("::")
+              .append(rnd.nextDouble() * 10.0).append("::")
+              .append(rnd.nextDouble() * -50.0).append('\n');
+        }
+        else {
+          sb.append(ts).append(":org.powertac.common.DistributionTransaction::")
+              .append(id++).append("::new::").append(broker).append("::")
+              .append(ts).append("::").append(rnd.nextDouble() * -100.0)
+              .append("::").append(rnd.nextDouble()).append('\n');
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private File writeLog (String content, boolean compress) throws IOException
+  {
+    File file = File.createTempFile("logtool", compress ? ".state.gz" : ".state");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    if (compress) {
+      out = new GZIPOutputStream(out);
+    }
+    try {
+      out.write(content.getBytes());
+    }
+    finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Throughput of both readers on a synthetic log. The numbers are only
+   * logged; the readers must still agree.
+   */
+  @Test
+  public void throughput () throws IOException
+  {
+    String stateLog = makeLog(new Random(7), 40000);
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    read(0, stateLog); // warm up
+    long start = System.nanoTime();
+    List<String> expected = fingerprints(read(0, stateLog));
+    long sequential = System.nanoTime() - start;
+    start = System.nanoTime();
+    List<String> actual = fingerprints(read(threads, stateLog));
+    long pipelined = System.nanoTime() - start;
+    int lines = stateLog.split("\n").length;
+    log.info("sequential: {} lines/sec, pipelined ({} threads): {} lines/sec",
+             lines * 1000000000L / Math.max(1, sequential), threads,
+             lines * 1000000000L / Math.max(1, pipelined));
+    assertEquals("same objects", expected, actual);
+  }
+
+  /**
+   * An analyzer that only wants distribution transactions gets the same
+   * ones, while orders and other unrelated lines are skipped. The
+   * timings are only logged.
+   */
+  @Test
+  public void typeFilter () throws IOException
+  {
+    String stateLog = makeLog(new Random(5), 40000);
+    read(0, stateLog); // warm up
+    long start = System.nanoTime();
+    List<String> expected = transactions(read(0, stateLog));
+    long unfiltered = System.nanoTime() - start;
+
+    created = new ArrayList<>();
+    LogtoolCore core = core(0);
+    core.setTypeFilter(new TransactionAnalyzer());
+    start = System.nanoTime();
+    assertNull("no error",
+               core.readLines(reader(stateLog), Integer.MAX_VALUE));
+    long filtered = System.nanoTime() - start;
+    assertTrue("brokers needed",
+               dor.getNeededClasses().contains(Broker.class));
+    assertFalse("orders not needed",
+                dor.getNeededClasses().contains(Order.class));
+    for (Object thing : created) {
+      assertFalse("no orders", thing instanceof Order);
+    }
+    assertEquals("same transactions", expected, transactions(created));
+    log.info("unfiltered: {} ms, DistributionTransaction only: {} ms",
+             unfiltered / 1000000, filtered / 1000000);
+
+    core.setTypeFilter(new TransactionAnalyzer(), new NoopAnalyzer());
+    assertNull("no filter", dor.getNeededClasses());
+  }
+
+  private List<String> transactions (List<Object> things)
+  {
+    List<String> result = new ArrayList<>();
+    for (Object thing : things) {
+      if (thing instanceof DistributionTransaction) {
+        result.add(fingerprint(thing));
+      }
+    }
+    return result;
+  }
+
+  class TransactionAnalyzer implements Analyzer
+  {
+    @Override
+    public void setup ()
+    {
+    }
+
+    @Override
+    public void report ()
+    {
+    }
+
+    @Override
+    public Collection<Class<?>> getConsumedClasses ()
+    {
+      return Collections.singleton(DistributionTransaction.class);
+    }
+  }
+
+  class NoopAnalyzer implements Analyzer
+  {
+    @Override
+    public void setup ()
+    {
+    }
+
+    @Override
+    public void report ()
+    {
+    }
+  }
+
+  // Reads a log and returns the objects it created, in creation order
+  private List<Object> read (int threads, String stateLog) throws IOException
+  {
+    created = new ArrayList<>();
+    LogtoolCore core = core(threads);
+    String result = core.readLines(reader(stateLog), Integer.MAX_VALUE);
+    assertNull("no error", result);
+    return created;
+  }
+
+  private LogtoolCore core (int threads)
+  {
+    dor = new DomainObjectReader();
+    TimeService timeService = new TimeService();
+    ReflectionTestUtils.setField(dor, "timeService", timeService);
+    LogtoolCore core = new LogtoolCore();
+    ReflectionTestUtils.setField(core, "reader", dor);
+    core.setParseThreads(threads);
+    dor.registerNewObjectListener(core.new SimEndHandler(), SimEnd.class);
+    dor.registerNewObjectListener(thing -> created.add(thing), null);
+    return core;
+  }
+
+  private BufferedReader reader (String stateLog)
+  {
+    return new BufferedReader(new StringReader(stateLog));
+  }
+
+  // The base records followed by random orders, transactions and
+  // competition updates, with some time updates mixed in
+  private String makeLog (Random rnd, int count)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (String line : BASE) {
+      sb.append(line).append('\n');
+    }
+    int[] brokers = {601, 603, 605};
+    Instant time = new Instant(1230940800000L);
+    long id = 400000000L;
+    for (int i = 0; i < count; i++) {
+      int broker = brokers[rnd.nextInt(brokers.length)];
+      int slot = 360 + i / 100;
+      switch (rnd.nextInt(6)) {
+      case 0:
+        time = time.plus(3600000L);
+        sb.append(i).append(":org.powertac.common.TimeService::null::setCurrentTime::")
+            .append(time.toString()).append('\n');
+        break;
+      case 1:
+        sb.append(i).append(":org.powertac.common.DistributionTransaction::")
+            .append(id++).append("::new::").append(broker).append("::")
+            .append(slot).append("::").append(rnd.nextDouble() * -100.0)
+            .append("::").append(rnd.nextDouble()).append('\n');
+        break;
+      case 2:
+        sb.append(i).append(":org.powertac.common.Competition::0::withMinimumTimeslotCount::")
+            .append(rnd.nextInt(2000)).append('\n');
+        break;
+      case 3:
+        sb.append(i).append(":org.powertac.common.Broker::")
+            .append(id++).append("::new::broker").append(i).append('\n');
+        break;
+      default:
+        sb.append(i).append(":org.powertac.common.Order::")
+            .append(id++).append("::new::").append(broker).append("::")
+            .append(slot).append("::").append(rnd.nextDouble() * 10.0)
+            .append("::").append(rnd.nextDouble() * -50.0).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  private List<String> fingerprints (List<Object> things)
+  {
+    List<String> result = new ArrayList<>();
+    for (Object thing : things) {
+      result.add(fingerprint(thing));
+    }
+    return result;
+  }
+
+  // Field values of an object, with domain objects shown by id so that
+  // objects from different runs can be compared
+  private String fingerprint (Object thing)
+  {
+    StringBuilder sb = new StringBuilder(thing.getClass().getName());
+    for (Class<?> clazz = thing.getClass(); clazz != Object.class;
+         clazz = clazz.getSuperclass()) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        field.setAccessible(true);
+        try {
+          sb.append(' ').append(field.getName()).append('=')
+              .append(render(field.get(thing)));
+        }
+        catch (IllegalAccessException e) {
+          fail(e.toString());
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private String render (Object value)
+  {
+    if (null == value) {
+      return "null";
+    }
+    if (value instanceof Collection) {
+      StringBuilder sb = new StringBuilder("(");
+      for (Object item : (Collection<?>) value) {
+        sb.append(render(item)).append(',');
+      }
+      return sb.append(')').toString();
+    }
+    Class<?> clazz = value.getClass();
+    if (clazz.getName().startsWith("java.lang") || clazz.isEnum()
+        || value instanceof Instant) {
+      return value.toString();
+    }
+    try {
+      Method getId = clazz.getMethod("getId");
+      return "#" + getId.invoke(value);
+    }
+    catch (Exception e) {
+      return clazz.getName();
+    }
+  }
+}
@@ -2,6 +2,8 @@ package org.powertac.logtool.common;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.powertac.common.Broker;
@@ -11,7 +13,9 @@ import org.powertac.common.HourlyCharge;
 import org.powertac.common.Order;
 import org.powertac.common.Rate;
 import org.powertac.common.TariffSpecification;
+import org.powertac.common.TimeService;
 import org.powertac.common.msg.BalancingOrder;
+import org.springframework.test.util.ReflectionTestUtils;
 
 public class DomainObjectReaderTest
 {
@@ -192,6 +196,29 @@ public class DomainObjectReaderTest
     }
   }
   
+  @Test
+  public void typeFilter ()
+  {
+    dor.setTypeFilter(Arrays.asList(DistributionTransaction.class));
+    assertTrue("broker needed", dor.getNeededClasses().contains(Broker.class));
+    String aston = "144669:org.powertac.common.Broker::603::new::AstonTAC";
+    String order = "180915:org.powertac.common.Order::400000393::new::603::42::2.109375::-31.835472671068615";
+    String dt = "189426:org.powertac.common.DistributionTransaction::3459::new::603::42::-0.0::0.0";
+    try {
+      Broker broker = (Broker)dor.readObject(aston);
+      assertNotNull("broker read", broker);
+      assertNull("order skipped", dor.readObject(order));
+      assertNull("order not stored", dor.getById(400000393));
+      DistributionTransaction dtx = (DistributionTransaction)dor.readObject(dt);
+      assertEquals("broker stored", broker, dtx.getBroker());
+      dor.setTypeFilter(null);
+      assertNotNull("order read without filter", dor.readObject(order));
+    }
+    catch (MissingDomainObject mdo) {
+      fail("bad exception " + mdo.toString());
+    }
+  }
+
   @Test
   public void simpleMethodCall ()
   {
@@ -213,4 +240,83 @@ public class DomainObjectReaderTest
       fail("should not happen: " + mdo.toString());
     }
   }
+
+  @Test
+  public void evictTimeslotScoped ()
+  {
+    ReflectionTestUtils.setField(dor, "timeService", new TimeService());
+    dor.setEvictionTimeslots(2);
+    String aston = "144669:org.powertac.common.Broker::603::new::AstonTAC";
+    String t1 = "180000:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T02:00:00.000Z";
+    String o1 = "180915:org.powertac.common.Order::400000393::new::603::42::2.1::-31.8";
+    String t2 = "190000:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T03:00:00.000Z";
+    String o2 = "190915:org.powertac.common.Order::400000394::new::603::43::2.1::-31.8";
+    String t3 = "200000:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T04:00:00.000Z";
+    String late = "200001:org.powertac.common.Order::400000393::getMWh";
+    try {
+      dor.readObject(aston);
+      dor.readObject(t1);
+      dor.readObject(o1);
+      dor.readObject(t2);
+      dor.readObject(o2);
+      assertNotNull("first order kept for now", dor.getById(400000393));
+      dor.readObject(t3);
+      assertNull("first order evicted", dor.getById(400000393));
+      assertNotNull("second order kept", dor.getById(400000394));
+      assertNotNull("broker kept", dor.getById(603));
+      assertEquals("one evicted", 1, dor.getEvictedCount());
+      assertEquals("nothing unresolved yet", 0, dor.getUnresolvedCount());
+      dor.readObject(late);
+      assertEquals("late reference reported", 1, dor.getUnresolvedCount());
+      assertEquals("by class", Integer.valueOf(1),
+                   dor.getUnresolvedReferences().get("org.powertac.common.Order"));
+    }
+    catch (MissingDomainObject mdo) {
+      fail("bad exception " + mdo.toString());
+    }
+  }
+
+  // evicted ids are remembered for a while, not for the whole game
+  @Test
+  public void evictedIdsForgotten ()
+  {
+    ReflectionTestUtils.setField(dor, "timeService", new TimeService());
+    dor.setEvictionTimeslots(2);
+    try {
+      dor.readObject("144669:org.powertac.common.Broker::603::new::AstonTAC");
+      for (int hour = 10; hour < 30; hour++) {
+        dor.readObject("200000:org.powertac.common.TimeService::null::setCurrentTime::2009-01-"
+                       + (hour < 24 ? "03T" + hour : "04T0" + (hour - 24))
+                       + ":00:00.000Z");
+        dor.readObject("200001:org.powertac.common.Order::" + (400000000 + hour)
+                       + "::new::603::42::2.1::-31.8");
+      }
+      assertEquals("all but the last two evicted", 18, dor.getEvictedCount());
+      assertTrue("evicted ids of two timeslots kept", dor.evicted.size() <= 2);
+    }
+    catch (MissingDomainObject mdo) {
+      fail("bad exception " + mdo.toString());
+    }
+  }
+
+  @Test
+  public void noEvictionByDefault ()
+  {
+    ReflectionTestUtils.setField(dor, "timeService", new TimeService());
+    String aston = "144669:org.powertac.common.Broker::603::new::AstonTAC";
+    String order = "180915:org.powertac.common.Order::400000393::new::603::42::2.1::-31.8";
+    try {
+      dor.readObject(aston);
+      dor.readObject(order);
+      for (int hour = 10; hour < 20; hour++) {
+        dor.readObject("200000:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T"
+                       + hour + ":00:00.000Z");
+      }
+      assertNotNull("order kept", dor.getById(400000393));
+      assertEquals("nothing evicted", 0, dor.getEvictedCount());
+    }
+    catch (MissingDomainObject mdo) {
+      fail("bad exception " + mdo.toString());
+    }
+  }
 }
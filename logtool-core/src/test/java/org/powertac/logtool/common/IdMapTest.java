@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IdMapTest
+{
+  @Test
+  public void putGetRemove ()
+  {
+    IdMap<String> map = new IdMap<>();
+    assertNull("empty", map.get(601));
+    assertNull("new key", map.put(601, "a"));
+    assertEquals("stored", "a", map.get(601));
+    assertEquals("replaced", "a", map.put(601, "b"));
+    assertEquals("one entry", 1, map.size());
+    assertEquals("removed", "b", map.remove(601));
+    assertNull("gone", map.get(601));
+    assertEquals("empty again", 0, map.size());
+    map.put(-1L, "negative");
+    map.put(0L, "zero");
+    assertEquals("negative key", "negative", map.get(-1L));
+    assertEquals("zero key", "zero", map.get(0L));
+    map.put(0L, null);
+    assertFalse("null removes", map.containsKey(0L));
+  }
+
+  // Random puts and removes over ids shaped like the server's, checked
+  // against a HashMap
+  @Test
+  public void matchesHashMap ()
+  {
+    Random rnd = new Random(36);
+    IdMap<Long> map = new IdMap<>();
+    HashMap<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 200000; i++) {
+      long key = (1 + rnd.nextInt(4)) * 100000000L + rnd.nextInt(20000);
+      if (rnd.nextInt(3) == 0) {
+        assertEquals("remove " + key, expected.remove(key), map.remove(key));
+      }
+      else {
+        assertEquals("put " + key, expected.put(key, (long) i), map.put(key, (long) i));
+      }
+    }
+    assertEquals("size", expected.size(), map.size());
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      assertEquals("get " + entry.getKey(), entry.getValue(),
+                   map.get(entry.getKey()));
+    }
+    for (int i = 0; i < 1000; i++) {
+      long key = 500000000L + i;
+      assertNull("absent " + key, map.get(key));
+    }
+    map.clear();
+    assertEquals("cleared", 0, map.size());
+  }
+}
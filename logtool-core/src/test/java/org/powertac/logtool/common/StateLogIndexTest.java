@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+import org.powertac.logtool.common.StateLogIndex.SeekPlan;
+
+public class StateLogIndexTest
+{
+  private static final String LOG =
+      "140:org.powertac.common.Competition::0::new::game-9\n"
+      + "141:org.powertac.common.Broker::601::new::Used\r\n"
+      + "142:org.powertac.common.Broker::602::new::Unused\r"
+      + "150:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T00:00:00.000Z\n"
+      + "151:org.powertac.common.msg.TimeslotUpdate::10::new::2009-01-03T00:00:00.000Z::361::384\n"
+      + "152:org.powertac.common.Order::11::new::601::362::1.0::-20.0\n"
+      + "160:org.powertac.common.TimeService::null::setCurrentTime::2009-01-03T01:00:00.000Z\n"
+      + "161:org.powertac.common.msg.TimeslotUpdate::12::new::2009-01-03T01:00:00.000Z::362::385\n"
+      + "162:org.powertac.common.Order::13::new::601::363::1.0::-20.0\n";
+
+  @Test
+  public void lineOffsets () throws IOException
+  {
+    StateLogLineReader reader =
+        new StateLogLineReader(new ByteArrayInputStream(LOG.getBytes()));
+    assertEquals("first line",
+                 "140:org.powertac.common.Competition::0::new::game-9",
+                 reader.readLine());
+    assertEquals("line 0", 0, reader.getLineNumber());
+    assertEquals("offset 0", 0L, reader.getLineOffset());
+    assertEquals("crlf line",
+                 "141:org.powertac.common.Broker::601::new::Used",
+                 reader.readLine());
+    assertEquals("offset 1", LOG.indexOf("141:"), reader.getLineOffset());
+    assertEquals("cr line",
+                 "142:org.powertac.common.Broker::602::new::Unused",
+                 reader.readLine());
+    assertEquals("offset 3", LOG.indexOf("150:"),
+                 offsetAfter(reader));
+    assertEquals("line 3", 3, reader.getLineNumber());
+  }
+
+  private long offsetAfter (StateLogLineReader reader) throws IOException
+  {
+    reader.readLine();
+    return reader.getLineOffset();
+  }
+
+  @Test
+  public void timeslots () throws IOException
+  {
+    StateLogIndex index = index();
+    assertEquals("two timeslots", 2, index.getTimeslots().size());
+    assertEquals("360 starts at line 4", 4, index.getLineNumber(360));
+    assertEquals("361 offset", LOG.indexOf("161:"), index.getOffset(361));
+    assertEquals("360 ends at 361", 7, index.getEndLineNumber(360));
+    assertEquals("361 ends at end of log", 9, index.getEndLineNumber(361));
+    assertEquals("missing", -1, index.getLineNumber(362));
+  }
+
+  @Test
+  public void planSeek () throws IOException
+  {
+    StateLogIndex index = index();
+    index.getPersistentClasses().remove("org.powertac.common.Broker");
+    SeekPlan plan = index.planSeek(361);
+    assertArrayEquals("competition, used broker and time",
+                      new int[] {0, 1, 6}, plan.getLineNumbers());
+    assertEquals("start", 7, plan.getStartLine());
+
+    index.getPersistentClasses().add("org.powertac.common.Broker");
+    assertArrayEquals("with all brokers",
+                      new int[] {0, 1, 2, 6},
+                      index.planSeek(361).getLineNumbers());
+  }
+
+  @Test
+  public void seekLines () throws IOException
+  {
+    File file = File.createTempFile("index", ".state");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(LOG.getBytes());
+    }
+    StateLogIndex index = index();
+    SeekPlan plan = index.planSeek(361);
+    try (FileChannel channel =
+        FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      StateLogLineReader reader = new StateLogLineReader(channel);
+      reader.seek(plan.getOffsets()[1], plan.getLineNumbers()[1]);
+      assertEquals("broker line",
+                   "141:org.powertac.common.Broker::601::new::Used",
+                   reader.readLine());
+      reader.seek(plan.getStartOffset(), plan.getStartLine());
+      assertTrue("timeslot update", reader.readLine().startsWith("161:"));
+      assertEquals("line number", 7, reader.getLineNumber());
+    }
+  }
+
+  private StateLogIndex index () throws IOException
+  {
+    return new StateLogIndex(
+        new StateLogLineReader(new ByteArrayInputStream(LOG.getBytes())), true);
+  }
+}
@@ -25,8 +25,11 @@ import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.joda.time.Instant;
 import org.powertac.common.interfaces.CustomerModelAccessor;
 import org.powertac.common.interfaces.TariffMarket;
+import org.powertac.common.repo.TariffCostCache;
+import org.powertac.common.repo.TariffPriceTableRepo;
 import org.powertac.common.repo.TariffRepo;
 import org.powertac.common.repo.TariffSubscriptionRepo;
 import org.powertac.common.spring.SpringApplicationContext;
@@ -47,6 +50,10 @@ public class TariffEvaluator
   TariffRepo tariffRepo;
   TariffMarket tariffMarket;
   TariffSubscriptionRepo tariffSubscriptionRepo;
+  TariffPriceTableRepo tariffPriceTableRepo;
+  private boolean noPriceTables = false;
+  TariffCostCache tariffCostCache;
+  private boolean noCostCache = false;
 
   // access to customer model
   private CustomerModelAccessor accessor;
@@ -67,6 +74,7 @@ public class TariffEvaluator
 
   // profile cost analyzer
   private TariffEvaluationHelper helper;
+  private double[] costFactors = new double[0]; // as given to helper
 
   // per-customer parameter settings
   private int chunkSize = 1; // max size of allocation chunks
@@ -113,6 +121,7 @@ public class TariffEvaluator
                                      double wtRealized, double soldThreshold)
   {
     helper.initializeCostFactors(wtExpected, wtMax, wtRealized, soldThreshold);
+    costFactors = new double[] {wtExpected, wtMax, wtRealized, soldThreshold};
   }
 
   /**
@@ -660,9 +669,17 @@ public class TariffEvaluator
     // since the previous writes inconv. factors.
     // Always 0 except for AdaptiveCapacityOriginator
     double inconv = accessor.getShiftingInconvenienceFactor(tariff);
-    double profileCost = helper.estimateCost(tariff,
-                                             profile.getProfile(),
-                                             profile.getStart());
+    double profileCost;
+    TariffCostCache cache = getTariffCostCache();
+    if (null == cache) {
+      profileCost = estimateProfileCost(tariff, profile.getProfile(),
+                                        profile.getStart());
+    }
+    else {
+      profileCost = cache.estimateCost(tariff, profile.getProfile(),
+                                       profile.getStart(), costFactors,
+                                       this::estimateProfileCost);
+    }
     if (Double.isNaN(profileCost)) {
       log.error(getName() + ": profile cost NaN for tariff "
                 + tariff.getId());
@@ -678,6 +695,19 @@ public class TariffEvaluator
     return (profileCost + inconv) * scale;
   }
 
+  // Uses the compiled prices of the tariff if it has them. Variable rates
+  // are estimated by the helper, from their expected values.
+  private double estimateProfileCost (Tariff tariff, double[] usage,
+                                      Instant start)
+  {
+    TariffPriceTableRepo tables = getTariffPriceTableRepo();
+    TariffPriceTable table = (null == tables) ? null : tables.findByTariff(tariff);
+    if (null == table || table.isVariableRate()) {
+      return helper.estimateCost(tariff, usage, start);
+    }
+    return table.estimateCost(usage, start);
+  }
+
   // tracks additions and deletions for tariff subscriptions
   private void addAllocation (Tariff current, Tariff newTariff, int count)
   {
@@ -821,6 +851,38 @@ public class TariffEvaluator
     return tariffSubscriptionRepo;
   }
 
+  // the price tables are optional, evaluation works without them
+  private TariffPriceTableRepo getTariffPriceTableRepo ()
+  {
+    if (null != tariffPriceTableRepo || noPriceTables)
+      return tariffPriceTableRepo;
+    try {
+      tariffPriceTableRepo =
+              (TariffPriceTableRepo) SpringApplicationContext.getBean("tariffPriceTableRepo");
+    }
+    catch (RuntimeException e) {
+      log.info("No tariff price tables: " + e.toString());
+    }
+    noPriceTables = (null == tariffPriceTableRepo);
+    return tariffPriceTableRepo;
+  }
+
+  // without the shared cache, every profile is forecast in full
+  private TariffCostCache getTariffCostCache ()
+  {
+    if (null != tariffCostCache || noCostCache)
+      return tariffCostCache;
+    try {
+      tariffCostCache =
+              (TariffCostCache) SpringApplicationContext.getBean("tariffCostCache");
+    }
+    catch (RuntimeException e) {
+      log.info("No tariff cost cache: " + e.toString());
+    }
+    noCostCache = (null == tariffCostCache);
+    return tariffCostCache;
+  }
+
   private TariffMarket getTariffMarket ()
   {
     if (null != tariffMarket)
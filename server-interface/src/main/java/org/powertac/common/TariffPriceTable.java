@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+
+/**
+ * Usage prices of a published Tariff, compiled into a table of per-kWh
+ * prices for each hour of the week and each tier, so that charges can be
+ * computed without resolving the time-of-use and tiered rates of the
+ * tariff again for every hour.
+ *
+ * The prices of a tariff with variable rates depend on the hourly charges
+ * announced so far, so its table holds the prices of the week that starts
+ * when it is compiled. A new hourly charge holds until the next one for the
+ * same rate, and only the hours in between are sampled again, by
+ * {@link #resample(Tariff, Instant, Instant)}. Tariffs with regulation rates
+ * are not compiled. The table is filled in from the tariff's own charges.
+ * Since it is built from the outside of the tariff, it does not record
+ * usage on the tariff, which
+ * {@link Tariff#getUsageCharge(double, double, boolean)} does.
+ */
+public class TariffPriceTable
+{
+  /** Length of the table, one week of hours */
+  public static final int HOURS = 168;
+
+  // a Monday, the table starts at midnight
+  private static final Instant referenceWeek =
+      new DateTime(2010, 1, 4, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
+
+  private final long tariffId;
+
+  // lower bounds of the tiers, the first one is 0
+  private final double[] tiers;
+
+  // per-kWh charge by tier and hour of the week
+  private final double[][] prices;
+
+  private final double periodicPayment;
+
+  // prices of a variable-rate tariff hold for one week from the start
+  private final boolean variableRate;
+  private final Instant start;
+
+  private TariffPriceTable (long tariffId, double[] tiers, double[][] prices,
+                            double periodicPayment, boolean variableRate,
+                            Instant start)
+  {
+    this.tariffId = tariffId;
+    this.tiers = tiers;
+    this.prices = prices;
+    this.periodicPayment = periodicPayment;
+    this.variableRate = variableRate;
+    this.start = start;
+  }
+
+  /**
+   * Compiles the prices of a tariff whose prices are fixed. Returns null
+   * if the tariff cannot be compiled.
+   */
+  public static TariffPriceTable compile (Tariff tariff)
+  {
+    return compile(tariff, null);
+  }
+
+  /**
+   * Compiles the prices of a tariff, as of the given time for a tariff
+   * with variable rates. Returns null if the tariff cannot be compiled.
+   */
+  public static TariffPriceTable compile (Tariff tariff, Instant now)
+  {
+    if (tariff.hasRegulationRate()) {
+      return null;
+    }
+    Instant start = referenceWeek;
+    if (tariff.isVariableRate()) {
+      if (null == now) {
+        return null;
+      }
+      start = new Instant(now.getMillis() - now.getMillis() % TimeService.HOUR);
+    }
+    double[] tiers = findTiers(tariff);
+    double[][] prices = new double[tiers.length][HOURS];
+    for (int step = 0; step < HOURS; step++) {
+      sample(tariff, tiers, prices, start.plus(step * TimeService.HOUR));
+    }
+    return new TariffPriceTable(tariff.getId(), tiers, prices,
+                                tariff.getPeriodicPayment(),
+                                tariff.isVariableRate(), start);
+  }
+
+  // Fills in the prices of the hour that starts at the given time
+  private static void sample (Tariff tariff, double[] tiers,
+                              double[][] prices, Instant when)
+  {
+    int hour = hourOfWeek(when);
+    for (int tier = 0; tier < tiers.length; tier++) {
+      // an amount that stays within the tier
+      double amount = 1.0;
+      if (tier + 1 < tiers.length) {
+        amount = Math.min(amount, (tiers[tier + 1] - tiers[tier]) / 2.0);
+      }
+      prices[tier][hour] =
+          tariff.getUsageCharge(when, amount, tiers[tier]) / amount;
+    }
+  }
+
+  /**
+   * Returns a table with the prices of the hours from one time up to
+   * another sampled again from the tariff, and the other hours as in this
+   * table, for a variable-rate tariff whose prices in those hours have
+   * changed. A null end stands for the end of the week the table holds.
+   * The hours are limited to that week; a table of fixed prices is
+   * returned as it is.
+   */
+  public TariffPriceTable resample (Tariff tariff, Instant from, Instant until)
+  {
+    if (!variableRate) {
+      return this;
+    }
+    Instant end = start.plus(HOURS * TimeService.HOUR);
+    if (null != until && until.isBefore(end)) {
+      end = until;
+    }
+    Instant when = from.isBefore(start) ? start : from;
+    // hours start on the hour
+    when = new Instant(when.getMillis()
+                       + (TimeService.HOUR - when.getMillis() % TimeService.HOUR)
+                         % TimeService.HOUR);
+    if (!when.isBefore(end)) {
+      return this;
+    }
+    double[][] patched = new double[tiers.length][];
+    for (int tier = 0; tier < tiers.length; tier++) {
+      patched[tier] = Arrays.copyOf(prices[tier], HOURS);
+    }
+    for (; when.isBefore(end); when = when.plus(TimeService.HOUR)) {
+      sample(tariff, tiers, patched, when);
+    }
+    return new TariffPriceTable(tariffId, tiers, patched, periodicPayment,
+                                variableRate, start);
+  }
+
+  // Tier bounds are the thresholds of the rates, in ascending order
+  private static double[] findTiers (Tariff tariff)
+  {
+    TreeSet<Double> bounds = new TreeSet<Double>();
+    bounds.add(0.0);
+    if (tariff.isTiered()) {
+      for (Rate rate: tariff.getTariffSpecification().getRates()) {
+        bounds.add(Math.abs(rate.getTierThreshold()));
+      }
+    }
+    double[] result = new double[bounds.size()];
+    int index = 0;
+    for (Double bound: bounds) {
+      result[index++] = bound;
+    }
+    return result;
+  }
+
+  /** Id of the compiled tariff */
+  public long getTariffId ()
+  {
+    return tariffId;
+  }
+
+  /** True if the table holds the prices of a variable-rate tariff */
+  public boolean isVariableRate ()
+  {
+    return variableRate;
+  }
+
+  /**
+   * True if the table holds the prices at the given time: always for a
+   * tariff with fixed prices, during the week it was compiled for if the
+   * rates are variable.
+   */
+  public boolean covers (Instant when)
+  {
+    if (!variableRate) {
+      return true;
+    }
+    return !when.isBefore(start)
+        && when.isBefore(start.plus(HOURS * TimeService.HOUR));
+  }
+
+  /** Lower bounds of the tiers, the first is zero */
+  public double[] getTiers ()
+  {
+    return Arrays.copyOf(tiers, tiers.length);
+  }
+
+  /**
+   * Index into the table of the hour of the week that contains the
+   * given time.
+   */
+  public static int hourOfWeek (Instant when)
+  {
+    DateTime time = new DateTime(when, DateTimeZone.UTC);
+    return (time.getDayOfWeek() - 1) * 24 + time.getHourOfDay();
+  }
+
+  /**
+   * Returns the per-kWh price in the given hour of the week for usage
+   * in the given tier.
+   */
+  public double getPrice (int tier, int hour)
+  {
+    return prices[tier][hour];
+  }
+
+  /**
+   * Returns the charge for using kwh at the given time, after
+   * cumulativeUsage has been used since the start of the day, as
+   * {@link Tariff#getUsageCharge(Instant, double, double)} does. The time
+   * must be one the table {@link #covers(Instant)}.
+   */
+  public double getUsageCharge (Instant when, double kwh,
+                                double cumulativeUsage)
+  {
+    return charge(hourOfWeek(when), kwh, cumulativeUsage);
+  }
+
+  private double charge (int hour, double kwh, double cumulativeUsage)
+  {
+    if (tiers.length == 1) {
+      return kwh * prices[0][hour];
+    }
+    // tiers are bounds on the size of usage, whatever its sign
+    double sign = kwh < 0.0 ? -1.0 : 1.0;
+    double from = Math.abs(cumulativeUsage);
+    double remaining = Math.abs(kwh);
+    double result = 0.0;
+    int tier = tiers.length - 1;
+    while (tier > 0 && tiers[tier] > from) {
+      tier -= 1;
+    }
+    while (remaining > 0.0) {
+      double amount = remaining;
+      if (tier + 1 < tiers.length) {
+        amount = Math.min(remaining, tiers[tier + 1] - from);
+      }
+      result += amount * prices[tier][hour];
+      remaining -= amount;
+      from += amount;
+      tier += 1;
+    }
+    return sign * result;
+  }
+
+  /**
+   * Returns the cost of a usage profile of hourly amounts starting at the
+   * given time, including the periodic payment, as
+   * {@link TariffEvaluationHelper#estimateCost(Tariff, double[], Instant)}
+   * does for the compiled tariff. Only for tariffs with fixed prices: the
+   * helper estimates variable rates from their expected values rather
+   * than the announced ones. Tiers count usage from the start of each day.
+   */
+  public double estimateCost (double[] usage, Instant start)
+  {
+    double result = 0.0;
+    double cumulativeUsage = 0.0;
+    int hour = hourOfWeek(start);
+    for (double kwh: usage) {
+      if (hour % 24 == 0) {
+        cumulativeUsage = 0.0;
+      }
+      result += charge(hour, kwh, cumulativeUsage);
+      cumulativeUsage += kwh;
+      hour = (hour + 1) % HOURS;
+    }
+    return result + periodicPayment * usage.length / 24.0;
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.logging.log4j.Logger;
 import org.joda.time.Instant;
 import org.powertac.common.interfaces.Accounting;
 import org.powertac.common.interfaces.TariffMarket;
+import org.powertac.common.repo.TariffPriceTableRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.common.state.Domain;
 import org.powertac.common.state.StateChange;
@@ -50,6 +51,9 @@ public class TariffSubscription
 
   private TariffMarket tariffMarketService;
 
+  private TariffPriceTableRepo tariffPriceTableRepo;
+  private boolean noPriceTables = false;
+
   /** The customer who has this Subscription */
   private CustomerInfo customer;
 
@@ -350,9 +354,10 @@ public class TariffSubscription
     // generate the usage transaction
     TariffTransaction.Type txType =
         actualKwh < 0 ? TariffTransaction.Type.PRODUCE: TariffTransaction.Type.CONSUME;
+    double charge = chargeUsage(actualKwh / customersCommitted, totalUsage);
     getAccounting().addTariffTransaction(txType, tariff,
         customer, customersCommitted, -actualKwh,
-        customersCommitted * -tariff.getUsageCharge(actualKwh / customersCommitted, totalUsage, true));
+        customersCommitted * -charge);
     if (getTimeService().getHourOfDay() == 0) {
       //reset the daily usage counter
       totalUsage = 0.0;
@@ -366,6 +371,25 @@ public class TariffSubscription
     }
   }
 
+  // Per-member charge for usage in the current timeslot, recorded on the
+  // tariff for its realized price. The charge comes from the tariff's price
+  // table if it has one that holds the current prices, and then goes into
+  // the tariff's totals without resolving its rates again.
+  private double chargeUsage (double kwh, double cumulativeUsage)
+  {
+    Instant now = getTimeService().getCurrentTime();
+    TariffPriceTableRepo tables = getTariffPriceTableRepo();
+    TariffPriceTable table =
+        (null == tables) ? null : tables.findByTariff(tariff, now);
+    if (null != table) {
+      double charge = table.getUsageCharge(now, kwh, cumulativeUsage);
+      if (TariffUsageTotals.add(tariff, kwh, charge)) {
+        return charge;
+      }
+    }
+    return tariff.getUsageCharge(kwh, cumulativeUsage, true);
+  }
+
   /**
    * Returns the regulation in kwh, aggregated across the subscribed population,
    * for the previous timeslot. 
@@ -649,6 +673,22 @@ public class TariffSubscription
       tariffMarketService = (TariffMarket)SpringApplicationContext.getBean("tariffMarketService");
     return tariffMarketService;
   }
+
+  // the price tables are optional, charges come from the tariff without them
+  private TariffPriceTableRepo getTariffPriceTableRepo ()
+  {
+    if (null != tariffPriceTableRepo || noPriceTables)
+      return tariffPriceTableRepo;
+    try {
+      tariffPriceTableRepo =
+          (TariffPriceTableRepo)SpringApplicationContext.getBean("tariffPriceTableRepo");
+    }
+    catch (RuntimeException e) {
+      log.info("No tariff price tables: " + e.toString());
+    }
+    noPriceTables = (null == tariffPriceTableRepo);
+    return tariffPriceTableRepo;
+  }
   // -------------------- Expiration data -------------------
   /**
    * Returns the number of individual customers who may withdraw from this
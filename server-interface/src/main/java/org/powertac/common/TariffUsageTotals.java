@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.lang.reflect.Field;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adds usage and its charge to the totals a Tariff keeps for its realized
+ * price, for charges that were computed from a {@link TariffPriceTable}.
+ * The tariff only updates these totals from
+ * {@link Tariff#getUsageCharge(double, double, boolean)}, which resolves
+ * its rates again; this takes the charge as it is.
+ */
+final class TariffUsageTotals
+{
+  static private Logger log =
+      LogManager.getLogger(TariffUsageTotals.class.getName());
+
+  private static final Field totalUsage = findField("totalUsage");
+  private static final Field totalCost = findField("totalCost");
+
+  private TariffUsageTotals ()
+  {
+    super();
+  }
+
+  private static Field findField (String name)
+  {
+    try {
+      Field result = Tariff.class.getDeclaredField(name);
+      result.setAccessible(true);
+      return result;
+    }
+    catch (NoSuchFieldException | SecurityException e) {
+      log.warn("Cannot record usage on tariffs directly: " + e.toString());
+      return null;
+    }
+  }
+
+  /** True if usage can be added to the totals of a tariff */
+  static boolean isAvailable ()
+  {
+    return null != totalUsage && null != totalCost;
+  }
+
+  /**
+   * Adds kwh used for the given charge to the realized-price totals of
+   * the tariff. Returns false if the totals cannot be reached, in which
+   * case nothing is recorded.
+   */
+  static boolean add (Tariff tariff, double kwh, double charge)
+  {
+    if (!isAvailable()) {
+      return false;
+    }
+    synchronized (tariff) {
+      try {
+        totalUsage.setDouble(tariff, totalUsage.getDouble(tariff) + kwh);
+        totalCost.setDouble(tariff, totalCost.getDouble(tariff) + charge);
+      }
+      catch (IllegalAccessException | IllegalArgumentException e) {
+        log.error("Cannot record usage on tariff " + tariff.getId() + ": "
+                  + e.toString());
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -54,6 +54,16 @@ public interface BrokerProxy {
    * dropped into the bit-bucket.
    */
   public void routeMessage (Object message);
+
+  /**
+   * Routes a list of messages sent by one broker to server components,
+   * with the same effect as calling routeMessage() on each in turn. The
+   * broker is checked once for the whole list, and components that have a
+   * handleMessages(List) method get all the messages of a type in one
+   * call. Used by internal "broker-like" entities that generate many
+   * messages at once.
+   */
+  public void routeMessages (Broker broker, List<?> messages);
   
   /**
    * Sets up a dispatch listener for market messages
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.repo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Instant;
+import org.powertac.common.Tariff;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cost forecasts of usage profiles under published tariffs, shared by the
+ * tariff evaluators of all customers. Many customers present profiles of
+ * the same shape at different scales, so a forecast is kept as a fixed
+ * cost plus a cost per unit of energy, keyed by the tariff and the shape of
+ * the profile, and scaled to the energy of each profile it is used for.
+ * The fixed cost is the forecast for a profile of no usage, which only
+ * depends on its length and start, so it is kept apart and shared by all
+ * shapes.
+ *
+ * Only tariffs whose usage charges are proportional to usage can share
+ * forecasts this way, so tiered tariffs and tariffs with regulation rates
+ * are always forecast in full. Forecasts are kept for one tariff
+ * publication cycle: the tariff market clears the cache when it
+ * publishes, and drops the forecasts of a tariff when its prices change.
+ */
+@Service
+public class TariffCostCache implements DomainRepo
+{
+  // resolution of the normalized profile values in a fingerprint
+  private static final double resolution = 1e12;
+
+  /**
+   * Computes the full cost forecast of a profile, the way
+   * TariffEvaluationHelper.estimateCost() does.
+   */
+  public interface Estimator
+  {
+    double estimateCost (Tariff tariff, double[] usage, Instant start);
+  }
+
+  private Map<Long, Map<Fingerprint, Forecast>> forecasts =
+      new ConcurrentHashMap<Long, Map<Fingerprint, Forecast>>();
+
+  // forecasts for profiles of no usage, by tariff
+  private Map<Long, Map<Fingerprint, Double>> fixedCosts =
+      new ConcurrentHashMap<Long, Map<Fingerprint, Double>>();
+
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  public TariffCostCache ()
+  {
+    super();
+  }
+
+  /**
+   * Returns the cost forecast of a usage profile starting at the given
+   * time. The costFactors are the settings of the caller's estimator that
+   * change its forecasts; callers with different settings do not share
+   * forecasts. The estimator is called for profiles not seen before in
+   * the current cycle, and for tariffs that cannot be cached.
+   */
+  public double estimateCost (Tariff tariff, double[] usage, Instant start,
+                              double[] costFactors, Estimator estimator)
+  {
+    double energy = 0.0;
+    for (double kwh: usage) {
+      energy += Math.abs(kwh);
+    }
+    if (!isCacheable(tariff) || 0.0 == energy || Double.isNaN(energy)) {
+      return estimator.estimateCost(tariff, usage, start);
+    }
+    Fingerprint key = new Fingerprint(usage, energy, start, costFactors);
+    Map<Fingerprint, Forecast> tariffForecasts =
+        forecasts.computeIfAbsent(tariff.getId(),
+                                  id -> new ConcurrentHashMap<Fingerprint, Forecast>());
+    Forecast forecast = tariffForecasts.get(key);
+    if (null != forecast) {
+      hits.incrementAndGet();
+      return forecast.getCost(energy);
+    }
+    misses.incrementAndGet();
+    double cost = estimator.estimateCost(tariff, usage, start);
+    double fixed = getFixedCost(tariff, usage.length, start, costFactors,
+                                estimator);
+    forecast = new Forecast(fixed, (cost - fixed) / energy);
+    if (!Double.isNaN(forecast.costPerUnit)) {
+      // concurrent misses compute the same forecast, keep the first
+      tariffForecasts.putIfAbsent(key, forecast);
+    }
+    return cost;
+  }
+
+  // Forecast for a profile of no usage, computed once per tariff, length
+  // and start
+  private double getFixedCost (Tariff tariff, int length, Instant start,
+                               double[] costFactors, Estimator estimator)
+  {
+    Fingerprint key = new Fingerprint(length, start, costFactors);
+    Map<Fingerprint, Double> tariffCosts =
+        fixedCosts.computeIfAbsent(tariff.getId(),
+                                   id -> new ConcurrentHashMap<Fingerprint, Double>());
+    Double result = tariffCosts.get(key);
+    if (null == result) {
+      result = estimator.estimateCost(tariff, new double[length], start);
+      tariffCosts.putIfAbsent(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * True if forecasts for the tariff can be scaled from one profile to
+   * another of the same shape.
+   */
+  public boolean isCacheable (Tariff tariff)
+  {
+    return !tariff.isTiered() && !tariff.hasRegulationRate();
+  }
+
+  /** Drops the forecasts for a tariff whose prices have changed. */
+  public void remove (Tariff tariff)
+  {
+    forecasts.remove(tariff.getId());
+    fixedCosts.remove(tariff.getId());
+  }
+
+  /** Drops all forecasts, at the start of a publication cycle. */
+  public void clear ()
+  {
+    forecasts.clear();
+    fixedCosts.clear();
+  }
+
+  /** Number of forecasts in the cache */
+  public int size ()
+  {
+    int result = 0;
+    for (Map<Fingerprint, Forecast> tariffForecasts: forecasts.values()) {
+      result += tariffForecasts.size();
+    }
+    return result;
+  }
+
+  public long getHitCount ()
+  {
+    return hits.get();
+  }
+
+  public long getMissCount ()
+  {
+    return misses.get();
+  }
+
+  @Override
+  public void recycle ()
+  {
+    clear();
+    hits.set(0);
+    misses.set(0);
+  }
+
+  // Forecast for a profile shape, scaled by the energy of the profile
+  private static class Forecast
+  {
+    final double fixedCost;
+    final double costPerUnit;
+
+    Forecast (double fixedCost, double costPerUnit)
+    {
+      this.fixedCost = fixedCost;
+      this.costPerUnit = costPerUnit;
+    }
+
+    double getCost (double energy)
+    {
+      return fixedCost + costPerUnit * energy;
+    }
+  }
+
+  // The shape of a profile is its hourly values divided by its total
+  // energy, rounded so that profiles scaled from one another compare equal
+  // in spite of rounding in the division. The start time and the
+  // estimator settings are part of the key, since both change the cost.
+  // A profile of no usage has a shape of zeros.
+  private static class Fingerprint
+  {
+    private final long[] shape;
+    private final long start;
+    private final double[] costFactors;
+    private final int hash;
+
+    Fingerprint (double[] usage, double energy, Instant start,
+                 double[] costFactors)
+    {
+      shape = new long[usage.length];
+      for (int i = 0; i < usage.length; i++) {
+        shape[i] = Math.round(usage[i] / energy * resolution);
+      }
+      this.start = start.getMillis();
+      this.costFactors =
+          (null == costFactors) ? new double[0] : costFactors.clone();
+      hash = 31 * (31 * Arrays.hashCode(shape) + Long.hashCode(this.start))
+             + Arrays.hashCode(this.costFactors);
+    }
+
+    Fingerprint (int length, Instant start, double[] costFactors)
+    {
+      this(new double[length], 1.0, start, costFactors);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals (Object other)
+    {
+      if (this == other)
+        return true;
+      if (!(other instanceof Fingerprint))
+        return false;
+      Fingerprint that = (Fingerprint) other;
+      return hash == that.hash && start == that.start
+             && Arrays.equals(shape, that.shape)
+             && Arrays.equals(costFactors, that.costFactors);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.repo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.Instant;
+import org.powertac.common.HourlyCharge;
+import org.powertac.common.Tariff;
+import org.powertac.common.TariffPriceTable;
+import org.springframework.stereotype.Service;
+
+/**
+ * Repository for the compiled price tables of published tariffs, indexed
+ * by tariff id. Tables are compiled by the tariff market when tariffs are
+ * published, patched when hourly charges are added to their variable rates,
+ * and read by tariff evaluation and by tariff subscriptions when they charge
+ * for usage.
+ */
+@Service
+public class TariffPriceTableRepo implements DomainRepo
+{
+  private Map<Long, TariffPriceTable> tables =
+      new ConcurrentHashMap<Long, TariffPriceTable>();
+
+  // times of the hourly charges added to each variable rate, by tariff id
+  // and rate id
+  private Map<Long, Map<Long, TreeSet<Long>>> chargeTimes =
+      new HashMap<Long, Map<Long, TreeSet<Long>>>();
+
+  public TariffPriceTableRepo ()
+  {
+    super();
+  }
+
+  /**
+   * Compiles the prices of a tariff with fixed prices, replacing its
+   * previous table. Returns null, and drops any previous table, if the
+   * tariff cannot be compiled.
+   */
+  public TariffPriceTable compile (Tariff tariff)
+  {
+    return compile(tariff, null);
+  }
+
+  /**
+   * Compiles the prices of a tariff as of the given time, replacing its
+   * previous table. Returns null, and drops any previous table, if the
+   * tariff cannot be compiled.
+   */
+  public TariffPriceTable compile (Tariff tariff, Instant now)
+  {
+    TariffPriceTable table = TariffPriceTable.compile(tariff, now);
+    if (null == table) {
+      tables.remove(tariff.getId());
+    }
+    else {
+      tables.put(tariff.getId(), table);
+    }
+    return table;
+  }
+
+  /**
+   * Updates the table of a tariff for an hourly charge just added to one of
+   * its rates. The charge holds from its time until the next charge added
+   * to the same rate, so only the hours in between are sampled again.
+   * Returns the updated table, or null if the tariff has none.
+   */
+  public synchronized TariffPriceTable addHourlyCharge (Tariff tariff,
+                                                        long rateId,
+                                                        HourlyCharge charge)
+  {
+    Map<Long, TreeSet<Long>> rates = chargeTimes.get(tariff.getId());
+    if (null == rates) {
+      rates = new HashMap<Long, TreeSet<Long>>();
+      chargeTimes.put(tariff.getId(), rates);
+    }
+    TreeSet<Long> times = rates.get(rateId);
+    if (null == times) {
+      times = new TreeSet<Long>();
+      rates.put(rateId, times);
+    }
+    long at = charge.getAtTime().getMillis();
+    times.add(at);
+    TariffPriceTable table = tables.get(tariff.getId());
+    if (null == table) {
+      return null;
+    }
+    Long next = times.higher(at);
+    table = table.resample(tariff, charge.getAtTime(),
+                           (null == next) ? null : new Instant(next));
+    tables.put(tariff.getId(), table);
+    return table;
+  }
+
+  /** Returns the table of a tariff, or null if it has none. */
+  public TariffPriceTable findByTariff (Tariff tariff)
+  {
+    return tables.get(tariff.getId());
+  }
+
+  /**
+   * Returns the table of a tariff if it holds the prices at the given
+   * time, otherwise null.
+   */
+  public TariffPriceTable findByTariff (Tariff tariff, Instant when)
+  {
+    TariffPriceTable table = tables.get(tariff.getId());
+    if (null == table || !table.covers(when)) {
+      return null;
+    }
+    return table;
+  }
+
+  /** Drops the table of a tariff. */
+  public synchronized void remove (Tariff tariff)
+  {
+    tables.remove(tariff.getId());
+    chargeTimes.remove(tariff.getId());
+  }
+
+  public int size ()
+  {
+    return tables.size();
+  }
+
+  @Override
+  public synchronized void recycle ()
+  {
+    tables.clear();
+    chargeTimes.clear();
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.repo.TariffPriceTableRepo;
+import org.powertac.common.repo.TariffRepo;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Compares the charges computed from compiled price tables with the
+ * charges computed by the tariffs themselves.
+ */
+public class TariffPriceTableTest
+{
+  private Competition competition;
+  private TimeService timeService;
+  private TariffRepo tariffRepo;
+  private Broker broker;
+  private Instant start;
+
+  @Before
+  public void setUp ()
+  {
+    competition = Competition.newInstance("price-table-test");
+    timeService = new TimeService();
+    timeService.setCurrentTime(competition.getSimulationBaseTime());
+    start = timeService.getCurrentTime().plus(TimeService.HOUR * 5);
+    tariffRepo = mock(TariffRepo.class);
+    broker = new Broker("Sally");
+  }
+
+  private Tariff makeTariff (TariffSpecification spec)
+  {
+    Tariff tariff = new Tariff(spec);
+    ReflectionTestUtils.setField(tariff, "timeService", timeService);
+    ReflectionTestUtils.setField(tariff, "tariffRepo", tariffRepo);
+    assertTrue(tariff.init());
+    return tariff;
+  }
+
+  private Tariff flat ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .addRate(new Rate().withValue(-0.12)));
+  }
+
+  private Tariff timeOfUse ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .withPeriodicPayment(-1.5)
+        .addRate(new Rate().withValue(-0.18).withDailyBegin(7).withDailyEnd(18))
+        .addRate(new Rate().withValue(-0.08).withDailyBegin(19).withDailyEnd(6)));
+  }
+
+  private Tariff weekly ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .addRate(new Rate().withValue(-0.15).withWeeklyBegin(1).withWeeklyEnd(5))
+        .addRate(new Rate().withValue(-0.09).withWeeklyBegin(6).withWeeklyEnd(7)));
+  }
+
+  private Tariff tiered ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .addRate(new Rate().withValue(-0.1))
+        .addRate(new Rate().withValue(-0.2).withTierThreshold(20.0)));
+  }
+
+  private Tariff production ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.PRODUCTION)
+        .addRate(new Rate().withValue(0.05).withDailyBegin(10).withDailyEnd(15))
+        .addRate(new Rate().withValue(0.02).withDailyBegin(16).withDailyEnd(9)));
+  }
+
+  // usage that changes every hour, with the cumulative usage reset daily
+  // as TariffSubscription does
+  private void assertSameCharges (Tariff tariff, TariffPriceTable table,
+                                  double scale)
+  {
+    assertSameCharges(tariff, table, scale, 2 * TariffPriceTable.HOURS);
+  }
+
+  private void assertSameCharges (Tariff tariff, TariffPriceTable table,
+                                  double scale, int hours)
+  {
+    double cumulative = 0.0;
+    Instant when = start;
+    for (int hour = 0; hour < hours; hour++) {
+      double kwh = scale * (1.0 + (hour * 7) % 11);
+      if (TariffPriceTable.hourOfWeek(when) % 24 == 0) {
+        cumulative = 0.0;
+      }
+      assertEquals("tariff " + tariff.getId() + " at " + when,
+                   tariff.getUsageCharge(when, kwh, cumulative),
+                   table.getUsageCharge(when, kwh, cumulative), 1e-9);
+      cumulative += kwh;
+      when = when.plus(TimeService.HOUR);
+    }
+  }
+
+  // every hour of the week from the given time, for consumption and
+  // production, within and across tiers
+  private void assertReproduces (Tariff tariff, TariffPriceTable table,
+                                 Instant from)
+  {
+    double[] tiers = table.getTiers();
+    for (int step = 0; step < TariffPriceTable.HOURS; step++) {
+      Instant when = from.plus(step * TimeService.HOUR);
+      for (double sign: new double[] {1.0, -1.0}) {
+        for (double amount: new double[] {0.5, 7.25}) {
+          for (int tier = 0; tier < tiers.length; tier++) {
+            double[] usedBefore = {tiers[tier], tiers[tier] + 0.25,
+                                   Math.max(0.0, tiers[tier] - 0.25)};
+            for (double used: usedBefore) {
+              double expected =
+                  tariff.getUsageCharge(when, sign * amount, sign * used);
+              assertEquals("tariff " + tariff.getId() + " at " + when
+                           + " for " + sign * amount + " after " + sign * used,
+                           expected,
+                           table.getUsageCharge(when, sign * amount,
+                                                sign * used),
+                           1e-9 * Math.max(1.0, Math.abs(expected)));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private double[] profile (int length, double scale)
+  {
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = scale * (2.0 + (i * 5) % 9);
+    }
+    return result;
+  }
+
+  @Test
+  public void testUsageChargeParity ()
+  {
+    for (Tariff tariff: new Tariff[] {flat(), timeOfUse(), weekly(), tiered()}) {
+      TariffPriceTable table = TariffPriceTable.compile(tariff);
+      assertNotNull("compiled " + tariff.getId(), table);
+      assertEquals(tariff.getId(), table.getTariffId());
+      assertSameCharges(tariff, table, 1.0);
+      assertReproduces(tariff, table, start);
+    }
+    Tariff production = production();
+    TariffPriceTable table = TariffPriceTable.compile(production);
+    assertNotNull(table);
+    assertSameCharges(production, table, -1.0);
+    assertReproduces(production, table, start);
+  }
+
+  @Test
+  public void testEstimateParity ()
+  {
+    TariffEvaluationHelper helper = new TariffEvaluationHelper();
+    for (Tariff tariff: new Tariff[] {flat(), timeOfUse(), weekly()}) {
+      TariffPriceTable table = TariffPriceTable.compile(tariff);
+      for (int length: new int[] {24, 48, 168}) {
+        double[] usage = profile(length, 1.0);
+        assertEquals("tariff " + tariff.getId() + ", " + length + " hours",
+                     helper.estimateCost(tariff, usage, start),
+                     table.estimateCost(usage, start), 1e-9);
+      }
+    }
+    Tariff production = production();
+    double[] usage = profile(48, -1.0);
+    assertEquals(helper.estimateCost(production, usage, start),
+                 TariffPriceTable.compile(production).estimateCost(usage, start),
+                 1e-9);
+  }
+
+  // tiers count usage from the start of each day, so profiles that cross
+  // midnight start again in the lowest tier
+  @Test
+  public void testTieredEstimateParity ()
+  {
+    TariffEvaluationHelper helper = new TariffEvaluationHelper();
+    Tariff tiered = tiered();
+    Tariff timeOfUseTiered =
+        makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .withPeriodicPayment(-0.8)
+            .addRate(new Rate().withValue(-0.12).withDailyBegin(6).withDailyEnd(21))
+            .addRate(new Rate().withValue(-0.07).withDailyBegin(22).withDailyEnd(5))
+            .addRate(new Rate().withValue(-0.25).withTierThreshold(45.0)));
+    for (Tariff tariff: new Tariff[] {tiered, timeOfUseTiered}) {
+      TariffPriceTable table = TariffPriceTable.compile(tariff);
+      assertNotNull("compiled " + tariff.getId(), table);
+      assertTrue(table.getTiers().length > 1);
+      assertReproduces(tariff, table, start);
+      for (int length: new int[] {24, 48, 168}) {
+        for (Instant when: new Instant[] {start, start.plus(TimeService.HOUR * 19)}) {
+          double[] usage = profile(length, 1.0);
+          assertEquals("tariff " + tariff.getId() + ", " + length
+                       + " hours from " + when,
+                       helper.estimateCost(tariff, usage, when),
+                       table.estimateCost(usage, when), 1e-9);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTables ()
+  {
+    TariffPriceTable table = TariffPriceTable.compile(timeOfUse());
+    assertArrayEquals(new double[] {0.0}, table.getTiers(), 1e-9);
+    assertEquals(-0.08, table.getPrice(0, 6), 1e-9);
+    assertEquals(-0.18, table.getPrice(0, 7), 1e-9);
+    assertEquals(-0.18, table.getPrice(0, 24 * 6 + 18), 1e-9);
+    assertEquals(-0.08, table.getPrice(0, 24 * 6 + 19), 1e-9);
+
+    table = TariffPriceTable.compile(tiered());
+    assertArrayEquals(new double[] {0.0, 20.0}, table.getTiers(), 1e-9);
+    assertEquals(-0.1, table.getPrice(0, 100), 1e-9);
+    assertEquals(-0.2, table.getPrice(1, 100), 1e-9);
+  }
+
+  @Test
+  public void testVariableRate ()
+  {
+    Rate rate = new Rate().withFixed(false).withMinValue(-0.05)
+        .withMaxValue(-0.5).withExpectedMean(-0.1);
+    Tariff variable =
+        makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .addRate(rate));
+    // the prices depend on when the table is compiled
+    assertNull(TariffPriceTable.compile(variable));
+    TariffPriceTable table = TariffPriceTable.compile(variable, start);
+    assertNotNull(table);
+    assertTrue(table.isVariableRate());
+    assertTrue(table.covers(start));
+    assertTrue(table.covers(start.plus(TimeService.HOUR * 167)));
+    assertFalse(table.covers(start.plus(TimeService.HOUR * 168)));
+    assertFalse(table.covers(start.minus(TimeService.HOUR)));
+    assertSameCharges(variable, table, 1.0, TariffPriceTable.HOURS);
+    assertReproduces(variable, table, start);
+
+    // a new hourly charge holds from its time to the end of the week
+    Instant update = start.plus(TimeService.HOUR * 30);
+    assertTrue(variable.addHourlyCharge(new HourlyCharge(update, -0.3),
+                                        rate.getId()));
+    Instant after = update.plus(TimeService.HOUR);
+    assertNotEquals(variable.getUsageCharge(after, 1.0, 0.0),
+                    table.getUsageCharge(after, 1.0, 0.0), 1e-9);
+    TariffPriceTable patched = table.resample(variable, update, null);
+    assertNotSame(table, patched);
+    assertEquals(-0.1, table.getUsageCharge(after, 1.0, 0.0), 1e-9);
+    assertReproduces(variable, patched, start);
+  }
+
+  // each hourly charge only changes the hours until the next one for the
+  // same rate
+  @Test
+  public void testHourlyChargePatch ()
+  {
+    Rate rate = new Rate().withFixed(false).withMinValue(-0.05)
+        .withMaxValue(-0.5).withExpectedMean(-0.1);
+    Tariff variable =
+        makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .addRate(new Rate().withValue(-0.06).withTierThreshold(30.0))
+            .addRate(rate));
+    TariffPriceTableRepo repo = new TariffPriceTableRepo();
+    assertNotNull(repo.compile(variable, start));
+    int tiers = repo.findByTariff(variable).getTiers().length;
+
+    HourlyCharge[] charges = {
+        new HourlyCharge(start.plus(TimeService.HOUR * 60), -0.25),
+        new HourlyCharge(start.plus(TimeService.HOUR * 20), -0.3),
+        new HourlyCharge(start.plus(TimeService.HOUR * 45), -0.2)};
+    int[] hours = {TariffPriceTable.HOURS - 60, 40, 15};
+    for (int i = 0; i < charges.length; i++) {
+      assertTrue(variable.addHourlyCharge(charges[i], rate.getId()));
+      Tariff counted = spy(variable);
+      TariffPriceTable table =
+          repo.addHourlyCharge(counted, rate.getId(), charges[i]);
+      verify(counted, times(hours[i] * tiers))
+          .getUsageCharge(any(Instant.class), anyDouble(), anyDouble());
+      assertSame(table, repo.findByTariff(variable));
+      assertReproduces(variable, table, start);
+    }
+
+    // charges beyond the week leave the table as it is
+    HourlyCharge late =
+        new HourlyCharge(start.plus(TimeService.HOUR * 200), -0.4);
+    assertTrue(variable.addHourlyCharge(late, rate.getId()));
+    TariffPriceTable table = repo.findByTariff(variable);
+    assertSame(table, repo.addHourlyCharge(variable, rate.getId(), late));
+  }
+
+  @Test
+  public void testRepo ()
+  {
+    TariffPriceTableRepo repo = new TariffPriceTableRepo();
+    Tariff tariff = flat();
+    assertNull(repo.findByTariff(tariff));
+    assertNotNull(repo.compile(tariff));
+    assertNotNull(repo.findByTariff(tariff));
+    assertNotNull(repo.findByTariff(tariff, start.plus(TimeService.WEEK * 5)));
+    repo.remove(tariff);
+    assertNull(repo.findByTariff(tariff));
+    repo.compile(tariff);
+    repo.recycle();
+    assertEquals(0, repo.size());
+  }
+}
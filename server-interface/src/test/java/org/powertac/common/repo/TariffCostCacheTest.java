@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.repo;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.Rate;
+import org.powertac.common.Tariff;
+import org.powertac.common.TariffEvaluationHelper;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.TimeService;
+import org.powertac.common.enumerations.PowerType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Checks that forecasts shared through the cache are the forecasts the
+ * evaluation helper makes for each profile.
+ */
+public class TariffCostCacheTest
+{
+  private TariffCostCache cache;
+  private TariffEvaluationHelper helper;
+  private TimeService timeService;
+  private TariffRepo tariffRepo;
+  private Broker broker;
+  private Instant start;
+  private int estimates;
+
+  @Before
+  public void setUp ()
+  {
+    Competition competition = Competition.newInstance("cost-cache-test");
+    timeService = new TimeService();
+    timeService.setCurrentTime(competition.getSimulationBaseTime());
+    start = timeService.getCurrentTime().plus(TimeService.HOUR * 3);
+    tariffRepo = mock(TariffRepo.class);
+    broker = new Broker("Jenny");
+    cache = new TariffCostCache();
+    helper = new TariffEvaluationHelper();
+    estimates = 0;
+  }
+
+  private Tariff makeTariff (TariffSpecification spec)
+  {
+    Tariff tariff = new Tariff(spec);
+    ReflectionTestUtils.setField(tariff, "timeService", timeService);
+    ReflectionTestUtils.setField(tariff, "tariffRepo", tariffRepo);
+    assertTrue(tariff.init());
+    return tariff;
+  }
+
+  private Tariff timeOfUse ()
+  {
+    return makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .withPeriodicPayment(-2.0)
+        .addRate(new Rate().withValue(-0.2).withDailyBegin(8).withDailyEnd(19))
+        .addRate(new Rate().withValue(-0.07).withDailyBegin(20).withDailyEnd(7)));
+  }
+
+  private double estimate (Tariff tariff, double[] usage, Instant when)
+  {
+    estimates += 1;
+    return helper.estimateCost(tariff, usage, when);
+  }
+
+  private double[] profile (double scale)
+  {
+    double[] result = new double[48];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = scale * (1.5 + (i * 7) % 13);
+    }
+    return result;
+  }
+
+  private double cached (Tariff tariff, double[] usage, double[] factors)
+  {
+    return cache.estimateCost(tariff, usage, start, factors, this::estimate);
+  }
+
+  @Test
+  public void testScaledProfiles ()
+  {
+    Tariff tariff = timeOfUse();
+    double[] factors = {0.6, 0.4, 0.0, 10000.0};
+    assertEquals(helper.estimateCost(tariff, profile(1.0), start),
+                 cached(tariff, profile(1.0), factors), 1e-9);
+    int misses = estimates;
+    for (double scale: new double[] {0.3, 1.0, 2.5, 17.0, 1000.0}) {
+      double[] usage = profile(scale);
+      assertEquals("scale " + scale,
+                   helper.estimateCost(tariff, usage, start),
+                   cached(tariff, usage, factors), 1e-9);
+    }
+    assertEquals(misses, estimates);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(5, cache.getHitCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testDifferentKeys ()
+  {
+    Tariff tariff = timeOfUse();
+    double[] factors = {0.6, 0.4, 0.0, 10000.0};
+    cached(tariff, profile(1.0), factors);
+
+    // a different shape
+    double[] other = profile(1.0);
+    other[5] += 3.0;
+    assertEquals(helper.estimateCost(tariff, other, start),
+                 cached(tariff, other, factors), 1e-9);
+
+    // different estimator settings
+    cached(tariff, profile(2.0), new double[] {1.0, 0.0, 0.0, 10000.0});
+
+    // a different start
+    double[] usage = profile(3.0);
+    Instant later = start.plus(TimeService.HOUR * 5);
+    assertEquals(helper.estimateCost(tariff, usage, later),
+                 cache.estimateCost(tariff, usage, later, factors,
+                                    this::estimate), 1e-9);
+    assertEquals(4, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  // the fixed part is forecast once for profiles of the same length and
+  // start, whatever their shape
+  @Test
+  public void testFixedCostShared ()
+  {
+    Tariff tariff = timeOfUse();
+    double[] factors = {0.6, 0.4, 0.0, 10000.0};
+    for (int shape = 0; shape < 5; shape++) {
+      double[] usage = profile(1.0);
+      usage[shape] += 4.0;
+      assertEquals("shape " + shape,
+                   helper.estimateCost(tariff, usage, start),
+                   cached(tariff, usage, factors), 1e-9);
+    }
+    assertEquals(5, cache.getMissCount());
+    assertEquals(5 + 1, estimates);
+
+    // a different start needs its own fixed part
+    cache.estimateCost(tariff, profile(1.0), start.plus(TimeService.HOUR),
+                       factors, this::estimate);
+    assertEquals(5 + 1 + 2, estimates);
+  }
+
+  @Test
+  public void testTieredNotCached ()
+  {
+    Tariff tiered =
+        makeTariff(new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .addRate(new Rate().withValue(-0.1))
+            .addRate(new Rate().withValue(-0.3).withTierThreshold(40.0)));
+    assertFalse(cache.isCacheable(tiered));
+    for (double scale: new double[] {0.5, 5.0}) {
+      double[] usage = profile(scale);
+      assertEquals(helper.estimateCost(tiered, usage, start),
+                   cached(tiered, usage, null), 1e-9);
+    }
+    assertEquals(2, estimates);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testZeroProfile ()
+  {
+    Tariff tariff = timeOfUse();
+    double[] usage = new double[24];
+    assertEquals(helper.estimateCost(tariff, usage, start),
+                 cached(tariff, usage, null), 1e-9);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRemoveAndClear ()
+  {
+    Tariff first = timeOfUse();
+    Tariff second = timeOfUse();
+    cached(first, profile(1.0), null);
+    cached(second, profile(1.0), null);
+    assertEquals(2, cache.size());
+    cache.remove(first);
+    assertEquals(1, cache.size());
+    cached(first, profile(2.0), null);
+    assertEquals(3, cache.getMissCount());
+    cache.clear();
+    assertEquals(0, cache.size());
+    cache.recycle();
+    assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void testConcurrentEvaluation () throws Exception
+  {
+    Tariff tariff = timeOfUse();
+    double[] factors = {0.6, 0.4, 0.0, 10000.0};
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+    for (int i = 0; i < 200; i++) {
+      final double scale = 1.0 + i % 10;
+      tasks.add(() -> cache.estimateCost(tariff, profile(scale), start, factors,
+                                         helper::estimateCost));
+    }
+    List<Future<Double>> results = pool.invokeAll(tasks);
+    pool.shutdown();
+    for (int i = 0; i < results.size(); i++) {
+      double[] usage = profile(1.0 + i % 10);
+      assertEquals(helper.estimateCost(tariff, usage, start),
+                   results.get(i).get(), 1e-9);
+    }
+    assertEquals(1, cache.size());
+    assertEquals(200, cache.getHitCount() + cache.getMissCount());
+  }
+}
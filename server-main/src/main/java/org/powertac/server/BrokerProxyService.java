@@ -187,6 +187,24 @@ public class BrokerProxyService implements BrokerProxy
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * org.powertac.common.interfaces.BrokerProxy#routeMessages(org.powertac.common
+   * .Broker, java.util.List)
+   */
+  @Override
+  public void routeMessages (Broker broker, List<?> messages)
+  {
+    for (Object message : router.routeAll(broker, messages)) {
+      // dispatch to visualizers
+      if (!(message instanceof TariffSpecification)) {
+        visualizerProxyService.forwardMessage(message);
+      }
+    }
+  }
+
   @Override
   public void registerBrokerMessageListener (Object listener, Class<?> msgType)
   {
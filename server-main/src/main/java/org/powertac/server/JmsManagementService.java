@@ -1,8 +1,6 @@
 package org.powertac.server;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
@@ -16,15 +14,9 @@ import javax.jms.Queue;
 import javax.jms.Session;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
-import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerPlugin;
 import org.apache.activemq.broker.BrokerRegistry;
 import org.apache.activemq.broker.BrokerService;
-import org.apache.activemq.broker.ConnectionContext;
-import org.apache.activemq.broker.region.Destination;
-import org.apache.activemq.broker.region.DestinationStatistics;
-import org.apache.activemq.broker.region.Subscription;
-import org.apache.activemq.command.ActiveMQDestination;
-import org.apache.activemq.command.ConsumerInfo;
 import org.apache.activemq.pool.PooledConnectionFactory;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -58,6 +50,9 @@ public class JmsManagementService
   private String jmsBrokerName = "simJmsProvider";
   private long maxQueueDepth = 10000;
 
+  // watches queue depth in the provider we started
+  private QueueDepthMonitor queueMonitor;
+
   private BrokerService getProvider ()
   {
     return BrokerRegistry.getInstance().lookup(getJmsBrokerName());
@@ -95,6 +90,8 @@ public class JmsManagementService
       brokerService.setBrokerName(getJmsBrokerName());
       brokerService.setPersistent(false);
       brokerService.setUseJmx(false);
+      queueMonitor = new QueueDepthMonitor(this::getMaxQueueDepth);
+      brokerService.setPlugins(new BrokerPlugin[] { queueMonitor });
       brokerService.addConnector(getJmsBrokerUrl());
       brokerService.start();
       brokerService.waitUntilStarted();
@@ -164,20 +161,37 @@ public class JmsManagementService
     catch (Exception e) {
       log.error("Failed to stop JMS Server", e);
     }
+    if (queueMonitor != null) {
+      queueMonitor.shutdown();
+      queueMonitor = null;
+    }
   }
 
   public Queue createQueue (String queueName)
   {
     Queue queue = null;
+    Connection connection = null;
     try {
-      Connection connection = connectionFactory.createConnection();
+      // the factory pools connections, closing gives it back
+      connection = connectionFactory.createConnection();
       Session session = connection.createSession(false,
                                                  Session.AUTO_ACKNOWLEDGE);
       queue = session.createQueue(queueName);
+      session.close();
     }
     catch (JMSException e) {
       log.error("Failed to create queue " + queueName, e);
     }
+    finally {
+      if (connection != null) {
+        try {
+          connection.close();
+        }
+        catch (JMSException e) {
+          log.warn("Failed to close connection for queue " + queueName, e);
+        }
+      }
+    }
 
     return queue;
   }
@@ -296,58 +310,22 @@ public class JmsManagementService
     this.maxQueueDepth = maxQueueDepth;
   }
 
-  private boolean destinationLimitReached (Destination dst)
-  {
-    DestinationStatistics stats = dst.getDestinationStatistics();
-    long depth = stats.getEnqueues().getCount()
-                      - stats.getDequeues().getCount();
-    log.debug("destination " + dst.getName() + " - depth:" + depth);
-    return depth > getMaxQueueDepth();
-  }
-
+  /**
+   * Returns the names of the queues removed for going over maxQueueDepth
+   * since the last call, or null if this server is not the JMS provider.
+   * The depth is checked by the provider as messages are sent, so this
+   * does not go through the destinations.
+   */
   public Set<String> processQueues ()
   {
-    BrokerService brokerService = getProvider();
-    if (brokerService == null) {
+    if (getProvider() == null || queueMonitor == null) {
       log.debug("processQueues - JMS Server has not been started");
       return null;
     }
-
-    Set<String> badQueues = new HashSet<String>();
-    try {
-      Broker broker = brokerService.getBroker();
-      Map<ActiveMQDestination, Destination> dstMap = broker.getDestinationMap();
-      for (Map.Entry<ActiveMQDestination, Destination> entry: dstMap.entrySet()) {
-        ActiveMQDestination amqDestination = entry.getKey();
-        Destination destination = entry.getValue();
-        if (destinationLimitReached(destination)) {
-          badQueues.add(destination.getName());
-          deleteDestination(broker, amqDestination, destination);
-        }
-      }
-    }
-    catch (Exception e) {
-      log.error("Encounter exception while getting jms broker", e);
+    Set<String> badQueues = queueMonitor.drainRemoved();
+    for (String queue: badQueues) {
+      log.info("processQueues - removed queue " + queue);
     }
-
     return badQueues;
   }
-
-  private void deleteDestination (Broker broker,
-                                  ActiveMQDestination amqDestination,
-                                  Destination destination) throws Exception
-  {
-    List<Subscription> subscriptions = destination.getConsumers();
-    for (Subscription subscription: subscriptions) {
-      ConsumerInfo info = new ConsumerInfo();
-      info.setDestination(amqDestination);
-      info.setConsumerId(subscription.getConsumerInfo().getConsumerId());
-      broker.removeConsumer(subscription.getContext(), info);
-    }
-    ConnectionContext context = new ConnectionContext();
-    context.setBroker(broker);
-    broker.removeDestination(context, amqDestination, 0);
-    log.info("processQueues - successfully remove queue " + destination.getName());
-  }
 }
-
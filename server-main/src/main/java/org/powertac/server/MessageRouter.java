@@ -18,6 +18,8 @@ package org.powertac.server;
 import static org.powertac.util.MessageDispatcher.dispatch;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +43,11 @@ public class MessageRouter implements InitializationService
   private HashMap<Class<?>, Set<Object>> registrations =
       new HashMap<Class<?>, Set<Object>>();
 
+  // handleMessages(List) methods of the listeners, by listener class; null
+  // for listeners that take their messages one at a time
+  private HashMap<Class<?>, Method> batchHandlers =
+      new HashMap<Class<?>, Method>();
+
   /**
    * returns the registrations for the given message
    */
@@ -59,6 +66,20 @@ public class MessageRouter implements InitializationService
       registrations.put(clazz, targetSet);
     }
     targetSet.add(listener);
+    if (!batchHandlers.containsKey(listener.getClass())) {
+      batchHandlers.put(listener.getClass(), findBatchHandler(listener));
+    }
+  }
+
+  // Returns the listener's handleMessages(List) method, or null
+  private Method findBatchHandler (Object listener)
+  {
+    try {
+      return listener.getClass().getMethod("handleMessages", List.class);
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
   }
 
   /**
@@ -70,6 +91,7 @@ public class MessageRouter implements InitializationService
   {
     // initialize the registrations
     registrations = new HashMap<Class<?>, Set<Object>>();
+    batchHandlers = new HashMap<Class<?>, Method>();
   }
 
   @Override
@@ -87,19 +109,9 @@ public class MessageRouter implements InitializationService
     String username = "unknown";
     Broker broker = null;
     if (!byPassed) {
-      try {
-        broker = (Broker)PropertyUtils.getSimpleProperty(message, "broker");
+      broker = extractBroker(message);
+      if (null != broker)
         username = broker.getUsername();
-      }
-      catch (IllegalAccessException e) {
-        log.error("Failed to extract broker", e);
-      }
-      catch (InvocationTargetException e) {
-        log.error("Failed to extract broker", e);
-      }
-      catch (NoSuchMethodException e) {
-        log.error("Failed to extract broker", e);
-      }
     }
     if (byPassed || (broker != null && broker.isEnabled())) {     
       log.debug("route(Object) - routing " + message.getClass().getSimpleName() + " from " + username);
@@ -117,4 +129,87 @@ public class MessageRouter implements InitializationService
     log.debug("route(Object) - routed:" + routed);
     return routed;
   }
+
+  /**
+   * Routes a batch of messages sent by one broker, typically the orders
+   * generated by a broker-like entity in a single timeslot. The broker is
+   * checked once for the batch, and the registrations are looked up once
+   * for each run of messages of the same type. Each run goes to a
+   * listener's handleMessages(List) method in one call if it has one, and
+   * to its handleMessage() method one message at a time otherwise. Returns
+   * the messages that were routed, in their original order.
+   */
+  public List<Object> routeAll (Broker broker, List<?> messages)
+  {
+    List<Object> result = new ArrayList<Object>();
+    if (null == broker || !broker.isEnabled()) {
+      log.debug("routeAll(Broker, List) - dropped " + messages.size()
+                + " messages from disabled broker");
+      return result;
+    }
+    int from = 0;
+    while (from < messages.size()) {
+      Class<?> type = messages.get(from).getClass();
+      int to = from + 1;
+      while (to < messages.size() && messages.get(to).getClass() == type) {
+        to += 1;
+      }
+      List<?> run = messages.subList(from, to);
+      Set<Object> targets = registrations.get(type);
+      if (targets == null) {
+        log.warn("no targets for message of type " + type.getSimpleName());
+      }
+      else {
+        for (Object target: targets) {
+          deliver(target, run);
+        }
+        result.addAll(run);
+      }
+      from = to;
+    }
+    log.debug("routeAll(Broker, List) - routed " + result.size()
+              + " of " + messages.size() + " from " + broker.getUsername());
+    return result;
+  }
+
+  // Hands a run of messages of one type to a listener, in one call if it
+  // takes lists
+  private void deliver (Object target, List<?> run)
+  {
+    Method handler = batchHandlers.get(target.getClass());
+    if (null == handler) {
+      for (Object message: run) {
+        dispatch(target, "handleMessage", message);
+      }
+      return;
+    }
+    try {
+      handler.invoke(target, new ArrayList<Object>(run));
+    }
+    catch (IllegalAccessException e) {
+      log.error("Failed to route batch to " + target.getClass().getSimpleName(), e);
+    }
+    catch (InvocationTargetException e) {
+      log.error("Failed to route batch to " + target.getClass().getSimpleName(),
+                e.getCause());
+    }
+  }
+
+  // Returns the broker that sent message, or null if it has none
+  private Broker extractBroker (Object message)
+  {
+    try {
+      return (Broker)PropertyUtils.getSimpleProperty(message, "broker");
+    }
+    catch (IllegalAccessException e) {
+      log.error("Failed to extract broker", e);
+    }
+    catch (InvocationTargetException e) {
+      log.error("Failed to extract broker", e);
+    }
+    catch (NoSuchMethodException e) {
+      log.error("Failed to extract broker", e);
+    }
+    return null;
+  }
 }
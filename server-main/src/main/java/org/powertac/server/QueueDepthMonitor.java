@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+import org.apache.activemq.advisory.AdvisorySupport;
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.broker.region.Subscription;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ConsumerInfo;
+import org.apache.activemq.command.Message;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Broker plugin that watches the depth of the destinations of the embedded
+ * JMS provider as messages are sent to them. A destination whose depth
+ * goes over the limit, because its consumer has stopped taking messages,
+ * is removed on a background thread, and its name is kept until collected
+ * with {@link #drainRemoved()}.
+ */
+class QueueDepthMonitor implements BrokerPlugin
+{
+  static private Logger log = LogManager.getLogger(QueueDepthMonitor.class);
+
+  private final LongSupplier maxDepth;
+  private final ExecutorService remover;
+  private volatile Broker broker;
+
+  // destinations being removed, and names of those removed
+  private final Set<ActiveMQDestination> pending =
+      ConcurrentHashMap.newKeySet();
+  private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+  QueueDepthMonitor (LongSupplier maxDepth)
+  {
+    this.maxDepth = maxDepth;
+    this.remover = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "jms-queue-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public Broker installPlugin (Broker next) throws Exception
+  {
+    broker = new DepthFilter(next);
+    return broker;
+  }
+
+  /**
+   * Returns the names of the destinations removed since the last call.
+   */
+  Set<String> drainRemoved ()
+  {
+    Set<String> result = new HashSet<String>();
+    for (String name: removed) {
+      if (removed.remove(name)) {
+        result.add(name);
+      }
+    }
+    return result;
+  }
+
+  void shutdown ()
+  {
+    remover.shutdownNow();
+  }
+
+  // Called on the producer's thread after each send, so it only looks at
+  // the destination's counters and leaves the work to the remover.
+  private void checkDepth (Destination destination)
+  {
+    ActiveMQDestination amqDestination = destination.getActiveMQDestination();
+    if (AdvisorySupport.isAdvisoryTopic(amqDestination)) {
+      return;
+    }
+    DestinationStatistics stats = destination.getDestinationStatistics();
+    long depth = stats.getEnqueues().getCount()
+                 - stats.getDequeues().getCount();
+    if (depth > maxDepth.getAsLong() && pending.add(amqDestination)) {
+      log.warn("destination " + destination.getName() + " - depth:" + depth);
+      remover.execute(() -> removeDestination(amqDestination, destination));
+    }
+  }
+
+  private void removeDestination (ActiveMQDestination amqDestination,
+                                  Destination destination)
+  {
+    try {
+      List<Subscription> subscriptions = destination.getConsumers();
+      for (Subscription subscription: subscriptions) {
+        ConsumerInfo info = new ConsumerInfo();
+        info.setDestination(amqDestination);
+        info.setConsumerId(subscription.getConsumerInfo().getConsumerId());
+        broker.removeConsumer(subscription.getContext(), info);
+      }
+      ConnectionContext context = new ConnectionContext();
+      context.setBroker(broker);
+      broker.removeDestination(context, amqDestination, 0);
+      removed.add(destination.getName());
+      log.info("successfully removed queue " + destination.getName());
+    }
+    catch (Exception e) {
+      log.error("Failed to remove queue " + destination.getName(), e);
+    }
+    finally {
+      pending.remove(amqDestination);
+    }
+  }
+
+  private class DepthFilter extends BrokerFilter
+  {
+    DepthFilter (Broker next)
+    {
+      super(next);
+    }
+
+    @Override
+    public void send (ProducerBrokerExchange producerExchange,
+                      Message messageSend) throws Exception
+    {
+      super.send(producerExchange, messageSend);
+      Destination destination = producerExchange.getRegionDestination();
+      if (destination != null) {
+        checkDepth(destination);
+      }
+      else {
+        // anonymous producer
+        for (Destination target: getDestinations(messageSend.getDestination())) {
+          checkDepth(target);
+        }
+      }
+    }
+  }
+}
@@ -4,13 +4,29 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 
+/**
+ * Reports the progress of a game to the tournament scheduler. All messages
+ * are sent by one background sender. The lifecycle messages (ready, in
+ * progress, results) are sent in the order they are posted, retried with
+ * exponential backoff, and the caller waits until they are delivered or
+ * given up. Heartbeats are not waited for: only the most recent heartbeat
+ * not yet sent is kept, so a slow scheduler gets fewer heartbeats rather
+ * than a growing backlog, and a heartbeat never delays a lifecycle message.
+ */
 @Service
 public class TournamentSchedulerService
 {
@@ -28,6 +44,22 @@ public class TournamentSchedulerService
 
   private String gameId = "0";
 
+  // connection parameters, in msec
+  private int connectTimeout = 5000;
+  private int readTimeout = 10000;
+  private long initialBackoff = 1000;
+  private long maxBackoff = 30000;
+  private int lifecycleAttempts = 5;
+
+  // the sender and its mailboxes
+  private final BlockingQueue<Message> lifecycle =
+      new LinkedBlockingQueue<Message>();
+  private final AtomicReference<Message> heartbeat =
+      new AtomicReference<Message>();
+  private Thread sender;
+  private volatile boolean running = false;
+  private long backoff = 0;
+
   public String getGameId ()
   {
     return gameId;
@@ -48,6 +80,56 @@ public class TournamentSchedulerService
     this.tournamentSchedulerUrl = tournamentSchedulerUrl;
   }
 
+  public int getConnectTimeout ()
+  {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout (int connectTimeout)
+  {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getReadTimeout ()
+  {
+    return readTimeout;
+  }
+
+  public void setReadTimeout (int readTimeout)
+  {
+    this.readTimeout = readTimeout;
+  }
+
+  public long getInitialBackoff ()
+  {
+    return initialBackoff;
+  }
+
+  public void setInitialBackoff (long initialBackoff)
+  {
+    this.initialBackoff = initialBackoff;
+  }
+
+  public long getMaxBackoff ()
+  {
+    return maxBackoff;
+  }
+
+  public void setMaxBackoff (long maxBackoff)
+  {
+    this.maxBackoff = maxBackoff;
+  }
+
+  public int getLifecycleAttempts ()
+  {
+    return lifecycleAttempts;
+  }
+
+  public void setLifecycleAttempts (int lifecycleAttempts)
+  {
+    this.lifecycleAttempts = lifecycleAttempts;
+  }
+
   public URL getBootUrl ()
   {
     URL result = null;
@@ -81,33 +163,31 @@ public class TournamentSchedulerService
     return result;
   }
 
-  public void ready ()
+  /**
+   * Tells the scheduler the game is ready, returns when the message is
+   * delivered or given up.
+   */
+  public boolean ready ()
   {
     if (tournamentSchedulerUrl.isEmpty()) {
-      return;
+      return false;
     }
     String finalUrl = tournamentSchedulerUrl + interfaceUrl
         + "?action=status"
         + "&gameId=" + gameId
         + "&status=game_ready";
     log.info("Sending game_ready to controller at: " + finalUrl);
-
-    try {
-      URL url = new URL(finalUrl);
-      URLConnection conn = url.openConnection();
-      // Get the response
-      conn.getInputStream();
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Jenkins failure");
-    }
+    return sendLifecycle(new Message("game_ready", finalUrl, null));
   }
 
-  public void inProgress (int gameLength)
+  /**
+   * Tells the scheduler the game has started, returns when the message is
+   * delivered or given up.
+   */
+  public boolean inProgress (int gameLength)
   {
     if (tournamentSchedulerUrl.isEmpty()) {
-      return;
+      return false;
     }
     String finalUrl = tournamentSchedulerUrl + interfaceUrl
         + "?action=status"
@@ -115,50 +195,45 @@ public class TournamentSchedulerService
         + "&status=game_in_progress"
         + "&gameLength=" + gameLength;
     log.info("Sending game_in_progress message to controller at: " + finalUrl);
-
-    try {
-      URL url = new URL(finalUrl);
-      URLConnection conn = url.openConnection();
-      // Get the response
-      conn.getInputStream();
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Jenkins failure");
-    }
+    return sendLifecycle(new Message("game_in_progress", finalUrl, null));
   }
 
+  /**
+   * Posts a heartbeat and returns at once. Replaces the previous heartbeat
+   * if that has not been sent yet.
+   */
   public void heartbeat (int timeslotIndex, String standings, long elapsed)
   {
     if (tournamentSchedulerUrl.isEmpty()) {
       return;
     }
 
-    new Thread(() -> {
-      try {
-        String finalUrl = tournamentSchedulerUrl + interfaceUrl
-            + "?action=heartbeat"
-            + "&gameId=" + gameId
-            + "&message=" + timeslotIndex
-            + "&standings=" + URLEncoder.encode(standings, "UTF-8")
-            + "&elapsedTime=" + elapsed;
-
-        URL url = new URL(finalUrl);
-        URLConnection conn = url.openConnection();
-        // Get the response
-        conn.getInputStream();
-      }
-      catch (Exception e) {
-        e.printStackTrace();
-        System.out.println("heartbeat failure");
+    try {
+      String finalUrl = tournamentSchedulerUrl + interfaceUrl
+          + "?action=heartbeat"
+          + "&gameId=" + gameId
+          + "&message=" + timeslotIndex
+          + "&standings=" + URLEncoder.encode(standings, "UTF-8")
+          + "&elapsedTime=" + elapsed;
+      Message previous =
+          heartbeat.getAndSet(new Message("heartbeat", finalUrl, null));
+      if (previous != null) {
+        log.debug("Heartbeat " + timeslotIndex + " replaces an unsent one");
       }
-    }).start();
+      wakeSender();
+    }
+    catch (IOException e) {
+      log.error("heartbeat failure: " + e.toString());
+    }
   }
 
-  public void sendResults (String results)
+  /**
+   * Posts the game results, returns when they are delivered or given up.
+   */
+  public boolean sendResults (String results)
   {
     if (tournamentSchedulerUrl.isEmpty()) {
-      return;
+      return false;
     }
 
     try {
@@ -166,19 +241,165 @@ public class TournamentSchedulerService
       String postData = "action=gameresults"
           + "&gameId=" + gameId
           + "&message=" + URLEncoder.encode(results, "UTF-8");
+      return sendLifecycle(new Message("gameresults", finalUrl, postData));
+    }
+    catch (IOException e) {
+      log.error("results failure: " + e.toString());
+      return false;
+    }
+  }
+
+  /**
+   * Stops the sender. Messages not sent yet are dropped.
+   */
+  synchronized void stop ()
+  {
+    running = false;
+    if (sender != null) {
+      sender.interrupt();
+      sender = null;
+    }
+    heartbeat.set(null);
+    Message message;
+    while ((message = lifecycle.poll()) != null) {
+      message.done.countDown();
+    }
+  }
+
+  private boolean sendLifecycle (Message message)
+  {
+    lifecycle.add(message);
+    wakeSender();
+    try {
+      message.done.await();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    return message.sent;
+  }
+
+  private synchronized void wakeSender ()
+  {
+    if (!running) {
+      running = true;
+      sender = new Thread(this::work, "tournament-scheduler");
+      sender.setDaemon(true);
+      sender.start();
+    }
+    notifyAll();
+  }
+
+  private void work ()
+  {
+    while (running) {
+      Message message;
+      synchronized (this) {
+        while (running && lifecycle.isEmpty() && heartbeat.get() == null) {
+          try {
+            wait();
+          }
+          catch (InterruptedException ie) {
+            return;
+          }
+        }
+        // lifecycle messages first, in order
+        message = lifecycle.poll();
+        if (message == null) {
+          message = heartbeat.getAndSet(null);
+        }
+      }
+      if (message == null) {
+        continue;
+      }
+      try {
+        deliver(message);
+      }
+      catch (InterruptedException ie) {
+        message.done.countDown();
+        return;
+      }
+    }
+  }
 
-      URL url = new URL(finalUrl);
-      URLConnection conn = url.openConnection();
+  // Sends a message, retrying a lifecycle message until it gets through
+  // or runs out of attempts. A heartbeat is sent once; the next one
+  // supersedes it.
+  private void deliver (Message message) throws InterruptedException
+  {
+    int attempts = message.isHeartbeat() ? 1 : Math.max(1, lifecycleAttempts);
+    for (int attempt = 1; attempt <= attempts; attempt++) {
+      if (backoff > 0) {
+        Thread.sleep(backoff);
+      }
+      try {
+        send(message);
+        backoff = 0;
+        message.sent = true;
+        break;
+      }
+      catch (IOException e) {
+        backoff = backoff == 0 ? initialBackoff
+                               : Math.min(maxBackoff, backoff * 2);
+        log.warn(message.action + " attempt " + attempt + " failed: "
+                 + e.toString() + ", backing off " + backoff + " msec");
+      }
+    }
+    if (!message.sent && !message.isHeartbeat()) {
+      log.error("Giving up on " + message.action + " to " + message.url);
+    }
+    message.done.countDown();
+  }
+
+  private void send (Message message) throws IOException
+  {
+    URL url = new URL(message.url);
+    URLConnection conn = url.openConnection();
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+    if (message.postData != null) {
       conn.setDoOutput(true);
       OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-      wr.write(postData);
+      wr.write(message.postData);
       wr.flush();
-      // Get the response
-      conn.getInputStream();
+      wr.close();
     }
-    catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("heartbeat failure");
+    // Get the response
+    InputStream input = conn.getInputStream();
+    try {
+      byte[] buffer = new byte[1024];
+      while (input.read(buffer) >= 0) {
+        // drain, so the connection can be kept alive
+      }
+    }
+    finally {
+      input.close();
+    }
+    if (conn instanceof HttpURLConnection
+        && ((HttpURLConnection) conn).getResponseCode() >= 300) {
+      throw new IOException("status "
+          + ((HttpURLConnection) conn).getResponseCode());
+    }
+  }
+
+  private static class Message
+  {
+    final String action;
+    final String url;
+    final String postData;
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile boolean sent = false;
+
+    Message (String action, String url, String postData)
+    {
+      this.action = action;
+      this.url = url;
+      this.postData = postData;
+    }
+
+    boolean isHeartbeat ()
+    {
+      return "heartbeat".equals(action);
     }
   }
 }
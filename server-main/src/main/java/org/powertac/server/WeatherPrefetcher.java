@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches blocks of weather ahead of the simulation clock on a single
+ * background worker, so the weather for a request date is normally loaded
+ * before the simulation gets there. A block is asked for with
+ * {@link #request(DateTime)} and collected with {@link #take(DateTime)},
+ * which waits for it if the worker is not done yet. The worker retries a
+ * block that cannot be fetched, and a wait gives up after the timeout.
+ *
+ * The prefetcher only holds the blocks asked for and not yet collected;
+ * blocks before the one collected are dropped. Counts of the blocks fetched,
+ * of the times the simulation had to wait, and of the time it waited are
+ * kept for monitoring.
+ */
+public class WeatherPrefetcher<T>
+{
+  static private Logger log = LogManager.getLogger(WeatherPrefetcher.class);
+
+  /**
+   * Where the weather comes from. Returns null or throws if a block
+   * is not available.
+   */
+  public interface Source<T>
+  {
+    T fetch (DateTime requestDate) throws Exception;
+  }
+
+  private final Source<T> source;
+  private final int maxBlocks;
+  private final long timeoutMillis;
+  private final int retries;
+  private final long retryDelayMillis;
+
+  private final BlockingQueue<DateTime> queue =
+      new LinkedBlockingQueue<DateTime>();
+  private final Map<DateTime, Block<T>> blocks =
+      new ConcurrentHashMap<DateTime, Block<T>>();
+  private Thread worker;
+  private volatile boolean running = false;
+
+  // metrics
+  private final AtomicInteger fetched = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicInteger ready = new AtomicInteger();
+  private final AtomicInteger stalls = new AtomicInteger();
+  private final AtomicInteger timeouts = new AtomicInteger();
+  private final AtomicLong stallMillis = new AtomicLong();
+
+  /**
+   * Creates a prefetcher that holds at most maxBlocks blocks, waits at most
+   * timeoutMillis for a block, and tries each block retries more times,
+   * retryDelayMillis apart, before giving up on it.
+   */
+  public WeatherPrefetcher (Source<T> source, int maxBlocks,
+                            long timeoutMillis, int retries,
+                            long retryDelayMillis)
+  {
+    this.source = source;
+    this.maxBlocks = Math.max(1, maxBlocks);
+    this.timeoutMillis = timeoutMillis;
+    this.retries = Math.max(0, retries);
+    this.retryDelayMillis = retryDelayMillis;
+  }
+
+  /**
+   * Starts the worker.
+   */
+  public synchronized void start ()
+  {
+    if (running) {
+      return;
+    }
+    running = true;
+    worker = new Thread(this::work, "weather-prefetch");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Stops the worker and drops the blocks not collected.
+   */
+  public synchronized void stop ()
+  {
+    running = false;
+    if (worker != null) {
+      worker.interrupt();
+      worker = null;
+    }
+    queue.clear();
+    blocks.clear();
+  }
+
+  /**
+   * Asks for the block starting at requestDate, unless it is already asked
+   * for or the prefetcher holds as many blocks as it may.
+   */
+  public boolean request (DateTime requestDate)
+  {
+    synchronized (blocks) {
+      if (blocks.containsKey(requestDate) || blocks.size() >= maxBlocks) {
+        return false;
+      }
+      blocks.put(requestDate, new Block<T>());
+    }
+    queue.add(requestDate);
+    return true;
+  }
+
+  /**
+   * Returns the block starting at requestDate, waiting for the worker if
+   * it has not been fetched yet, and drops the blocks before it. Returns
+   * null if the block could not be fetched in time.
+   */
+  public T take (DateTime requestDate)
+  {
+    request(requestDate);
+    Block<T> block = blocks.get(requestDate);
+    if (block == null) {
+      // lookahead full of later blocks, cannot happen in order
+      log.error("No room to fetch weather for " + requestDate);
+      return null;
+    }
+
+    T result = null;
+    if (block.done.getCount() == 0) {
+      ready.incrementAndGet();
+      result = block.data;
+    }
+    else {
+      stalls.incrementAndGet();
+      long start = System.currentTimeMillis();
+      try {
+        if (block.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          result = block.data;
+        }
+        else {
+          timeouts.incrementAndGet();
+          log.warn("Timed out waiting " + timeoutMillis
+                   + " msec for weather for " + requestDate);
+        }
+      }
+      catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      long waited = System.currentTimeMillis() - start;
+      stallMillis.addAndGet(waited);
+      log.info("Waited " + waited + " msec for weather for " + requestDate);
+    }
+
+    synchronized (blocks) {
+      Iterator<DateTime> dates = blocks.keySet().iterator();
+      while (dates.hasNext()) {
+        if (!dates.next().isAfter(requestDate)) {
+          dates.remove();
+        }
+      }
+    }
+    return result;
+  }
+
+  private void work ()
+  {
+    while (running) {
+      DateTime requestDate;
+      try {
+        requestDate = queue.take();
+      }
+      catch (InterruptedException ie) {
+        return;
+      }
+      Block<T> block = blocks.get(requestDate);
+      if (block == null) {
+        // dropped before its turn
+        continue;
+      }
+      block.data = fetch(requestDate);
+      block.done.countDown();
+    }
+  }
+
+  private T fetch (DateTime requestDate)
+  {
+    for (int attempt = 0; attempt <= retries && running; attempt++) {
+      if (attempt > 0) {
+        log.warn("Retrying weather for " + requestDate);
+        try {
+          Thread.sleep(retryDelayMillis);
+        }
+        catch (InterruptedException ie) {
+          return null;
+        }
+      }
+      try {
+        T data = source.fetch(requestDate);
+        if (data != null) {
+          fetched.incrementAndGet();
+          return data;
+        }
+      }
+      catch (InterruptedException ie) {
+        // stopped
+        return null;
+      }
+      catch (Exception e) {
+        log.error("Unable to fetch weather for " + requestDate
+                  + ": " + e.toString());
+      }
+      failures.incrementAndGet();
+    }
+    return null;
+  }
+
+  /**
+   * Number of blocks fetched.
+   */
+  public int getFetchCount ()
+  {
+    return fetched.get();
+  }
+
+  /**
+   * Number of failed attempts to fetch a block.
+   */
+  public int getFailureCount ()
+  {
+    return failures.get();
+  }
+
+  /**
+   * Number of blocks that were loaded by the time they were collected.
+   */
+  public int getReadyCount ()
+  {
+    return ready.get();
+  }
+
+  /**
+   * Number of blocks the simulation had to wait for.
+   */
+  public int getStallCount ()
+  {
+    return stalls.get();
+  }
+
+  /**
+   * Number of waits that gave up before the block was loaded.
+   */
+  public int getTimeoutCount ()
+  {
+    return timeouts.get();
+  }
+
+  /**
+   * Total time the simulation waited for weather, in msec.
+   */
+  public long getStallMillis ()
+  {
+    return stallMillis.get();
+  }
+
+  private static class Block<T>
+  {
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile T data;
+  }
+}
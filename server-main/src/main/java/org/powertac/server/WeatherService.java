@@ -46,25 +46,13 @@ import org.powertac.common.repo.WeatherForecastRepo;
 import org.powertac.common.repo.WeatherReportRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
 import java.io.*;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 
 @Service
@@ -83,6 +71,16 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   @ConfigurableValue(valueType = "Boolean", description = "If network calls to weather server should block until finished")
   private boolean blocking = true;
 
+  // When not blocking, weather is fetched ahead of the simulation clock
+  @ConfigurableValue(valueType = "Integer", description = "Days of weather to fetch ahead when not blocking")
+  private int prefetchDays = 3;
+
+  @ConfigurableValue(valueType = "Integer", description = "Seconds to wait for weather that has not been fetched yet")
+  private int prefetchTimeout = 30;
+
+  @ConfigurableValue(valueType = "Integer", description = "Times to retry a failed weather request when not blocking")
+  private int prefetchRetries = 3;
+
   @ConfigurableValue(valueType = "String", description = "Location of weather file (XML or state) or URL (state)")
   private String weatherData = "";
 
@@ -108,10 +106,9 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   @Autowired
   private ServerConfiguration serverProps;
 
-  // These dates need to be fetched when using not blocking
-  private List<DateTime> aheadDays;
+  // Fetches weather ahead when not blocking
+  private WeatherPrefetcher<Data> prefetcher;
   private DateTime simulationBaseTime;
-  private int daysAhead = 3;
 
 
   public int getWeatherReqInterval ()
@@ -134,6 +131,21 @@ public class WeatherService extends TimeslotPhaseProcessor implements
     return forecastHorizon;
   }
 
+  /**
+   * The prefetcher used when not blocking, with counts of how often the
+   * simulation had to wait for weather. Null when blocking.
+   */
+  public WeatherPrefetcher<?> getPrefetcher ()
+  {
+    return prefetcher;
+  }
+
+  // number of requests to keep fetched ahead of the current one
+  private int getPrefetchBlocks ()
+  {
+    return Math.max(1, prefetchDays * 24 / weatherReqInterval);
+  }
+
   private String dateString (DateTime dateTime)
   {
     // Parse out year, month, day, and hour out of DateTime
@@ -186,10 +198,15 @@ public class WeatherService extends TimeslotPhaseProcessor implements
         wr.run();
       }
       else {
-        aheadDays.add(dateTime.plusDays(daysAhead));
-        while (aheadDays.size() > 0) {
-          WeatherRequester wr = new WeatherRequester(aheadDays.remove(0));
-          new Thread(wr).start();
+        Data data = prefetcher.take(dateTime);
+        try {
+          new WeatherRequester(dateTime).processData(data);
+        }
+        catch (Exception e) {
+          log.error("No weather for " + dateStringLong(dateTime));
+        }
+        for (int i = 1; i <= getPrefetchBlocks(); i++) {
+          prefetcher.request(dateTime.plusHours(i * weatherReqInterval));
         }
       }
     }
@@ -251,24 +268,24 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   public String initialize (Competition competition, List<String> completedInits)
   {
     super.init();
-    aheadDays = new CopyOnWriteArrayList<DateTime>();
     serverProps.configureMe(this);
     weatherReqInterval = Math.min(24, weatherReqInterval);
     simulationBaseTime = competition.getSimulationBaseTime().toDateTime();
 
-    if (weatherData != null
-        && (weatherData.endsWith(".xml") || weatherData.endsWith(".state"))) {
-      log.info("read from file in blocking mode");
-      blocking = true;
+    if (prefetcher != null) {
+      prefetcher.stop();
+      prefetcher = null;
     }
-
     if (!blocking) {
+      // Start fetching the first days of weather, collected in activate()
+      prefetcher = new WeatherPrefetcher<Data>(
+          requestDate -> new WeatherRequester(requestDate).fetchData(),
+          getPrefetchBlocks() + 1, prefetchTimeout * 1000L, prefetchRetries,
+          1000L);
+      prefetcher.start();
       DateTime dateTime = timeslotRepo.currentTimeslot().getStartTime();
-      // Get the first 3 days of weather, blocking!
-      for (int i = 0; i < daysAhead; i++) {
-        WeatherRequester weatherRequester = new WeatherRequester(dateTime);
-        weatherRequester.run();
-        dateTime = dateTime.plusDays(1);
+      for (int i = 0; i <= getPrefetchBlocks(); i++) {
+        prefetcher.request(dateTime.plusHours(i * weatherReqInterval));
       }
     }
 
@@ -286,6 +303,19 @@ public class WeatherService extends TimeslotPhaseProcessor implements
 
     @Override
     public void run ()
+    {
+      try {
+        processData(fetchData());
+      }
+      catch (Exception e) {
+        log.error("Unable to get weather for " + dateStringLong(requestDate)
+                  + ": " + e.getMessage());
+      }
+    }
+
+    // Gets the weather for the request from the file or the web,
+    // throws if there is none
+    Data fetchData () throws Exception
     {
       String currentMethod = "";
       try {
@@ -293,33 +323,35 @@ public class WeatherService extends TimeslotPhaseProcessor implements
 
         if (weatherData != null && weatherData.endsWith(".xml")) {
           currentMethod = "xml file";
-          WeatherXmlExtractor wxe = new WeatherXmlExtractor(weatherData);
-          String weatherXml = wxe.extractPartialXml(requestDate);
-          data = parseXML(weatherXml);
+          WeatherXmlExtractor wxe = new WeatherXmlExtractor(weatherData,
+              weatherReqInterval, forecastHorizon);
+          Data fromFile = new Data();
+          if (wxe.extract(requestDate, getTimeIndex(requestDate),
+              fromFile.getWeatherReports(), fromFile.getWeatherForecasts())) {
+            data = fromFile;
+          }
         }
         else if (weatherData != null && weatherData.endsWith(".state")) {
           currentMethod = "state file";
           StateFileExtractor sfe = new StateFileExtractor(weatherData);
-          data = sfe.extractData();
+          data = sfe.extractData(getTimeIndex(requestDate));
         }
 
         if (data == null) {
           currentMethod = "web";
           data = webRequest();
         }
-
-        processData(data);
+        if (data == null) {
+          throw new IOException("No weather for "
+                                + dateStringLong(requestDate));
+        }
 
         log.debug("Got data via a " + currentMethod + " request");
+        return data;
       }
       catch (Exception e) {
         log.error("Unable to get weather from weather : " + currentMethod);
-        if (!blocking) {
-          log.warn("Retrying : " + dateStringLong(requestDate));
-          aheadDays.add(requestDate);
-        }
-
-        log.error(e.getMessage());
+        throw e;
       }
     }
 
@@ -543,145 +575,6 @@ public class WeatherService extends TimeslotPhaseProcessor implements
     }
   }
 
-  private class WeatherXmlExtractor
-  {
-    /**
-     * This class extracts a part of a weather-xml, which contacins the weather
-     * for the complete duration of the simulation.
-     * It returns 24 reports and 24 * 24 forecasts
-     */
-    private NodeList nodeListRead = null;
-    private Document documentWrite;
-    private Element weatherReports;
-    private Element weatherForecasts;
-
-    public WeatherXmlExtractor (String fileName)
-    {
-      try {
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory
-            .newInstance();
-        DocumentBuilder docBuilderRead = docBuilderFactory.newDocumentBuilder();
-        Document documentRead = docBuilderRead.parse(new File(fileName));
-        Node rootNode = documentRead.getDocumentElement();
-        nodeListRead = rootNode.getChildNodes();
-
-        // Output document
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilderWrite = docFactory.newDocumentBuilder();
-        documentWrite = docBuilderWrite.newDocument();
-        documentWrite.setXmlStandalone(true);
-        Element rootElement = documentWrite.createElement("data");
-        documentWrite.appendChild(rootElement);
-
-        // weatherReports and weatherForecasts elements
-        weatherReports = documentWrite.createElement("weatherReports");
-        rootElement.appendChild(weatherReports);
-        weatherForecasts = documentWrite.createElement("weatherForecasts");
-        rootElement.appendChild(weatherForecasts);
-      }
-      catch (Exception ignored) {
-      }
-    }
-
-    private String extractPartialXml (DateTime requestDate)
-    {
-      if (nodeListRead == null) {
-        return null;
-      }
-
-      try {
-        // Find 24 weatherReport starting at startDate
-        for (int i = 0; i < nodeListRead.getLength(); i++) {
-          Node currentNode = nodeListRead.item(i);
-
-          if (!currentNode.getNodeName().equals("weatherReports")) {
-            continue;
-          }
-
-          NodeList nodeListReports = currentNode.getChildNodes();
-          findReports(nodeListReports, dateStringLong(requestDate));
-        }
-
-        // Find all weatherForecasts belonging to the 24 reports
-        for (int i = 0; i < weatherReqInterval; i++) {
-          for (int j = 0; j < nodeListRead.getLength(); j++) {
-            Node currentNode = nodeListRead.item(j);
-
-            if (!currentNode.getNodeName().equals("weatherForecasts")) {
-              continue;
-            }
-
-            String origin = dateStringLong(requestDate.plusHours(i));
-            NodeList nodes = currentNode.getChildNodes();
-            findForecasts(nodes, origin);
-          }
-        }
-
-        if (weatherReports.getChildNodes().getLength() != weatherReqInterval ||
-            weatherForecasts.getChildNodes().getLength() !=
-                weatherReqInterval * forecastHorizon) {
-          return null;
-        }
-
-        TransformerFactory transFactory = TransformerFactory.newInstance();
-        Transformer transformer = transFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        StringWriter buffer = new StringWriter();
-        transformer.transform(new DOMSource(documentWrite), new StreamResult(buffer));
-
-        return buffer.toString();
-      }
-      catch (Exception e) {
-        e.printStackTrace();
-      }
-      return null;
-    }
-
-    private void findReports (NodeList nodes, String startDate)
-    {
-      // Find reports starting at startDate, copy 24 reports to output document
-      for (int j = 0; j < nodes.getLength(); j++) {
-        Node report = nodes.item(j);
-        if (!report.getNodeName().equals("weatherReport")) {
-          continue;
-        }
-
-        // TODO We shouldn't assume the reports are ordered on date
-        String date = ((Element) report).getAttribute("date");
-        if (date.compareTo(startDate) < 0) {
-          continue;
-        }
-
-        Node temp = documentWrite.importNode(report, true);
-        weatherReports.appendChild(temp);
-
-        if (weatherReports.getChildNodes().getLength() == weatherReqInterval) {
-          break;
-        }
-      }
-    }
-
-    private void findForecasts (NodeList nodes, String target)
-    {
-      // Find all forecasts belonging to a report-date, copy to output document
-      for (int i = 0; i < nodes.getLength(); i++) {
-        Node forecast = nodes.item(i);
-
-        if (!forecast.getNodeName().equals("weatherForecast")) {
-          continue;
-        }
-
-        String origin = ((Element) forecast).getAttribute("origin");
-        if (!origin.equals(target)) {
-          continue;
-        }
-
-        Node temp = documentWrite.importNode(forecast, true);
-        weatherForecasts.appendChild(temp);
-      }
-    }
-  }
-
   /**
    * This class extracts a part of a state file (or URL).
    * It returns $weatherReqInterval reports
@@ -706,9 +599,8 @@ public class WeatherService extends TimeslotPhaseProcessor implements
       }
     }
 
-    public Data extractData ()
+    public Data extractData (int startIndex)
     {
-      int startIndex = timeslotRepo.currentSerialNumber();
       if (weatherSource == null) {
         return null;
       }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.WeatherReport;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the weather for one request from a weather-xml file, which
+ * contains the weather for the complete duration of the simulation: the
+ * first weatherReqInterval reports from the request date on, and the
+ * forecasts made at each of those hours, ordered by hour.
+ *
+ * The file is read in a single streaming pass, and only the reports and
+ * forecasts of the request are kept, so memory use does not depend on the
+ * size of the file.
+ */
+class WeatherXmlExtractor
+{
+  static private Logger log = LogManager.getLogger(WeatherXmlExtractor.class);
+
+  private static final XMLInputFactory inputFactory = newInputFactory();
+
+  private final String fileName;
+  private final int weatherReqInterval;
+  private final int forecastHorizon;
+
+  WeatherXmlExtractor (String fileName, int weatherReqInterval,
+                       int forecastHorizon)
+  {
+    this.fileName = fileName;
+    this.weatherReqInterval = weatherReqInterval;
+    this.forecastHorizon = forecastHorizon;
+  }
+
+  private static XMLInputFactory newInputFactory ()
+  {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
+  }
+
+  /**
+   * Reads the reports and forecasts for a request into the given lists.
+   * The reports are numbered from timeIndex on. Returns false, leaving the
+   * lists empty, if the file does not hold exactly the weather asked for or
+   * cannot be read.
+   */
+  boolean extract (DateTime requestDate, int timeIndex,
+                   List<WeatherReport> reports,
+                   List<WeatherForecastPrediction> forecasts)
+  {
+    String startDate = dateStringLong(requestDate);
+
+    // forecasts by the hour of the request they were made at
+    Map<String, Integer> origins = new HashMap<String, Integer>();
+    List<List<WeatherForecastPrediction>> byOrigin =
+        new ArrayList<List<WeatherForecastPrediction>>();
+    for (int i = 0; i < weatherReqInterval; i++) {
+      origins.put(dateStringLong(requestDate.plusHours(i)), i);
+      byOrigin.add(new ArrayList<WeatherForecastPrediction>(forecastHorizon));
+    }
+    int forecastCount = 0;
+    int limit = weatherReqInterval * forecastHorizon;
+
+    List<WeatherReport> found = new ArrayList<WeatherReport>(weatherReqInterval);
+    InputStream input = null;
+    XMLStreamReader reader = null;
+    try {
+      input = new BufferedInputStream(new FileInputStream(fileName));
+      reader = inputFactory.createXMLStreamReader(input);
+      int depth = 0;
+      String section = null;
+      boolean sectionFull = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT) {
+          depth -= 1;
+          if (depth == 1) {
+            section = null;
+          }
+          continue;
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        depth += 1;
+        String name = reader.getLocalName();
+        if (depth == 2) {
+          section = name;
+          sectionFull = false;
+        }
+        else if (depth == 3 && "weatherReports".equals(section)
+                 && "weatherReport".equals(name) && !sectionFull) {
+          // TODO We shouldn't assume the reports are ordered on date
+          String date = attribute(reader, "date");
+          if (date.compareTo(startDate) >= 0) {
+            found.add(new WeatherReport(timeIndex + found.size(),
+                number(reader, "temp"), number(reader, "windspeed"),
+                number(reader, "winddir"), number(reader, "cloudcover")));
+            sectionFull = found.size() == weatherReqInterval;
+          }
+        }
+        else if (depth == 3 && "weatherForecasts".equals(section)
+                 && "weatherForecast".equals(name)) {
+          Integer hour = origins.get(attribute(reader, "origin"));
+          if (hour != null) {
+            if (++forecastCount > limit) {
+              // more than the request can use, as good as none
+              break;
+            }
+            byOrigin.get(hour).add(new WeatherForecastPrediction(
+                Integer.parseInt(attribute(reader, "id")),
+                number(reader, "temp"), number(reader, "windspeed"),
+                number(reader, "winddir"), number(reader, "cloudcover")));
+          }
+        }
+      }
+    }
+    catch (IOException | XMLStreamException | RuntimeException e) {
+      log.error("Cannot read weather from " + fileName + ": " + e.toString());
+      return false;
+    }
+    finally {
+      close(reader, input);
+    }
+
+    if (found.size() != weatherReqInterval || forecastCount != limit) {
+      log.warn("Weather file " + fileName + " has " + found.size()
+               + " reports and " + forecastCount + " forecasts for "
+               + startDate);
+      return false;
+    }
+    reports.addAll(found);
+    for (List<WeatherForecastPrediction> hour: byOrigin) {
+      forecasts.addAll(hour);
+    }
+    return true;
+  }
+
+  private String attribute (XMLStreamReader reader, String name)
+  {
+    String value = reader.getAttributeValue(null, name);
+    return value == null ? "" : value;
+  }
+
+  private double number (XMLStreamReader reader, String name)
+  {
+    return Double.parseDouble(attribute(reader, name));
+  }
+
+  private void close (XMLStreamReader reader, InputStream input)
+  {
+    try {
+      if (reader != null) {
+        reader.close();
+      }
+      if (input != null) {
+        input.close();
+      }
+    }
+    catch (IOException | XMLStreamException e) {
+      log.warn("Cannot close " + fileName + ": " + e.toString());
+    }
+  }
+
+  static String dateStringLong (DateTime dateTime)
+  {
+    // Parse out year, month, day, and hour out of DateTime
+    int y = dateTime.get(DateTimeFieldType.year());
+    int m = dateTime.get(DateTimeFieldType.monthOfYear());
+    int d = dateTime.get(DateTimeFieldType.dayOfMonth());
+    int h = dateTime.get(DateTimeFieldType.clockhourOfDay()) % 24;
+
+    return String.format("%04d-%02d-%02d %02d:00", y, m, d, h);
+  }
+}
@@ -130,6 +130,24 @@ public class BrokerProxyServiceTest
     verify(visualizer, times(1)).forwardMessage(message);
   }
   
+  @Test
+  public void routeMessagesTest()
+  {
+    CustomerInfo message2 = new CustomerInfo("t2", 22);
+    List<Object> messageList = new ArrayList<Object>();
+    messageList.add(message);
+    messageList.add(message2);
+    List<Object> routed = new ArrayList<Object>();
+    routed.add(message2);
+    when(router.routeAll(wholesaleBroker, messageList)).thenReturn(routed);
+
+    brokerProxy.routeMessages(wholesaleBroker, messageList);
+    verify(router, times(1)).routeAll(wholesaleBroker, messageList);
+    verify(router, times(0)).route(any());
+    verify(visualizer, times(0)).forwardMessage(message);
+    verify(visualizer, times(1)).forwardMessage(message2);
+  }
+  
   // Broker that collects the messages it receives
   class TestBroker extends Broker
   {
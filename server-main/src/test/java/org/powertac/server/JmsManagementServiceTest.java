@@ -0,0 +1,110 @@
+package org.powertac.server;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerRegistry;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Runs the queue monitoring against an embedded provider.
+ */
+public class JmsManagementServiceTest
+{
+  private static final String BROKER_NAME = "queueHealthTest";
+
+  private JmsManagementService service;
+  private ActiveMQConnectionFactory factory;
+  private Connection connection;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    service = new JmsManagementService();
+    service.setJmsBrokerName(BROKER_NAME);
+    service.setJmsBrokerUrl("tcp://localhost:0");
+    service.setMaxQueueDepth(50);
+    service.startProvider();
+
+    factory = new ActiveMQConnectionFactory("vm://" + BROKER_NAME
+                                            + "?create=false");
+    ReflectionTestUtils.setField(service, "connectionFactory", factory);
+    connection = factory.createConnection();
+    connection.start();
+  }
+
+  @After
+  public void tearDown () throws Exception
+  {
+    connection.close();
+    service.stopProvider();
+  }
+
+  @Test
+  public void testNotServing ()
+  {
+    JmsManagementService other = new JmsManagementService();
+    other.setJmsBrokerName("notStarted");
+    assertNull(other.processQueues());
+  }
+
+  @Test
+  public void testStalledConsumer () throws Exception
+  {
+    // a consumer that never takes its messages
+    Session stalledSession =
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    Queue stalled = stalledSession.createQueue("stalled.outputQueue");
+    MessageConsumer stalledConsumer = stalledSession.createConsumer(stalled);
+    assertNotNull(stalledConsumer);
+
+    // and one that keeps up
+    Session healthySession =
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    Queue healthy = healthySession.createQueue("healthy.outputQueue");
+    healthySession.createConsumer(healthy).setMessageListener(message -> {});
+
+    Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    MessageProducer anonymous = session.createProducer(null);
+    MessageProducer producer = session.createProducer(healthy);
+    for (int i = 0; i < 100; i++) {
+      anonymous.send(stalled, session.createTextMessage("stalled " + i));
+      producer.send(session.createTextMessage("healthy " + i));
+    }
+
+    Set<String> removed = new HashSet<String>();
+    for (int i = 0; i < 100 && !removed.contains("stalled.outputQueue"); i++) {
+      removed.addAll(service.processQueues());
+      Thread.sleep(50);
+    }
+    assertTrue(removed.contains("stalled.outputQueue"));
+    assertFalse(removed.contains("healthy.outputQueue"));
+
+    // reported once
+    assertTrue(service.processQueues().isEmpty());
+  }
+
+  @Test
+  public void testCreateQueueClosesConnection () throws Exception
+  {
+    BrokerService provider = BrokerRegistry.getInstance().lookup(BROKER_NAME);
+    int clients = provider.getBroker().getClients().length;
+    for (int i = 0; i < 10; i++) {
+      assertNotNull(service.createQueue("broker" + i + ".outputQueue"));
+    }
+    assertEquals(clients, provider.getBroker().getClients().length);
+  }
+}
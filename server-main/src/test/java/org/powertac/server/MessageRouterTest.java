@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Order;
+
+/**
+ * Routes batches of orders to listeners that take them one at a time and
+ * to listeners that take lists.
+ */
+public class MessageRouterTest
+{
+  private MessageRouter router;
+  private Broker genco;
+  private List<Order> orders;
+
+  @Before
+  public void setUp ()
+  {
+    router = new MessageRouter();
+    genco = new Broker("genco", true, true);
+    genco.setEnabled(true);
+    orders = new ArrayList<Order>();
+    for (int i = 0; i < 5; i++) {
+      orders.add(new Order(genco, 361 + i, -10.0, 20.0 + i));
+    }
+  }
+
+  @Test
+  public void testBatchListener ()
+  {
+    BatchListener listener = new BatchListener();
+    router.registerBrokerMessageListener(listener, Order.class);
+    List<Object> routed = router.routeAll(genco, orders);
+    assertEquals("all routed", new ArrayList<Object>(orders), routed);
+    assertEquals("one call", 1, listener.batches.size());
+    assertEquals("whole batch", orders, listener.batches.get(0));
+    assertEquals("no single messages", 0, listener.singles.size());
+  }
+
+  @Test
+  public void testSingleListener ()
+  {
+    SingleListener listener = new SingleListener();
+    router.registerBrokerMessageListener(listener, Order.class);
+    List<Object> routed = router.routeAll(genco, orders);
+    assertEquals("all routed", 5, routed.size());
+    assertEquals("in order", orders, listener.received);
+  }
+
+  @Test
+  public void testRunsOfTypes ()
+  {
+    BatchListener listener = new BatchListener();
+    router.registerBrokerMessageListener(listener, Order.class);
+    List<Object> messages = new ArrayList<Object>();
+    messages.addAll(orders.subList(0, 2));
+    messages.add("not routed");
+    messages.addAll(orders.subList(2, 5));
+    List<Object> routed = router.routeAll(genco, messages);
+    assertEquals("orders routed", new ArrayList<Object>(orders), routed);
+    assertEquals("two runs", 2, listener.batches.size());
+    assertEquals(orders.subList(0, 2), listener.batches.get(0));
+    assertEquals(orders.subList(2, 5), listener.batches.get(1));
+  }
+
+  @Test
+  public void testDisabledBroker ()
+  {
+    BatchListener listener = new BatchListener();
+    router.registerBrokerMessageListener(listener, Order.class);
+    genco.setEnabled(false);
+    assertTrue("nothing routed", router.routeAll(genco, orders).isEmpty());
+    assertEquals("no calls", 0, listener.batches.size());
+  }
+
+  public static class SingleListener
+  {
+    List<Order> received = new ArrayList<Order>();
+
+    public void handleMessage (Order order)
+    {
+      received.add(order);
+    }
+  }
+
+  public static class BatchListener extends SingleListener
+  {
+    List<List<Order>> batches = new ArrayList<List<Order>>();
+    List<Order> singles = received;
+
+    public void handleMessages (List<Order> orders)
+    {
+      batches.add(new ArrayList<Order>(orders));
+    }
+  }
+}
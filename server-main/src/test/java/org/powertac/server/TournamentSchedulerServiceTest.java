@@ -0,0 +1,234 @@
+package org.powertac.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Sends messages to a local stand-in for the tournament scheduler.
+ */
+public class TournamentSchedulerServiceTest
+{
+  private HttpServer server;
+  private TournamentSchedulerService tss;
+
+  // what the scheduler received, as action or status, then the message
+  private List<String> received;
+
+  // how the scheduler behaves
+  private volatile long delay = 0;
+  private AtomicInteger failures = new AtomicInteger();
+  private volatile CountDownLatch gate = null;
+
+  @Before
+  public void setUp () throws IOException
+  {
+    received = Collections.synchronizedList(new ArrayList<String>());
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    tss = new TournamentSchedulerService();
+    tss.setTournamentSchedulerUrl("http://localhost:"
+        + server.getAddress().getPort() + "/");
+    tss.setGameId("17");
+    tss.setInitialBackoff(20);
+    tss.setMaxBackoff(100);
+    tss.setReadTimeout(500);
+  }
+
+  @After
+  public void tearDown ()
+  {
+    tss.stop();
+    server.stop(0);
+  }
+
+  private void handle (HttpExchange exchange) throws IOException
+  {
+    String query = exchange.getRequestURI().getQuery();
+    if (query == null) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      InputStream input = exchange.getRequestBody();
+      byte[] buffer = new byte[1024];
+      int count;
+      while ((count = input.read(buffer)) >= 0) {
+        body.write(buffer, 0, count);
+      }
+      query = body.toString("UTF-8");
+    }
+    try {
+      if (gate != null) {
+        gate.await(5, TimeUnit.SECONDS);
+      }
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+    }
+    catch (InterruptedException ie) {
+      return;
+    }
+    int status = 200;
+    if (failures.getAndDecrement() > 0) {
+      status = 500;
+    }
+    else {
+      received.add(summary(query));
+    }
+    byte[] response = "ok".getBytes("UTF-8");
+    exchange.sendResponseHeaders(status, response.length);
+    OutputStream output = exchange.getResponseBody();
+    output.write(response);
+    output.close();
+  }
+
+  private String summary (String query)
+  {
+    String action = null;
+    String detail = "";
+    for (String pair: query.split("&")) {
+      String[] parts = pair.split("=", 2);
+      if (parts[0].equals("action")) {
+        action = parts[1];
+      }
+      else if (parts[0].equals("status")) {
+        action = parts[1];
+      }
+      else if (parts[0].equals("message")) {
+        detail = parts[1];
+      }
+    }
+    return action + (detail.isEmpty() ? "" : " " + detail);
+  }
+
+  @Test
+  public void testLifecycleOrder ()
+  {
+    assertTrue(tss.ready());
+    tss.heartbeat(0, "a:1", 10);
+    assertTrue(tss.inProgress(360));
+    assertTrue(tss.sendResults("a:2"));
+
+    assertEquals("game_ready", received.get(0));
+    assertTrue(received.indexOf("game_in_progress")
+               < received.indexOf("gameresults a%3A2"));
+    assertTrue(received.size() >= 3);
+  }
+
+  @Test
+  public void testHeartbeatsCoalesce () throws Exception
+  {
+    // the scheduler holds the first heartbeat while the sim moves on
+    gate = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    for (int ts = 0; ts < 20; ts++) {
+      tss.heartbeat(ts, "a:" + ts, 5);
+    }
+    assertTrue("heartbeat does not block",
+               System.currentTimeMillis() - start < 400);
+    gate.countDown();
+    gate = null;
+
+    waitFor(received, "heartbeat 19");
+    assertTrue("heartbeats " + received, received.size() <= 3);
+    assertEquals("heartbeat 19", received.get(received.size() - 1));
+  }
+
+  @Test
+  public void testLifecycleAheadOfHeartbeat () throws Exception
+  {
+    gate = new CountDownLatch(1);
+    tss.heartbeat(0, "a:0", 5);
+    Thread.sleep(100);
+    tss.heartbeat(1, "a:1", 5);
+    // the sender is busy with heartbeat 0 and holds heartbeat 1
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      }
+      catch (InterruptedException ie) {
+        return;
+      }
+      gate.countDown();
+    }).start();
+    assertTrue(tss.sendResults("done"));
+    gate = null;
+
+    waitFor(received, "heartbeat 1");
+    assertEquals("heartbeat 0", received.get(0));
+    assertEquals("gameresults done", received.get(1));
+    assertEquals("heartbeat 1", received.get(2));
+  }
+
+  @Test
+  public void testRetryWithBackoff ()
+  {
+    failures.set(2);
+    long start = System.currentTimeMillis();
+    assertTrue(tss.ready());
+    // 20 msec, then 40
+    assertTrue(System.currentTimeMillis() - start >= 60);
+    assertEquals(Collections.singletonList("game_ready"), received);
+  }
+
+  @Test
+  public void testGiveUp ()
+  {
+    failures.set(100);
+    tss.setLifecycleAttempts(3);
+    assertFalse(tss.ready());
+    assertTrue(received.isEmpty());
+    assertEquals(97, failures.get());
+  }
+
+  @Test
+  public void testReadTimeout () throws Exception
+  {
+    delay = 2000;
+    tss.setLifecycleAttempts(1);
+    long start = System.currentTimeMillis();
+    assertFalse(tss.inProgress(10));
+    assertTrue(System.currentTimeMillis() - start < 1500);
+
+    delay = 0;
+    tss.setLifecycleAttempts(3);
+    assertTrue(tss.ready());
+    assertTrue(received.contains("game_ready"));
+  }
+
+  @Test
+  public void testNoScheduler ()
+  {
+    tss.setTournamentSchedulerUrl("");
+    assertFalse(tss.ready());
+    tss.heartbeat(1, "a:1", 5);
+    assertTrue(received.isEmpty());
+  }
+
+  private void waitFor (List<String> list, String item) throws Exception
+  {
+    for (int i = 0; i < 100 && !list.contains(item); i++) {
+      Thread.sleep(20);
+    }
+    assertTrue(list + " has " + item, list.contains(item));
+  }
+}
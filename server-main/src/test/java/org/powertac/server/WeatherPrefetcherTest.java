@@ -0,0 +1,158 @@
+package org.powertac.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the prefetcher against a stand-in for a slow weather source.
+ */
+public class WeatherPrefetcherTest
+{
+  private DateTime start;
+  private WeatherPrefetcher<String> prefetcher;
+
+  @Before
+  public void setUp ()
+  {
+    start = new DateTime(2010, 4, 1, 0, 0, 0, 0, DateTimeZone.UTC);
+  }
+
+  @After
+  public void tearDown ()
+  {
+    if (prefetcher != null) {
+      prefetcher.stop();
+    }
+  }
+
+  @Test
+  public void testLookaheadHidesLatency () throws Exception
+  {
+    DelayedSource source = new DelayedSource(50, 0);
+    prefetcher = new WeatherPrefetcher<String>(source, 4, 2000, 0, 0);
+    prefetcher.start();
+    for (int day = 0; day < 3; day++) {
+      prefetcher.request(start.plusDays(day));
+    }
+    Thread.sleep(500);
+
+    // the simulation moves on no faster than the source
+    for (int day = 0; day < 10; day++) {
+      DateTime date = start.plusDays(day);
+      assertEquals(date.toString(), prefetcher.take(date));
+      for (int ahead = 1; ahead <= 3; ahead++) {
+        prefetcher.request(date.plusDays(ahead));
+      }
+      Thread.sleep(100);
+    }
+    assertEquals(0, prefetcher.getStallCount());
+    assertEquals(10, prefetcher.getReadyCount());
+    assertEquals(0, prefetcher.getStallMillis());
+  }
+
+  @Test
+  public void testStallWithoutLookahead ()
+  {
+    DelayedSource source = new DelayedSource(200, 0);
+    prefetcher = new WeatherPrefetcher<String>(source, 1, 2000, 0, 0);
+    prefetcher.start();
+
+    assertEquals(start.toString(), prefetcher.take(start));
+    assertEquals(1, prefetcher.getStallCount());
+    assertEquals(0, prefetcher.getReadyCount());
+    assertTrue(prefetcher.getStallMillis() >= 100);
+    assertEquals(0, prefetcher.getTimeoutCount());
+  }
+
+  @Test
+  public void testRetry ()
+  {
+    DelayedSource source = new DelayedSource(10, 2);
+    prefetcher = new WeatherPrefetcher<String>(source, 2, 2000, 3, 10);
+    prefetcher.start();
+
+    assertEquals(start.toString(), prefetcher.take(start));
+    assertEquals(2, prefetcher.getFailureCount());
+    assertEquals(1, prefetcher.getFetchCount());
+    assertEquals(3, source.calls.get());
+  }
+
+  @Test
+  public void testGiveUp ()
+  {
+    DelayedSource source = new DelayedSource(10, 10);
+    prefetcher = new WeatherPrefetcher<String>(source, 2, 2000, 2, 10);
+    prefetcher.start();
+
+    assertNull(prefetcher.take(start));
+    assertEquals(3, prefetcher.getFailureCount());
+    assertEquals(0, prefetcher.getFetchCount());
+  }
+
+  @Test
+  public void testTimeout ()
+  {
+    DelayedSource source = new DelayedSource(1000, 0);
+    prefetcher = new WeatherPrefetcher<String>(source, 2, 100, 0, 0);
+    prefetcher.start();
+
+    assertNull(prefetcher.take(start));
+    assertEquals(1, prefetcher.getStallCount());
+    assertEquals(1, prefetcher.getTimeoutCount());
+  }
+
+  @Test
+  public void testBoundedLookahead ()
+  {
+    DelayedSource source = new DelayedSource(0, 0);
+    prefetcher = new WeatherPrefetcher<String>(source, 2, 2000, 0, 0);
+    assertTrue(prefetcher.request(start));
+    assertFalse(prefetcher.request(start));
+    assertTrue(prefetcher.request(start.plusDays(1)));
+    assertFalse(prefetcher.request(start.plusDays(2)));
+
+    // collecting a block makes room
+    prefetcher.start();
+    assertEquals(start.toString(), prefetcher.take(start));
+    assertTrue(prefetcher.request(start.plusDays(2)));
+    assertEquals(start.plusDays(2).toString(), prefetcher.take(start.plusDays(2)));
+    assertTrue(source.fetched.containsKey(start.plusDays(1)));
+  }
+
+  // Answers after a delay, failing the first few calls
+  private static class DelayedSource implements WeatherPrefetcher.Source<String>
+  {
+    final long delay;
+    final int failures;
+    final AtomicInteger calls = new AtomicInteger();
+    final Map<DateTime, String> fetched =
+        Collections.synchronizedMap(new HashMap<DateTime, String>());
+
+    DelayedSource (long delay, int failures)
+    {
+      this.delay = delay;
+      this.failures = failures;
+    }
+
+    @Override
+    public String fetch (DateTime requestDate) throws Exception
+    {
+      Thread.sleep(delay);
+      if (calls.incrementAndGet() <= failures) {
+        throw new java.io.IOException("weather server not ready");
+      }
+      fetched.put(requestDate, requestDate.toString());
+      return requestDate.toString();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package org.powertac.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.WeatherReport;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares the streaming extraction of weather from a weather-xml file with
+ * the DOM-based extraction it replaced, on a generated file covering two
+ * months.
+ */
+public class WeatherXmlExtractorTest
+{
+  static private Logger log =
+      LogManager.getLogger(WeatherXmlExtractorTest.class.getName());
+
+  private static final int INTERVAL = 24;
+  private static final int HORIZON = 24;
+  private static final int DAYS = 60;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DateTime start;
+  private File weatherFile;
+
+  @Before
+  public void setUp () throws IOException
+  {
+    start = new DateTime(2010, 4, 1, 0, 0, 0, 0, DateTimeZone.UTC);
+    weatherFile = folder.newFile("weather.xml");
+    writeWeather(weatherFile, DAYS * 24, false);
+  }
+
+  @Test
+  public void testParityWithDom () throws Exception
+  {
+    WeatherXmlExtractor extractor =
+        new WeatherXmlExtractor(weatherFile.getPath(), INTERVAL, HORIZON);
+    for (int day: new int[] {0, 1, 17, DAYS - 1}) {
+      DateTime requestDate = start.plusDays(day);
+      List<WeatherReport> reports = new ArrayList<WeatherReport>();
+      List<WeatherForecastPrediction> forecasts =
+          new ArrayList<WeatherForecastPrediction>();
+
+      long begin = System.nanoTime();
+      assertTrue(extractor.extract(requestDate, day * 24, reports, forecasts));
+      long streamed = System.nanoTime() - begin;
+
+      List<WeatherReport> domReports = new ArrayList<WeatherReport>();
+      List<WeatherForecastPrediction> domForecasts =
+          new ArrayList<WeatherForecastPrediction>();
+      begin = System.nanoTime();
+      assertTrue(extractWithDom(weatherFile, requestDate, day * 24,
+                                domReports, domForecasts));
+      long dom = System.nanoTime() - begin;
+      log.info("day " + day + ": " + streamed / 1000000 + " ms streamed, "
+               + dom / 1000000 + " ms through the DOM");
+
+      assertEquals(INTERVAL, reports.size());
+      assertEquals(domReports.size(), reports.size());
+      for (int i = 0; i < reports.size(); i++) {
+        WeatherReport expected = domReports.get(i);
+        WeatherReport actual = reports.get(i);
+        assertEquals(expected.getTimeslotIndex(), actual.getTimeslotIndex());
+        assertEquals(expected.getTemperature(), actual.getTemperature(), 1e-9);
+        assertEquals(expected.getWindSpeed(), actual.getWindSpeed(), 1e-9);
+        assertEquals(expected.getWindDirection(), actual.getWindDirection(), 1e-9);
+        assertEquals(expected.getCloudCover(), actual.getCloudCover(), 1e-9);
+      }
+      assertEquals(INTERVAL * HORIZON, forecasts.size());
+      assertEquals(domForecasts.size(), forecasts.size());
+      for (int i = 0; i < forecasts.size(); i++) {
+        WeatherForecastPrediction expected = domForecasts.get(i);
+        WeatherForecastPrediction actual = forecasts.get(i);
+        assertEquals(expected.getForecastTime(), actual.getForecastTime());
+        assertEquals(expected.getTemperature(), actual.getTemperature(), 1e-9);
+        assertEquals(expected.getWindSpeed(), actual.getWindSpeed(), 1e-9);
+        assertEquals(expected.getWindDirection(), actual.getWindDirection(), 1e-9);
+        assertEquals(expected.getCloudCover(), actual.getCloudCover(), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testIncompleteFile () throws Exception
+  {
+    File incomplete = folder.newFile("incomplete.xml");
+    writeWeather(incomplete, DAYS * 24, true);
+    WeatherXmlExtractor extractor =
+        new WeatherXmlExtractor(incomplete.getPath(), INTERVAL, HORIZON);
+    List<WeatherReport> reports = new ArrayList<WeatherReport>();
+    List<WeatherForecastPrediction> forecasts =
+        new ArrayList<WeatherForecastPrediction>();
+
+    assertFalse(extractWithDom(incomplete, start, 0, reports, forecasts));
+    assertFalse(extractor.extract(start, 0, reports, forecasts));
+    assertTrue(reports.isEmpty());
+    assertTrue(forecasts.isEmpty());
+
+    // past the end of the file
+    assertFalse(new WeatherXmlExtractor(weatherFile.getPath(), INTERVAL, HORIZON)
+        .extract(start.plusDays(DAYS), DAYS * 24, reports, forecasts));
+    assertFalse(new WeatherXmlExtractor(folder.getRoot().getPath() + "/missing.xml",
+        INTERVAL, HORIZON).extract(start, 0, reports, forecasts));
+  }
+
+  // a weather file as the weather server writes it, reports before forecasts,
+  // optionally missing one forecast
+  private void writeWeather (File file, int hours, boolean dropForecast)
+    throws IOException
+  {
+    BufferedWriter out = new BufferedWriter(new FileWriter(file));
+    try {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<data>\n");
+      out.write("  <weatherReports>\n");
+      for (int h = 0; h < hours; h++) {
+        out.write(String.format(
+            "    <weatherReport date=\"%s\" location=\"rotterdam\" temp=\"%.1f\""
+                + " windspeed=\"%.1f\" winddir=\"%.1f\" cloudcover=\"%.2f\"/>\n",
+            WeatherXmlExtractor.dateStringLong(start.plusHours(h)),
+            (h % 240) / 10.0 - 5, (h % 13) / 2.0, (h * 7) % 360.0,
+            (h % 5) / 4.0));
+      }
+      out.write("  </weatherReports>\n  <weatherForecasts>\n");
+      for (int h = 0; h < hours; h++) {
+        String origin = WeatherXmlExtractor.dateStringLong(start.plusHours(h));
+        for (int id = 1; id <= HORIZON; id++) {
+          if (dropForecast && h == 5 && id == 7) {
+            continue;
+          }
+          out.write(String.format(
+              "    <weatherForecast id=\"%d\" origin=\"%s\" location=\"rotterdam\""
+                  + " temp=\"%.1f\" windspeed=\"%.1f\" winddir=\"%.1f\""
+                  + " cloudcover=\"%.2f\"/>\n",
+              id, origin, ((h + id) % 240) / 10.0 - 5, ((h + id) % 13) / 2.0,
+              ((h + id) * 7) % 360.0, ((h + id) % 5) / 4.0));
+        }
+      }
+      out.write("  </weatherForecasts>\n</data>\n");
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // How WeatherService read weather files before: the whole file into a DOM,
+  // the reports from the request date on, then for each hour of the request
+  // the forecasts made at that hour.
+  private boolean extractWithDom (File file, DateTime requestDate,
+                                  int timeIndex, List<WeatherReport> reports,
+                                  List<WeatherForecastPrediction> forecasts)
+    throws Exception
+  {
+    Document document = DocumentBuilderFactory.newInstance()
+        .newDocumentBuilder().parse(file);
+    NodeList sections = document.getDocumentElement().getChildNodes();
+    List<Element> reportNodes = new ArrayList<Element>();
+    List<Element> forecastNodes = new ArrayList<Element>();
+
+    String startDate = WeatherXmlExtractor.dateStringLong(requestDate);
+    for (int i = 0; i < sections.getLength(); i++) {
+      Node section = sections.item(i);
+      if (!section.getNodeName().equals("weatherReports")) {
+        continue;
+      }
+      NodeList nodes = section.getChildNodes();
+      for (int j = 0; j < nodes.getLength(); j++) {
+        Node report = nodes.item(j);
+        if (!report.getNodeName().equals("weatherReport")
+            || ((Element) report).getAttribute("date").compareTo(startDate) < 0) {
+          continue;
+        }
+        reportNodes.add((Element) report);
+        if (reportNodes.size() == INTERVAL) {
+          break;
+        }
+      }
+    }
+    for (int h = 0; h < INTERVAL; h++) {
+      String origin = WeatherXmlExtractor.dateStringLong(requestDate.plusHours(h));
+      for (int i = 0; i < sections.getLength(); i++) {
+        Node section = sections.item(i);
+        if (!section.getNodeName().equals("weatherForecasts")) {
+          continue;
+        }
+        NodeList nodes = section.getChildNodes();
+        for (int j = 0; j < nodes.getLength(); j++) {
+          Node forecast = nodes.item(j);
+          if (forecast.getNodeName().equals("weatherForecast")
+              && ((Element) forecast).getAttribute("origin").equals(origin)) {
+            forecastNodes.add((Element) forecast);
+          }
+        }
+      }
+    }
+    if (reportNodes.size() != INTERVAL
+        || forecastNodes.size() != INTERVAL * HORIZON) {
+      return false;
+    }
+
+    for (Element report: reportNodes) {
+      reports.add(new WeatherReport(timeIndex++,
+          Double.parseDouble(report.getAttribute("temp")),
+          Double.parseDouble(report.getAttribute("windspeed")),
+          Double.parseDouble(report.getAttribute("winddir")),
+          Double.parseDouble(report.getAttribute("cloudcover"))));
+    }
+    for (Element forecast: forecastNodes) {
+      forecasts.add(new WeatherForecastPrediction(
+          Integer.parseInt(forecast.getAttribute("id")),
+          Double.parseDouble(forecast.getAttribute("temp")),
+          Double.parseDouble(forecast.getAttribute("windspeed")),
+          Double.parseDouble(forecast.getAttribute("winddir")),
+          Double.parseDouble(forecast.getAttribute("cloudcover"))));
+    }
+    return true;
+  }
+}
@@ -2,12 +2,11 @@ package org.powertac.visualizer.push;
 
 import org.primefaces.push.annotation.OnMessage;
 import org.primefaces.push.annotation.PushEndpoint;
-import org.primefaces.push.impl.JSONEncoder;
 
 @PushEndpoint("/globalpush")
 public class GlobalPushResource {
 
-	@OnMessage(encoders = { JSONEncoder.class })
+	@OnMessage(encoders = { SharedJSONEncoder.class })
 	public String onMessage(String data) {
 		return data;
 	}
@@ -0,0 +1,159 @@
+package org.powertac.visualizer.push;
+
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * The payload of one push channel for one timeslot, serialized once and
+ * shared by everything that sends or renders it. A frame goes out either in
+ * full or, when that is shorter, as a delta against the frame before it on
+ * the same channel; see pushFrame() in scripts.js for the receiving side.
+ *
+ * Frames are immutable.
+ */
+public class PushFrame
+{
+  private final String channel;
+  private final int timeslotIndex;
+  private final JsonElement payload;
+  private final String full;
+  private final String message;
+  private final boolean delta;
+
+  /**
+   * Creates the frame for a payload. When there is a previous frame, the
+   * message sent is a delta against it, unless the full payload is no longer
+   * than that.
+   */
+  public PushFrame (String channel, int timeslotIndex, JsonElement payload,
+                    PushFrame previous)
+  {
+    this.channel = channel;
+    this.timeslotIndex = timeslotIndex;
+    this.payload = payload;
+    this.full = envelope("f", payload, null);
+
+    String smaller = full;
+    if (previous != null) {
+      JsonElement changes = diff(previous.payload, payload);
+      if (changes != null) {
+        String candidate = envelope("d", changes, previous.timeslotIndex);
+        if (candidate.length() < full.length()) {
+          smaller = candidate;
+        }
+      }
+    }
+    this.message = smaller;
+    this.delta = smaller != full;
+  }
+
+  private String envelope (String kind, JsonElement content, Integer base)
+  {
+    JsonObject frame = new JsonObject();
+    frame.addProperty("c", channel);
+    frame.addProperty("t", timeslotIndex);
+    if (base != null) {
+      frame.addProperty("b", base);
+    }
+    frame.add(kind, content);
+    return frame.toString();
+  }
+
+  /**
+   * The changes that turn before into after: members of an object and
+   * elements of an array of unchanged length that differ, recursively, with
+   * a removed member as null. Returns after itself where that is simpler,
+   * and null when the two cannot be told apart on the receiving side, an
+   * object replacing an array.
+   */
+  static JsonElement diff (JsonElement before, JsonElement after)
+  {
+    if (before.isJsonObject() && after.isJsonObject()) {
+      JsonObject was = before.getAsJsonObject();
+      JsonObject is = after.getAsJsonObject();
+      JsonObject changes = new JsonObject();
+      for (Map.Entry<String, JsonElement> entry: is.entrySet()) {
+        JsonElement old = was.get(entry.getKey());
+        if (old == null) {
+          changes.add(entry.getKey(), entry.getValue());
+        }
+        else if (!old.equals(entry.getValue())) {
+          JsonElement change = diff(old, entry.getValue());
+          if (change == null) {
+            return null;
+          }
+          changes.add(entry.getKey(), change);
+        }
+      }
+      for (Map.Entry<String, JsonElement> entry: was.entrySet()) {
+        if (!is.has(entry.getKey())) {
+          changes.add(entry.getKey(), JsonNull.INSTANCE);
+        }
+      }
+      return changes;
+    }
+    if (before.isJsonArray() && after.isJsonArray()
+        && before.getAsJsonArray().size() == after.getAsJsonArray().size()) {
+      JsonArray was = before.getAsJsonArray();
+      JsonArray is = after.getAsJsonArray();
+      JsonObject changes = new JsonObject();
+      for (int i = 0; i < is.size(); i++) {
+        if (!was.get(i).equals(is.get(i))) {
+          JsonElement change = diff(was.get(i), is.get(i));
+          if (change == null) {
+            return null;
+          }
+          changes.add(String.valueOf(i), change);
+        }
+      }
+      return changes;
+    }
+    if (before.isJsonArray() && after.isJsonObject()) {
+      return null;
+    }
+    return after;
+  }
+
+  public String getChannel ()
+  {
+    return channel;
+  }
+
+  public int getTimeslotIndex ()
+  {
+    return timeslotIndex;
+  }
+
+  /**
+   * The frame as it is published.
+   */
+  public String getMessage ()
+  {
+    return message;
+  }
+
+  /**
+   * The frame with the full payload, for pages that start from it.
+   */
+  public String getFull ()
+  {
+    return full;
+  }
+
+  public boolean isDelta ()
+  {
+    return delta;
+  }
+
+  /**
+   * Length of the published message.
+   */
+  public int getLength ()
+  {
+    return message.length();
+  }
+}
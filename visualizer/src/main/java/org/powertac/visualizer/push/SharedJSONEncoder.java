@@ -0,0 +1,42 @@
+package org.powertac.visualizer.push;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.primefaces.push.Encoder;
+import org.primefaces.push.impl.JSONEncoder;
+
+/**
+ * Encodes a pushed message once for all the resources subscribed to its
+ * channel, instead of once per resource: the last few encodings are kept
+ * and reused for the same message.
+ */
+public class SharedJSONEncoder implements Encoder<Object, String> {
+
+	// about one message per channel
+	private static final int CACHED = 32;
+
+	private static final JSONEncoder encoder = new JSONEncoder();
+
+	private static final Map<Object, String> encoded = new LinkedHashMap<Object, String>(
+			CACHED, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, String> eldest) {
+			return size() > CACHED;
+		}
+	};
+
+	@Override
+	public String encode(Object message) {
+		synchronized (encoded) {
+			String result = encoded.get(message);
+			if (result == null) {
+				result = encoder.encode(message);
+				encoded.put(message, result);
+			}
+			return result;
+		}
+	}
+}
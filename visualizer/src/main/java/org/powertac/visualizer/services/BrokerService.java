@@ -36,8 +36,6 @@ import org.powertac.visualizer.statistical.FinanceCategory;
 import org.powertac.visualizer.statistical.FinanceDynamicData;
 import org.powertac.visualizer.statistical.TariffCategory;
 import org.powertac.visualizer.statistical.WholesaleCategory;
-import org.primefaces.push.EventBus;
-import org.primefaces.push.EventBusFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -65,10 +63,13 @@ public class BrokerService
   private VisualizerHelperService helper;
   @Autowired
   GradingService gradingBean;
+  @Autowired
+  private PushService pushService;
   
   private static Logger log = LogManager.getLogger(BrokerService.class);
 
-  private final int TIMESLOTS_TO_DISPLAY = 48;
+  // timeslots of market transactions kept and shown
+  private int historyWindow = 48;
 
   public BrokerService ()
   {
@@ -109,10 +110,6 @@ public class BrokerService
 
   public void activate (int timeslotIndex, Instant postedTime)
   {
-    // // do the push:
-    EventBus pushContext = EventBusFactory.getDefault().eventBus();
-
-    Gson gson = new Gson();
     ArrayList<TariffMarketPusher> tariffMarketPushers =
       new ArrayList<TariffMarketPusher>();
     ArrayList<WholesaleMarketPusher> wholesaleMarketPushers =
@@ -164,10 +161,13 @@ public class BrokerService
       
       SortedSet<Integer> mtxSortedSetSubset =
         mtxSortedSet
-                .subSet(((safetyTxIndex - TIMESLOTS_TO_DISPLAY) < 0)? 0
+                .subSet(((safetyTxIndex - historyWindow) < 0)? 0
                                                                     : safetyTxIndex
-                                                                      - TIMESLOTS_TO_DISPLAY,
+                                                                      - historyWindow,
                         safetyTxIndex);// tom
+      // older transactions are not shown any more
+      mtxMap.keySet().removeAll(mtxSortedSet.headSet(safetyTxIndex
+                                                     - historyWindow));
 
       for (Iterator iterator2 = mtxSortedSetSubset.iterator(); iterator2
               .hasNext();) {
@@ -296,16 +296,28 @@ public class BrokerService
       visualizerBean.setNominationPusher(np);
     }
 
-    pushContext.publish("/tariffpush", gson.toJson(tariffMarketPushers));
-    pushContext.publish("/wholesalemarketpush",
-                     gson.toJson(wholesaleMarketPushers));
-    pushContext.publish("/balancingmarketpush",
-                     gson.toJson(balancingMarketPushers));
-    pushContext.publish("/distributionpush", gson.toJson(distributionPushers));
-    pushContext.publish("/financepush", gson.toJson(financePushers));
-    pushContext.publish("/markettransactionepush", gson.toJson(allWholesaleData));
-    pushContext.publish("/gameoverview", gson.toJson(brokersOverview));
-    pushContext.publish("/ranking", getRanking());
+    pushService.publish("/tariffpush", timeslotIndex, tariffMarketPushers);
+    pushService.publish("/wholesalemarketpush", timeslotIndex,
+                        wholesaleMarketPushers);
+    pushService.publish("/balancingmarketpush", timeslotIndex,
+                        balancingMarketPushers);
+    pushService.publish("/distributionpush", timeslotIndex,
+                        distributionPushers);
+    pushService.publish("/financepush", timeslotIndex, financePushers);
+    pushService.publish("/markettransactionepush", timeslotIndex,
+                        allWholesaleData);
+    pushService.publish("/gameoverview", timeslotIndex, brokersOverview);
+    pushService.publish("/ranking", timeslotIndex, getRankingData());
+  }
+
+  public int getHistoryWindow ()
+  {
+    return historyWindow;
+  }
+
+  public void setHistoryWindow (int historyWindow)
+  {
+    this.historyWindow = historyWindow;
   }
 
   public ArrayList<BrokerModel> getBrokers ()
@@ -328,6 +340,11 @@ public class BrokerService
   }
 
   public String getRanking ()
+  {
+    return new Gson().toJson(getRankingData());
+  }
+
+  private ArrayList<Object> getRankingData ()
   {
     HashMap<Integer, Double> map = new HashMap<Integer, Double>();
     for (int i = 0; i < brokers.size(); i++) {
@@ -375,8 +392,7 @@ public class BrokerService
 
       result.add(pair);
     }
-    Gson gson = new Gson();
-    return gson.toJson(result);
+    return result;
   }
 
   class ValueComparator implements Comparator<Integer>
@@ -1,9 +1,15 @@
 package org.powertac.visualizer.services;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.visualizer.interfaces.Recyclable;
 import org.powertac.visualizer.push.GlobalPusher;
 import org.powertac.visualizer.push.InfoPush;
+import org.powertac.visualizer.push.PushFrame;
 import org.powertac.visualizer.push.StatisticsPusher;
 import org.primefaces.push.EventBus;
 import org.primefaces.push.EventBusFactory;
@@ -11,25 +17,91 @@ import org.springframework.stereotype.Service;
 
 import com.google.gson.Gson;
 
+/**
+ * Publishes to the push channels. The per-timeslot payloads are serialized
+ * once into a {@link PushFrame}, which is published as a delta against the
+ * channel's previous frame where that is shorter. Every keyframeInterval
+ * timeslots a channel's frame is published in full, so that pages that
+ * missed a frame catch up.
+ */
 @Service
-public class PushService {
+public class PushService implements Recyclable {
+
+	private static Logger log = LogManager.getLogger(PushService.class);
+
 	private Gson gson = new Gson();
-	
+
+	private int keyframeInterval = 24;
+
+	// the last frame of each channel
+	private Map<String, PushFrame> frames = new ConcurrentHashMap<String, PushFrame>();
+
 	public void pushInfoMessage(InfoPush infoPush) {
-		EventBus pushContext = EventBusFactory.getDefault().eventBus();
-		
-		pushContext.publish("/infopush", gson.toJson(infoPush));
+		send("/infopush", gson.toJson(infoPush));
 	}
-	
-	public void pushGlobal(GlobalPusher globalPusher) {
-		EventBus pushContext = EventBusFactory.getDefault().eventBus();
-		
-		pushContext.publish("/globalpush", gson.toJson(globalPusher));
+
+	public void pushGlobal(int timeslotIndex, GlobalPusher globalPusher) {
+		publish("/globalpush", timeslotIndex, globalPusher);
+	}
+
+	public void pushWholesaleAvg(int timeslotIndex, ArrayList<StatisticsPusher> statisticsPusher) {
+		publish("/statisticspush", timeslotIndex, statisticsPusher);
+	}
+
+	/**
+	 * Serializes the payload of a channel for a timeslot and publishes it.
+	 */
+	public PushFrame publish(String channel, int timeslotIndex, Object payload) {
+		PushFrame previous = frames.get(channel);
+		if (previous != null && timeslotIndex % keyframeInterval == 0) {
+			previous = null;
+		}
+		PushFrame frame = new PushFrame(channel, timeslotIndex,
+				gson.toJsonTree(payload), previous);
+		frames.put(channel, frame);
+		send(channel, frame.getMessage());
+		return frame;
 	}
-	
-	public void pushWholesaleAvg(ArrayList<StatisticsPusher> statisticsPusher) {
+
+	void send(String channel, String message) {
 		EventBus pushContext = EventBusFactory.getDefault().eventBus();
-		
-		pushContext.publish("/statisticspush", gson.toJson(statisticsPusher));
+		pushContext.publish(channel, message);
+	}
+
+	public PushFrame getLastFrame(String channel) {
+		return frames.get(channel);
+	}
+
+	/**
+	 * The last full frame of each channel, as a JSON object by channel, for
+	 * pages to start from.
+	 */
+	public String getLastFrames() {
+		StringBuilder builder = new StringBuilder("{");
+		for (PushFrame frame : frames.values()) {
+			if (builder.length() > 1) {
+				builder.append(',');
+			}
+			builder.append(gson.toJson(frame.getChannel())).append(':')
+					.append(frame.getFull());
+		}
+		return builder.append('}').toString();
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	public void setKeyframeInterval(int keyframeInterval) {
+		if (keyframeInterval < 1) {
+			log.warn("Ignoring keyframe interval " + keyframeInterval);
+			return;
+		}
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	@Override
+	public void recycle() {
+		frames.clear();
 	}
 }
@@ -12,13 +12,9 @@ import org.powertac.visualizer.interfaces.Recyclable;
 import org.powertac.visualizer.interfaces.TimeslotCompleteActivation;
 import org.powertac.visualizer.push.WeatherPusher;
 import org.powertac.visualizer.services.handlers.VisualizerHelperService;
-import org.primefaces.push.EventBus;
-import org.primefaces.push.EventBusFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.gson.Gson;
-
 /**
  * Service for weather-related data
  * 
@@ -39,6 +35,8 @@ public class WeatherInfoService implements Recyclable,
 	private VisualizerHelperService helper;
 	@Autowired
 	private VisualizerBean visualizerBean;
+	@Autowired
+	private PushService pushService;
 
 	public WeatherInfoService() {
 		recycle();
@@ -80,9 +78,6 @@ public class WeatherInfoService implements Recyclable,
 	@Override
 	public void activate(int timeslotIndex, Instant postedTime) {
 		if (currentReport != null) {
-			// // do the push:
-			EventBus pushContext = EventBusFactory.getDefault().eventBus();
-			Gson gson = new Gson();
 			WeatherPusher weather = new WeatherPusher(
 					helper.getMillisForIndex(currentReport.getCurrentTimeslot()
 							.getSerialNumber()),
@@ -91,8 +86,7 @@ public class WeatherInfoService implements Recyclable,
 					currentReport.getWindDirection(),
 					currentReport.getCloudCover(), currentReport.getTimeslotIndex());
 			visualizerBean.setWeatherPusher(weather);
-			String weatherReportPush = gson.toJson(weather);
-			pushContext.publish("/weather", weatherReportPush);
+			pushService.publish("/weather", timeslotIndex, weather);
 			
 		}
 
@@ -63,7 +63,7 @@ public class WholesaleService implements Serializable, Recyclable,
 			numberOfTransactions++;
 		}
 		statisticsPushers.add(new StatisticsPusher(visualizerHelperService.getMillisForIndex(visualizerHelperService.getSafetyWholesaleTimeslotIndex()), totalRevenue/numberOfTransactions,  totalEnergy));
-		pushService.pushWholesaleAvg(statisticsPushers);
+		pushService.pushWholesaleAvg(timeslotIndex, statisticsPushers);
 		}
 		
 	}
@@ -118,7 +118,7 @@ public class VisualizerMessageHandler implements Initializable {
 		// visualizerBean.getFirstTimeslotIndex();
 		
 		//GLOBAL PUSH:
-		pushService.pushGlobal(new GlobalPusher(visualizerBean.getWeatherPusher(), visualizerBean.getNominationPusher()));
+		pushService.pushGlobal(complete.getTimeslotIndex(), new GlobalPusher(visualizerBean.getWeatherPusher(), visualizerBean.getNominationPusher()));
 
 	}
 
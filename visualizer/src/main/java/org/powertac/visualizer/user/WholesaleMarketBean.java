@@ -37,8 +37,6 @@ public class WholesaleMarketBean implements Serializable
   private String wholesaleDynDataOneTimeslot;
   private String wholesaleAverageTimeslotPriceData;// tom
 
-  private final int TIMESLOTS_TO_DISPLAY = 48;
-
   @Autowired
   public WholesaleMarketBean (BrokerService brokerService,
                               WholesaleService wholesaleService,
@@ -60,6 +58,7 @@ public class WholesaleMarketBean implements Serializable
     Collection<BrokerModel> brokers = brokerService.getBrokers();
 
     int safetyTsIndex = helper.getSafetyWholesaleTimeslotIndex();
+    int historyWindow = brokerService.getHistoryWindow();
     ArrayList<Object> allWholesaleData = new ArrayList<Object>();
     ArrayList<Object> wholesaleTxData = new ArrayList<Object>();
     ArrayList<Object> wholesaleTxDataOneTimeslot = new ArrayList<Object>();
@@ -126,9 +125,9 @@ public class WholesaleMarketBean implements Serializable
 
       SortedSet<Integer> mtxSortedSetSubset =
         mtxSortedSet
-                .subSet(((safetyTsIndex - TIMESLOTS_TO_DISPLAY) < 0)? 0
+                .subSet(((safetyTsIndex - historyWindow) < 0)? 0
                                                                     : safetyTsIndex
-                                                                      - TIMESLOTS_TO_DISPLAY,
+                                                                      - historyWindow,
                         safetyTsIndex);// tom
 
       for (Iterator iterator2 = mtxSortedSetSubset.iterator(); iterator2
@@ -101,4 +101,56 @@ return jQuery.jqplot (IDString, [JSONdata],
 	     legend: { show:false, location: 's' }
 	    }
 	  );
-}
\ No newline at end of file
+}
+// Payloads of the push channels, as published by PushService: a frame
+// {c: channel, t: timeslot} carries either the full payload (f) or the
+// changes (d) since the frame of timeslot b.
+var pushFrames = {};
+
+function seedPushFrames(frames) {
+	for (var channel in frames) {
+		if (frames.hasOwnProperty(channel)) {
+			pushFrames[channel] = {t: frames[channel].t, payload: frames[channel].f};
+		}
+	}
+}
+
+// Returns the full payload of a pushed frame, or null when it is a delta
+// against a frame this page did not get; the next full frame catches up.
+function pushFrame(data) {
+	var frame = (typeof data === 'string') ? jQuery.parseJSON(data) : data;
+	if (frame == null || frame.c === undefined) {
+		return frame;
+	}
+	var payload;
+	if (frame.f !== undefined) {
+		payload = frame.f;
+	} else {
+		var last = pushFrames[frame.c];
+		if (last === undefined || last.t !== frame.b) {
+			return null;
+		}
+		payload = applyPushDelta(jQuery.extend(true, jQuery.isArray(last.payload) ? [] : {}, last.payload), frame.d);
+	}
+	pushFrames[frame.c] = {t: frame.t, payload: payload};
+	// handlers may keep what they get, the stored payload must not change
+	return jQuery.extend(true, jQuery.isArray(payload) ? [] : {}, payload);
+}
+
+function applyPushDelta(base, delta) {
+	for (var key in delta) {
+		if (!delta.hasOwnProperty(key)) {
+			continue;
+		}
+		var value = delta[key];
+		var current = base[key];
+		if (value === null && !jQuery.isArray(base)) {
+			delete base[key];
+		} else if (jQuery.isPlainObject(value) && current !== null && typeof current === 'object') {
+			applyPushDelta(current, value);
+		} else {
+			base[key] = value;
+		}
+	}
+	return base;
+}
@@ -0,0 +1,221 @@
+package org.powertac.visualizer.services;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.visualizer.push.FinancePusher;
+import org.powertac.visualizer.push.GlobalPusher;
+import org.powertac.visualizer.push.NominationCategoryPusher;
+import org.powertac.visualizer.push.NominationPusher;
+import org.powertac.visualizer.push.SharedJSONEncoder;
+import org.powertac.visualizer.push.TariffMarketPusher;
+import org.powertac.visualizer.push.WeatherPusher;
+import org.primefaces.push.impl.JSONEncoder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Pushes the payloads of a generated game the way they were pushed before,
+ * serialized per push and encoded per subscriber, and as frames, and
+ * compares what is sent and the CPU time it takes.
+ */
+public class PushServiceTest {
+
+	private static final int TIMESLOTS = 360;
+	private static final int BROKERS = 8;
+	private static final int SUBSCRIBERS = 20;
+
+	private PushService pushService;
+	private Map<String, List<String>> sent;
+
+	@Before
+	public void setUp() {
+		sent = new LinkedHashMap<String, List<String>>();
+		pushService = new PushService() {
+			@Override
+			void send(String channel, String message) {
+				if (!sent.containsKey(channel)) {
+					sent.put(channel, new ArrayList<String>());
+				}
+				sent.get(channel).add(message);
+			}
+		};
+	}
+
+	@Test
+	public void testFramesAgainstPerPushSerialization() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		JSONEncoder encoder = new JSONEncoder();
+		SharedJSONEncoder sharedEncoder = new SharedJSONEncoder();
+
+		// warm up both paths
+		for (int ts = 0; ts < TIMESLOTS; ts++) {
+			for (Map.Entry<String, Object> payload : payloads(ts).entrySet()) {
+				encoder.encode(new Gson().toJson(payload.getValue()));
+				sharedEncoder.encode(pushService.publish(payload.getKey(), ts,
+						payload.getValue()).getMessage());
+			}
+		}
+		pushService.recycle();
+		sent.clear();
+
+		long legacyBytes = 0;
+		long legacyCpu = 0;
+		long frameBytes = 0;
+		long frameCpu = 0;
+		Map<String, Long> legacyByChannel = new HashMap<String, Long>();
+		for (int ts = 0; ts < TIMESLOTS; ts++) {
+			Map<String, Object> payloads = payloads(ts);
+
+			long start = threads.getCurrentThreadCpuTime();
+			for (Map.Entry<String, Object> payload : payloads.entrySet()) {
+				String json = new Gson().toJson(payload.getValue());
+				for (int i = 0; i < SUBSCRIBERS; i++) {
+					encoder.encode(json);
+				}
+				legacyBytes += json.length();
+				Long bytes = legacyByChannel.get(payload.getKey());
+				legacyByChannel.put(payload.getKey(),
+						(bytes == null ? 0 : bytes) + json.length());
+			}
+			legacyCpu += threads.getCurrentThreadCpuTime() - start;
+
+			start = threads.getCurrentThreadCpuTime();
+			for (Map.Entry<String, Object> payload : payloads.entrySet()) {
+				String message = pushService.publish(payload.getKey(), ts,
+						payload.getValue()).getMessage();
+				for (int i = 0; i < SUBSCRIBERS; i++) {
+					sharedEncoder.encode(message);
+				}
+				frameBytes += message.length();
+			}
+			frameCpu += threads.getCurrentThreadCpuTime() - start;
+		}
+
+		System.out.println("Per timeslot, " + SUBSCRIBERS + " subscribers: "
+				+ legacyBytes / TIMESLOTS + " bytes and "
+				+ legacyCpu / TIMESLOTS / 1000 + " us pushed per push, "
+				+ frameBytes / TIMESLOTS + " bytes and "
+				+ frameCpu / TIMESLOTS / 1000 + " us as frames");
+
+		// what a page puts together from the frames is what was pushed before
+		for (Map.Entry<String, List<String>> channel : sent.entrySet()) {
+			JsonElement page = null;
+			int lastTimeslot = -1;
+			long bytes = 0;
+			for (int ts = 0; ts < TIMESLOTS; ts++) {
+				String message = channel.getValue().get(ts);
+				bytes += message.length();
+				JsonObject frame = new JsonParser().parse(message).getAsJsonObject();
+				assertEquals(ts, frame.get("t").getAsInt());
+				if (frame.has("f")) {
+					page = frame.get("f");
+				}
+				else {
+					assertEquals(lastTimeslot, frame.get("b").getAsInt());
+					page = apply(page, frame.get("d"));
+				}
+				lastTimeslot = ts;
+				assertEquals(channel.getKey() + " at " + ts,
+						new Gson().toJsonTree(payloads(ts).get(channel.getKey())), page);
+				if (ts % pushService.getKeyframeInterval() == 0) {
+					assertTrue(frame.has("f"));
+				}
+			}
+			if (channel.getKey().equals("/globalpush") || channel.getKey().equals("/tariffpush")) {
+				// mostly unchanged between timeslots
+				assertTrue(channel.getKey(), bytes < legacyByChannel.get(channel.getKey()));
+			}
+		}
+		assertTrue(frameBytes < legacyBytes);
+	}
+
+	@Test
+	public void testLastFrames() {
+		assertEquals("{}", pushService.getLastFrames());
+		pushService.publish("/financepush", 0, payloads(0).get("/financepush"));
+		pushService.publish("/financepush", 1, payloads(1).get("/financepush"));
+		JsonObject frames = new JsonParser().parse(pushService.getLastFrames()).getAsJsonObject();
+		assertEquals(1, frames.get("/financepush").getAsJsonObject().get("t").getAsInt());
+		assertTrue(frames.get("/financepush").getAsJsonObject().has("f"));
+
+		pushService.recycle();
+		assertNull(pushService.getLastFrame("/financepush"));
+	}
+
+	// the receiving side, as applyPushDelta() in scripts.js
+	private JsonElement apply(JsonElement base, JsonElement delta) {
+		for (Map.Entry<String, JsonElement> change : delta.getAsJsonObject().entrySet()) {
+			JsonElement value = change.getValue();
+			if (base.isJsonArray()) {
+				JsonArray array = base.getAsJsonArray();
+				int index = Integer.parseInt(change.getKey());
+				JsonElement current = array.get(index);
+				if (value.isJsonObject() && (current.isJsonObject() || current.isJsonArray())) {
+					apply(current, value);
+				}
+				else {
+					array.set(index, value);
+				}
+			}
+			else {
+				JsonObject object = base.getAsJsonObject();
+				JsonElement current = object.get(change.getKey());
+				if (value.isJsonNull()) {
+					object.remove(change.getKey());
+				}
+				else if (value.isJsonObject() && current != null
+						&& (current.isJsonObject() || current.isJsonArray())) {
+					apply(current, value);
+				}
+				else {
+					object.add(change.getKey(), value);
+				}
+			}
+		}
+		return base;
+	}
+
+	// what BrokerService and the message handler push in a timeslot
+	private Map<String, Object> payloads(int ts) {
+		Map<String, Object> payloads = new LinkedHashMap<String, Object>();
+		long millis = 3600000L * ts;
+
+		ArrayList<TariffMarketPusher> tariffs = new ArrayList<TariffMarketPusher>();
+		ArrayList<FinancePusher> finance = new ArrayList<FinancePusher>();
+		ArrayList<Object> ranking = new ArrayList<Object>();
+		for (int b = 0; b < BROKERS; b++) {
+			String name = "broker-" + b;
+			// customers move every few days only
+			int customers = 1000 + b * 10 + ts / 72;
+			tariffs.add(new TariffMarketPusher(name, millis, 100.0 * b, 50.0 * b,
+					customers, 0, 0, ts % 72 == 0 ? 1 : 0));
+			finance.add(new FinancePusher(name, millis, ts * 10.0 + b, b + ts % 7));
+			ranking.add(new Object[] { b, ts * 10.0 + b, customers, ts, 0.0, 0.0, 0, 0.0, 0.0 });
+		}
+		payloads.put("/tariffpush", tariffs);
+		payloads.put("/financepush", finance);
+		payloads.put("/ranking", ranking);
+
+		NominationPusher nominations = new NominationPusher(
+				new NominationCategoryPusher("broker-" + (ts / 100) % BROKERS, 1000 + ts / 100),
+				new NominationCategoryPusher("broker-1", 20),
+				new NominationCategoryPusher("broker-2", 1200));
+		WeatherPusher weather = new WeatherPusher(millis, 10 + ts % 24, 3.5, 180.0, 0.5, ts);
+		payloads.put("/globalpush", new GlobalPusher(weather, nominations));
+		return payloads;
+	}
+}
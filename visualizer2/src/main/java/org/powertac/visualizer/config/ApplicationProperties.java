@@ -13,6 +13,10 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public class ApplicationProperties {
     private String mode = "";
     private final Connect connect = new Connect();
+    private final Push push = new Push();
+    private final Replay replay = new Replay();
+    private final Upload upload = new Upload();
+    private final Sync sync = new Sync();
   
     public String getMode() {
         return mode;
@@ -25,6 +29,22 @@ public class ApplicationProperties {
     public Connect getConnect() {
         return connect;
     }
+
+    public Push getPush() {
+        return push;
+    }
+
+    public Replay getReplay() {
+        return replay;
+    }
+
+    public Upload getUpload() {
+        return upload;
+    }
+
+    public Sync getSync() {
+        return sync;
+    }
   
     public static class Connect {
         private String machineName = "";
@@ -64,4 +84,100 @@ public class ApplicationProperties {
             this.tournamentPath = tournamentPath;
         }
     }
+
+    public static class Push {
+        // at most this many snapshot frames per second; 0 sends each
+        // snapshot as soon as it is produced
+        private int frameRate = 4;
+        // bytes queued for one websocket session before it is closed as a
+        // slow consumer
+        private int sendBufferSizeLimit = 512 * 1024;
+        // milliseconds one send to a session may take before it is closed
+        // as a slow consumer
+        private int sendTimeLimit = 10000;
+        // snapshots kept waiting for one browser that falls behind; older
+        // ones are dropped for that browser only
+        private int sessionQueueLimit = 100;
+
+        public int getFrameRate() {
+            return frameRate;
+        }
+
+        public void setFrameRate(int frameRate) {
+            this.frameRate = frameRate;
+        }
+
+        public int getSendBufferSizeLimit() {
+            return sendBufferSizeLimit;
+        }
+
+        public void setSendBufferSizeLimit(int sendBufferSizeLimit) {
+            this.sendBufferSizeLimit = sendBufferSizeLimit;
+        }
+
+        public int getSendTimeLimit() {
+            return sendTimeLimit;
+        }
+
+        public void setSendTimeLimit(int sendTimeLimit) {
+            this.sendTimeLimit = sendTimeLimit;
+        }
+
+        public int getSessionQueueLimit() {
+            return sessionQueueLimit;
+        }
+
+        public void setSessionQueueLimit(int sessionQueueLimit) {
+            this.sessionQueueLimit = sessionQueueLimit;
+        }
+    }
+
+    public static class Replay {
+        // replays that may run side by side, each in a session of its own
+        private int maxConcurrent = 2;
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    public static class Upload {
+        // largest file accepted, in bytes
+        private long maxSize = 1024L * 1024 * 1024;
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class Sync {
+        // ms between full passes over the files directory
+        private long reconcileInterval = 600000;
+        // ms without file system events before a batch of them is indexed
+        private long settleTime = 500;
+
+        public long getReconcileInterval() {
+            return reconcileInterval;
+        }
+
+        public void setReconcileInterval(long reconcileInterval) {
+            this.reconcileInterval = reconcileInterval;
+        }
+
+        public long getSettleTime() {
+            return settleTime;
+        }
+
+        public void setSettleTime(long settleTime) {
+            this.settleTime = settleTime;
+        }
+    }
 }
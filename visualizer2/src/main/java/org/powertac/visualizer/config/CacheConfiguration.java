@@ -1,13 +1,72 @@
 package org.powertac.visualizer.config;
 
+import io.github.jhipster.config.jcache.JCacheGaugeSet;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.boot.autoconfigure.cache.JCacheManagerCustomizer;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.jcache.JCacheCacheManager;
 import org.springframework.context.annotation.*;
 
+import java.util.Map;
+
+/**
+ * The caches themselves, with their size limits and time to live, are
+ * declared per profile in config/ehcache. Besides the Hibernate entity
+ * caches these hold the per-user listings of the entity services, which are
+ * evicted whenever an entity of that kind is saved or deleted.
+ */
 @Configuration
 @EnableCaching
 @AutoConfigureAfter(value = { MetricsConfiguration.class })
 @AutoConfigureBefore(value = { WebConfigurer.class, DatabaseConfiguration.class })
 public class CacheConfiguration {
+
+    private static final String PROP_METRIC_REG_JCACHE_STATISTICS = "jcache.statistics";
+
+    private final Logger log = LoggerFactory.getLogger(CacheConfiguration.class);
+
+    private final MetricRegistry metricRegistry;
+
+    public CacheConfiguration(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Turns on statistics for every cache and publishes the hits, misses
+     * and evictions as gauges. MetricsConfiguration registers its gauge set
+     * before the caches exist, so that one only sees caches created later.
+     */
+    @Bean
+    public JCacheManagerCustomizer cacheStatisticsCustomizer() {
+        return cacheManager -> {
+            for (String name : cacheManager.getCacheNames()) {
+                cacheManager.enableStatistics(name, true);
+            }
+            for (Map.Entry<String, Metric> gauge : new JCacheGaugeSet().getMetrics().entrySet()) {
+                String name = MetricRegistry.name(PROP_METRIC_REG_JCACHE_STATISTICS, gauge.getKey());
+                if (!metricRegistry.getNames().contains(name)) {
+                    metricRegistry.register(name, gauge.getValue());
+                }
+            }
+            log.debug("Publishing statistics of caches {}", cacheManager.getCacheNames());
+        };
+    }
+
+    /**
+     * Puts and evictions made inside a transaction take effect when it
+     * commits, so that a listing read in another thread between a write and
+     * its commit does not stay cached, and a rolled back write evicts
+     * nothing.
+     */
+    @Bean
+    public CacheManagerCustomizer<JCacheCacheManager> transactionAwareCustomizer() {
+        return cacheManager -> cacheManager.setTransactionAware(true);
+    }
 }
@@ -142,6 +142,7 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
             .antMatchers(HttpMethod.GET, "/api/*graphs/**").permitAll()
             .antMatchers(HttpMethod.GET, "/api/*charts/**").permitAll()
             .antMatchers(HttpMethod.GET, "/api/*views/**").permitAll()
+            .antMatchers(HttpMethod.GET, "/api/snapshots/**").permitAll()
             .antMatchers("/api/**").authenticated()
             .antMatchers("/websocket/tracker").hasAuthority(AuthoritiesConstants.ADMIN)
             .antMatchers("/websocket/**").permitAll()
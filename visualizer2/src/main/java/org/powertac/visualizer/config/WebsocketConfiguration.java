@@ -14,6 +14,7 @@ import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
@@ -28,11 +29,28 @@ public class WebsocketConfiguration extends AbstractWebSocketMessageBrokerConfig
 
     public static final String IP_ADDRESS = "IP_ADDRESS";
 
+    private final ApplicationProperties applicationProperties;
+
+    public WebsocketConfiguration(ApplicationProperties applicationProperties) {
+        this.applicationProperties = applicationProperties;
+    }
+
     @Override
     public void configureClientOutboundChannel(ChannelRegistration registration) {
         registration.taskExecutor().corePoolSize(1);
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Each session buffers what it cannot send yet, up to these limits.
+        // A session that exceeds them is closed, so that a lagging browser
+        // does not hold up the others; it reconnects and gets a fresh init
+        // message.
+        ApplicationProperties.Push push = applicationProperties.getPush();
+        registration.setSendBufferSizeLimit(push.getSendBufferSizeLimit());
+        registration.setSendTimeLimit(push.getSendTimeLimit());
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic");
@@ -16,6 +16,8 @@ public class WebsocketSecurityConfiguration extends AbstractSecurityWebSocketMes
             .simpTypeMatchers(SimpMessageType.CONNECT).permitAll()
             // allow all subscribe to Pusher
             .simpSubscribeDestMatchers("/topic/push").permitAll()
+            // and to the topics of replay sessions
+            .simpSubscribeDestMatchers("/topic/push/*").permitAll()
             // message types other than MESSAGE and SUBSCRIBE
             .nullDestMatcher().authenticated()
             .simpDestMatchers("/topic/tracker").hasAuthority(AuthoritiesConstants.ADMIN)
@@ -13,7 +13,8 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 public class Broker {
 
     private static long idCounter = 0;
-    private long id = idCounter++;
+    // copies keep the id of their original
+    private long id;
 
     /** Name of the broker */
     private String name;
@@ -24,14 +25,28 @@ public class Broker {
     private double cash = 0.0;
 
     public Broker() {
-
+        this.id = idCounter++;
     }
 
     public Broker(String name) {
         super();
+        this.id = idCounter++;
         this.name = name;
     }
 
+    /**
+     * A copy for readers, with the retail values as they are now. The
+     * wholesale values are only of interest per timeslot, and are not
+     * copied.
+     */
+    public Broker(Broker broker) {
+        super();
+        this.id = broker.id;
+        this.name = broker.name;
+        this.cash = broker.cash;
+        this.retail = new RetailKPIHolder(broker.retail);
+    }
+
     public long getId() {
         return id;
     }
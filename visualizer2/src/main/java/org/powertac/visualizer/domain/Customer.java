@@ -18,7 +18,8 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 public class Customer {
 
     private static long idCounter = 0;
-    private long id = idCounter++;
+    // copies keep the id of their original
+    private long id;
 
     private long idCustomerInfo;
 
@@ -62,10 +63,11 @@ public class Customer {
     private String customerClass;
 
     public Customer() {
-
+        this.id = idCounter++;
     }
 
     public Customer(CustomerInfo info) {
+        this.id = idCounter++;
         this.idCustomerInfo = info.getId();
         this.name = info.getName();
         this.population = info.getPopulation();
@@ -82,6 +84,27 @@ public class Customer {
         }
     }
 
+    /**
+     * A copy for readers, with the retail values as they are now.
+     */
+    public Customer(Customer customer) {
+        this.id = customer.id;
+        this.idCustomerInfo = customer.idCustomerInfo;
+        this.name = customer.name;
+        this.population = customer.population;
+        this.powerType = customer.powerType;
+        this.controllableKW = customer.controllableKW;
+        this.upRegulationKW = customer.upRegulationKW;
+        this.downRegulationKW = customer.downRegulationKW;
+        this.storageCapacity = customer.storageCapacity;
+        this.multiContracting = customer.multiContracting;
+        this.canNegotiate = customer.canNegotiate;
+        this.genericPowerType = customer.genericPowerType;
+        this.bootstrapNetUsage = customer.bootstrapNetUsage;
+        this.retail = new RetailKPIHolder(customer.retail);
+        this.customerClass = customer.customerClass;
+    }
+
     public long getId() {
         return id;
     }
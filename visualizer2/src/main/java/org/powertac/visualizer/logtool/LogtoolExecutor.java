@@ -3,27 +3,51 @@ package org.powertac.visualizer.logtool;
 import java.io.InputStream;
 
 import org.powertac.common.Competition;
+import org.powertac.common.TimeService;
+import org.powertac.common.XMLMessageConverter;
 import org.powertac.common.msg.TimeslotUpdate;
+import org.powertac.common.repo.BootstrapDataRepo;
+import org.powertac.common.repo.BrokerRepo;
+import org.powertac.common.repo.CustomerRepo;
+import org.powertac.common.repo.OrderbookRepo;
+import org.powertac.common.repo.TariffRepo;
+import org.powertac.common.repo.TimeslotRepo;
+import org.powertac.logtool.LogtoolContext;
+import org.powertac.logtool.LogtoolCore;
+import org.powertac.logtool.common.DomainBuilder;
+import org.powertac.logtool.common.DomainObjectReader;
 import org.powertac.logtool.common.NewObjectListener;
-import org.powertac.logtool.common.NoopAnalyzer;
+import org.powertac.logtool.ifc.Analyzer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
-public class LogtoolExecutor extends NoopAnalyzer {
+/**
+ * Replays a state log into a listener. Each executor has a logtool context
+ * of its own, with its own reader, time service and repos, so that several
+ * replays can run at the same time. The context holds the beans of
+ * logtool.xml that a replay needs, including the message converter the
+ * bootstrap data repo depends on. Call close() when done with it.
+ */
+public class LogtoolExecutor extends LogtoolContext implements Analyzer {
 
     static private Logger log = LoggerFactory.getLogger(LogtoolExecutor.class);
 
+    private final ConfigurableApplicationContext logtoolContext;
     private NewObjectListener objListener;
     private ObjectHandler objectHandler;
     private String logName;
 
-    /**
-     * Constructor does nothing. Call setup() before reading a file to get this
-     * to work.
-     */
     public LogtoolExecutor() {
         super();
+        logtoolContext = new AnnotationConfigApplicationContext(
+                LogtoolCore.class, DomainObjectReader.class, DomainBuilder.class,
+                TimeService.class, BrokerRepo.class, TariffRepo.class,
+                CustomerRepo.class, OrderbookRepo.class, TimeslotRepo.class,
+                BootstrapDataRepo.class, XMLMessageConverter.class);
+        setContext(logtoolContext);
     }
 
     public String readLog(InputStream logStream, NewObjectListener listener) {
@@ -56,24 +80,34 @@ public class LogtoolExecutor extends NoopAnalyzer {
     public void interrupt() {
       getCore().interrupt();
       log.info("Interrupted replay of " + logName);
-      objectHandler.ignore = true;
+      if (objectHandler != null) {
+        objectHandler.ignore = true;
+      }
+    }
+
+    public void close() {
+      logtoolContext.close();
     }
-    
 
     // This suppresses all events until the first TimeslotUpdate. At that point
-    // it sends the current competition object, and commences forwarding all
-    // events from there on out.
-    protected class ObjectHandler
-    extends NoopAnalyzer.ObjectHandler {
+    // it sends the competition object from this log, and commences forwarding
+    // all events from there on out.
+    protected class ObjectHandler implements NewObjectListener {
 
         private boolean ignore = true;
+        private Competition competition;
 
         @Override
         public void handleNewObject(Object thing) {
+            if (thing instanceof Competition) {
+                // Competition.currentCompetition() is shared by all replays
+                competition = (Competition) thing;
+            }
             if (ignore) {
                 if (thing instanceof TimeslotUpdate) {
                     // send competition
-                    objListener.handleNewObject(Competition.currentCompetition());
+                    objListener.handleNewObject(competition != null
+                            ? competition : Competition.currentCompetition());
                     ignore = false;
                 } else {
                     log.warn("Ignoring message " + thing.getClass().getName());
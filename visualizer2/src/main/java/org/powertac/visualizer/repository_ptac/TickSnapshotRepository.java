@@ -23,6 +23,23 @@ public class TickSnapshotRepository implements RecycleRepository<TickSnapshot> {
         return tickList;
     }
 
+    /**
+     * Number of snapshots so far, which is also the index the next one
+     * will get.
+     */
+    public synchronized int count() {
+        return tickList.size();
+    }
+
+    /**
+     * Returns a copy of at most size snapshots, starting at index from.
+     */
+    public synchronized List<TickSnapshot> findPage(int from, int size) {
+        int start = Math.max(0, Math.min(from, tickList.size()));
+        int end = Math.min(tickList.size(), start + Math.max(0, size));
+        return new ArrayList<>(tickList.subList(start, end));
+    }
+
     @Override
     public TickSnapshot findById(long id) {
         throw new UnsupportedOperationException();
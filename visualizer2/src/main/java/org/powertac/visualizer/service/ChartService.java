@@ -4,6 +4,8 @@ import org.powertac.visualizer.domain.Chart;
 import org.powertac.visualizer.repository.ChartRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,6 +20,8 @@ import java.util.List;
 @Transactional
 public class ChartService {
 
+    public static final String CHARTS_BY_USER_CACHE = "chartsByUser";
+
     private final Logger log = LoggerFactory.getLogger(ChartService.class);
     
     private final ChartRepository chartRepository;
@@ -32,6 +36,7 @@ public class ChartService {
      * @param chart the entity to save
      * @return the persisted entity
      */
+    @CacheEvict(cacheNames = CHARTS_BY_USER_CACHE, allEntries = true)
     public Chart save(Chart chart) {
         log.debug("Request to save Chart : {}", chart);
         Chart result = chartRepository.save(chart);
@@ -57,6 +62,7 @@ public class ChartService {
      *  @return the list of entities
      */
     @Transactional(readOnly = true) 
+    @Cacheable(CHARTS_BY_USER_CACHE)
     public List<Chart> findByOwnerIsCurrentUserOrShared(String login) {
         log.debug("Request to get all owned and shared Charts");
         List<Chart> result = chartRepository.findByOwnerIsCurrentUserOrShared(login); 
@@ -81,6 +87,7 @@ public class ChartService {
      *
      *  @param id the id of the entity
      */
+    @CacheEvict(cacheNames = CHARTS_BY_USER_CACHE, allEntries = true)
     public void delete(Long id) {
         log.debug("Request to delete Chart : {}", id);
         chartRepository.delete(id);
@@ -6,11 +6,15 @@ import org.powertac.visualizer.domain.enumeration.FileType;
 import org.powertac.visualizer.repository.FileRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -20,6 +24,8 @@ import java.util.List;
 @Transactional
 public class FileService {
 
+    public static final String FILES_BY_USER_CACHE = "filesByUser";
+
     private final Logger log = LoggerFactory.getLogger(FileService.class);
     
     private final FileRepository fileRepository;
@@ -34,6 +40,7 @@ public class FileService {
      * @param file the entity to save
      * @return the persisted entity
      */
+    @CacheEvict(cacheNames = FILES_BY_USER_CACHE, allEntries = true)
     public File save(File file) {
         log.debug("Request to save File : {}", file);
         File result = fileRepository.save(file);
@@ -74,6 +81,7 @@ public class FileService {
      *  @return the list of entities
      */
     @Transactional(readOnly = true) 
+    @Cacheable(FILES_BY_USER_CACHE)
     public List<File> findByOwnerIsCurrentUserOrShared(String login, FileType type) {
         log.debug("Request to get all owned and shared Files");
         if (type != null && type.equals(FileType.ANY)) {
@@ -101,6 +109,7 @@ public class FileService {
      *
      *  @param id the id of the entity
      */
+    @CacheEvict(cacheNames = FILES_BY_USER_CACHE, allEntries = true)
     public void delete(Long id) {
         log.debug("Request to delete File : {}", id);
         File file = fileRepository.findOne(id);
@@ -108,6 +117,20 @@ public class FileService {
         file.delete();
     }
 
+    /**
+     *  Delete several files in one go.
+     *
+     *  @param files the entities
+     */
+    @CacheEvict(cacheNames = FILES_BY_USER_CACHE, allEntries = true)
+    public void delete(Collection<File> files) {
+        log.debug("Request to delete {} Files", files.size());
+        fileRepository.delete(files);
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
     /**
      * Create a new file
      *
@@ -116,6 +139,7 @@ public class FileService {
      * @param owner
      * @return The new file
      */
+    @CacheEvict(cacheNames = FILES_BY_USER_CACHE, allEntries = true)
     public File createFile(FileType type, String name, User owner) {
         File file = new File();
         file.setType(type);
@@ -124,4 +148,27 @@ public class FileService {
         file.setShared(owner.getLogin().equals("system") && !name.startsWith("init.")); // Ugh
         return save(file);
     }
+
+    /**
+     * Create several new files of the same type and owner in one go.
+     *
+     * @param type
+     * @param names
+     * @param owner
+     * @return The new files
+     */
+    @CacheEvict(cacheNames = FILES_BY_USER_CACHE, allEntries = true)
+    public List<File> createFiles(FileType type, Collection<String> names, User owner) {
+        log.debug("Request to create {} Files", names.size());
+        List<File> files = new ArrayList<>(names.size());
+        for (String name : names) {
+            File file = new File();
+            file.setType(type);
+            file.setName(name);
+            file.setOwner(owner);
+            file.setShared(owner.getLogin().equals("system") && !name.startsWith("init."));
+            files.add(file);
+        }
+        return fileRepository.save(files);
+    }
 }
@@ -8,6 +8,8 @@ import org.powertac.visualizer.domain.enumeration.GameType;
 import org.powertac.visualizer.repository.GameRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,6 +22,8 @@ import org.springframework.stereotype.Service;
 @Transactional
 public class GameService {
 
+    public static final String GAMES_BY_USER_CACHE = "gamesByUser";
+
     private final Logger log = LoggerFactory.getLogger(GameService.class);
 
     private final GameRepository gameRepository;
@@ -37,6 +41,7 @@ public class GameService {
      * @param game the entity to save
      * @return the persisted entity
      */
+    @CacheEvict(cacheNames = GAMES_BY_USER_CACHE, allEntries = true)
     public Game save(Game game) {
         log.debug("Request to save Game : {}", game);
         Game result = gameRepository.save(game);
@@ -62,6 +67,7 @@ public class GameService {
      *  @return the list of entities
      */
     @Transactional(readOnly = true)
+    @Cacheable(GAMES_BY_USER_CACHE)
     public List<Game> findByOwnerIsCurrentUserOrShared(String login) {
         log.debug("Request to get all owned and shared Games");
         List<Game> result = gameRepository.findByOwnerIsCurrentUserOrShared(login);
@@ -108,6 +114,7 @@ public class GameService {
      *
      *  @param id the id of the entity
      */
+    @CacheEvict(cacheNames = GAMES_BY_USER_CACHE, allEntries = true)
     public void delete(Long id) {
         log.debug("Request to delete Game : {}", id);
         Game game = gameRepository.findOne(id);
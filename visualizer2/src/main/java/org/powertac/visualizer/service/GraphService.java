@@ -4,6 +4,8 @@ import org.powertac.visualizer.domain.Graph;
 import org.powertac.visualizer.repository.GraphRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,6 +20,8 @@ import java.util.List;
 @Transactional
 public class GraphService {
 
+    public static final String GRAPHS_BY_USER_CACHE = "graphsByUser";
+
     private final Logger log = LoggerFactory.getLogger(GraphService.class);
     
     private final GraphRepository graphRepository;
@@ -32,6 +36,7 @@ public class GraphService {
      * @param graph the entity to save
      * @return the persisted entity
      */
+    @CacheEvict(cacheNames = GRAPHS_BY_USER_CACHE, allEntries = true)
     public Graph save(Graph graph) {
         log.debug("Request to save Graph : {}", graph);
         Graph result = graphRepository.save(graph);
@@ -57,6 +62,7 @@ public class GraphService {
      *  @return the list of entities
      */
     @Transactional(readOnly = true) 
+    @Cacheable(GRAPHS_BY_USER_CACHE)
     public List<Graph> findByOwnerIsCurrentUserOrShared(String login) {
         log.debug("Request to get all owned and shared Graphs");
         List<Graph> result = graphRepository.findByOwnerIsCurrentUserOrShared(login); 
@@ -81,6 +87,7 @@ public class GraphService {
      *
      *  @param id the id of the entity
      */
+    @CacheEvict(cacheNames = GRAPHS_BY_USER_CACHE, allEntries = true)
     public void delete(Long id) {
         log.debug("Request to delete Graph : {}", id);
         graphRepository.delete(id);
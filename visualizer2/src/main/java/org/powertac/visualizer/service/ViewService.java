@@ -4,6 +4,8 @@ import org.powertac.visualizer.domain.View;
 import org.powertac.visualizer.repository.ViewRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,6 +20,8 @@ import java.util.List;
 @Transactional
 public class ViewService {
 
+    public static final String VIEWS_BY_USER_CACHE = "viewsByUser";
+
     private final Logger log = LoggerFactory.getLogger(ViewService.class);
     
     private final ViewRepository viewRepository;
@@ -32,6 +36,7 @@ public class ViewService {
      * @param view the entity to save
      * @return the persisted entity
      */
+    @CacheEvict(cacheNames = VIEWS_BY_USER_CACHE, allEntries = true)
     public View save(View view) {
         log.debug("Request to save View : {}", view);
         View result = viewRepository.save(view);
@@ -57,6 +62,7 @@ public class ViewService {
      *  @return the list of entities
      */
     @Transactional(readOnly = true) 
+    @Cacheable(VIEWS_BY_USER_CACHE)
     public List<View> findByOwnerIsCurrentUserOrShared(String login) {
         log.debug("Request to get all owned and shared Graphs");
         List<View> result = viewRepository.findByOwnerIsCurrentUserOrShared(login); 
@@ -81,6 +87,7 @@ public class ViewService {
      *
      *  @param id the id of the entity
      */
+    @CacheEvict(cacheNames = VIEWS_BY_USER_CACHE, allEntries = true)
     public void delete(Long id) {
         log.debug("Request to delete View : {}", id);
         viewRepository.delete(id);
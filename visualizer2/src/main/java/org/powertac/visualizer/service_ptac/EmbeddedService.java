@@ -24,6 +24,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
@@ -61,13 +63,20 @@ public class EmbeddedService {
     @Autowired
     private VisualizerProxy visualizerProxy;
 
-    private Thread replayGameThread;
-    private LogtoolExecutor logtoolExecutor;
+    @Autowired
+    private GameSessionService gameSessionService;
+
+    // running replays by session id
+    private final Map<String, Replay> replays = new HashMap<>();
+
+    // replays that have the trace and state logs switched off
+    private int quietReplays = 0;
+    private Level traceLevel;
+    private Level stateLevel;
 
     @PostConstruct
     private void afterPropertiesSet() {
         visualizerProxy.registerVisualizerMessageListener(messageDispatcher);
-        logtoolExecutor = new LogtoolExecutor();
     }
 
     private Game currentGame;
@@ -168,60 +177,58 @@ public class EmbeddedService {
         return error;
     }
 
-    /*
-     * (non-Javadoc)
+    /**
+     * Replays a state log in a new game session of its own, so that it can
+     * run next to other replays and next to a sim or boot game.
      *
-     * @see org.powertac.visualizer.service.ptac.VisualizerCompetitionServiceIf#
-     * runReplayGame(org.powertac.visualizer.domain.Game)
+     * @return the session the replay is pushed to
+     * @throws IllegalStateException in tournament mode, or when too many
+     *         replays are running
      */
-    public String runReplayGame(InputStream source) {
-        String error = checkRun();
-        if (error != null) {
-            return error;
+    public GameSession runReplayGame(InputStream source) {
+        if (visualizerService.getMode().equals(Constants.MODE_TOURNAMENT)) {
+            throw new IllegalStateException("Can't run game in Tournament mode");
         }
 
-        visualizerService.recycleAll();
+        LogtoolExecutor executor = new LogtoolExecutor();
+        GameSession session;
+        try {
+            session = gameSessionService.openReplaySession();
+        } catch (IllegalStateException e) {
+            executor.close();
+            throw e;
+        }
+        MessageDispatcher dispatcher = new MessageDispatcher(session);
 
-        replayGameThread = new Thread() {
+        Thread thread = new Thread("replay-" + session.getId()) {
             @Override
             public void run() {
                 // No SimStart and SimEnd when extracting log
-                visualizerService.setState(VisualizerState.RUNNING);
-
-                // Get the logger levels so we can restore them later
-                LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
-                Configuration cfg = ctx.getConfiguration();
-                LoggerConfig traceCfg = cfg.getLoggerConfig("Log");
-                LoggerConfig stateCfg = cfg.getLoggerConfig("State");
-                Level traceLevel = traceCfg.getLevel();
-                Level stateLevel = stateCfg.getLevel();
-
-                // Switch off logs
-                traceCfg.setLevel(Level.OFF);
-                stateCfg.setLevel(Level.OFF);
-                ctx.updateLoggers();
-
-                // Replay the game
-                String error = logtoolExecutor.readLog(source, messageDispatcher);
-                if (error != null) {
-                  log.error("Error during replay: " + error);
-                }
-
-                // Restore log levels
-                traceCfg.setLevel(traceLevel);
-                stateCfg.setLevel(stateLevel);
-                ctx.updateLoggers();
-
-                synchronized (this) {
-                  replayGameThread = null;
+                session.setState(VisualizerState.RUNNING);
+                switchOffLogs();
+                try {
+                    // Replay the game
+                    String error = executor.readLog(source, dispatcher);
+                    if (error != null) {
+                      log.error("Error during replay: " + error);
+                    }
+                } finally {
+                    dispatcher.flush();
+                    restoreLogs();
+                    executor.close();
+                    synchronized (replays) {
+                        replays.remove(session.getId());
+                    }
+                    session.setState(VisualizerState.FINISHED);
                 }
-
-                visualizerService.setState(VisualizerState.FINISHED);
             }
         };
-        replayGameThread.start();
+        synchronized (replays) {
+            replays.put(session.getId(), new Replay(thread, executor));
+        }
+        thread.start();
 
-        return null;
+        return session;
     }
 
     public void closeGame() {
@@ -234,31 +241,74 @@ public class EmbeddedService {
             currentGame = null;
         }
 
-        // relevant for replay games
-        if (replayGameThread != null) {
-            synchronized(replayGameThread) {
-                try {
-                    logtoolExecutor.interrupt();
-                    replayGameThread.interrupt();
-                    replayGameThread.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                replayGameThread = null;
+        visualizerService.setState(VisualizerState.FINISHED);
+    }
+
+    /**
+     * Stops the replay of the given session, if it is still running, and
+     * drops the session.
+     */
+    public void closeReplay(String sessionId) {
+        Replay replay;
+        synchronized (replays) {
+            replay = replays.get(sessionId);
+        }
+        if (replay != null) {
+            try {
+                replay.executor.interrupt();
+                replay.thread.interrupt();
+                replay.thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
+        gameSessionService.closeSession(sessionId);
+    }
+
+    // The trace and state logs stay off while any replay is running
+    private synchronized void switchOffLogs() {
+        LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+        Configuration cfg = ctx.getConfiguration();
+        LoggerConfig traceCfg = cfg.getLoggerConfig("Log");
+        LoggerConfig stateCfg = cfg.getLoggerConfig("State");
+        if (quietReplays++ == 0) {
+            // Get the logger levels so we can restore them later
+            traceLevel = traceCfg.getLevel();
+            stateLevel = stateCfg.getLevel();
+            traceCfg.setLevel(Level.OFF);
+            stateCfg.setLevel(Level.OFF);
+            ctx.updateLoggers();
+        }
+    }
 
-        visualizerService.setState(VisualizerState.FINISHED);
+    private synchronized void restoreLogs() {
+        if (--quietReplays == 0) {
+            LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+            Configuration cfg = ctx.getConfiguration();
+            cfg.getLoggerConfig("Log").setLevel(traceLevel);
+            cfg.getLoggerConfig("State").setLevel(stateLevel);
+            ctx.updateLoggers();
+        }
     }
 
     private String checkRun() {
         if (visualizerService.getMode().equals(Constants.MODE_TOURNAMENT)) {
             return "Can't run game in Tournament mode";
         }
-        if (competitionControlService != null && competitionControlService.isRunning() || replayGameThread != null) {
+        if (competitionControlService != null && competitionControlService.isRunning()) {
             return "Can't run game, already running";
         }
         return null;
     }
 
+    private static class Replay {
+        private final Thread thread;
+        private final LogtoolExecutor executor;
+
+        Replay(Thread thread, LogtoolExecutor executor) {
+            this.thread = thread;
+            this.executor = executor;
+        }
+    }
+
 }
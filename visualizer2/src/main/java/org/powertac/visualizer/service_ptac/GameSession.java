@@ -0,0 +1,134 @@
+package org.powertac.visualizer.service_ptac;
+
+import org.powertac.visualizer.domain.TickSnapshot;
+import org.powertac.visualizer.repository_ptac.BrokerRepository;
+import org.powertac.visualizer.repository_ptac.CustomerRepository;
+import org.powertac.visualizer.repository_ptac.TariffRepository;
+import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
+import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.dto.InitMessage;
+import org.powertac.visualizer.web.websocket.Pusher;
+
+/**
+ * One game as seen by the Visualizer: its repositories, competition and
+ * state, the handler that keeps them up to date, and the topic its
+ * messages are pushed on. The game run by the embedded server or followed
+ * in a tournament lives in the default session; every replay has a session
+ * of its own, so that replays can run side by side.
+ */
+public class GameSession {
+
+    // messages that can wait for the handler before their producer does
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final String id;
+    private final String topic;
+    private final BrokerRepository brokerRepository;
+    private final CustomerRepository customerRepository;
+    private final TariffRepository tariffRepository;
+    private final TickSnapshotRepository tickSnapshotRepository;
+    private final CompetitionService competition;
+    private final Pusher pusher;
+    private final MessageHandler messageHandler;
+    private final MessageLoop messageLoop;
+
+    private volatile VisualizerState state = VisualizerState.IDLE;
+
+    GameSession(String id, String topic, BrokerRepository brokerRepository,
+            CustomerRepository customerRepository,
+            TariffRepository tariffRepository,
+            TickSnapshotRepository tickSnapshotRepository,
+            CompetitionService competition, Pusher pusher) {
+        this.id = id;
+        this.topic = topic;
+        this.brokerRepository = brokerRepository;
+        this.customerRepository = customerRepository;
+        this.tariffRepository = tariffRepository;
+        this.tickSnapshotRepository = tickSnapshotRepository;
+        this.competition = competition;
+        this.pusher = pusher;
+        this.messageHandler = new MessageHandler(this);
+        this.messageLoop = new MessageLoop(id == null ? "default" : id,
+                messageHandler, QUEUE_CAPACITY);
+    }
+
+    /** The session id, null for the default session */
+    public String getId() {
+        return id;
+    }
+
+    public boolean isDefault() {
+        return id == null;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public BrokerRepository getBrokerRepository() {
+        return brokerRepository;
+    }
+
+    public CustomerRepository getCustomerRepository() {
+        return customerRepository;
+    }
+
+    public TariffRepository getTariffRepository() {
+        return tariffRepository;
+    }
+
+    public TickSnapshotRepository getTickSnapshotRepository() {
+        return tickSnapshotRepository;
+    }
+
+    public CompetitionService getCompetition() {
+        return competition;
+    }
+
+    public MessageHandler getMessageHandler() {
+        return messageHandler;
+    }
+
+    /**
+     * The loop all messages for this session go through, and the only
+     * thread that changes the session's repositories.
+     */
+    public MessageLoop getMessageLoop() {
+        return messageLoop;
+    }
+
+    public VisualizerState getState() {
+        return state;
+    }
+
+    public void setState(VisualizerState state) {
+        this.state = state;
+        pusher.sendGameStatusMessage(topic, competition.getName(), state);
+    }
+
+    /**
+     * The message a client gets when it subscribes to this session's topic.
+     */
+    public InitMessage getInitMessage() {
+        MessageHandler.Roster roster = messageHandler.getRoster();
+        return new InitMessage(state, competition,
+                roster.getBrokers(), roster.getCustomers(),
+                tickSnapshotRepository.count());
+    }
+
+    public void pushInitMessage() {
+        pusher.sendInitMessage(topic, competition.getName(), getInitMessage());
+    }
+
+    public void pushTickSnapshot(TickSnapshot snapshot) {
+        pusher.sendTickSnapshotUpdates(topic, competition.getName(), snapshot);
+    }
+
+    /**
+     * Stops the message loop, once it has handled what it was given.
+     */
+    public void close() {
+        messageLoop.close();
+    }
+
+}
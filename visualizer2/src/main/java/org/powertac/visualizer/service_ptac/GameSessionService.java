@@ -0,0 +1,144 @@
+package org.powertac.visualizer.service_ptac;
+
+import org.powertac.visualizer.config.ApplicationProperties;
+import org.powertac.visualizer.repository_ptac.BrokerRepository;
+import org.powertac.visualizer.repository_ptac.CustomerRepository;
+import org.powertac.visualizer.repository_ptac.TariffRepository;
+import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
+import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.websocket.Pusher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Keeps the game sessions. The default session uses the repository and
+ * competition beans; replay sessions get fresh instances, and are kept
+ * after their replay ends so that clients can still look at them, until
+ * they are closed or make room for a new replay.
+ */
+@Service
+public class GameSessionService {
+
+    private final Logger log = LoggerFactory.getLogger(GameSessionService.class);
+
+    @Autowired
+    private BrokerRepository brokerRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private TariffRepository tariffRepository;
+
+    @Autowired
+    private TickSnapshotRepository tickSnapshotRepository;
+
+    @Autowired
+    private CompetitionService currentCompetition;
+
+    @Autowired
+    private Pusher pusher;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private GameSession defaultSession;
+
+    // replay sessions, oldest first
+    private final Map<String, GameSession> sessions = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void afterPropertiesSet() {
+        defaultSession = new GameSession(null, Pusher.TOPIC_MESSAGE,
+                brokerRepository, customerRepository, tariffRepository,
+                tickSnapshotRepository, currentCompetition, pusher);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        for (GameSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+        defaultSession.close();
+    }
+
+    public GameSession getDefaultSession() {
+        return defaultSession;
+    }
+
+    /**
+     * Returns the session with the given id, the default session for a null
+     * id, or null if there is no such session.
+     */
+    public synchronized GameSession find(String id) {
+        if (id == null) {
+            return defaultSession;
+        }
+        return sessions.get(id);
+    }
+
+    public synchronized List<GameSession> getReplaySessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * Creates a session for a new replay. If the limit on concurrent replays
+     * is reached, the oldest session whose replay has ended is closed to make
+     * room.
+     *
+     * @throws IllegalStateException if all sessions are still replaying
+     */
+    public synchronized GameSession openReplaySession() {
+        int limit = applicationProperties.getReplay().getMaxConcurrent();
+        Iterator<GameSession> oldest = sessions.values().iterator();
+        while (sessions.size() >= limit && oldest.hasNext()) {
+            GameSession session = oldest.next();
+            if (!isActive(session)) {
+                log.debug("Closing finished replay session {}", session.getId());
+                oldest.remove();
+                session.close();
+                pusher.closeTopic(session.getTopic());
+            }
+        }
+        if (sessions.size() >= limit) {
+            throw new IllegalStateException(
+                    "Visualizer already has " + limit + " replays running");
+        }
+        String id = UUID.randomUUID().toString();
+        GameSession session = new GameSession(id, Pusher.sessionTopic(id),
+                new BrokerRepository(), new CustomerRepository(),
+                new TariffRepository(), new TickSnapshotRepository(),
+                new CompetitionService(), pusher);
+        sessions.put(id, session);
+        log.debug("Opened replay session {}", id);
+        return session;
+    }
+
+    public synchronized void closeSession(String id) {
+        GameSession session = sessions.remove(id);
+        if (session != null) {
+            log.debug("Closed replay session {}", id);
+            session.close();
+            pusher.closeTopic(session.getTopic());
+        }
+    }
+
+    private boolean isActive(GameSession session) {
+        VisualizerState state = session.getState();
+        return state != VisualizerState.FINISHED && state != VisualizerState.FAILED;
+    }
+
+}
@@ -25,65 +25,68 @@ import org.powertac.visualizer.repository_ptac.CustomerRepository;
 import org.powertac.visualizer.repository_ptac.TariffRepository;
 import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
 import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
-import org.powertac.visualizer.web.dto.InitMessage;
 import org.powertac.visualizer.web.dto.TickValueBroker;
 import org.powertac.visualizer.web.dto.TickValueCustomer;
-import org.powertac.visualizer.web.websocket.Pusher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
- * This is an implementation of the Initializable interface. It will be
- * initialized upon startup and registered for handling Power TAC messages in
- * case there are proper method signatures, e.g.,
- * "handleMessage(VizCompetition competition)". intended for the Visualizer.
+ * Keeps the repositories of one game session up to date with the Power TAC
+ * messages it receives, through methods with signatures like
+ * "handleMessage(Competition competition)" that the session's MessageLoop
+ * finds and calls, and pushes the results to the session's clients.
+ * <p>
+ * Only the loop's thread calls the handler, so it needs no locking. Other
+ * threads read the brokers and customers from the roster the handler
+ * publishes once per timeslot, whose objects are copies it does not touch.
+ * </p>
  *
  * @author Jurica Babic, Govert Buijs, Erik Kemperman
  */
-@Service
 public class MessageHandler {
 
     static private Logger log = LoggerFactory.getLogger(MessageHandler.class);
 
-    @Autowired
-    private BrokerRepository brokerRepo;
+    private final GameSession session;
 
-    @Autowired
-    private CustomerRepository customerRepo;
+    private final BrokerRepository brokerRepo;
 
-    @Autowired
-    private TickSnapshotRepository tickSnapshotRepo;
+    private final CustomerRepository customerRepo;
 
-    @Autowired
-    private TariffRepository tariffRepo;
+    private final TickSnapshotRepository tickSnapshotRepo;
 
-    @Autowired
-    private VisualizerService visualizerService;
+    private final TariffRepository tariffRepo;
 
-    @Autowired
-    public Pusher pusher;
-
-    @Autowired
-    private CompetitionService currentCompetition;
+    private final CompetitionService currentCompetition;
 
     // TODO Should be in VisualizerService?
     // Or in current competition?
     private int currentTimeslot = 0;
     private Instant currentInstant;
 
-    public void initialize() {
-        // TODO not used?
+    private volatile Roster roster = new Roster(new ArrayList<>(), new ArrayList<>());
+
+    public MessageHandler(GameSession session) {
+        this.session = session;
+        this.brokerRepo = session.getBrokerRepository();
+        this.customerRepo = session.getCustomerRepository();
+        this.tickSnapshotRepo = session.getTickSnapshotRepository();
+        this.tariffRepo = session.getTariffRepository();
+        this.currentCompetition = session.getCompetition();
     }
 
-    public synchronized void handleMessage(org.powertac.common.Competition c) {
-        // create vizCompetition
-        org.powertac.common.Competition.setCurrent(c);
+    public void handleMessage(org.powertac.common.Competition c) {
+        // create vizCompetition; replays running side by side must not
+        // touch the embedded server's current competition
+        if (session.isDefault()) {
+            org.powertac.common.Competition.setCurrent(c);
+        }
         currentCompetition.setCurrent(c);
 
         // create brokers
@@ -100,6 +103,7 @@ public class MessageHandler {
 
         currentInstant = null;
         currentTimeslot = c.getBootstrapTimeslotCount() + c.getBootstrapDiscardedTimeslots() - 1;
+        publishRoster();
 
         log.info("VizCompetition received");
     }
@@ -108,7 +112,7 @@ public class MessageHandler {
      * Receives the SimPause message, used to pause the clock. While the clock
      * is paused, the broker needs to ignore the local clock.
      */
-    public synchronized void handleMessage(SimPause sp) {
+    public void handleMessage(SimPause sp) {
         // local brokers can ignore this.
         // log.debug("Paused at " +
         // timeService.getCurrentDateTime().toString());
@@ -118,7 +122,7 @@ public class MessageHandler {
     /**
      * Receives the SimResume message, used to update the clock.
      */
-    public synchronized void handleMessage(SimResume sr) {
+    public void handleMessage(SimResume sr) {
         // local brokers don't need to handle this
         log.trace("SimResume received");
         // pausedAt = 0;
@@ -130,36 +134,33 @@ public class MessageHandler {
      * Receives the SimStart message, used to start the clock. The server's
      * clock offset is subtracted from the start time indicated by the server.
      */
-    public synchronized void handleMessage(SimStart ss) {
+    public void handleMessage(SimStart ss) {
         log.debug("SimStart received - start time is " + ss.getStart().toString());
-        visualizerService.setState(VisualizerState.RUNNING);
+        session.setState(VisualizerState.RUNNING);
     }
 
     /**
      * Receives the SimEnd message, which ends the broker session.
      */
-    public synchronized void handleMessage(SimEnd se) {
+    public void handleMessage(SimEnd se) {
         log.info("SimEnd received");
-        visualizerService.setState(VisualizerState.FINISHED);
+        session.setState(VisualizerState.FINISHED);
     }
 
     /**
      * Updates the sim clock on receipt of the TimeslotUpdate message, which
      * should be the first to arrive in each timeslot.
      */
-    public synchronized void handleMessage(TimeslotUpdate tu) {
+    public void handleMessage(TimeslotUpdate tu) {
         if (currentInstant == null) {
             // skip reporting on a very first timeslot update
             // but send a control message so the front-end can be initialized:
             currentInstant = tu.getPostedTime();
-            InitMessage initMessage = new InitMessage(
-                    visualizerService.getState(), currentCompetition,
-                    brokerRepo.findAll(), customerRepo.findAll(),
-                    tickSnapshotRepo.findAll());
 
             log.trace("handleMessage(TimeslotUpdate), about to make a call to "
-                    + "pusher.sendInitMessage ");
-            pusher.sendInitMessage(initMessage);
+                    + "session.pushInitMessage ");
+            publishRoster();
+            session.pushInitMessage();
 
             return;
         }
@@ -168,7 +169,7 @@ public class MessageHandler {
         perTimeslotUpdate();
     }
 
-    public synchronized void handleMessage(CustomerBootstrapData cbd) {
+    public void handleMessage(CustomerBootstrapData cbd) {
         Customer customer = customerRepo.findByName(cbd.getCustomerName());
         customer.setBootstrapNetUsage(Arrays.stream(cbd.getNetUsage()).boxed().collect(Collectors.toList()));
     }
@@ -178,7 +179,7 @@ public class MessageHandler {
      * when any broker would submit its bids, so that's when this VizBroker will
      * do it.
      */
-    public synchronized void handleMessage(CashPosition cp) {
+    public void handleMessage(CashPosition cp) {
         org.powertac.common.Broker ptacBroker = cp.getBroker();
 
         // we only care about standard (retail+wholesale) brokers
@@ -196,7 +197,7 @@ public class MessageHandler {
      * We keep track of competing tariffs locally, and we also store them in the
      * tariffRepo.
      */
-    public synchronized void handleMessage(TariffSpecification spec) {
+    public void handleMessage(TariffSpecification spec) {
         Broker broker = brokerRepo.findByName(spec.getBroker().getUsername());
         if (broker != null) {
             Tariff tariff = new Tariff(broker, spec);
@@ -211,7 +212,7 @@ public class MessageHandler {
      * Handles a TariffTransaction. We only care about certain types: PRODUCE,
      * CONSUME, SIGNUP, and WITHDRAW.
      */
-    public synchronized void handleMessage(TariffTransaction ttx) {
+    public void handleMessage(TariffTransaction ttx) {
         try {
             // make sure we have this tariff
             TariffSpecification newSpec = ttx.getTariffSpec();
@@ -280,7 +281,7 @@ public class MessageHandler {
      * Handles a TariffRevoke message from the server, indicating that some
      * tariff has been revoked.
      */
-    public synchronized void handleMessage(TariffRevoke tr) {
+    public void handleMessage(TariffRevoke tr) {
         log.trace("Revoke tariff " + tr.getTariffId() + " from " + tr.getBroker().getUsername());
 
         Tariff tariff = tariffRepo.findById(tr.getTariffId());
@@ -291,7 +292,7 @@ public class MessageHandler {
     }
 
     /** Handles a wholesale MarketTransaction */
-    public synchronized void handleMessage(MarketTransaction mtx) {
+    public void handleMessage(MarketTransaction mtx) {
         Broker broker = brokerRepo.findByName(mtx.getBroker().getUsername());
         if (broker != null) {
             broker.getWholesale().addTransaction(mtx);
@@ -303,7 +304,6 @@ public class MessageHandler {
 
     private void perTimeslotUpdate() {
         TickSnapshot ts = new TickSnapshot(currentInstant.getMillis(), currentTimeslot);
-        tickSnapshotRepo.save(ts);
 
         // reset per time slot KPI values:
         for (Broker broker : brokerRepo.findAll()) {
@@ -328,9 +328,60 @@ public class MessageHandler {
             tariff.getRetail().resetCurrentValues();
         }
 
+        // only store it once complete, since history pages can be read
+        // at any time
+        tickSnapshotRepo.save(ts);
+        publishRoster();
+
         log.trace("perTimeslotUpdate(), about to make a call to "
-                + "pusher.sendTickSnapshotUpdates ");
+                + "session.pushTickSnapshot ");
+
+        session.pushTickSnapshot(ts);
+    }
+
+    /**
+     * The brokers and customers as of the last timeslot.
+     */
+    public Roster getRoster() {
+        return roster;
+    }
+
+    /**
+     * Drops the roster of a previous game.
+     */
+    public void recycle() {
+        roster = new Roster(new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Publishes copies of the brokers and customers as they are now. Only
+     * to be called on the thread that handles the messages.
+     */
+    public void publishRoster() {
+        roster = new Roster(
+                brokerRepo.findAll().stream().map(Broker::new).collect(Collectors.toList()),
+                customerRepo.findAll().stream().map(Customer::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * Copies of the brokers and customers of a session, which are never
+     * changed once published.
+     */
+    public static class Roster {
+        private final List<Broker> brokers;
+        private final List<Customer> customers;
+
+        Roster(List<Broker> brokers, List<Customer> customers) {
+            this.brokers = Collections.unmodifiableList(brokers);
+            this.customers = Collections.unmodifiableList(customers);
+        }
 
-        pusher.sendTickSnapshotUpdates(ts);
+        public List<Broker> getBrokers() {
+            return brokers;
+        }
+
+        public List<Customer> getCustomers() {
+            return customers;
+        }
     }
 }
@@ -0,0 +1,160 @@
+package org.powertac.visualizer.service_ptac;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The only writer of a game session's state. Messages are put on a bounded
+ * queue, so that a producer running ahead, such as a replay, waits for the
+ * handler rather than piling up messages, and handled one by one on a
+ * thread of the loop's own. The handler's handleMessage methods are looked
+ * up once per handler class, and a message is handled by the method whose
+ * parameter type is exactly its class.
+ */
+public class MessageLoop {
+
+    static private Logger log = LoggerFactory.getLogger(MessageLoop.class);
+
+    // handleMessage methods by message type, per handler class
+    private static final Map<Class<?>, Map<Class<?>, MethodHandle>> tables =
+            new ConcurrentHashMap<>();
+
+    // what the bound handlers are adapted to, so they can be invoked exactly
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, Object.class);
+
+    private static final Object STOP = new Object();
+
+    private final Map<Class<?>, MethodHandle> handlers;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    public MessageLoop(String name, Object handler, int capacity) {
+        Map<Class<?>, MethodHandle> bound = new HashMap<>();
+        for (Map.Entry<Class<?>, MethodHandle> entry : handlerTable(handler.getClass()).entrySet()) {
+            bound.put(entry.getKey(), entry.getValue().bindTo(handler).asType(HANDLER_TYPE));
+        }
+        this.handlers = bound;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "messages-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * The handleMessage methods of a handler class that take a single
+     * argument, by the type of that argument.
+     */
+    static Map<Class<?>, MethodHandle> handlerTable(Class<?> handlerClass) {
+        return tables.computeIfAbsent(handlerClass, key -> {
+            Map<Class<?>, MethodHandle> table = new HashMap<>();
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (Method method : key.getMethods()) {
+                if (method.getName().equals("handleMessage")
+                        && method.getParameterCount() == 1) {
+                    try {
+                        table.put(method.getParameterTypes()[0], lookup.unreflect(method));
+                        log.debug("Register " + key.getSimpleName() + ".handleMessage("
+                                + method.getParameterTypes()[0].getSimpleName() + ")");
+                    } catch (IllegalAccessException e) {
+                        log.error("Cannot register " + method, e);
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(table);
+        });
+    }
+
+    /**
+     * Queues a message for the handler, waiting while the queue is full.
+     * Messages the handler has no method for are dropped right away.
+     */
+    public void submit(Object message) {
+        if (!handlers.containsKey(message.getClass())) {
+            log.trace("no handler for message of type " + message.getClass().getName());
+            return;
+        }
+        if (closed) {
+            log.debug("Dropping " + message.getClass().getSimpleName() + ", " + thread.getName() + " is closed");
+            return;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted, dropping " + message.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Waits until all messages submitted so far have been handled.
+     */
+    public void flush() {
+        if (Thread.currentThread() == thread || closed) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            queue.put(done);
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handles what is queued, then stops the thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Object message = queue.take();
+                if (message == STOP) {
+                    break;
+                } else if (message instanceof CountDownLatch) {
+                    ((CountDownLatch) message).countDown();
+                    continue;
+                }
+                try {
+                    handlers.get(message.getClass()).invokeExact(message);
+                } catch (Throwable e) {
+                    log.error("Cannot handle " + message.getClass().getSimpleName() + ": " + e, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug(thread.getName() + " interrupted");
+        }
+        // release whoever still waits for a flush
+        for (Object message : queue) {
+            if (message instanceof CountDownLatch) {
+                ((CountDownLatch) message).countDown();
+            }
+        }
+    }
+}
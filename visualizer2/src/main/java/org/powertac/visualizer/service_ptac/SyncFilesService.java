@@ -1,13 +1,42 @@
 package org.powertac.visualizer.service_ptac;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.powertac.visualizer.config.ApplicationProperties;
 import org.powertac.visualizer.domain.Game;
 import org.powertac.visualizer.domain.User;
 import org.powertac.visualizer.domain.enumeration.FileType;
@@ -18,15 +47,39 @@ import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+/**
+ * Keeps the File entities in line with the files found under files/. A
+ * watcher thread indexes files as they are created and deleted; a full
+ * pass over all directories is made when the watcher starts, when it has
+ * lost events, and every reconcile-interval as a fallback.
+ */
 @Service
 public class SyncFilesService {
 
     static private Logger log = LoggerFactory.getLogger(SyncFilesService.class);
 
+    // the files of each type, by directory and suffix
+    private static final List<Kind> KINDS = Arrays.asList(
+        new Kind(FileType.TRACE, FileType.DIRECTORY_LOG, ".trace"),
+        new Kind(FileType.STATE, FileType.DIRECTORY_LOG, ".state"),
+        new Kind(FileType.BOOT, FileType.DIRECTORY_BOOT, ".xml"),
+        new Kind(FileType.SEED, FileType.DIRECTORY_SEED, ".state"),
+        new Kind(FileType.CONFIG, FileType.DIRECTORY_CONFIG, ".properties", ".props"),
+        new Kind(FileType.WEATHER, FileType.DIRECTORY_WEATHER, ".xml"));
+
+    // root, user and type directories; the files are one level below
+    private static final int WATCHED_DEPTH = 2;
+
+    // longest a steady stream of events can hold back indexing, in ms
+    private static final long MAX_BATCH_DELAY = 2000;
+
     @Autowired
     private VisualizerService visualizerService;
 
@@ -39,35 +92,284 @@ public class SyncFilesService {
     @Autowired
     private GameService gameService;
 
-    @Scheduled(fixedDelay = 30000, initialDelay = 60000)
-    @Transactional()
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private final Object lock = new Object();
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean reconcileNeeded;
+
+    private Path root;
+    private TransactionTemplate transactionTemplate;
+    private WatchService watchService;
+    private volatile Thread watcher;
+    private Counter reconciliations;
+    private Counter indexed;
+
+    @PostConstruct
+    public void afterPropertiesSet() {
+        root = Paths.get(FileType.DIRECTORY_ROOT).toAbsolutePath();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        reconciliations = metricRegistry.counter(MetricRegistry.name(SyncFilesService.class, "reconciliations"));
+        indexed = metricRegistry.counter(MetricRegistry.name(SyncFilesService.class, "indexed"));
+    }
+
+    /**
+     * Starts watching once the application, and its database, is up.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (watcher != null) {
+            return;
+        }
+        try {
+            Files.createDirectories(root);
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot watch " + root + ", files are only synced in full: " + e);
+            watchService = null;
+            return;
+        }
+        watcher = new Thread(this::watch, "file-index");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread thread = watcher;
+        watcher = null;
+        if (thread == null) {
+            return;
+        }
+        try {
+            // which ends the watcher's poll, rather than interrupting it
+            // in the middle of a query
+            watchService.close();
+            thread.join(10000);
+        } catch (IOException e) {
+            log.warn("Cannot close watch service: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pending.clear();
+    }
+
+    /**
+     * The full pass over all files, which the watcher makes unnecessary
+     * unless it missed something.
+     */
+    @Scheduled(fixedDelayString = "${application.sync.reconcile-interval:600000}",
+            initialDelayString = "${application.sync.reconcile-interval:600000}")
     public void syncFileSystem() {
         if (visualizerService.getState().equals(VisualizerState.RUNNING)
         || visualizerService.getState().equals(VisualizerState.WAITING)) {
             log.debug("Skipping sync, game in progress");
             return;
         }
+        synchronized (lock) {
+            reconcile();
+        }
+    }
+
+    /**
+     * Indexes the changes the watcher has seen but not yet indexed, or
+     * makes a full pass if there is no watcher.
+     */
+    public void flush() {
+        if (watcher == null) {
+            syncFileSystem();
+        } else {
+            applyPending();
+        }
+    }
+
+    private void watch() {
+        try {
+            register(root, 0);
+            // the full pass covers whatever registering found
+            pending.clear();
+            reconcileNeeded = true;
+            applyPending();
+            long batchStart = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(
+                    applicationProperties.getSync().getSettleTime(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    if (batchStart == 0) {
+                        batchStart = System.currentTimeMillis();
+                    }
+                    collect(key);
+                }
+                if ((batchStart != 0 || reconcileNeeded) && (key == null
+                        || System.currentTimeMillis() - batchStart > MAX_BATCH_DELAY)) {
+                    applyPending();
+                    batchStart = 0;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("File index watcher stopped");
+        } catch (IOException e) {
+            log.error("File index watcher failed, files are only synced in full", e);
+            watcher = null;
+        }
+    }
+
+    // Registers a directory and the ones below it, and queues the files
+    // found, which may have been created before the directory was watched
+    private void register(Path dir, int depth) throws IOException {
+        dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                if (depth < WATCHED_DEPTH && Files.isDirectory(child)) {
+                    register(child, depth + 1);
+                } else if (depth == WATCHED_DEPTH) {
+                    pending.add(child);
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                reconcileNeeded = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            int depth = root.relativize(path).getNameCount();
+            if (depth > WATCHED_DEPTH) {
+                pending.add(path);
+            } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path, depth);
+                } catch (IOException e) {
+                    log.warn("Cannot watch " + path + ": " + e);
+                    reconcileNeeded = true;
+                }
+            }
+        }
+        if (!key.reset()) {
+            // the directory is gone, and its files with it
+            reconcileNeeded = true;
+        }
+    }
+
+    private void applyPending() {
+        synchronized (lock) {
+            if (reconcileNeeded) {
+                reconcileNeeded = false;
+                pending.clear();
+                try {
+                    reconcile();
+                } catch (RuntimeException e) {
+                    log.warn("Cannot sync files, will try again: " + e);
+                    reconcileNeeded = true;
+                }
+                return;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Path> batch = new ArrayList<>(pending);
+            pending.removeAll(batch);
+            try {
+                transactionTemplate.execute(status -> {
+                    index(batch);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                log.error("Cannot index " + batch.size() + " files, will sync in full", e);
+                reconcileNeeded = true;
+            }
+        }
+    }
+
+    // Brings the entities of the given paths in line with the file system
+    private void index(List<Path> batch) {
+        Map<String, Map<Kind, List<Path>>> byUser = new LinkedHashMap<>();
+        for (Path path : batch) {
+            Path relative = root.relativize(path);
+            if (relative.getNameCount() != WATCHED_DEPTH + 1) {
+                continue;
+            }
+            String login = relative.getName(0).toString();
+            String typedir = relative.getName(1).toString();
+            String name = relative.getName(2).toString();
+            for (Kind kind : KINDS) {
+                if (kind.directory.equals(typedir) && kind.accept(name)) {
+                    byUser.computeIfAbsent(login, key -> new LinkedHashMap<>())
+                        .computeIfAbsent(kind, key -> new ArrayList<>()).add(path);
+                    break;
+                }
+            }
+        }
 
+        for (Map.Entry<String, Map<Kind, List<Path>>> entry : byUser.entrySet()) {
+            String login = entry.getKey();
+            User user = userService.getUserByLogin(login).orElse(null);
+            if (user == null) {
+                continue;
+            }
+            for (Map.Entry<Kind, List<Path>> paths : entry.getValue().entrySet()) {
+                FileType type = paths.getKey().type;
+                Map<String, org.powertac.visualizer.domain.File> expected = new HashMap<>();
+                for (org.powertac.visualizer.domain.File file : fileService.findByOwnerIsCurrentUser(login, type)) {
+                    expected.put(file.getName(), file);
+                }
+                List<String> additions = new ArrayList<>();
+                List<org.powertac.visualizer.domain.File> deletions = new ArrayList<>();
+                for (Path path : paths.getValue()) {
+                    String name = path.getFileName().toString();
+                    org.powertac.visualizer.domain.File file = expected.remove(name);
+                    if (Files.isRegularFile(path)) {
+                        if (file == null) {
+                            log.debug("Creating for user " + login + ": " + name);
+                            additions.add(name);
+                        }
+                    } else if (file != null) {
+                        log.debug("Deleting for user " + login + ": " + name);
+                        deletions.add(file);
+                    }
+                }
+                apply(type, user, additions, deletions);
+            }
+        }
+    }
+
+    private void reconcile() {
         long t = System.currentTimeMillis();
         log.debug("Starting at " + new java.util.Date());
 
-        sync(FileType.TRACE, FileType.DIRECTORY_LOG, new String[] {".trace"});
-        sync(FileType.STATE, FileType.DIRECTORY_LOG, new String[] {".state"});
-        sync(FileType.BOOT, FileType.DIRECTORY_BOOT, new String[] {".xml"});
-        sync(FileType.SEED, FileType.DIRECTORY_SEED, new String[] {".state"});
-        sync(FileType.CONFIG, FileType.DIRECTORY_CONFIG, new String[] {".properties", ".props"});
-        sync(FileType.WEATHER, FileType.DIRECTORY_WEATHER, new String[] {".xml"});
+        transactionTemplate.execute(status -> {
+            for (Kind kind : KINDS) {
+                sync(kind);
+            }
+            return null;
+        });
+        reconciliations.inc();
 
         t = System.currentTimeMillis() - t;
         log.debug("Finished after " + t + " milliseconds");
     }
 
-
-    private boolean sync(FileType type, String typedir, String[] suffixes) {
+    private boolean sync(Kind kind) {
+        FileType type = kind.type;
         int additions = 0, deletions = 0;
         File root = new File(FileType.DIRECTORY_ROOT);
         log.trace("Syncing type " + type + "...");
-        for (File userdir : root.listFiles()) {
+        File[] userdirs = root.listFiles();
+        if (userdirs == null) {
+            return false;
+        }
+        for (File userdir : userdirs) {
             if (!userdir.isDirectory()) {
                 // regular file in root dir, skip
                 continue;
@@ -85,26 +387,18 @@ public class SyncFilesService {
             List<org.powertac.visualizer.domain.File> expectedList =
                 fileService.findByOwnerIsCurrentUser(login, type)
                 .stream()
-                .sorted(new Comparator<org.powertac.visualizer.domain.File>() {
-                    @Override
-                    public int compare(org.powertac.visualizer.domain.File o1,
-                                        org.powertac.visualizer.domain.File o2) {
-                        return o1.getName().compareTo(o2.getName());
-                    }
-                })
+                .sorted(Comparator.comparing(org.powertac.visualizer.domain.File::getName))
                 .collect(Collectors.toList());
+            List<String> toCreate = new ArrayList<>();
+            List<org.powertac.visualizer.domain.File> toDelete = new ArrayList<>();
 
-            userdir = new File(userdir, typedir);
+            userdir = new File(userdir, kind.directory);
             if (!userdir.exists() || !userdir.isDirectory()) {
                 // FS doesn't contain expected subdir -- remove all from DB
                 for (org.powertac.visualizer.domain.File expected: expectedList) {
                     log.debug("Going to delete file " + expected.getName());
-                    for (Game game: gameService.findByAssociatedFile(expected)) {
-                        log.debug("  ... also have to clear refs in Game " + game.getName());
-                        clearFileRefsFromGame(game, expected.getId());
-                    }
-                    fileService.delete(expected.getId());
                 }
+                deletions += apply(type, user, toCreate, expectedList);
                 continue;
             }
 
@@ -112,27 +406,12 @@ public class SyncFilesService {
 
             // Get the FS's current list for this user and type
             List<File> foundList = new LinkedList<>();
-            for (File log : userdir.listFiles(new FilenameFilter() {
-                @Override
-                public boolean accept(File dir, String name) {
-                  for (String suffix : suffixes) {
-                    if (name.endsWith(suffix)) {
-                      return true;
-                    }
-                  }
-                  return false;
-                }
-            })) {
+            for (File log : userdir.listFiles((dir, name) -> kind.accept(name))) {
                 if (log.isFile()) {
                     foundList.add(log);
                 }
             }
-            foundList.sort(new Comparator<File>() {
-                @Override
-                public int compare (File o1, File o2) {
-                    return o1.getName().compareTo(o2.getName());
-                }
-            });
+            foundList.sort(Comparator.comparing(File::getName));
 
             log.trace("Expected for user " + login + ":");
 
@@ -150,42 +429,23 @@ public class SyncFilesService {
             org.powertac.visualizer.domain.File expected = expectedIt.hasNext() ? expectedIt.next() : null;
             File found = foundIt.hasNext() ? foundIt.next() : null;
             while (expected != null || found != null) {
-                if (expected == null) {
+                int cmp = expected == null ? 1 : found == null ? -1
+                        : expected.getName().compareTo(found.getName());
+                if (cmp > 0) {
                     log.debug("Creating for user " + login + ": " + found.getName());
-                    fileService.createFile(type, found.getName(), user);
+                    toCreate.add(found.getName());
                     found = foundIt.hasNext() ? foundIt.next() : null;
-                    additions++;
-                } else if (found == null) {
+                } else if (cmp < 0) {
                     log.debug("Deleting for user " + login + ": " + expected.getName());
-                    for (Game game: gameService.findByAssociatedFile(expected)) {
-                        log.debug("  ... also have to clear refs in Game " + game.getName());
-                        clearFileRefsFromGame(game, expected.getId());
-                    }
-                    fileService.delete(expected.getId());
+                    toDelete.add(expected);
                     expected = expectedIt.hasNext() ? expectedIt.next() : null;
-                    deletions++;
                 } else {
-                    int cmp = expected.getName().compareTo(found.getName());
-                    if (cmp > 0) {
-                        log.debug("Creating for user " + login + ": " + found.getName());
-                        fileService.createFile(type, found.getName(), user);
-                        found = foundIt.hasNext() ? foundIt.next() : null;
-                        additions++;
-                    } else if (cmp < 0) {
-                        log.debug("Deleting for user " + login + ": " + expected.getName());
-                        for (Game game: gameService.findByAssociatedFile(expected)) {
-                            log.debug("  ... also have to clear refs in Game " + game.getName());
-                            clearFileRefsFromGame(game, expected.getId());
-                        }
-                        fileService.delete(expected.getId());
-                        expected = expectedIt.hasNext() ? expectedIt.next() : null;
-                        deletions++;
-                    } else {
-                        found = foundIt.hasNext() ? foundIt.next() : null;
-                        expected = expectedIt.hasNext() ? expectedIt.next() : null;
-                    }
+                    found = foundIt.hasNext() ? foundIt.next() : null;
+                    expected = expectedIt.hasNext() ? expectedIt.next() : null;
                 }
             }
+            additions += toCreate.size();
+            deletions += apply(type, user, toCreate, toDelete);
         }
 
         log.trace(additions + " additions, " + deletions + " deletions");
@@ -193,6 +453,25 @@ public class SyncFilesService {
         return additions != 0 || deletions != 0;
     }
 
+    // Creates and deletes the entities of one user and type together
+    private int apply(FileType type, User user, List<String> additions,
+            List<org.powertac.visualizer.domain.File> deletions) {
+        if (!deletions.isEmpty()) {
+            for (org.powertac.visualizer.domain.File expected : deletions) {
+                for (Game game: gameService.findByAssociatedFile(expected)) {
+                    log.debug("  ... also have to clear refs in Game " + game.getName());
+                    clearFileRefsFromGame(game, expected.getId());
+                }
+            }
+            fileService.delete(deletions);
+        }
+        if (!additions.isEmpty()) {
+            fileService.createFiles(type, additions, user);
+        }
+        indexed.inc(additions.size() + deletions.size());
+        return deletions.size();
+    }
+
     private void clearFileRefsFromGame(Game game, Long fileId) {
         boolean changed = false;
         if (game.getTraceFileId() == fileId) {
@@ -223,4 +502,25 @@ public class SyncFilesService {
             gameService.save(game);
         }
     }
+
+    private static class Kind {
+        private final FileType type;
+        private final String directory;
+        private final String[] suffixes;
+
+        Kind(FileType type, String directory, String... suffixes) {
+            this.type = type;
+            this.directory = directory;
+            this.suffixes = suffixes;
+        }
+
+        boolean accept(String name) {
+            for (String suffix : suffixes) {
+                if (name.endsWith(suffix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
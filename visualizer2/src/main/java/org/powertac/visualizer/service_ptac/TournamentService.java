@@ -7,6 +7,7 @@ import org.powertac.common.Competition;
 import org.powertac.common.XMLMessageConverter;
 import org.powertac.common.msg.BrokerAccept;
 import org.powertac.common.msg.BrokerAuthentication;
+import org.powertac.common.msg.SimEnd;
 import org.powertac.common.msg.VisualizerStatusRequest;
 import org.powertac.common.repo.DomainRepo;
 import org.powertac.visualizer.config.Constants;
@@ -151,13 +152,6 @@ public class TournamentService implements MessageListener {
         log.info("initOnce()");
         visualizerService.newRun();
 
-        // registrations for message listeners:
-        Collection<MessageHandler> handlers = context.getBeansOfType(MessageHandler.class).values();
-        for (MessageHandler handler : handlers) {
-            log.debug("initializing..." + handler.getClass().getName());
-            handler.initialize();
-        }
-
         Collection<DomainRepo> repos = context.getBeansOfType(DomainRepo.class).values();
         for (DomainRepo repo : repos) {
             log.debug("recycling..." + repos.getClass().getName());
@@ -429,6 +423,10 @@ public class TournamentService implements MessageListener {
 
             if (msg != null) {
                 dispatcher.handleNewObject(msg);
+                if (msg instanceof SimEnd) {
+                    // the handler sets the state once it gets to it
+                    dispatcher.flush();
+                }
             } else {
                 log.info("Received message is NULL!");
             }
@@ -6,7 +6,6 @@ import org.powertac.visualizer.domain.Broker;
 import org.powertac.visualizer.domain.Customer;
 import org.powertac.visualizer.domain.Tariff;
 import org.powertac.visualizer.repository_ptac.RecycleRepository;
-import org.powertac.visualizer.web.websocket.Pusher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,13 +32,11 @@ public class VisualizerService {
     private ApplicationContext context;
 
     @Autowired
-    private Pusher pusher;
+    private GameSessionService gameSessionService;
 
     @SuppressWarnings("rawtypes")
     private Collection<RecycleRepository> repositories;
 
-    private VisualizerState state;
-
     @Autowired
     private ApplicationProperties applicationProperties;
 
@@ -60,7 +57,6 @@ public class VisualizerService {
         } else if (!mode.equals(Constants.MODE_RESEARCH)) {
             throw new RuntimeException("Unsupported mode '" + mode + "'");
         }
-        state = VisualizerState.IDLE;
         registerAllRecyclables();
     }
 
@@ -98,21 +94,27 @@ public class VisualizerService {
     }
 
     public void recycleAll() {
+        // nothing of the previous game may still be on its way in
+        gameSessionService.getDefaultSession().getMessageLoop().flush();
         for (RecycleRepository<?> repository: repositories) {
             repository.recycle();
         }
         Broker.recycle();
         Customer.recycle();
         Tariff.recycle();
+        gameSessionService.getDefaultSession().getMessageHandler().recycle();
     }
 
+    /**
+     * The state of the game in the default session, i.e. the one run by the
+     * embedded server or followed in a tournament.
+     */
     public VisualizerState getState() {
-        return state;
+        return gameSessionService.getDefaultSession().getState();
     }
 
     public void setState(VisualizerState state) {
-        this.state = state;
-        pusher.sendGameStatusMessage(state);
+        gameSessionService.getDefaultSession().setState(state);
     }
 
 }
@@ -2,7 +2,6 @@ package org.powertac.visualizer.web.dto;
 
 import org.powertac.visualizer.domain.Broker;
 import org.powertac.visualizer.domain.Customer;
-import org.powertac.visualizer.domain.TickSnapshot;
 import org.powertac.visualizer.service_ptac.CompetitionService;
 import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
 
@@ -17,6 +16,11 @@ import java.util.List;
  * IDs (and there is no need to transmit meta data about competition, brokers
  * and customers each time slot).
  *
+ * Snapshots from earlier time slots are not included, as late in a game they
+ * would make the message very large. Instead, snapshotCount tells the
+ * front-end how many there are, and it fetches them in pages from
+ * /api/snapshots while holding back later pushes.
+ *
  * @author Jurica Babic, Govert Buijs, Erik Kemperman
  */
 public class InitMessage {
@@ -25,7 +29,7 @@ public class InitMessage {
     private CompetitionService competition;
     private List<Broker> brokers;
     private List<Customer> customers;
-    private List<TickSnapshot> snapshots;
+    private int snapshotCount;
 
     public InitMessage() {
         super();
@@ -33,13 +37,13 @@ public class InitMessage {
 
     public InitMessage(VisualizerState state, CompetitionService competition,
             List<Broker> brokers, List<Customer> customer,
-            List<TickSnapshot> snaps) {
+            int snapshotCount) {
         super();
         this.state = state;
         this.competition = competition;
         this.brokers = brokers;
         this.customers = customer;
-        this.snapshots = snaps;
+        this.snapshotCount = snapshotCount;
     }
 
     public VisualizerState getState() {
@@ -50,12 +54,12 @@ public class InitMessage {
         this.state = state;
     }
 
-    public List<TickSnapshot> getSnapshots() {
-        return snapshots;
+    public int getSnapshotCount() {
+        return snapshotCount;
     }
 
-    public void setSnapshots(List<TickSnapshot> snapshots) {
-        this.snapshots = snapshots;
+    public void setSnapshotCount(int snapshotCount) {
+        this.snapshotCount = snapshotCount;
     }
 
     public CompetitionService getCompetition() {
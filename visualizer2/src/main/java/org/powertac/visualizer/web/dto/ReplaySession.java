@@ -0,0 +1,37 @@
+package org.powertac.visualizer.web.dto;
+
+/**
+ * Identifies the game session a replay runs in, and the topic its messages
+ * are pushed on.
+ */
+public class ReplaySession {
+
+    private String id;
+    private String topic;
+
+    public ReplaySession() {
+        super();
+    }
+
+    public ReplaySession(String id, String topic) {
+        super();
+        this.id = id;
+        this.topic = topic;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+}
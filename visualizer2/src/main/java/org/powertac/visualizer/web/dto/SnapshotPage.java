@@ -0,0 +1,65 @@
+package org.powertac.visualizer.web.dto;
+
+import org.powertac.visualizer.domain.TickSnapshot;
+
+import java.util.List;
+
+/**
+ * A page of the current game's tick snapshots, as served by
+ * /api/snapshots. The front-end uses it to fill in the history that the
+ * init message leaves out.
+ */
+public class SnapshotPage {
+
+    private String game;
+    private int from;
+    private int total;
+    private List<TickSnapshot> snapshots;
+
+    public SnapshotPage() {
+        super();
+    }
+
+    public SnapshotPage(String game, int from, int total,
+            List<TickSnapshot> snapshots) {
+        super();
+        this.game = game;
+        this.from = from;
+        this.total = total;
+        this.snapshots = snapshots;
+    }
+
+    public String getGame() {
+        return game;
+    }
+
+    public void setGame(String game) {
+        this.game = game;
+    }
+
+    /** Index of the first snapshot in this page */
+    public int getFrom() {
+        return from;
+    }
+
+    public void setFrom(int from) {
+        this.from = from;
+    }
+
+    /** Number of snapshots in the game so far */
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public List<TickSnapshot> getSnapshots() {
+        return snapshots;
+    }
+
+    public void setSnapshots(List<TickSnapshot> snapshots) {
+        this.snapshots = snapshots;
+    }
+}
@@ -3,7 +3,7 @@ package org.powertac.visualizer.web.rest;
 import com.codahale.metrics.annotation.Timed;
 
 import org.apache.commons.io.FileExistsException;
-import org.apache.commons.io.IOUtils;
+import org.powertac.visualizer.config.ApplicationProperties;
 import org.powertac.visualizer.domain.File;
 import org.powertac.visualizer.domain.Game;
 import org.powertac.visualizer.domain.User;
@@ -24,24 +24,35 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -55,6 +66,15 @@ public class FileResource {
     private final Logger log = LoggerFactory.getLogger(FileResource.class);
 
     private static final String ENTITY_NAME = "file";
+
+    // request attributes of Tomcat's sendfile support
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    static final String DIGEST = "Digest";
+    static final String DIGEST_SHA256 = "SHA-256=";
         
     private final FileService fileService;
     private final GameService gameService;
@@ -69,6 +89,9 @@ public class FileResource {
     @Autowired
     private SyncFilesService syncFilesService;
 
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
     /**
      * POST  /files : Create a new file.
      *
@@ -171,7 +194,7 @@ public class FileResource {
     @Timed
     public ResponseEntity<List<File>> getMyFiles(
             @Valid @NotNull @PathVariable String type) throws URISyntaxException {
-        syncFilesService.syncFileSystem();
+        syncFilesService.flush();
         FileType fileType = FileType.valueOf(type.toUpperCase());
         log.debug("REST request to get owned and shared files, type = " + type);
         String login = SecurityUtils.getCurrentUserLogin();
@@ -180,44 +203,106 @@ public class FileResource {
     }
 
     /**
-     * Download a file.
-     * TODO document.
+     * Download a file. A single byte range is honored, so that an interrupted
+     * download of a large log can be resumed; the ETag is made from the size
+     * and modification time of the file, so it costs no read. The content
+     * goes out through the container's sendfile support where there is one,
+     * and through FileChannel.transferTo otherwise.
      *
-     * @param type
-     * @param id
-     * @param response
+     * @param type the type of the file
+     * @param id the id of the file
+     * @param request the request, with optional Range, If-Range and
+     *        If-None-Match headers
+     * @param response the response
      * @throws IOException
      */
     @GetMapping("/myfiles/{type}/{id}")
     @Timed
     public void getMyFile (@Valid @NotNull @PathVariable String type,
                 @Valid @NotNull @PathVariable Long id,
+                HttpServletRequest request,
                 HttpServletResponse response) throws IOException {
         log.debug("REST request to download a file");
         FileType fileType = FileType.valueOf(type.toUpperCase());
-        if (fileType == null) {
-            throw new IllegalArgumentException("Unknown type " + type);
-        }
         File file = fileService.findOne(id);
+        if (file == null) {
+            throw new FileNotFoundException("No file with id " + id);
+        }
         java.io.File raw = fileType.getFile(file.getOwner(), file.getName());
-        try (
-            InputStream in = new BufferedInputStream(new FileInputStream(raw));
-            OutputStream out = new BufferedOutputStream(response.getOutputStream())
-        ) {
-            response.setHeader("Content-Disposition", "attachment; filename=" + file.getName());
-            response.setHeader("Content-Type", fileType.getContentType());
-            IOUtils.copy(in, out);
+        if (!raw.isFile()) {
+            throw new FileNotFoundException(file.getName());
+        }
+
+        long length = raw.length();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(raw.lastModified()) + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
+        response.setHeader(HttpHeaders.CONTENT_TYPE, fileType.getContentType());
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges = parseRanges(range);
+            // several ranges are answered with the whole file
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                } catch (IllegalArgumentException e) {
+                    start = length;
+                }
+                if (start >= length || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (count == 0 || HttpMethod.HEAD.matches(request.getMethod())) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // the container writes the file once this method returns
+            request.setAttribute(SENDFILE_FILENAME, raw.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(raw.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long sent = channel.transferTo(position, end + 1 - position, out);
+                if (sent <= 0) {
+                    // the file got shorter
+                    break;
+                }
+                position += sent;
+            }
         }
     }
 
     /**
-     * Upload a file.
-     * TODO document.
-     * 
-     * @param part
-     * @param type
-     * @param shared
-     * @throws FileExistsException
+     * Upload a file as multipart form data.
+     *
+     * @param type the type of the file
+     * @param shared whether other users can see the file
+     * @param overwrite whether to replace an existing file of that name
+     * @param part the file
+     * @throws FileExistsException if the file exists and overwrite is not set
      * @throws IOException
      * @throws URISyntaxException
      */
@@ -231,13 +316,85 @@ public class FileResource {
         String name = part.getOriginalFilename();
         log.debug("REST request to upload a " + type.toString() + " file: " +
                 name + " @ " + part.getSize() + " bytes.");
+        try (InputStream in = part.getInputStream()) {
+            return storeFile(type, name, shared, overwrite, part.getSize(), null, in);
+        }
+    }
+
+    /**
+     * Upload a file as the request body, which is streamed straight to disk.
+     * The SHA-256 checksum of the content is returned in a Digest header; if
+     * the request has a Digest header with a SHA-256 checksum, the upload is
+     * refused when it does not match.
+     *
+     * @param type the type of the file
+     * @param name the name of the file
+     * @param shared whether other users can see the file
+     * @param overwrite whether to replace an existing file of that name
+     * @param request the request, with the content as its body
+     * @throws FileExistsException if the file exists and overwrite is not set
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @PutMapping("/myfiles/{type}/")
+    @Timed
+    public ResponseEntity<File> putFile (@Valid @NotNull @PathVariable String type,
+                @RequestParam("name") String name,
+                @RequestParam("shared") Boolean shared,
+                @RequestParam("overwrite") Boolean overwrite,
+                HttpServletRequest request)
+                throws IOException, URISyntaxException {
+        log.debug("REST request to upload a " + type + " file: " +
+                name + " @ " + request.getContentLengthLong() + " bytes.");
+        try (InputStream in = request.getInputStream()) {
+            return storeFile(type, name, shared, overwrite, request.getContentLengthLong(),
+                    request.getHeader(DIGEST), in);
+        }
+    }
+
+    private ResponseEntity<File> storeFile (String type, String name,
+                Boolean shared, Boolean overwrite, long size, String digest,
+                InputStream in) throws IOException, URISyntaxException {
+        if (name == null || name.isEmpty() || name.contains("/") || name.contains("\\")
+                || name.equals(".") || name.equals("..")) {
+            throw new IllegalArgumentException("Invalid file name " + name);
+        }
+        long limit = applicationProperties.getUpload().getMaxSize();
+        if (size > limit) {
+            return tooLarge(limit);
+        }
         String login = SecurityUtils.getCurrentUserLogin();
         User user = userRepository.findOneByLogin(login).orElse(null);
 
         FileType fileType = FileType.valueOf(type.toUpperCase());
         java.io.File raw = fileType.getFile(user, name);
+        if (raw.exists() && !overwrite) {
+            throw new FileExistsException();
+        }
+
+        // receive into a file of its own, which is only moved into place
+        // once complete and checked
+        Path target = raw.toPath();
+        Path partial = target.resolveSibling(name + ".part");
+        String checksum;
+        try {
+            checksum = receive(in, partial, limit);
+        } catch (UploadTooLargeException e) {
+            Files.deleteIfExists(partial);
+            return tooLarge(limit);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        if (digest != null && digest.startsWith(DIGEST_SHA256)
+                && !digest.substring(DIGEST_SHA256.length()).trim().equals(checksum)) {
+            Files.deleteIfExists(partial);
+            return ResponseEntity.badRequest()
+                .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "checksum", "Checksum of " + name + " does not match"))
+                .body(null);
+        }
+
         if (raw.exists()) {
-          if (overwrite) {
             List<File> files = fileService.findByOwnerIsCurrentUser(login, fileType);
             for (File file: files) {
               if (file.getName().equals(name)) {
@@ -250,6 +407,7 @@ public class FileResource {
                     case STATE: game.setStateFile(null); break;
                     case TRACE: game.setTraceFile(null); break;
                     default:
+                      Files.deleteIfExists(partial);
                       throw new IllegalArgumentException("Can't overwrite " + type + " file");
                   }
                   gameService.save(game);
@@ -258,34 +416,82 @@ public class FileResource {
                 break;
               }
             }
-          } else {
-            throw new FileExistsException();
-          }
         }
-        try (
-            OutputStream out = new FileOutputStream(raw);
-            InputStream in = part.getInputStream()
-        ) {
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+
+        File file = new File();
+        file.setType(fileType);
+        file.setName(name);
+        file.setOwner(user);
+        file.setShared(shared);
+        file = fileService.save(file);
+        HttpHeaders headers = HeaderUtil.createEntityCreationAlert(ENTITY_NAME, file.getId().toString());
+        headers.set(DIGEST, DIGEST_SHA256 + checksum);
+        return ResponseEntity.created(new URI("/api/files/" + file.getId()))
+            .headers(headers)
+            .body(file);
+    }
+
+    // Copies the stream to the given path, and returns the base64 encoded
+    // SHA-256 checksum of what was copied
+    private String receive (InputStream in, Path path, long limit) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
             byte[] buf = new byte[65536];
-            while (true) {
-              int len = in.read(buf);
-              if (len > 0) {
-                out.write(buf, 0, len);
-              } else {
-                break;
-              }
+            ByteBuffer buffer = ByteBuffer.wrap(buf);
+            long size = 0;
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                size += len;
+                if (size > limit) {
+                    throw new UploadTooLargeException();
+                }
+                sha256.update(buf, 0, len);
+                buffer.clear().limit(len);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
             }
+        }
+        return Base64.getEncoder().encodeToString(sha256.digest());
+    }
+
+    private ResponseEntity<File> tooLarge (long limit) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+            .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "toolarge", "Files can be at most " + limit + " bytes"))
+            .body(null);
+    }
+
+    private static List<HttpRange> parseRanges (String range) {
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            // a Range header that can't be parsed is ignored
+            return Collections.emptyList();
+        }
+    }
 
-            File file = new File();
-            file.setType(fileType);
-            file.setName(name);
-            file.setOwner(user);
-            file.setShared(shared);
-            file = fileService.save(file);
-            return ResponseEntity.created(new URI("/api/files/" + file.getId()))
-                .headers(HeaderUtil.createEntityCreationAlert("file", file.getId().toString()))
-                .body(file);
+    private static boolean matches (String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
         }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class UploadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
     }
 
 }
@@ -13,8 +13,10 @@ import org.powertac.visualizer.repository.UserRepository;
 import org.powertac.visualizer.security.SecurityUtils;
 import org.powertac.visualizer.service.GameService;
 import org.powertac.visualizer.service_ptac.EmbeddedService;
+import org.powertac.visualizer.service_ptac.GameSession;
 import org.powertac.visualizer.service_ptac.VisualizerService;
 import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.dto.ReplaySession;
 import org.powertac.visualizer.web.rest.util.HeaderUtil;
 import org.powertac.visualizer.web.rest.util.PaginationUtil;
 
@@ -281,7 +283,7 @@ public class GameResource {
 
     @PostMapping("/replaygame_internal")
     @Timed
-    public ResponseEntity<Void> replayGameInternal(@Valid @RequestBody File file)
+    public ResponseEntity<ReplaySession> replayGameInternal(@Valid @RequestBody File file)
              throws URISyntaxException, IOException {
         log.debug("REST request to replay an internal game");
 
@@ -291,54 +293,47 @@ public class GameResource {
         if (visualizerService.getMode().equals(Constants.MODE_TOURNAMENT)) {
             throw new IllegalStateException("Not available in tournament mode");
         }
-        if (visualizerService.getState().equals(VisualizerState.RUNNING)) {
-            throw new IllegalStateException("Visualizer already has a game running");
-        }
 
         InputStream source = new FileInputStream(new java.io.File(file.getPath()));
-        String error = embeddedService.runReplayGame(source);
-        if (error != null) {
-            throw new RuntimeException(error);
-        }
+        GameSession session = embeddedService.runReplayGame(source);
 
         return ResponseEntity.ok()
                 .headers(HeaderUtil.createAlert("Replaying game from '" + file.getPath() + "'", null))
-                .body(null);
+                .body(new ReplaySession(session.getId(), session.getTopic()));
     }
 
     @PostMapping("/replaygame_external")
     @Timed
-    public ResponseEntity<Void> replayGameExternal(@Valid @RequestBody String url)
+    public ResponseEntity<ReplaySession> replayGameExternal(@Valid @RequestBody String url)
              throws URISyntaxException, MalformedURLException, IOException {
         log.debug("REST request to replay an external game");
 
         if (visualizerService.getMode().equals(Constants.MODE_TOURNAMENT)) {
             throw new IllegalStateException("Not available in tournament mode");
         }
-        if (visualizerService.getState().equals(VisualizerState.RUNNING)) {
-            throw new IllegalStateException("Visualizer already has a game running");
-        }
 
         InputStream source = new URL(url).openStream();
-        String error = embeddedService.runReplayGame(source);
-        if (error != null) {
-            throw new RuntimeException(error);
-        }
+        GameSession session = embeddedService.runReplayGame(source);
 
         return ResponseEntity.ok()
                 .headers(HeaderUtil.createAlert("Replaying game from '" + url + "'", null))
-                .body(null);
+                .body(new ReplaySession(session.getId(), session.getTopic()));
     }
 
     @PostMapping("/closegame")
     @Timed
-    public ResponseEntity<Void> closeGame() throws IllegalStateException {
-        log.debug("REST request to start a game");
+    public ResponseEntity<Void> closeGame(
+            @RequestParam(required = false) String session) throws IllegalStateException {
+        log.debug("REST request to close a game");
         if (visualizerService.getMode().equals(Constants.MODE_TOURNAMENT)) {
             throw new IllegalStateException("Not available in tournament mode");
         }
 
-        embeddedService.closeGame();
+        if (session == null) {
+            embeddedService.closeGame();
+        } else {
+            embeddedService.closeReplay(session);
+        }
 
         return ResponseEntity.ok()
                 .headers(HeaderUtil.createAlert("Game stopped", null))
@@ -0,0 +1,67 @@
+package org.powertac.visualizer.web.rest;
+
+import com.codahale.metrics.annotation.Timed;
+
+import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
+import org.powertac.visualizer.service_ptac.GameSession;
+import org.powertac.visualizer.service_ptac.GameSessionService;
+import org.powertac.visualizer.web.dto.SnapshotPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST controller for the tick snapshot history of a game session.
+ */
+@RestController
+@RequestMapping("/api")
+public class SnapshotResource {
+
+    private final Logger log = LoggerFactory.getLogger(SnapshotResource.class);
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final GameSessionService gameSessionService;
+
+    public SnapshotResource(GameSessionService gameSessionService) {
+        this.gameSessionService = gameSessionService;
+    }
+
+    /**
+     * GET  /snapshots : get a page of tick snapshots.
+     *
+     * @param from index of the first snapshot
+     * @param size the number of snapshots to return, at most 1000
+     * @param session the replay session, or none for the default session
+     * @return the ResponseEntity with status 200 (OK) and the page in body,
+     *         or with status 404 (Not Found) for an unknown session
+     */
+    @GetMapping("/snapshots")
+    @Timed
+    public ResponseEntity<SnapshotPage> getSnapshots(
+            @RequestParam(defaultValue = "0") int from,
+            @RequestParam(defaultValue = "200") int size,
+            @RequestParam(required = false) String session) {
+        log.debug("REST request to get snapshots from {}, size {}", from, size);
+        if (from < 0 || size < 1) {
+            return ResponseEntity.badRequest().body(null);
+        }
+        GameSession gameSession = gameSessionService.find(session);
+        if (gameSession == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        TickSnapshotRepository tickSnapshotRepository =
+                gameSession.getTickSnapshotRepository();
+        int total = tickSnapshotRepository.count();
+        SnapshotPage page = new SnapshotPage(gameSession.getCompetition().getName(),
+                from, total, tickSnapshotRepository.findPage(from,
+                        Math.min(size, MAX_PAGE_SIZE)));
+        return new ResponseEntity<>(page, HttpStatus.OK);
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.powertac.visualizer.web.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Limits how often frames are sent. An item submitted when no frame has been
+ * sent for a full frame interval goes out at once; items submitted faster
+ * than that are collected and sent together as one frame at the end of the
+ * interval. Frames are handed to the sender one at a time, in order.
+ *
+ * @param <T> the type of item sent
+ */
+public class PushScheduler<T> {
+
+    private final long intervalNanos;
+    private final Consumer<List<T>> sender;
+    private final ScheduledExecutorService executor;
+
+    private List<T> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private long lastFrame;
+
+    /**
+     * @param frameRate maximum number of frames per second, 0 for no limit
+     * @param executor runs the delayed frames; may be shared
+     * @param sender receives each frame
+     */
+    public PushScheduler(int frameRate, ScheduledExecutorService executor,
+            Consumer<List<T>> sender) {
+        this.intervalNanos = frameRate > 0 ? TimeUnit.SECONDS.toNanos(1) / frameRate : 0;
+        this.executor = executor;
+        this.sender = sender;
+        this.lastFrame = System.nanoTime() - intervalNanos;
+    }
+
+    public synchronized void submit(T item) {
+        pending.add(item);
+        if (flushScheduled) {
+            return;
+        }
+        long wait = lastFrame + intervalNanos - System.nanoTime();
+        if (wait <= 0) {
+            sendFrame();
+        } else {
+            flushScheduled = true;
+            executor.schedule(this::flush, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends whatever is pending right away, for instance ahead of a message
+     * that must not overtake it.
+     */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if (!pending.isEmpty()) {
+            sendFrame();
+        }
+    }
+
+    private void sendFrame() {
+        List<T> frame = pending;
+        pending = new ArrayList<>();
+        lastFrame = System.nanoTime();
+        sender.accept(frame);
+    }
+
+}
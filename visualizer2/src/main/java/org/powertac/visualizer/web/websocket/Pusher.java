@@ -1,67 +1,203 @@
 package org.powertac.visualizer.web.websocket;
 
+import org.powertac.visualizer.config.ApplicationProperties;
 import org.powertac.visualizer.domain.TickSnapshot;
-import org.powertac.visualizer.repository_ptac.BrokerRepository;
-import org.powertac.visualizer.repository_ptac.CustomerRepository;
-import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
-import org.powertac.visualizer.service_ptac.CompetitionService;
-import org.powertac.visualizer.service_ptac.VisualizerService;
+import org.powertac.visualizer.service_ptac.GameSession;
+import org.powertac.visualizer.service_ptac.GameSessionService;
 import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
 import org.powertac.visualizer.web.dto.InitMessage;
 import org.powertac.visualizer.web.dto.Message;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 /**
+ * Pushes game messages to the browsers. The default game session is pushed
+ * on /topic/push, each replay session on /topic/push/{session}.
+ *
+ * Each subscription of each STOMP session has a SessionOutbox of its own,
+ * which coalesces snapshots and sends them to that session directly rather
+ * than through the broker, so that a slow browser only delays and drops its
+ * own frames.
+ *
  * @author Jurica Babic, Govert Buijs, Erik Kemperman
  */
 @Controller
 public class Pusher {
 
-    private static final String TOPIC_MESSAGE = "/topic/push";
+    public static final String TOPIC_MESSAGE = "/topic/push";
 
     @Autowired
-    private SimpMessageSendingOperations messagingTemplate;
+    private SimpMessagingTemplate messagingTemplate;
 
     @Autowired
-    private VisualizerService visualizerService;
+    @Qualifier("subProtocolWebSocketHandler")
+    private WebSocketHandler webSocketHandler;
 
     @Autowired
-    private BrokerRepository brokerRepository;
+    private GameSessionService gameSessionService;
 
     @Autowired
-    private CustomerRepository customerRepository;
+    private ApplicationProperties applicationProperties;
 
-    @Autowired
-    private TickSnapshotRepository tickSnapshotRepository;
+    private ScheduledExecutorService frameExecutor;
+    private ExecutorService sendExecutor;
 
-    @Autowired
-    private CompetitionService currentCompetition;
+    // outboxes by topic, then by session and subscription id
+    private final Map<String, Map<String, SessionOutbox>> outboxes =
+            new ConcurrentHashMap<>();
+
+    public static String sessionTopic(String session) {
+        return TOPIC_MESSAGE + "/" + session;
+    }
+
+    @PostConstruct
+    public void afterPropertiesSet() {
+        frameExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "push-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a session that is slow to take a frame only holds up its own thread
+        sendExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "push-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        frameExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String topic = headers.getDestination();
+        if (topic == null
+                || !(topic.equals(TOPIC_MESSAGE) || topic.startsWith(TOPIC_MESSAGE + "/"))) {
+            return;
+        }
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        ApplicationProperties.Push push = applicationProperties.getPush();
+        SessionOutbox outbox = new SessionOutbox(sessionId, subscriptionId,
+                push.getFrameRate(), push.getSessionQueueLimit(), frameExecutor, sendExecutor,
+                message -> sendToSession(topic, sessionId, subscriptionId, message));
+        outboxes.computeIfAbsent(topic, key -> new ConcurrentHashMap<>())
+                .put(sessionId + "/" + subscriptionId, outbox);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String key = headers.getSessionId() + "/" + headers.getSubscriptionId();
+        for (Map<String, SessionOutbox> topicOutboxes : outboxes.values()) {
+            topicOutboxes.remove(key);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        for (Map<String, SessionOutbox> topicOutboxes : outboxes.values()) {
+            topicOutboxes.values().removeIf(
+                    outbox -> outbox.getSessionId().equals(event.getSessionId()));
+        }
+    }
 
     @SubscribeMapping(TOPIC_MESSAGE)
     public Message pusherInit() {
-        return new Message(Message.Type.INIT, currentCompetition.getName(),
-                new InitMessage(visualizerService.getState(),
-                        currentCompetition, brokerRepository.findAll(),
-                        customerRepository.findAll(),
-                        tickSnapshotRepository.findAll()));
+        return initMessage(gameSessionService.getDefaultSession());
+    }
+
+    @SubscribeMapping(TOPIC_MESSAGE + "/{session}")
+    public Message pusherSessionInit(@DestinationVariable String session) {
+        GameSession gameSession = gameSessionService.find(session);
+        return gameSession == null ? null : initMessage(gameSession);
+    }
+
+    public void sendInitMessage(String topic, String game, InitMessage initMessage) {
+        Message message = new Message(Message.Type.INIT, game, initMessage);
+        for (SessionOutbox outbox : outboxes(topic).values()) {
+            outbox.send(message);
+        }
+    }
+
+    /**
+     * Snapshots produced faster than the configured frame rate, as in a fast
+     * replay, are coalesced for each session; a DATA message always carries a
+     * list of them.
+     */
+    public void sendTickSnapshotUpdates(String topic, String game, TickSnapshot payload) {
+        Message message = new Message(Message.Type.DATA, game, payload);
+        for (SessionOutbox outbox : outboxes(topic).values()) {
+            outbox.submitSnapshot(message);
+        }
+    }
+
+    public void sendGameStatusMessage(String topic, String game, VisualizerState status) {
+        Message message = new Message(Message.Type.INFO, game, status);
+        for (SessionOutbox outbox : outboxes(topic).values()) {
+            outbox.send(message);
+        }
+    }
+
+    /**
+     * Sends what is still pending for a topic that is no longer used.
+     */
+    public void closeTopic(String topic) {
+        Map<String, SessionOutbox> topicOutboxes = outboxes.remove(topic);
+        if (topicOutboxes != null) {
+            for (SessionOutbox outbox : topicOutboxes.values()) {
+                outbox.flush();
+            }
+        }
     }
 
-    public void sendInitMessage(InitMessage initMessage) {
-        messagingTemplate.convertAndSend(TOPIC_MESSAGE,
-                new Message(Message.Type.INIT, currentCompetition.getName(), initMessage));
+    private Message initMessage(GameSession session) {
+        return new Message(Message.Type.INIT, session.getCompetition().getName(),
+                session.getInitMessage());
     }
 
-    public void sendTickSnapshotUpdates(TickSnapshot payload) {
-        messagingTemplate.convertAndSend(TOPIC_MESSAGE,
-                new Message(Message.Type.DATA, currentCompetition.getName(), payload));
+    private Map<String, SessionOutbox> outboxes(String topic) {
+        Map<String, SessionOutbox> result = outboxes.get(topic);
+        return result == null ? java.util.Collections.emptyMap() : result;
     }
 
-    public void sendGameStatusMessage(VisualizerState status) {
-        messagingTemplate.convertAndSend(TOPIC_MESSAGE,
-                new Message(Message.Type.INFO, currentCompetition.getName(), status));
+    // A message to one subscription, as the broker would make it for each
+    // subscriber, handed to the session without the outbound channel
+    private void sendToSession(String topic, String sessionId, String subscriptionId,
+            Message message) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination(topic);
+        headers.setLeaveMutable(true);
+        org.springframework.messaging.Message<?> frame =
+                messagingTemplate.getMessageConverter().toMessage(message, headers.getMessageHeaders());
+        ((MessageHandler) webSocketHandler).handleMessage(frame);
     }
 
 }
@@ -0,0 +1,165 @@
+package org.powertac.visualizer.web.websocket;
+
+import org.powertac.visualizer.web.dto.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Messages on their way to one subscription of one STOMP session. Snapshots
+ * are coalesced to the frame rate by a PushScheduler of the session's own.
+ * Messages are sent one at a time on a shared executor; while one is on its
+ * way, the following ones wait here. When more than the limit of snapshots
+ * are waiting, the oldest are dropped, so a session that cannot keep up
+ * loses its own frames and holds up no other session.
+ */
+public class SessionOutbox {
+
+    private final Logger log = LoggerFactory.getLogger(SessionOutbox.class);
+
+    private final String sessionId;
+    private final String subscriptionId;
+    private final int limit;
+    private final Executor sendExecutor;
+    private final Consumer<Message> sink;
+    private final PushScheduler<Message> scheduler;
+
+    private final Deque<Message> waiting = new ArrayDeque<>();
+    private int waitingSnapshots = 0;
+    private boolean sending = false;
+    private long dropped = 0;
+
+    /**
+     * @param frameRate maximum number of snapshot frames per second
+     * @param limit most snapshots kept waiting for the session
+     * @param frameExecutor runs the delayed frames; may be shared
+     * @param sendExecutor sends to the session; may be shared
+     * @param sink sends one message to the session, blocking while it does
+     */
+    public SessionOutbox(String sessionId, String subscriptionId, int frameRate, int limit,
+            ScheduledExecutorService frameExecutor, Executor sendExecutor, Consumer<Message> sink) {
+        this.sessionId = sessionId;
+        this.subscriptionId = subscriptionId;
+        this.limit = Math.max(1, limit);
+        this.sendExecutor = sendExecutor;
+        this.sink = sink;
+        this.scheduler = new PushScheduler<>(frameRate, frameExecutor, this::enqueueFrame);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * Adds a snapshot DATA message to the next frame.
+     */
+    public void submitSnapshot(Message snapshot) {
+        scheduler.submit(snapshot);
+    }
+
+    /**
+     * Sends an INIT or INFO message after the snapshots before it.
+     */
+    public void send(Message message) {
+        scheduler.flush();
+        synchronized (this) {
+            waiting.add(message);
+            startSending();
+        }
+    }
+
+    /**
+     * Releases the snapshots held back by the frame rate.
+     */
+    public void flush() {
+        scheduler.flush();
+    }
+
+    /** Number of snapshots dropped because the session fell behind */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    private synchronized void enqueueFrame(List<Message> frame) {
+        waiting.addAll(frame);
+        waitingSnapshots += frame.size();
+        Iterator<Message> oldest = waiting.iterator();
+        while (waitingSnapshots > limit && oldest.hasNext()) {
+            if (oldest.next().getType() == Message.Type.DATA) {
+                oldest.remove();
+                waitingSnapshots -= 1;
+                dropped += 1;
+            }
+        }
+        startSending();
+    }
+
+    private void startSending() {
+        if (!sending) {
+            sending = true;
+            sendExecutor.execute(this::drain);
+        }
+    }
+
+    // Sends what is waiting, a DATA message per run of snapshots of one
+    // game, until nothing is left
+    private void drain() {
+        while (true) {
+            List<Message> batch;
+            synchronized (this) {
+                if (waiting.isEmpty()) {
+                    sending = false;
+                    return;
+                }
+                batch = new ArrayList<>(waiting);
+                waiting.clear();
+                waitingSnapshots = 0;
+            }
+            List<Object> snapshots = new ArrayList<>();
+            String game = null;
+            for (Message message : batch) {
+                if (message.getType() == Message.Type.DATA
+                        && (snapshots.isEmpty() || Objects.equals(message.getGame(), game))) {
+                    game = message.getGame();
+                    snapshots.add(message.getMessage());
+                    continue;
+                }
+                if (!snapshots.isEmpty()) {
+                    deliver(new Message(Message.Type.DATA, game, snapshots));
+                    snapshots = new ArrayList<>();
+                }
+                if (message.getType() == Message.Type.DATA) {
+                    game = message.getGame();
+                    snapshots.add(message.getMessage());
+                } else {
+                    deliver(message);
+                }
+            }
+            if (!snapshots.isEmpty()) {
+                deliver(new Message(Message.Type.DATA, game, snapshots));
+            }
+        }
+    }
+
+    private void deliver(Message message) {
+        try {
+            sink.accept(message);
+        } catch (RuntimeException e) {
+            log.warn("Cannot send to session {}: {}", sessionId, e.toString());
+        }
+    }
+
+}
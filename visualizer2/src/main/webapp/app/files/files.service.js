@@ -15,30 +15,20 @@
                 isArray: true
             },
             'upload': {
-                method: 'POST',
-                params: { type: '@type' },
+                // the file goes as the raw request body, which the server
+                // streams to disk
+                method: 'PUT',
+                params: {
+                    type: '@type',
+                    name: '@file.name',
+                    shared: '@shared',
+                    overwrite: '@overwrite'
+                },
                 transformRequest: function (data) {
-                    if (data === undefined) {
-                      return data;
-                    }
-                    var fd = new FormData();
-                    angular.forEach(data, function (value, key) {
-                        if (value instanceof FileList) {
-                            if (value.length === 1) {
-                                fd.append(key, value[0]);
-                            } else {
-                                angular.forEach(value, function (file, index) {
-                                    fd.append(key + '_' + index, file);
-                                });
-                            }
-                        } else {
-                            fd.append(key, value);
-                        }
-                    });
-                    return fd;
+                    return data === undefined ? data : data.file;
                 },
                 headers: {
-                    'Content-Type': undefined
+                    'Content-Type': 'application/octet-stream'
                 }
             }
         })
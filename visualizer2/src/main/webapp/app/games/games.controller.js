@@ -5,9 +5,9 @@
     .module('visualizer2App')
     .controller('GamesController', GamesController);
 
-  GamesController.$inject = ['$log', 'AlertService', 'State', 'Games'];
+  GamesController.$inject = ['$log', 'AlertService', 'State', 'Games', 'Push'];
 
-  function GamesController ($log, AlertService, State, Games) {
+  function GamesController ($log, AlertService, State, Games, Push) {
     var vm = this;
 
     vm.setMode = setMode;
@@ -147,6 +147,7 @@
       };
       Games.boot(game, vm.overwrite,
         function () {
+          Push.watch(null);
           setMode('');
         },
         function (error) {
@@ -171,6 +172,7 @@
       };
       Games.run(game, vm.overwrite,
         function () {
+          Push.watch(null);
           setMode('');
         },
         function (error) {
@@ -182,7 +184,9 @@
     function startReplay () {
       if  (vm.replaySource === 'EXTERNAL') {
         Games.replayExternal(vm.replayUrl,
-            function () {
+            function (response) {
+              // follow the replay in its own session
+              Push.watch(response.data.id);
               setMode('');
             },
             function (error) {
@@ -191,7 +195,9 @@
         );
       } else {
         Games.replayInternal(Games.stateFile,
-            function () {
+            function (response) {
+              // follow the replay in its own session
+              Push.watch(response.data.id);
               setMode('');
             },
             function (error) {
@@ -202,8 +208,9 @@
     }
 
     function stopGame () {
-      Games.close(
+      Games.close(Push.getSession(),
           function() {
+            Push.watch(null);
             setMode('');
             setSource('');
           },
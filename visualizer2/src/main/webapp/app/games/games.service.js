@@ -53,9 +53,9 @@
       $http.post('api/replaygame_external', file).then(success, error);
     }
 
-    function close (success, error) {
+    function close (session, success, error) {
       console.log('Closing game');
-      $http.post('api/closegame').then(success, error);
+      $http.post('api/closegame', null, {params: {session: session}}).then(success, error);
     }
 
     return service;
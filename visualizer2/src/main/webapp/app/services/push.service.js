@@ -12,7 +12,9 @@
     function Push ($http, $cookies, $q, $timeout, $log, DEBUG_INFO_ENABLED) {
         var service = {
             receive: receive,
-            onConnectionChanged: onConnectionChanged
+            onConnectionChanged: onConnectionChanged,
+            watch: watch,
+            getSession: getSession
         };
 
         var loc = window.location;
@@ -29,6 +31,10 @@
         var connected = false;
         var connectionChanged = null;
 
+        // the replay session followed, null for the default session
+        var session = null;
+        var subscription = null;
+
         var socket = {
             client: null,
             stomp: null
@@ -42,10 +48,38 @@
             connectionChanged = callback;
         }
 
+        function getSession () {
+            return session;
+        }
+
+        // Switch to another game session; the init message of the new topic
+        // replaces the state of the old one.
+        function watch (newSession) {
+            newSession = newSession || null;
+            if (newSession === session) {
+                return;
+            }
+            session = newSession;
+            if (connected) {
+                subscribe();
+            }
+        }
+
         function getMessage (data) {
             return JSON.parse(data);
         }
 
+        function subscribe () {
+            if (subscription !== null) {
+                subscription.unsubscribe();
+            }
+            subscription = socket.stomp.subscribe(session ? TOPIC + '/' + session : TOPIC, function (data) {
+                listener.notify(getMessage(data.body));
+            }, {
+                id: clientId
+            });
+        }
+
         function success () {
             if (!connected) {
                 connected = true;
@@ -53,11 +87,8 @@
             }
             // new values
             delay = RECONNECT_TIMEOUT_START;
-            socket.stomp.subscribe(TOPIC, function (data) {
-                listener.notify(getMessage(data.body));
-            }, {
-                id: clientId
-            });
+            subscription = null;
+            subscribe();
         }
 
         function failure (error) {
@@ -4,9 +4,9 @@
         .module('visualizer2App')
         .service('State', State);
 
-    State.$inject = ['$rootScope', 'Push'];
+    State.$inject = ['$rootScope', '$http', 'Push'];
 
-    function State ($rootScope, Push) {
+    function State ($rootScope, $http, Push) {
         var service = this;
 
         service.brokers = [];
@@ -18,6 +18,7 @@
         service.timeSlot = '';
         service.timeInstance = '';
         service.queue = [];
+        service.loading = false;
         service.gameStatus = '';
         service.prevStatus = '';
         service.gameStatusStyle = 'default';
@@ -51,6 +52,9 @@
             service.allGraphKeys[key] = service.wholesaleGraphKeys[key];
         });
 
+        // number of snapshots to fetch per history request
+        var HISTORY_PAGE_SIZE = 200;
+
         service.changed = Object.keys(service.allGraphKeys).reduce(function(map, key) {
             map[key] = false;
             return map;
@@ -330,6 +334,61 @@
             }
         }
 
+        // Fetch the snapshots up to the init message's cursor one page at a
+        // time, then apply what was pushed in the meantime.
+        function loadHistory (game, count) {
+            function loadPage (from) {
+                if (service.gameName !== game) {
+                    // a newer game has been initialized
+                    return;
+                }
+                if (from >= count) {
+                    finishLoading();
+                    return;
+                }
+                $http.get('api/snapshots', {
+                    params: {from: from, size: HISTORY_PAGE_SIZE, session: Push.getSession()}
+                }).then(function (response) {
+                    var page = response.data;
+                    if (service.gameName !== game || page.game !== game) {
+                        return;
+                    }
+                    page.snapshots.forEach(function (snapshot) {
+                        processSnapshot(snapshot);
+                    });
+                    if (page.snapshots.length === 0) {
+                        finishLoading();
+                    } else {
+                        loadPage(from + page.snapshots.length);
+                    }
+                }, function (response) {
+                    console.log('history load failed: ' + response.status);
+                    finishLoading();
+                });
+            }
+            loadPage(0);
+        }
+
+        function finishLoading () {
+            service.loading = false;
+            $rootScope.$broadcast('gameInitialized');
+            var queue = service.queue;
+            service.queue = [];
+            queue.forEach(function(obj) {
+                if (obj.game !== service.gameName) {
+                    console.log('ignore ' + obj.type + ' ' + obj.game);
+                    return;
+                }
+                if (obj.type.localeCompare('DATA') === 0) {
+                    // leave out what was already part of the history pages
+                    obj.message = obj.message.filter(function (snapshot) {
+                        return snapshot.timeSlot > service.timeSlot;
+                    });
+                }
+                handlePushMessage(obj);
+            });
+        }
+
         function handlePushMessage (obj) {
             var message = obj.message;
             var type = obj.type;
@@ -343,21 +402,12 @@
                 processBrokers(message.brokers);
                 processCustomers(message.customers);
 
-                message.snapshots.forEach(function (snapshot) {
-                    processSnapshot(snapshot);
-                });
-                $rootScope.$broadcast('gameInitialized');
-                service.queue.forEach(function(obj) {
-                    if (obj.game === service.gameName) {
-                        handlePushMessage(obj);
-                    } else {
-                        console.log('ignore ' + obj.type + ' ' + obj.game);
-                    }
-                });
-                service.queue = [];
+                // the history is not part of the init message
+                service.loading = true;
+                loadHistory(obj.game, message.snapshotCount);
                 return;
             }
-            if (service.gameName !== obj.game) {
+            if (service.loading || service.gameName !== obj.game) {
                 console.log('queue ' + obj.type + ' ' + obj.game);
                 service.queue.push(obj);
                 return;
@@ -366,7 +416,10 @@
                 setStatus(message);
             }
             else if (type.localeCompare('DATA') === 0) {
-                processSnapshot(message);
+                // snapshots pushed in quick succession arrive together
+                message.forEach(function (snapshot) {
+                    processSnapshot(snapshot);
+                });
             }
         }
 
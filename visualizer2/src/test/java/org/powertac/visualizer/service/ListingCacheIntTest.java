@@ -0,0 +1,181 @@
+package org.powertac.visualizer.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.File;
+import org.powertac.visualizer.domain.Game;
+import org.powertac.visualizer.domain.Graph;
+import org.powertac.visualizer.domain.User;
+import org.powertac.visualizer.domain.enumeration.FileType;
+import org.powertac.visualizer.domain.enumeration.GameType;
+import org.powertac.visualizer.domain.enumeration.GraphType;
+import org.powertac.visualizer.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the cached listings of the entity services. The tests run
+ * without a surrounding transaction, since cache updates are applied when
+ * the transactions of the services commit.
+ *
+ * @see GameService
+ * @see FileService
+ * @see GraphService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class)
+public class ListingCacheIntTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private GameService gameService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private GraphService graphService;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private User user;
+    private User admin;
+
+    private List<Game> games = new ArrayList<>();
+    private List<File> files = new ArrayList<>();
+    private List<Graph> graphs = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        user = userRepository.findOneByLogin("user").get();
+        admin = userRepository.findOneByLogin("admin").get();
+    }
+
+    @After
+    public void tearDown() {
+        games.stream().filter(game -> gameService.findOne(game.getId()) != null)
+            .forEach(game -> gameService.delete(game.getId()));
+        files.stream().filter(file -> fileService.findOne(file.getId()) != null)
+            .forEach(file -> fileService.delete(file.getId()));
+        graphs.stream().filter(graph -> graphService.findOne(graph.getId()) != null)
+            .forEach(graph -> graphService.delete(graph.getId()));
+    }
+
+    @Test
+    public void testListingIsCached() {
+        List<Game> first = gameService.findByOwnerIsCurrentUserOrShared("user");
+        List<Game> second = gameService.findByOwnerIsCurrentUserOrShared("user");
+        assertThat(second).isSameAs(first);
+        assertThat(gameService.findByOwnerIsCurrentUserOrShared("admin")).isNotSameAs(first);
+    }
+
+    @Test
+    public void testGameListingFollowsWrites() {
+        assertThat(gameNames("user")).doesNotContain("cache-game");
+
+        Game game = saveGame("cache-game", user, false);
+        assertThat(gameNames("user")).contains("cache-game");
+
+        game.setName("renamed-game");
+        gameService.save(game);
+        assertThat(gameNames("user")).contains("renamed-game").doesNotContain("cache-game");
+
+        gameService.delete(game.getId());
+        assertThat(gameNames("user")).doesNotContain("renamed-game");
+    }
+
+    @Test
+    public void testSharingEvictsListingsOfOtherUsers() {
+        Game game = saveGame("admin-game", admin, false);
+        assertThat(gameNames("user")).doesNotContain("admin-game");
+
+        game.setShared(true);
+        gameService.save(game);
+        assertThat(gameNames("user")).contains("admin-game");
+    }
+
+    @Test
+    public void testFileListingFollowsWrites() {
+        assertThat(fileNames("user", FileType.STATE)).doesNotContain("cache-file.state");
+        assertThat(fileNames("user", FileType.ANY)).doesNotContain("cache-file.state");
+
+        File file = fileService.createFile(FileType.STATE, "cache-file.state", user);
+        files.add(file);
+        assertThat(fileNames("user", FileType.STATE)).contains("cache-file.state");
+        assertThat(fileNames("user", FileType.ANY)).contains("cache-file.state");
+        assertThat(fileNames("user", FileType.TRACE)).doesNotContain("cache-file.state");
+
+        fileService.delete(file.getId());
+        assertThat(fileNames("user", FileType.STATE)).doesNotContain("cache-file.state");
+        assertThat(fileNames("user", FileType.ANY)).doesNotContain("cache-file.state");
+    }
+
+    @Test
+    public void testGraphListingFollowsWrites() {
+        List<Graph> before = graphService.findByOwnerIsCurrentUserOrShared("user");
+
+        Graph graph = new Graph();
+        graph.setName("cache-graph");
+        graph.setType(GraphType.LINE);
+        graph.setShared(false);
+        graph.setOwner(user);
+        graph = graphService.save(graph);
+        graphs.add(graph);
+        assertThat(graphService.findByOwnerIsCurrentUserOrShared("user"))
+            .hasSize(before.size() + 1);
+
+        graphService.delete(graph.getId());
+        assertThat(graphService.findByOwnerIsCurrentUserOrShared("user"))
+            .hasSize(before.size());
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testHitsArePublished() {
+        String name = "jcache.statistics." + GameService.GAMES_BY_USER_CACHE + ".cache-hits";
+        Gauge hits = metricRegistry.getGauges().get(name);
+        assertThat(hits).isNotNull();
+
+        gameService.findByOwnerIsCurrentUserOrShared("admin");
+        long before = ((Number) hits.getValue()).longValue();
+        gameService.findByOwnerIsCurrentUserOrShared("admin");
+        assertThat(((Number) hits.getValue()).longValue()).isEqualTo(before + 1);
+    }
+
+    private Game saveGame(String name, User owner, boolean shared) {
+        Game game = new Game();
+        game.setType(GameType.SIM);
+        game.setName(name);
+        game.setShared(shared);
+        game.setOwner(owner);
+        game = gameService.save(game);
+        games.add(game);
+        return game;
+    }
+
+    private List<String> gameNames(String login) {
+        return gameService.findByOwnerIsCurrentUserOrShared(login).stream()
+            .map(Game::getName).collect(Collectors.toList());
+    }
+
+    private List<String> fileNames(String login, FileType type) {
+        return fileService.findByOwnerIsCurrentUserOrShared(login, type).stream()
+            .map(File::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,286 @@
+package org.powertac.visualizer.service_ptac;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.common.Competition;
+import org.powertac.common.msg.TimeslotUpdate;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.Broker;
+import org.powertac.visualizer.domain.TickSnapshot;
+import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.dto.Message;
+import org.powertac.visualizer.web.dto.TickValueBroker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Test class for replays running side by side, each in a game session of
+ * its own.
+ *
+ * @see GameSessionService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class,
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "application.replay.max-concurrent=2")
+public class GameSessionServiceIntTest {
+
+    private static final int TIMESLOTS = 200;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private GameSessionService gameSessionService;
+
+    @Autowired
+    private EmbeddedService embeddedService;
+
+    private WebSocketStompClient stompClient;
+    private StompSession stompSession;
+    private List<GameSession> opened = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        stompClient = new WebSocketStompClient(new SockJsClient(
+            Collections.singletonList(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        String csrfToken = UUID.randomUUID().toString();
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        handshakeHeaders.add(HttpHeaders.COOKIE, "XSRF-TOKEN=" + csrfToken);
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("X-XSRF-TOKEN", csrfToken);
+        stompSession = stompClient.connect("ws://localhost:" + port + "/websocket/push",
+            handshakeHeaders, connectHeaders, new StompSessionHandlerAdapter() {})
+            .get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        for (GameSession session : opened) {
+            gameSessionService.closeSession(session.getId());
+        }
+        stompSession.disconnect();
+        stompClient.stop();
+    }
+
+    @Test
+    public void testReplaysDoNotMix() throws Exception {
+        GameSession first = open();
+        GameSession second = open();
+        assertThat(first.getTopic()).isNotEqualTo(second.getTopic());
+        BlockingQueue<Message> firstReceived = subscribe(first);
+        BlockingQueue<Message> secondReceived = subscribe(second);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread firstReplay = replay(first, "game-a", 2, start, errors);
+        Thread secondReplay = replay(second, "game-b", 3, start, errors);
+        start.countDown();
+        firstReplay.join(30000);
+        secondReplay.join(30000);
+        assertThat(errors).isEmpty();
+
+        assertOwnGame(first, "game-a", 2, firstReceived);
+        assertOwnGame(second, "game-b", 3, secondReceived);
+
+        // the default session saw none of it
+        assertThat(gameSessionService.getDefaultSession().getBrokerRepository().findByName("game-a-0")).isNull();
+    }
+
+    @Test
+    public void testConcurrentReplaysAreLimited() {
+        GameSession first = open();
+        open();
+        try {
+            gameSessionService.openReplaySession();
+            fail("Expected the third replay to be refused");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("2 replays");
+        }
+
+        // a finished replay makes room
+        first.setState(VisualizerState.FINISHED);
+        GameSession third = open();
+        assertThat(gameSessionService.find(first.getId())).isNull();
+        assertThat(gameSessionService.find(third.getId())).isSameAs(third);
+        assertThat(gameSessionService.getReplaySessions()).hasSize(2);
+    }
+
+    @Test
+    public void testReplayOfStateLog() throws Exception {
+        String[] brokers = {"Alice", "Bob"};
+        GameSession session = embeddedService.runReplayGame(new ByteArrayInputStream(
+            stateLog("game-log", brokers, 50).getBytes(StandardCharsets.UTF_8)));
+        opened.add(session);
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (session.getState() != VisualizerState.FINISHED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(session.getState()).isEqualTo(VisualizerState.FINISHED);
+        assertThat(session.getCompetition().getName()).isEqualTo("game-log");
+        assertThat(session.getBrokerRepository().findByName("Alice")).isNotNull();
+        assertThat(session.getBrokerRepository().findByName("Bob")).isNotNull();
+        // no snapshot for the first timeslot update
+        List<TickSnapshot> snapshots = session.getTickSnapshotRepository().findAll();
+        assertThat(snapshots).hasSize(49);
+        for (TickSnapshot snapshot : snapshots) {
+            assertThat(snapshot.getTickValueBrokers()).hasSize(brokers.length);
+        }
+        assertThat(gameSessionService.getDefaultSession().getBrokerRepository().findByName("Alice")).isNull();
+    }
+
+    // A state log of a game with the given brokers, written the way the
+    // server writes it
+    private String stateLog(String game, String[] brokers, int timeslots) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("140:org.powertac.common.Competition::0::new::").append(game).append('\n');
+        long id = 601;
+        for (String broker : brokers) {
+            sb.append("141:org.powertac.common.Competition::0::addBroker::").append(broker).append('\n');
+            sb.append("142:org.powertac.common.Broker::").append(id++).append("::new::")
+                .append(broker).append('\n');
+        }
+        Instant time = new Instant(1230940800000L);
+        id = 400000000L;
+        for (int ts = 360; ts < 360 + timeslots; ts++) {
+            time = time.plus(3600000L);
+            sb.append(ts).append(":org.powertac.common.TimeService::null::setCurrentTime::")
+                .append(time.toString()).append('\n');
+            sb.append(ts).append(":org.powertac.common.msg.TimeslotUpdate::").append(id++)
+                .append("::new::").append(time.toString()).append("::").append(ts + 1)
+                .append("::").append(ts + 24).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private GameSession open() {
+        GameSession session = gameSessionService.openReplaySession();
+        opened.add(session);
+        return session;
+    }
+
+    private BlockingQueue<Message> subscribe(GameSession session) throws InterruptedException {
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        stompSession.subscribe(session.getTopic(), new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Message.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Message) payload);
+            }
+        });
+        Message init = received.poll(10, TimeUnit.SECONDS);
+        assertThat(init).isNotNull();
+        assertThat(init.getType()).isEqualTo(Message.Type.INIT);
+        return received;
+    }
+
+    // Feeds a game to the session's handler, the way a replay does
+    private Thread replay(GameSession session, String game, int brokers,
+            CountDownLatch start, List<Throwable> errors) {
+        Thread thread = new Thread(() -> {
+            try {
+                MessageDispatcher dispatcher = new MessageDispatcher(session);
+                Competition competition = Competition.newInstance(game);
+                for (int i = 0; i < brokers; i++) {
+                    competition.addBroker(game + "-" + i);
+                }
+                start.await();
+                dispatcher.handleNewObject(competition);
+                session.setState(VisualizerState.RUNNING);
+                for (int ts = 0; ts <= TIMESLOTS; ts++) {
+                    dispatcher.handleNewObject(new TimeslotUpdate(
+                        new Instant(3600000L * ts), ts + 1, ts + 24));
+                }
+                dispatcher.flush();
+                session.setState(VisualizerState.FINISHED);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertOwnGame(GameSession session, String game, int brokers,
+            BlockingQueue<Message> received) throws InterruptedException {
+        Set<Long> brokerIds = new HashSet<>();
+        for (Broker broker : session.getBrokerRepository().findAll()) {
+            assertThat(broker.getName()).startsWith(game + "-");
+            brokerIds.add(broker.getId());
+        }
+        assertThat(brokerIds).hasSize(brokers);
+        assertThat(session.getCompetition().getName()).isEqualTo(game);
+
+        List<TickSnapshot> snapshots = session.getTickSnapshotRepository().findAll();
+        assertThat(snapshots).hasSize(TIMESLOTS);
+        for (TickSnapshot snapshot : snapshots) {
+            assertThat(snapshot.getTickValueBrokers()).hasSize(brokers);
+            for (TickValueBroker value : snapshot.getTickValueBrokers()) {
+                assertThat(brokerIds).contains(value.getId());
+            }
+        }
+
+        // everything pushed on the session's topic belongs to its game
+        int pushed = 0;
+        Message message = received.poll(10, TimeUnit.SECONDS);
+        while (message != null) {
+            assertThat(message.getGame()).isEqualTo(game);
+            if (message.getType() == Message.Type.DATA) {
+                for (Map<String, Object> snapshot : (List<Map<String, Object>>) message.getMessage()) {
+                    for (Map<String, Object> value : (List<Map<String, Object>>) snapshot.get("tickValueBrokers")) {
+                        assertThat(brokerIds).contains(((Number) value.get("id")).longValue());
+                    }
+                    pushed++;
+                }
+            } else if (message.getType() == Message.Type.INFO
+                    && VisualizerState.FINISHED.name().equals(message.getMessage())) {
+                break;
+            }
+            message = received.poll(10, TimeUnit.SECONDS);
+        }
+        assertThat(pushed).isEqualTo(TIMESLOTS);
+    }
+
+}
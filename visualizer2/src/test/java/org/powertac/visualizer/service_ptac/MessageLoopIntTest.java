@@ -0,0 +1,190 @@
+package org.powertac.visualizer.service_ptac;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.common.CashPosition;
+import org.powertac.common.Competition;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.msg.CustomerBootstrapData;
+import org.powertac.common.msg.TimeslotUpdate;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.Broker;
+import org.powertac.visualizer.domain.TickSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the message loop of a game session, which replays a
+ * generated game through it and through the locked, reflective dispatch it
+ * replaced, and compares their throughput.
+ *
+ * @see MessageLoop
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class,
+    properties = "application.replay.max-concurrent=4")
+public class MessageLoopIntTest {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageLoopIntTest.class);
+
+    // two months of timeslots, as in a full game
+    private static final int TIMESLOTS = 1440;
+    private static final int BROKERS = 8;
+    private static final int CUSTOMERS = 100;
+
+    @Autowired
+    private GameSessionService gameSessionService;
+
+    private List<GameSession> opened = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (GameSession session : opened) {
+            gameSessionService.closeSession(session.getId());
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        // warm up both paths
+        replayLocked(open(), game("warm-up-locked", 100));
+        replayLooped(open(), game("warm-up-looped", 100));
+
+        List<Object> lockedGame = game("locked", TIMESLOTS);
+        GameSession locked = open();
+        long start = System.nanoTime();
+        replayLocked(locked, lockedGame);
+        double lockedRate = lockedGame.size() * 1e9 / (System.nanoTime() - start);
+
+        List<Object> loopedGame = game("looped", TIMESLOTS);
+        GameSession looped = open();
+        start = System.nanoTime();
+        replayLooped(looped, loopedGame);
+        double loopedRate = loopedGame.size() * 1e9 / (System.nanoTime() - start);
+
+        log.info("{} messages: {} per second locked, {} per second through the loop",
+            loopedGame.size(), Math.round(lockedRate), Math.round(loopedRate));
+
+        // both end up with the same game
+        List<TickSnapshot> lockedSnapshots = locked.getTickSnapshotRepository().findAll();
+        List<TickSnapshot> loopedSnapshots = looped.getTickSnapshotRepository().findAll();
+        assertThat(loopedSnapshots).hasSize(TIMESLOTS);
+        assertThat(lockedSnapshots).hasSize(TIMESLOTS);
+        for (int i = 0; i < TIMESLOTS; i++) {
+            assertThat(loopedSnapshots.get(i).getTimeSlot()).isEqualTo(lockedSnapshots.get(i).getTimeSlot());
+            assertThat(loopedSnapshots.get(i).getTickValueBrokers()).hasSize(BROKERS);
+        }
+        assertThat(cash(looped)).containsExactlyElementsOf(cash(locked));
+    }
+
+    @Test
+    public void testReadersGetCopies() throws Exception {
+        GameSession session = open();
+        replayLooped(session, game("copies", 10));
+
+        MessageHandler.Roster roster = session.getMessageHandler().getRoster();
+        assertThat(roster.getBrokers()).hasSize(BROKERS);
+        assertThat(roster.getCustomers()).hasSize(CUSTOMERS);
+        Broker copy = roster.getBrokers().get(0);
+        Broker broker = session.getBrokerRepository().findByName(copy.getName());
+        assertThat(copy).isNotSameAs(broker);
+        assertThat(copy.getId()).isEqualTo(broker.getId());
+        assertThat(copy.getCash()).isEqualTo(broker.getCash());
+
+        // what the handler does next does not show in a published roster
+        MessageDispatcher dispatcher = new MessageDispatcher(session);
+        dispatcher.handleNewObject(new CashPosition(
+            new org.powertac.common.Broker(copy.getName()), -1.0, 11));
+        dispatcher.flush();
+        assertThat(broker.getCash()).isEqualTo(-1.0);
+        assertThat(copy.getCash()).isNotEqualTo(-1.0);
+    }
+
+    private GameSession open() {
+        GameSession session = gameSessionService.openReplaySession();
+        opened.add(session);
+        return session;
+    }
+
+    private void replayLooped(GameSession session, List<Object> game) {
+        MessageDispatcher dispatcher = new MessageDispatcher(session);
+        for (Object message : game) {
+            dispatcher.handleNewObject(message);
+        }
+        dispatcher.flush();
+    }
+
+    // How messages were handled before the loop: a method lookup for every
+    // message, and the handler called under its lock
+    private void replayLocked(GameSession session, List<Object> game) throws Exception {
+        MessageHandler handler = session.getMessageHandler();
+        for (Object message : game) {
+            Method method;
+            try {
+                method = handler.getClass().getMethod("handleMessage", message.getClass());
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+            synchronized (handler) {
+                method.invoke(handler, message);
+            }
+        }
+    }
+
+    private List<Object> game(String name, int timeslots) {
+        List<Object> game = new ArrayList<>();
+        Competition competition = Competition.newInstance(name);
+        List<org.powertac.common.Broker> brokers = new ArrayList<>();
+        for (int i = 0; i < BROKERS; i++) {
+            competition.addBroker(name + "-" + i);
+            brokers.add(new org.powertac.common.Broker(name + "-" + i));
+        }
+        List<CustomerInfo> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            CustomerInfo customer = new CustomerInfo(name + "-customer-" + i, 100 + i)
+                .withPowerType(i % 5 == 0 ? PowerType.PRODUCTION : PowerType.CONSUMPTION);
+            competition.addCustomer(customer);
+            customers.add(customer);
+        }
+        game.add(competition);
+        for (CustomerInfo customer : customers) {
+            game.add(new CustomerBootstrapData(customer, customer.getPowerType(), new double[336]));
+        }
+
+        // the first update only initializes the front-end
+        game.add(new TimeslotUpdate(new Instant(0), 1, 24));
+        for (int ts = 1; ts <= timeslots; ts++) {
+            if (ts % 24 == 1) {
+                for (org.powertac.common.Broker broker : brokers) {
+                    game.add(new TariffSpecification(broker, PowerType.CONSUMPTION));
+                }
+            }
+            for (int i = 0; i < brokers.size(); i++) {
+                game.add(new CashPosition(brokers.get(i), ts * 100.0 + i, ts));
+            }
+            game.add(new TimeslotUpdate(new Instant(3600000L * ts), ts + 1, ts + 24));
+        }
+        return game;
+    }
+
+    private List<Double> cash(GameSession session) {
+        List<Double> cash = new ArrayList<>();
+        for (Broker broker : session.getBrokerRepository().findAll()) {
+            cash.add(broker.getCash());
+        }
+        return cash;
+    }
+}
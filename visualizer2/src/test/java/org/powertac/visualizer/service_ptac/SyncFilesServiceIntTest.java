@@ -0,0 +1,142 @@
+package org.powertac.visualizer.service_ptac;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.File;
+import org.powertac.visualizer.domain.User;
+import org.powertac.visualizer.domain.enumeration.FileType;
+import org.powertac.visualizer.repository.UserRepository;
+import org.powertac.visualizer.service.FileService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for indexing the files directory.
+ *
+ * @see SyncFilesService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class,
+    properties = { "application.sync.reconcile-interval=3600000", "spring.jpa.show-sql=false" })
+public class SyncFilesServiceIntTest {
+
+    private static final int FILES = 10000;
+    private static final String PREFIX = "sync-test-";
+
+    @Autowired
+    private SyncFilesService syncFilesService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private User user;
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        // the tree is laid out before the watcher looks at it
+        syncFilesService.stop();
+        user = userRepository.findOneByLogin("user").get();
+        directory = FileType.STATE.getDirectory(user).toPath();
+        for (int i = 0; i < FILES; i++) {
+            Files.createFile(directory.resolve(name(i)));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        syncFilesService.stop();
+        fileService.delete(indexed());
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(path -> path.getFileName().toString().startsWith(PREFIX))
+                    .collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+        syncFilesService.start();
+    }
+
+    @Test
+    public void testReconciledOnceThenIncrementally() throws Exception {
+        Counter reconciliations = metricRegistry.counter(
+            MetricRegistry.name(SyncFilesService.class, "reconciliations"));
+        Counter changes = metricRegistry.counter(
+            MetricRegistry.name(SyncFilesService.class, "indexed"));
+        long reconciled = reconciliations.getCount();
+        long changed = changes.getCount();
+
+        syncFilesService.start();
+        awaitIndexed(FILES);
+        assertThat(reconciliations.getCount()).isEqualTo(reconciled + 1);
+        assertThat(changes.getCount() - changed).isGreaterThanOrEqualTo(FILES);
+
+        changed = changes.getCount();
+        for (int i = FILES; i < FILES + 3; i++) {
+            Files.createFile(directory.resolve(name(i)));
+        }
+        Files.delete(directory.resolve(name(0)));
+        Files.delete(directory.resolve(name(1)));
+        // not a state log
+        Files.createFile(directory.resolve(PREFIX + "ignored.part"));
+
+        awaitIndexed(FILES + 1);
+        Set<String> names = indexed().stream().map(File::getName).collect(Collectors.toSet());
+        assertThat(names).contains(name(FILES), name(FILES + 2)).doesNotContain(name(0), name(1));
+        assertThat(changes.getCount() - changed).isEqualTo(5);
+        assertThat(reconciliations.getCount()).isEqualTo(reconciled + 1);
+    }
+
+    @Test
+    public void testFlushWithoutWatcherSyncsInFull() {
+        Counter reconciliations = metricRegistry.counter(
+            MetricRegistry.name(SyncFilesService.class, "reconciliations"));
+        long reconciled = reconciliations.getCount();
+
+        syncFilesService.flush();
+        assertThat(indexed()).hasSize(FILES);
+        assertThat(reconciliations.getCount()).isEqualTo(reconciled + 1);
+    }
+
+    private void awaitIndexed(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 120000;
+        while (indexed().size() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        // give a batch in progress the chance to show up as one too many
+        Thread.sleep(1000);
+        assertThat(indexed()).hasSize(count);
+    }
+
+    private List<File> indexed() {
+        return fileService.findByOwnerIsCurrentUser("user", FileType.STATE).stream()
+            .filter(file -> file.getName().startsWith(PREFIX))
+            .collect(Collectors.toList());
+    }
+
+    private static String name(int i) {
+        return String.format("%s%05d.state", PREFIX, i);
+    }
+}
@@ -0,0 +1,251 @@
+package org.powertac.visualizer.web.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.File;
+import org.powertac.visualizer.domain.User;
+import org.powertac.visualizer.domain.enumeration.FileType;
+import org.powertac.visualizer.repository.UserRepository;
+import org.powertac.visualizer.service.FileService;
+import org.powertac.visualizer.web.rest.errors.ExceptionTranslator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for downloading and uploading the content of files.
+ *
+ * @see FileResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class,
+    properties = "application.upload.max-size=" + FileTransferIntTest.MAX_SIZE)
+public class FileTransferIntTest {
+
+    static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final String LOG_NAME = "transfer-test.state";
+    private static final String UPLOAD_NAME = "transfer-upload.state";
+
+    @Autowired
+    private FileResource fileResource;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restMockMvc;
+
+    private User user;
+    private File log;
+    private byte[] content;
+    private List<java.io.File> created = new ArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        restMockMvc = MockMvcBuilders.standaloneSetup(fileResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter).build();
+        SecurityContextHolder.getContext().setAuthentication(
+            new UsernamePasswordAuthenticationToken("user", "user"));
+        user = userRepository.findOneByLogin("user").get();
+
+        content = new byte[3 * MAX_SIZE / 2];
+        new Random(42).nextBytes(content);
+        log = fileService.createFile(FileType.STATE, LOG_NAME, user);
+        java.io.File raw = FileType.STATE.getFile(user, LOG_NAME);
+        Files.write(raw.toPath(), content);
+        created.add(raw);
+        created.add(FileType.STATE.getFile(user, UPLOAD_NAME));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (File file : fileService.findByOwnerIsCurrentUser("user", FileType.STATE)) {
+            if (file.getName().equals(LOG_NAME) || file.getName().equals(UPLOAD_NAME)) {
+                fileService.delete(file.getId());
+            }
+        }
+        for (java.io.File raw : created) {
+            Files.deleteIfExists(raw.toPath());
+            Files.deleteIfExists(raw.toPath().resolveSibling(raw.getName() + ".part"));
+        }
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        MvcResult result = restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId()))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+            .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, content.length))
+            .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray()).isEqualTo(content);
+        assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).startsWith("\"");
+    }
+
+    @Test
+    public void testDownloadMissingFile() throws Exception {
+        restMockMvc.perform(get("/api/myfiles/state/{id}", Long.MAX_VALUE))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testDownloadRange() throws Exception {
+        MvcResult result = restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.RANGE, "bytes=1000-1999"))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1000-1999/" + content.length))
+            .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray())
+            .isEqualTo(Arrays.copyOfRange(content, 1000, 2000));
+
+        // resuming from an offset
+        result = restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.RANGE, "bytes=" + (content.length - 10) + "-"))
+            .andExpect(status().isPartialContent())
+            .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray())
+            .isEqualTo(Arrays.copyOfRange(content, content.length - 10, content.length));
+
+        restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.RANGE, "bytes=" + content.length + "-"))
+            .andExpect(status().isRequestedRangeNotSatisfiable())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + content.length));
+    }
+
+    @Test
+    public void testDownloadIsConditional() throws Exception {
+        String etag = restMockMvc.perform(head("/api/myfiles/state/{id}", log.getId()))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+
+        // a range of a file that has changed since is answered with all of it
+        restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.RANGE, "bytes=0-9")
+            .header(HttpHeaders.IF_RANGE, "\"stale\""))
+            .andExpect(status().isOk())
+            .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, content.length));
+    }
+
+    @Test
+    public void testDownloadUsesSendfile() throws Exception {
+        MvcResult result = restMockMvc.perform(get("/api/myfiles/state/{id}", log.getId())
+            .header(HttpHeaders.RANGE, "bytes=100-")
+            .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+            .andExpect(status().isPartialContent())
+            .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray()).isEmpty();
+        assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"))
+            .isEqualTo(FileType.STATE.getFile(user, LOG_NAME).getCanonicalPath());
+        assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(100L);
+        assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.end"))
+            .isEqualTo((long) content.length);
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        byte[] upload = Arrays.copyOf(content, MAX_SIZE);
+        String digest = FileResource.DIGEST_SHA256 + Base64.getEncoder().encodeToString(
+            MessageDigest.getInstance("SHA-256").digest(upload));
+
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", UPLOAD_NAME)
+            .param("shared", "false")
+            .param("overwrite", "false")
+            .header(FileResource.DIGEST, digest)
+            .content(upload))
+            .andExpect(status().isCreated())
+            .andExpect(header().string(FileResource.DIGEST, digest));
+        assertThat(Files.readAllBytes(FileType.STATE.getFile(user, UPLOAD_NAME).toPath()))
+            .isEqualTo(upload);
+
+        // without overwrite the existing file stays
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", UPLOAD_NAME)
+            .param("shared", "false")
+            .param("overwrite", "false")
+            .content(new byte[10]))
+            .andExpect(status().isUnprocessableEntity());
+
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", UPLOAD_NAME)
+            .param("shared", "false")
+            .param("overwrite", "true")
+            .content(new byte[10]))
+            .andExpect(status().isCreated());
+        assertThat(FileType.STATE.getFile(user, UPLOAD_NAME).length()).isEqualTo(10);
+        assertThat(fileService.findByOwnerIsCurrentUser("user", FileType.STATE).stream()
+            .filter(file -> file.getName().equals(UPLOAD_NAME)).count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUploadTooLarge() throws Exception {
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", UPLOAD_NAME)
+            .param("shared", "false")
+            .param("overwrite", "false")
+            .content(content))
+            .andExpect(status().isPayloadTooLarge());
+        assertThat(FileType.STATE.getFile(user, UPLOAD_NAME)).doesNotExist();
+        assertThat(FileType.STATE.getFile(user, UPLOAD_NAME + ".part")).doesNotExist();
+    }
+
+    @Test
+    public void testUploadWithBadDigest() throws Exception {
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", UPLOAD_NAME)
+            .param("shared", "false")
+            .param("overwrite", "false")
+            .header(FileResource.DIGEST, FileResource.DIGEST_SHA256 + "AAAA")
+            .content(new byte[100]))
+            .andExpect(status().isBadRequest());
+        assertThat(FileType.STATE.getFile(user, UPLOAD_NAME)).doesNotExist();
+        assertThat(FileType.STATE.getFile(user, UPLOAD_NAME + ".part")).doesNotExist();
+    }
+
+    @Test
+    public void testUploadWithBadName() throws Exception {
+        restMockMvc.perform(put("/api/myfiles/state/")
+            .param("name", "../escape.state")
+            .param("shared", "false")
+            .param("overwrite", "false")
+            .content(new byte[10]))
+            .andExpect(status().isBadRequest());
+    }
+}
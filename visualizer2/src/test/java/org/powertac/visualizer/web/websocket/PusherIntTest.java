@@ -0,0 +1,155 @@
+package org.powertac.visualizer.web.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powertac.visualizer.Visualizer2App;
+import org.powertac.visualizer.domain.TickSnapshot;
+import org.powertac.visualizer.service_ptac.GameSession;
+import org.powertac.visualizer.service_ptac.GameSessionService;
+import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.dto.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the websocket pushes, received by an in-process STOMP
+ * client.
+ *
+ * @see Pusher
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Visualizer2App.class,
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "application.push.frame-rate=4")
+public class PusherIntTest {
+
+    private static final int SNAPSHOTS = 100;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private GameSessionService gameSessionService;
+
+    private GameSession game;
+
+    private WebSocketStompClient stompClient;
+    private StompSession session;
+    private BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setup() throws Exception {
+        game = gameSessionService.getDefaultSession();
+        stompClient = new WebSocketStompClient(new SockJsClient(
+            Collections.singletonList(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        // the CONNECT frame must carry the CSRF token from the cookie, as
+        // the front-end's does
+        String csrfToken = UUID.randomUUID().toString();
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        handshakeHeaders.add(HttpHeaders.COOKIE, "XSRF-TOKEN=" + csrfToken);
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("X-XSRF-TOKEN", csrfToken);
+        session = stompClient.connect("ws://localhost:" + port + "/websocket/push",
+            handshakeHeaders, connectHeaders, new StompSessionHandlerAdapter() {})
+            .get(10, TimeUnit.SECONDS);
+        session.subscribe("/topic/push", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Message.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Message) payload);
+            }
+        });
+        Message init = received.poll(10, TimeUnit.SECONDS);
+        assertThat(init).isNotNull();
+        assertThat(init.getType()).isEqualTo(Message.Type.INIT);
+    }
+
+    @After
+    public void tearDown() {
+        session.disconnect();
+        stompClient.stop();
+    }
+
+    @Test
+    public void testFastSnapshotsAreCoalesced() throws Exception {
+        for (int ts = 1; ts <= SNAPSHOTS; ts++) {
+            game.pushTickSnapshot(new TickSnapshot(3600000L * ts, ts));
+        }
+
+        List<Integer> timeSlots = new ArrayList<>();
+        int frames = 0;
+        while (timeSlots.size() < SNAPSHOTS) {
+            Message frame = received.poll(10, TimeUnit.SECONDS);
+            assertThat(frame).isNotNull();
+            assertThat(frame.getType()).isEqualTo(Message.Type.DATA);
+            timeSlots.addAll(timeSlots(frame));
+            frames++;
+        }
+        // at 4 frames per second the loop above fits in one or two frames
+        assertThat(frames).isBetween(1, 5);
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            assertThat(timeSlots.get(i)).isEqualTo(i + 1);
+        }
+    }
+
+    @Test
+    public void testStatusFollowsPendingSnapshots() throws Exception {
+        for (int ts = 1; ts <= 3; ts++) {
+            game.pushTickSnapshot(new TickSnapshot(3600000L * ts, ts));
+        }
+        game.setState(VisualizerState.FINISHED);
+
+        List<Integer> timeSlots = new ArrayList<>();
+        Message message = received.poll(10, TimeUnit.SECONDS);
+        while (message != null && message.getType() == Message.Type.DATA) {
+            timeSlots.addAll(timeSlots(message));
+            message = received.poll(10, TimeUnit.SECONDS);
+        }
+        assertThat(timeSlots).containsExactly(1, 2, 3);
+        assertThat(message).isNotNull();
+        assertThat(message.getType()).isEqualTo(Message.Type.INFO);
+        assertThat(message.getMessage()).isEqualTo(VisualizerState.FINISHED.name());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Integer> timeSlots(Message frame) {
+        List<Integer> timeSlots = new ArrayList<>();
+        for (Map<String, Object> snapshot : (List<Map<String, Object>>) frame.getMessage()) {
+            timeSlots.add((Integer) snapshot.get("timeSlot"));
+        }
+        return timeSlots;
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.powertac.visualizer.web.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.visualizer.domain.Broker;
+import org.powertac.visualizer.domain.Customer;
+import org.powertac.visualizer.domain.RetailKPIHolder;
+import org.powertac.visualizer.domain.TickSnapshot;
+import org.powertac.visualizer.domain.WholesaleKPIHolder;
+import org.powertac.visualizer.repository_ptac.BrokerRepository;
+import org.powertac.visualizer.repository_ptac.CustomerRepository;
+import org.powertac.visualizer.repository_ptac.TariffRepository;
+import org.powertac.visualizer.repository_ptac.TickSnapshotRepository;
+import org.powertac.visualizer.service_ptac.CompetitionService;
+import org.powertac.visualizer.service_ptac.GameSessionService;
+import org.powertac.visualizer.service_ptac.VisualizerService.VisualizerState;
+import org.powertac.visualizer.web.dto.InitMessage;
+import org.powertac.visualizer.web.dto.Message;
+import org.powertac.visualizer.web.dto.SnapshotPage;
+import org.powertac.visualizer.web.dto.TickValueBroker;
+import org.powertac.visualizer.web.dto.TickValueCustomer;
+import org.powertac.visualizer.web.rest.SnapshotResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the init message sent to a client that connects late in a
+ * game, at time slot 1000.
+ *
+ * @see Pusher
+ */
+public class PusherUnitTest {
+
+    private final Logger log = LoggerFactory.getLogger(PusherUnitTest.class);
+
+    private static final int TIMESLOTS = 1000;
+    private static final int BROKERS = 10;
+    private static final int CUSTOMERS = 50;
+
+    private TickSnapshotRepository tickSnapshotRepository;
+    private CompetitionService competition;
+    private GameSessionService gameSessionService;
+    private Pusher pusher;
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setup() {
+        competition = new CompetitionService();
+        ReflectionTestUtils.setField(competition, "name", "game-1");
+
+        BrokerRepository brokerRepository = new BrokerRepository();
+        List<Broker> brokers = new ArrayList<>();
+        for (int i = 0; i < BROKERS; i++) {
+            brokers.add(brokerRepository.save(new Broker("broker-" + i)));
+        }
+        CustomerRepository customerRepository = new CustomerRepository();
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            CustomerInfo info = new CustomerInfo("customer-" + i, 100 + i)
+                .withPowerType(i % 5 == 0 ? PowerType.PRODUCTION : PowerType.CONSUMPTION);
+            customers.add(customerRepository.save(new Customer(info)));
+        }
+
+        Random random = new Random(42);
+        tickSnapshotRepository = new TickSnapshotRepository();
+        for (int ts = 1; ts <= TIMESLOTS; ts++) {
+            TickSnapshot snapshot = new TickSnapshot(3600000L * ts, ts);
+            for (Broker broker : brokers) {
+                broker.setCash(broker.getCash() + random.nextDouble() * 1000.0);
+                RetailKPIHolder retail = new RetailKPIHolder();
+                retail.produceConsume(random.nextDouble() * 100.0, random.nextDouble() * 10.0);
+                snapshot.getTickValueBrokers().add(
+                    new TickValueBroker(broker, retail, new WholesaleKPIHolder()));
+            }
+            for (Customer customer : customers) {
+                RetailKPIHolder retail = new RetailKPIHolder();
+                retail.produceConsume(random.nextDouble() * 100.0, random.nextDouble() * 10.0);
+                snapshot.getTickValueCustomers().add(
+                    new TickValueCustomer(customer.getId(), retail));
+            }
+            tickSnapshotRepository.save(snapshot);
+        }
+
+        pusher = new Pusher();
+        gameSessionService = new GameSessionService();
+        ReflectionTestUtils.setField(gameSessionService, "brokerRepository", brokerRepository);
+        ReflectionTestUtils.setField(gameSessionService, "customerRepository", customerRepository);
+        ReflectionTestUtils.setField(gameSessionService, "tariffRepository", new TariffRepository());
+        ReflectionTestUtils.setField(gameSessionService, "tickSnapshotRepository", tickSnapshotRepository);
+        ReflectionTestUtils.setField(gameSessionService, "currentCompetition", competition);
+        ReflectionTestUtils.setField(gameSessionService, "pusher", pusher);
+        gameSessionService.afterPropertiesSet();
+        ReflectionTestUtils.setField(pusher, "gameSessionService", gameSessionService);
+        // as the handler does at the end of a timeslot
+        gameSessionService.getDefaultSession().getMessageHandler().publishRoster();
+        // without pushing the status, as there is no broker
+        ReflectionTestUtils.setField(gameSessionService.getDefaultSession(), "state",
+            VisualizerState.RUNNING);
+    }
+
+    @Test
+    public void testInitMessageCarriesCursor() throws Exception {
+        Message message = pusher.pusherInit();
+        InitMessage init = (InitMessage) message.getMessage();
+        assertThat(message.getType()).isEqualTo(Message.Type.INIT);
+        assertThat(init.getSnapshotCount()).isEqualTo(TIMESLOTS);
+        assertThat(init.getBrokers()).hasSize(BROKERS);
+        assertThat(init.getCustomers()).hasSize(CUSTOMERS);
+    }
+
+    @Test
+    public void testInitMessageSize() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // warm up the serializers for both forms
+        for (int i = 0; i < 3; i++) {
+            mapper.writeValueAsBytes(pusher.pusherInit());
+            mapper.writeValueAsBytes(legacyInit());
+        }
+
+        long start = threads.getCurrentThreadCpuTime();
+        byte[] paged = mapper.writeValueAsBytes(pusher.pusherInit());
+        long pagedCpu = threads.getCurrentThreadCpuTime() - start;
+
+        start = threads.getCurrentThreadCpuTime();
+        byte[] legacy = mapper.writeValueAsBytes(legacyInit());
+        long legacyCpu = threads.getCurrentThreadCpuTime() - start;
+
+        log.info("Init message at time slot {}: {} bytes, {} us cpu; with full history: {} bytes, {} us cpu",
+            TIMESLOTS, paged.length, pagedCpu / 1000, legacy.length, legacyCpu / 1000);
+
+        assertThat(paged.length * 50L).isLessThan(legacy.length);
+
+        // a client that connects later gets the same size message
+        tickSnapshotRepository.save(new TickSnapshot(3600000L * (TIMESLOTS + 1), TIMESLOTS + 1));
+        byte[] later = mapper.writeValueAsBytes(pusher.pusherInit());
+        assertThat(later.length).isEqualTo(paged.length);
+    }
+
+    @Test
+    public void testPagesReturnHistoryInOrder() throws Exception {
+        SnapshotResource resource = new SnapshotResource(gameSessionService);
+        int count = ((InitMessage) pusher.pusherInit().getMessage()).getSnapshotCount();
+        List<TickSnapshot> history = new ArrayList<>();
+        int pages = 0;
+        while (history.size() < count) {
+            SnapshotPage page = resource.getSnapshots(history.size(), 300, null).getBody();
+            assertThat(page.getGame()).isEqualTo("game-1");
+            assertThat(page.getFrom()).isEqualTo(history.size());
+            assertThat(page.getSnapshots()).isNotEmpty();
+            history.addAll(page.getSnapshots());
+            pages++;
+        }
+        assertThat(pages).isEqualTo(4);
+        assertThat(history).containsExactlyElementsOf(tickSnapshotRepository.findAll());
+
+        SnapshotPage end = resource.getSnapshots(count, 300, null).getBody();
+        assertThat(end.getTotal()).isEqualTo(count);
+        assertThat(end.getSnapshots()).isEmpty();
+    }
+
+    @Test
+    public void testPageSizeIsLimited() {
+        SnapshotResource resource = new SnapshotResource(gameSessionService);
+        assertThat(resource.getSnapshots(0, 5000, null).getBody().getSnapshots())
+            .hasSize(SnapshotResource.MAX_PAGE_SIZE);
+        assertThat(resource.getSnapshots(-1, 10, null).getStatusCodeValue()).isEqualTo(400);
+        assertThat(resource.getSnapshots(0, 10, "no-such-session").getStatusCodeValue()).isEqualTo(404);
+    }
+
+    // The init message as it was before history paging
+    private Message legacyInit() {
+        InitMessage init = (InitMessage) pusher.pusherInit().getMessage();
+        List<Object> legacy = new ArrayList<>();
+        legacy.add(init);
+        legacy.add(tickSnapshotRepository.findAll());
+        return new Message(Message.Type.INIT, competition.getName(), legacy);
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.powertac.visualizer.web.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.visualizer.web.dto.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for two sessions of one topic, one of which stops taking
+ * messages for a while.
+ *
+ * @see SessionOutbox
+ */
+public class SessionOutboxUnitTest {
+
+    private static final int SNAPSHOTS = 1000;
+    private static final int LIMIT = 50;
+
+    private ScheduledExecutorService frameExecutor;
+    private ExecutorService sendExecutor;
+
+    @Before
+    public void setup() {
+        frameExecutor = Executors.newSingleThreadScheduledExecutor();
+        sendExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        frameExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowSessionDropsOnlyItsOwnFrames() throws Exception {
+        BlockingQueue<Message> fastReceived = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> slowReceived = new LinkedBlockingQueue<>();
+        CountDownLatch stalled = new CountDownLatch(1);
+        SessionOutbox fast = new SessionOutbox("fast", "sub-0", 0, LIMIT,
+            frameExecutor, sendExecutor, fastReceived::add);
+        SessionOutbox slow = new SessionOutbox("slow", "sub-0", 0, LIMIT,
+            frameExecutor, sendExecutor, message -> {
+                try {
+                    stalled.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowReceived.add(message);
+            });
+
+        // the fast session takes each snapshot before the next is produced,
+        // while the slow one is stuck on its first
+        List<Integer> fastSlots = new ArrayList<>();
+        for (int ts = 1; ts <= SNAPSHOTS; ts++) {
+            Message snapshot = new Message(Message.Type.DATA, "game-1", ts);
+            fast.submitSnapshot(snapshot);
+            slow.submitSnapshot(snapshot);
+            Message frame = fastReceived.poll(10, TimeUnit.SECONDS);
+            assertThat(frame).isNotNull();
+            fastSlots.addAll(timeSlots(frame));
+        }
+        Message status = new Message(Message.Type.INFO, "game-1", "FINISHED");
+        fast.send(status);
+        slow.send(status);
+
+        assertThat(receiveUntilInfo(fastReceived)).isEmpty();
+        assertThat(fastSlots).hasSize(SNAPSHOTS);
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            assertThat(fastSlots.get(i)).isEqualTo(i + 1);
+        }
+        assertThat(fast.getDroppedCount()).isZero();
+        assertThat(slowReceived).isEmpty();
+
+        // the slow session gets what was on its way, then the newest snapshots
+        stalled.countDown();
+        List<Integer> slowSlots = receiveUntilInfo(slowReceived);
+        assertThat(slowSlots.size()).isLessThanOrEqualTo(LIMIT + 1);
+        assertThat(slowSlots).isSorted();
+        assertThat(slowSlots.get(slowSlots.size() - 1)).isEqualTo(SNAPSHOTS);
+        assertThat(slow.getDroppedCount()).isEqualTo(SNAPSHOTS - slowSlots.size());
+    }
+
+    // Time slots of the DATA messages received before the INFO message
+    private List<Integer> receiveUntilInfo(BlockingQueue<Message> received) throws Exception {
+        List<Integer> timeSlots = new ArrayList<>();
+        Message message = received.poll(10, TimeUnit.SECONDS);
+        while (message != null && message.getType() == Message.Type.DATA) {
+            timeSlots.addAll(timeSlots(message));
+            message = received.poll(10, TimeUnit.SECONDS);
+        }
+        assertThat(message).isNotNull();
+        assertThat(message.getType()).isEqualTo(Message.Type.INFO);
+        return timeSlots;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Integer> timeSlots(Message frame) {
+        assertThat(frame.getType()).isEqualTo(Message.Type.DATA);
+        return (List<Integer>) frame.getMessage();
+    }
+
+}